@@ -21,6 +21,7 @@ package com.mucommander;
 import com.mucommander.auth.CredentialsManager;
 import com.mucommander.bookmark.BookmarkManager;
 import com.mucommander.conf.MuConfigurations;
+import com.mucommander.search.SearchIndex;
 import com.mucommander.shell.ShellHistoryManager;
 import com.mucommander.ui.action.ActionKeymapIO;
 import com.mucommander.ui.main.commandbar.CommandBarIO;
@@ -127,6 +128,10 @@ public class ShutdownHook extends Thread {
         // Saves the tool bar.
         try { ToolBarIO.saveToolBar(); }
         catch(Exception e) {LOGGER.warn("Failed to save toolbar", e); }
+
+        // Closes the file search index.
+        try { SearchIndex.closeInstance(); }
+        catch(Exception e) {LOGGER.warn("Failed to close search index", e); }
         
 
         // Shutdown tasks should only be performed once
@@ -19,6 +19,7 @@
 package com.mucommander;
 
 import java.awt.GraphicsEnvironment;
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.net.ConnectException;
@@ -39,7 +40,11 @@ import com.mucommander.bookmark.file.BookmarkProtocolProvider;
 import com.mucommander.command.Command;
 import com.mucommander.command.CommandManager;
 import com.mucommander.command.CommandType;
+import com.mucommander.commons.file.ArchiveEntryCache;
 import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileProtocols;
+import com.mucommander.commons.file.archiver.Archiver;
+import com.mucommander.commons.file.connection.ConnectionPool;
 import com.mucommander.commons.file.icon.impl.SwingFileIconProvider;
 import com.mucommander.commons.file.impl.ftp.FTPProtocolProvider;
 import com.mucommander.commons.file.impl.smb.SMBProtocolProvider;
@@ -87,6 +92,8 @@ public class TrolCommander {
 	public static boolean isLaunching = true;
 	/** Launch lock. */
 	private static final Object LAUNCH_LOCK = new Object();
+	/** Name of the folder where archive listings are cached, within the preferences folder. */
+	private static final String ARCHIVE_CACHE_FOLDER_NAME = "archive_cache";
 
 	// - Initialisation
 	// ---------------------------------------------------------
@@ -537,9 +544,26 @@ public class TrolCommander {
 			FTPProtocolProvider.setForceHiddenFilesListing(MuConfigurations.getPreferences()
 					.getVariable(MuPreference.LIST_HIDDEN_FILES, MuPreferences.DEFAULT_LIST_HIDDEN_FILES));
 
+			// Limit the number of simultaneous connections to a same FTP or SFTP server.
+			ConnectionPool.setMaxConnectionsPerRealm(FileProtocols.FTP, MuConfigurations.getPreferences().getVariable(
+					MuPreference.FTP_MAX_CONNECTIONS, MuPreferences.DEFAULT_FTP_MAX_CONNECTIONS));
+			ConnectionPool.setMaxConnectionsPerRealm(FileProtocols.SFTP, MuConfigurations.getPreferences().getVariable(
+					MuPreference.SFTP_MAX_CONNECTIONS, MuPreferences.DEFAULT_SFTP_MAX_CONNECTIONS));
+
 			// Use CredentialsManager for file URL authentication
 			FileFactory.setDefaultAuthenticator(CredentialsManager.getAuthenticator());
 
+			// Cache the listings of archives which have to be read entirely to be listed, such as compressed TAR
+			// archives, in the preferences folder.
+			ArchiveEntryCache.setMaxSize(MuConfigurations.getPreferences().getVariable(
+					MuPreference.ARCHIVE_ENTRY_CACHE_SIZE, MuPreferences.DEFAULT_ARCHIVE_ENTRY_CACHE_SIZE));
+			ArchiveEntryCache.setCacheFolder(new File(PlatformManager.getPreferencesFolder().getAbsolutePath(),
+					ARCHIVE_CACHE_FOLDER_NAME));
+
+			// Compress Zip and Gzip archives using several threads.
+			Archiver.setCompressionThreads(MuConfigurations.getPreferences().getVariable(
+					MuPreference.ARCHIVE_COMPRESSION_THREADS, MuPreferences.DEFAULT_ARCHIVE_COMPRESSION_THREADS));
+
 			// Register the application-specific 'bookmark' protocol.
 			FileFactory.registerProtocol(BookmarkProtocolProvider.BOOKMARK,
 					new com.mucommander.bookmark.file.BookmarkProtocolProvider());
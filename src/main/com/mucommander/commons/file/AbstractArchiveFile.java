@@ -26,9 +26,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.tree.DefaultMutableTreeNode;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 import java.util.WeakHashMap;
 
@@ -115,16 +120,38 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         archiveEntryFiles = new WeakHashMap<>();
 
         long start = System.currentTimeMillis();
+        boolean cacheEntries = isEntryCacheable() && ArchiveEntryCache.isEnabled();
+        if(cacheEntries) {
+            List<ArchiveEntry> cachedEntries = ArchiveEntryCache.getEntries(this);
+            if(cachedEntries!=null) {
+                for(ArchiveEntry entry : cachedEntries)
+                    treeRoot.addArchiveEntry(entry);
+
+                LOGGER.info("entries tree created from cache in "+(System.currentTimeMillis()-start)+" ms");
+
+                this.entryTreeRoot = treeRoot;
+                declareEntriesTreeUpToDate();
+                return;
+            }
+        }
+
+        List<ArchiveEntry> entriesToCache = cacheEntries?new ArrayList<>():null;
         ArchiveEntryIterator entries = getEntryIterator();
         try {
             ArchiveEntry entry;
-            while((entry=entries.nextEntry())!=null)
+            while((entry=entries.nextEntry())!=null) {
                 treeRoot.addArchiveEntry(entry);
+                if(entriesToCache!=null)
+                    entriesToCache.add(entry);
+            }
 
             LOGGER.info("entries tree created in "+(System.currentTimeMillis()-start)+" ms");
 
             this.entryTreeRoot = treeRoot;
             declareEntriesTreeUpToDate();
+
+            if(entriesToCache!=null)
+                ArchiveEntryCache.putEntries(this, entriesToCache);
         }
         finally {
             try { entries.close(); }
@@ -134,6 +161,44 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         }
     }
 
+    /**
+     * Returns <code>true</code> if the entries of this archive can be stored in the {@link ArchiveEntryCache}, so that
+     * the entries tree can be created again without reading the archive. This method returns <code>false</code>;
+     * read-only formats which are expensive to list should override it, along with
+     * {@link #writeEntryObject(ArchiveEntry, DataOutput)} and {@link #readEntryObject(ArchiveEntry, DataInput)} if
+     * reading an entry requires its {@link ArchiveEntry#getEntryObject() entry object}.
+     *
+     * @return <code>true</code> if the entries of this archive can be cached
+     */
+    protected boolean isEntryCacheable() {
+        return false;
+    }
+
+    /**
+     * Writes the format-specific information of the given entry's {@link ArchiveEntry#getEntryObject() entry object}
+     * that is needed to read the entry, when entries are stored in the {@link ArchiveEntryCache}. This method writes
+     * nothing.
+     *
+     * @param entry an entry of this archive
+     * @param out the output to write to
+     * @throws IOException if an I/O error occurred
+     */
+    protected void writeEntryObject(ArchiveEntry entry, DataOutput out) throws IOException {
+    }
+
+    /**
+     * Reads the information written by {@link #writeEntryObject(ArchiveEntry, DataOutput)} and returns the entry
+     * object to set on the given cached entry. This method reads nothing and returns <code>null</code>.
+     *
+     * @param entry a cached entry of this archive, whose other attributes are set
+     * @param in the input to read from
+     * @return the entry object of the entry, <code>null</code> for none
+     * @throws IOException if an I/O error occurred
+     */
+    protected Object readEntryObject(ArchiveEntry entry, DataInput in) throws IOException {
+        return null;
+    }
+
     /**
      * Checks if the entries tree exists and if this file hasn't been modified since the tree was last created.
      * If any of those 2 conditions isn't met, the entries tree is (re)created.
@@ -184,10 +249,8 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         checkEntriesTree();
         DefaultMutableTreeNode entryNode = entryTreeRoot.findEntryNode(entry.getPath());
 
-        if(entryNode!=null) {
-            DefaultMutableTreeNode parentNode = (DefaultMutableTreeNode)entryNode.getParent();
-            parentNode.remove(entryNode);
-        }
+        if(entryNode!=null && entryNode!=entryTreeRoot)
+            entryTreeRoot.removeEntryNode(entryNode);
     }
 
     /**
@@ -422,6 +485,80 @@ public abstract class AbstractArchiveFile extends ProxyFile {
      */
     public abstract InputStream getEntryInputStream(ArchiveEntry entry, ArchiveEntryIterator entryIterator) throws IOException, UnsupportedFileOperationException;
 
+    /**
+     * Returns <code>true</code> if entries of this archive can be read by several threads at the same time, each entry
+     * being decompressed independently of the others from a stream returned by
+     * {@link #getEntryInputStream(ArchiveEntry, ArchiveEntryIterator)} without an iterator. This is not the case of
+     * archives which have to be traversed sequentially to reach an entry, like TAR or GZip archives.
+     *
+     * <p>This implementation returns <code>false</code>, it should be overridden by archive formats that support
+     * random access to entries.</p>
+     *
+     * @return <code>true</code> if entries of this archive can be read by several threads at the same time
+     */
+    public boolean isConcurrentEntryReadSupported() {
+        return false;
+    }
+
+    /**
+     * Extracts the given entries in a single pass over the archive, passing the contents of each of them to the
+     * specified handler. Entries are handled in the order in which they are stored in the archive, which is not
+     * necessarily the order of the given list, and directory entries are ignored.
+     *
+     * <p>This implementation traverses the archive with {@link #getEntryIterator()} and reads the requested entries
+     * with {@link #getEntryInputStream(ArchiveEntry, ArchiveEntryIterator)}, the entries passed to the handler being
+     * those returned by the iterator. It should be overridden by archive formats that are able to extract a set of
+     * entries more efficiently, for instance formats that compress several entries as a single block, in which case
+     * {@link #isBatchExtractionSupported()} must be overridden as well.</p>
+     *
+     * @param entries the entries to extract
+     * @param handler the handler that receives the contents of the entries
+     * @throws IOException if an error occurred while reading the archive or if the handler threw an exception
+     * @throws UnsupportedFileOperationException if {@link FileOperation#READ_FILE} operations are not supported by the
+     * underlying file protocol.
+     */
+    public void extractEntries(List<ArchiveEntry> entries, ArchiveEntryHandler handler) throws IOException, UnsupportedFileOperationException {
+        Set<String> paths = new HashSet<>();
+        for (ArchiveEntry entry : entries) {
+            if (!entry.isDirectory())
+                paths.add(entry.getPath());
+        }
+
+        ArchiveEntryIterator iterator = getEntryIterator();
+        try {
+            ArchiveEntry entry;
+            while (!paths.isEmpty() && (entry = iterator.nextEntry()) != null) {
+                if (entry.isDirectory() || !paths.remove(entry.getPath()))
+                    continue;
+
+                try (InputStream in = getEntryInputStream(entry, iterator)) {
+                    if (!handler.handleEntry(entry, in))
+                        return;
+                }
+            }
+        }
+        finally {
+            try { iterator.close(); }
+            catch(IOException e) {
+                // Not much we can do about it
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if {@link #extractEntries(List, ArchiveEntryHandler)} is substantially faster than
+     * reading entries one by one, for instance because entries are compressed together as a single block that would
+     * otherwise be decompressed once for every entry.
+     *
+     * <p>This implementation returns <code>false</code>.</p>
+     *
+     * @return <code>true</code> if extracting a set of entries at once is substantially faster than reading them
+     * one by one
+     */
+    public boolean isBatchExtractionSupported() {
+        return false;
+    }
+
     /**
      * Returns <code>true</code> if this archive file is writable, i.e. is capable of adding and deleting entries from
      * the underlying archive file.
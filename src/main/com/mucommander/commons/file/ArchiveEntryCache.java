@@ -0,0 +1,313 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.io.ByteUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <code>ArchiveEntryCache</code> stores the list of entries of archives on disk, so that the entries tree of an archive
+ * can be created without reading the archive again, even after a restart. This matters for archives that need to be
+ * read entirely to be listed, such as compressed TAR archives.
+ *
+ * <p>Only the archives whose {@link AbstractArchiveFile#isEntryCacheable()} method returns <code>true</code> are
+ * cached. The listing of an archive is stored in a file of the cache folder named after the archive's URL, and is
+ * valid as long as the archive's size and date are unchanged. Listings are stored in a compact binary format: paths
+ * are prefix-compressed and the whole file is deflated.</p>
+ *
+ * <p>The total size of the cache folder is kept below a budget by deleting the least recently used listings. The cache
+ * is disabled until a cache folder is set with {@link #setCacheFolder(File)}.</p>
+ *
+ * @see AbstractArchiveFile#createEntriesTree()
+ */
+public class ArchiveEntryCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveEntryCache.class);
+
+    /** Default maximum size of the cache folder, in bytes */
+    public final static long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    /** Identifies listing files, and their format version */
+    private final static int MAGIC = 0x6D754543;
+    private final static int FORMAT_VERSION = 1;
+
+    /** Extension of listing files */
+    private final static String EXTENSION = ".entries";
+
+    private final static int DIRECTORY_FLAG = 1;
+    private final static int OWNER_FLAG = 2;
+    private final static int GROUP_FLAG = 4;
+
+    /** Folder where listings are stored, null if the cache is disabled */
+    private static File cacheFolder;
+
+    /** Maximum size of the cache folder, in bytes */
+    private static long maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Sets the folder where archive listings are stored, <code>null</code> to disable the cache. The folder is created
+     * when a listing is stored, if it doesn't exist.
+     *
+     * @param folder the folder where archive listings are stored, <code>null</code> to disable the cache
+     */
+    public static synchronized void setCacheFolder(File folder) {
+        cacheFolder = folder;
+    }
+
+    /**
+     * Returns the folder where archive listings are stored, <code>null</code> if the cache is disabled.
+     *
+     * @return the folder where archive listings are stored, <code>null</code> if the cache is disabled
+     */
+    public static synchronized File getCacheFolder() {
+        return cacheFolder;
+    }
+
+    /**
+     * Sets the maximum total size of the listings, in bytes. <code>0</code> disables the cache.
+     *
+     * @param size maximum total size of the listings, in bytes
+     */
+    public static synchronized void setMaxSize(long size) {
+        maxSize = size;
+    }
+
+    /**
+     * Returns the maximum total size of the listings, in bytes.
+     *
+     * @return the maximum total size of the listings, in bytes
+     */
+    public static synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns <code>true</code> if archive listings are cached.
+     *
+     * @return <code>true</code> if archive listings are cached
+     */
+    public static synchronized boolean isEnabled() {
+        return cacheFolder!=null && maxSize>0;
+    }
+
+    /**
+     * Deletes all the listings stored in the cache.
+     */
+    public static synchronized void clear() {
+        for(File file : listCacheFiles()) {
+            if(!file.delete())
+                LOGGER.debug("Could not delete "+file);
+        }
+    }
+
+
+    /**
+     * Returns the cached entries of the given archive, <code>null</code> if the archive isn't cached or has changed
+     * since it was cached.
+     *
+     * @param archiveFile the archive whose entries to return
+     * @return the cached entries of the archive, <code>null</code> if they are not available
+     */
+    static List<ArchiveEntry> getEntries(AbstractArchiveFile archiveFile) {
+        File cacheFile = getCacheFile(archiveFile);
+        if(cacheFile==null || !cacheFile.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(cacheFile))))) {
+            if(in.readInt()!=MAGIC || in.readInt()!=FORMAT_VERSION)
+                return null;
+
+            if(!in.readUTF().equals(getKey(archiveFile)) || in.readLong()!=archiveFile.getSize() || in.readLong()!=archiveFile.getDate())
+                return null;
+
+            int nbEntries = in.readInt();
+            List<ArchiveEntry> entries = new ArrayList<>(nbEntries);
+            String path = "";
+            for(int i=0; i<nbEntries; i++) {
+                path = path.substring(0, in.readUnsignedShort()) + in.readUTF();
+                int flags = in.readUnsignedByte();
+
+                ArchiveEntry entry = new ArchiveEntry(path, (flags&DIRECTORY_FLAG)!=0, in.readLong(), in.readLong(), true);
+                entry.setPermissions(new SimpleFilePermissions(in.readUnsignedShort(), in.readUnsignedShort()));
+                if((flags&OWNER_FLAG)!=0)
+                    entry.setOwner(in.readUTF());
+                if((flags&GROUP_FLAG)!=0)
+                    entry.setGroup(in.readUTF());
+                entry.setEntryObject(archiveFile.readEntryObject(entry, in));
+
+                entries.add(entry);
+            }
+
+            // Mark the listing as recently used
+            cacheFile.setLastModified(System.currentTimeMillis());
+
+            return entries;
+        }
+        catch(IOException | RuntimeException e) {
+            LOGGER.info("Could not read cached entries of "+archiveFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the entries of the given archive in the cache, and deletes the least recently used listings if the
+     * cache has grown too large. Errors are logged and otherwise ignored.
+     *
+     * @param archiveFile the archive whose entries to store
+     * @param entries all the entries of the archive
+     */
+    static synchronized void putEntries(AbstractArchiveFile archiveFile, List<ArchiveEntry> entries) {
+        File cacheFile = getCacheFile(archiveFile);
+        if(cacheFile==null)
+            return;
+
+        File folder = cacheFile.getParentFile();
+        if(!folder.isDirectory() && !folder.mkdirs()) {
+            LOGGER.info("Could not create archive cache folder "+folder);
+            return;
+        }
+
+        // Write to a temporary file first, so that incomplete listings are never read
+        File tempFile = new File(folder, cacheFile.getName()+".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tempFile), new Deflater(Deflater.BEST_SPEED), 8192)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(getKey(archiveFile));
+                out.writeLong(archiveFile.getSize());
+                out.writeLong(archiveFile.getDate());
+
+                out.writeInt(entries.size());
+                String previousPath = "";
+                for(ArchiveEntry entry : entries) {
+                    String path = entry.getPath();
+                    int prefixLength = getCommonPrefixLength(previousPath, path);
+                    out.writeShort(prefixLength);
+                    out.writeUTF(path.substring(prefixLength));
+                    previousPath = path;
+
+                    String owner = entry.getOwner();
+                    String group = entry.getGroup();
+                    out.writeByte((entry.isDirectory()?DIRECTORY_FLAG:0) | (owner==null?0:OWNER_FLAG) | (group==null?0:GROUP_FLAG));
+                    out.writeLong(entry.getDate());
+                    out.writeLong(entry.getSize());
+                    FilePermissions permissions = entry.getPermissions();
+                    out.writeShort(permissions.getIntValue());
+                    out.writeShort(permissions.getMask().getIntValue());
+                    if(owner!=null)
+                        out.writeUTF(owner);
+                    if(group!=null)
+                        out.writeUTF(group);
+                    archiveFile.writeEntryObject(entry, out);
+                }
+            }
+
+            if(!(tempFile.renameTo(cacheFile) || (cacheFile.delete() && tempFile.renameTo(cacheFile))))
+                throw new IOException("Could not rename "+tempFile+" to "+cacheFile);
+        }
+        catch(IOException | RuntimeException e) {
+            LOGGER.info("Could not cache entries of "+archiveFile, e);
+            tempFile.delete();
+            return;
+        }
+
+        evictListings();
+    }
+
+    /**
+     * Deletes the least recently used listings until the size of the cache fits in the budget.
+     */
+    private static void evictListings() {
+        File files[] = listCacheFiles();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+
+        long totalSize = 0;
+        for(File file : files) {
+            totalSize += file.length();
+            if(totalSize>maxSize) {
+                LOGGER.debug("Evicting "+file);
+                if(!file.delete())
+                    LOGGER.debug("Could not delete "+file);
+            }
+        }
+    }
+
+    private static File[] listCacheFiles() {
+        File folder = cacheFolder;
+        File files[] = folder==null ? null : folder.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        return files==null ? new File[0] : files;
+    }
+
+    /**
+     * Returns the file where the listing of the given archive is stored, <code>null</code> if the cache is disabled.
+     * The file is named after a hash of the archive's URL, so that a listing is replaced when the archive changes.
+     */
+    private static File getCacheFile(AbstractArchiveFile archiveFile) {
+        File folder;
+        synchronized(ArchiveEntryCache.class) {
+            if(!isEnabled())
+                return null;
+            folder = cacheFolder;
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return new File(folder, ByteUtils.toHexString(digest.digest(getKey(archiveFile).getBytes(StandardCharsets.UTF_8)))+EXTENSION);
+        }
+        catch(NoSuchAlgorithmException e) {
+            // Should never happen, SHA-1 is available on all Java platforms
+            return null;
+        }
+    }
+
+    /**
+     * Returns the key identifying the given archive: its URL, without credentials.
+     */
+    private static String getKey(AbstractArchiveFile archiveFile) {
+        return archiveFile.getURL().toString(false);
+    }
+
+    private static int getCommonPrefixLength(String s1, String s2) {
+        int max = Math.min(Math.min(s1.length(), s2.length()), 0xFFFF);
+        int i = 0;
+        while(i<max && s1.charAt(i)==s2.charAt(i))
+            i++;
+        return i;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This interface receives the contents of the entries extracted by
+ * {@link AbstractArchiveFile#extractEntries(java.util.List, ArchiveEntryHandler)}.
+ *
+ * @see AbstractArchiveFile#extractEntries(java.util.List, ArchiveEntryHandler)
+ */
+public interface ArchiveEntryHandler {
+
+    /**
+     * Called for each extracted entry, in the order in which entries are stored in the archive. The given stream
+     * does not need to be read entirely nor closed: the rest of the entry is skipped when this method returns.
+     *
+     * @param entry the entry being extracted
+     * @param in the contents of the entry, valid only until this method returns
+     * @return <code>true</code> to continue with the next entry, <code>false</code> to stop the extraction
+     * @throws IOException if an error occurred while processing the entry; this stops the extraction
+     */
+    boolean handleEntry(ArchiveEntry entry, InputStream in) throws IOException;
+}
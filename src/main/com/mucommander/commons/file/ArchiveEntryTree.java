@@ -19,85 +19,118 @@
 
 package com.mucommander.commons.file;
 
-import com.mucommander.commons.file.util.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.tree.DefaultMutableTreeNode;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Stores archive entries and organizes them in a tree structure that maps entries in the way they are organized
  * inside the archive. An instance of <code>ArchiveEntryTree</code> also acts as the root node: all entry nodes
  * are children of it (direct or indirect).
  *
+ * <p>In addition to the tree structure, nodes are indexed by path so that looking up an entry, or the parent of an
+ * entry being added, takes constant time regardless of the number of entries in the folder. Paths are indexed
+ * without their trailing slash, as path comparisons are 'trailing slash insensitive'. Nodes must be removed with
+ * {@link #removeEntryNode(DefaultMutableTreeNode)} for the index to remain consistent with the tree.</p>
+ *
  * @author Maxence Bernard
  */
 public class ArchiveEntryTree extends DefaultMutableTreeNode {
     private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveEntryTree.class);
 
+    /** Entry nodes by path, without trailing slash */
+    private final Map<String, DefaultMutableTreeNode> nodesByPath = new HashMap<>();
+
     /**
      * Creates a new empty tree.
      */
     public ArchiveEntryTree() {
     }
 
+    /**
+     * Returns the given path without its trailing slash, if it has one.
+     */
+    private static String getPathKey(String path) {
+        int len = path.length();
+        return len>0 && path.charAt(len-1)=='/' ? path.substring(0, len-1) : path;
+    }
+
+    /**
+     * Returns the node of the directory with the given path key, creating it and its parent nodes as necessary.
+     *
+     * @param pathKey path of the directory, without trailing slash, empty for the root
+     * @param date date of the directory nodes that have to be created
+     * @return the node of the directory
+     */
+    private DefaultMutableTreeNode getDirectoryNode(String pathKey, long date) {
+        if(pathKey.isEmpty())
+            return this;
+
+        DefaultMutableTreeNode node = nodesByPath.get(pathKey);
+        if(node==null) {
+            LOGGER.trace("Creating node for "+pathKey);
+            node = new DefaultMutableTreeNode(new ArchiveEntry(pathKey+"/", true, date, 0, true), true);
+            getDirectoryNode(getParentPathKey(pathKey), date).add(node);
+            nodesByPath.put(pathKey, node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Returns the path of the given path's parent, without trailing slash, empty for the root.
+     */
+    private static String getParentPathKey(String pathKey) {
+        int lastSlash = pathKey.lastIndexOf('/');
+        return lastSlash<=0 ? "" : pathKey.substring(0, lastSlash);
+    }
+
     /**
      * Adds the given entry to the archive tree, creating parent nodes as necessary.
      *
      * @param entry the entry to add to the tree
      */
     public void addArchiveEntry(ArchiveEntry entry) {
-        String entryPath = entry.getPath();
-        int entryDepth = entry.getDepth();
-        int slashPos = 0;
-        DefaultMutableTreeNode node = this;
-        for(int d=1; d<=entryDepth; d++) {
-            if(d==entryDepth && !entry.isDirectory()) {
-                // create a leaf node for the entry
-                entry.setExists(true);      // the entry has to exist
-                node.add(new DefaultMutableTreeNode(entry, true));
-                break;
+        String pathKey = getPathKey(entry.getPath());
+        if(pathKey.isEmpty())
+            return;
+
+        if(entry.isDirectory()) {
+            DefaultMutableTreeNode node = nodesByPath.get(pathKey);
+            if(node!=null) {
+                LOGGER.trace("Replacing entry for node "+node);
+                // Replace existing entry
+                node.setUserObject(entry);
+                return;
             }
+        }
 
-            String subPath = d==entryDepth?entryPath:entryPath.substring(0, (slashPos=entryPath.indexOf('/', slashPos)+1));
-
-            int nbChildren = node.getChildCount();
-            DefaultMutableTreeNode childNode = null;
-            boolean matchFound = false;
-            for(int c=0; c<nbChildren; c++) {
-                childNode = (DefaultMutableTreeNode)node.getChildAt(c);
-                // Path comparison is 'trailing slash insensitive'
-                if(PathUtils.pathEquals(((ArchiveEntry)childNode.getUserObject()).getPath(), subPath, "/")) {
-                    // Found a match
-                    matchFound = true;
-                    break;
-                }
-            }
+        // create a node for the entry
+        entry.setExists(true);      // the entry has to exist
+        DefaultMutableTreeNode node = new DefaultMutableTreeNode(entry, true);
+        getDirectoryNode(getParentPathKey(pathKey), entry.getDate()).add(node);
 
-            if(matchFound) {
-                if(d==entryDepth) {
-                    LOGGER.trace("Replacing entry for node "+childNode);
-                    // Replace existing entry
-                    childNode.setUserObject(entry);
-                }
-                else {
-                    node = childNode;
-                }
-            }
-            else {
-                if(d==entryDepth) {
-                    // create a leaf node for the entry
-                    entry.setExists(true);      // the entry has to exist
-                    node.add(new DefaultMutableTreeNode(entry, true));
-                }
-                else {
-                    LOGGER.trace("Creating node for "+subPath);
-                    childNode = new DefaultMutableTreeNode(new ArchiveEntry(subPath, true, entry.getDate(), 0, true), true);
-                    node.add(childNode);
-                    node = childNode;
-                }
-            }
+        // In case of duplicate file entries, the first one is the one found by path
+        nodesByPath.putIfAbsent(pathKey, node);
+    }
+
+    /**
+     * Removes the given node and its children from this tree.
+     *
+     * @param entryNode a node of this tree
+     */
+    public void removeEntryNode(DefaultMutableTreeNode entryNode) {
+        Enumeration<?> nodes = entryNode.depthFirstEnumeration();
+        while(nodes.hasMoreElements()) {
+            DefaultMutableTreeNode node = (DefaultMutableTreeNode)nodes.nextElement();
+            nodesByPath.remove(getPathKey(((ArchiveEntry)node.getUserObject()).getPath()), node);
         }
+
+        ((DefaultMutableTreeNode)entryNode.getParent()).remove(entryNode);
     }
 
 
@@ -113,31 +146,10 @@ public class ArchiveEntryTree extends DefaultMutableTreeNode {
      * @return the node that corresponds to the specified entry path
      */
     public DefaultMutableTreeNode findEntryNode(String entryPath) {
-        int entryDepth = ArchiveEntry.getDepth(entryPath);
-        int slashPos = 0;
-        DefaultMutableTreeNode currentNode = this;
-        for(int d=1; d<=entryDepth; d++) {
-            String subPath = d==entryDepth?entryPath:entryPath.substring(0, (slashPos=entryPath.indexOf('/', slashPos)+1));
-
-            int nbChildren = currentNode.getChildCount();
-            DefaultMutableTreeNode matchNode = null;
-            for(int c=0; c<nbChildren; c++) {
-                DefaultMutableTreeNode childNode = (DefaultMutableTreeNode)currentNode.getChildAt(c);
-
-                // Path comparison is 'trailing slash insensitive'
-                if(PathUtils.pathEquals(((ArchiveEntry)childNode.getUserObject()).getPath(), subPath, "/")) {
-                    // Found the node, let's return it
-                    matchNode = childNode;
-                    break;
-                }
-            }
-
-            if(matchNode==null)
-                return null;    // No node maching the provided path, return null
-
-            currentNode = matchNode;
-        }
+        String pathKey = getPathKey(entryPath);
+        if(pathKey.isEmpty())
+            return this;
 
-        return currentNode;
+        return nodesByPath.get(pathKey);
     }
 }
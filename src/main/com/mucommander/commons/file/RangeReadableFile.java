@@ -0,0 +1,49 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This interface is implemented by remote files which can be read by byte ranges, allowing several ranges of a file to
+ * be downloaded concurrently.
+ *
+ * @see com.mucommander.commons.io.SegmentedInputStream
+ */
+public interface RangeReadableFile {
+
+    /**
+     * Returns <code>true</code> if {@link #getRangeInputStream(long, long)} can be used to read this file. This may
+     * require the file's attributes to be resolved.
+     *
+     * @return <code>true</code> if this file can be read by byte ranges
+     */
+    boolean isRangeReadSupported();
+
+    /**
+     * Returns a stream reading the given range of this file.
+     *
+     * @param offset offset of the first byte to read
+     * @param length number of bytes to read
+     * @return a stream reading the given range of this file
+     * @throws IOException if the stream could not be opened, or if the server does not honor the range
+     */
+    InputStream getRangeInputStream(long offset, long length) throws IOException;
+}
@@ -23,6 +23,7 @@ import com.mucommander.commons.file.FileAttributes;
 import com.mucommander.commons.file.FileOperation;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
 import com.mucommander.commons.io.BufferedRandomOutputStream;
+import com.mucommander.commons.io.ParallelGZIPOutputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
 import org.apache.hadoop.io.compress.bzip2.CBZip2OutputStream;
 
@@ -139,6 +140,9 @@ public abstract class Archiver {
     protected String formatName;
     /** Support output stream for archiving files */
     protected boolean supporStream;
+
+    /** Number of threads compressing Zip and Gzip data, 1 to compress on the archiving thread */
+    private static int compressionThreads = 1;
 	
     /**
      * Creates a new Archiver.
@@ -304,7 +308,7 @@ public abstract class Archiver {
                 archiver = new ZipArchiver(out);
                 break;
             case GZ_FORMAT:
-                archiver = new SingleFileArchiver(new GZIPOutputStream(out));
+                archiver = new SingleFileArchiver(createGzipOutputStream(out));
                 break;
             case BZ2_FORMAT:
                 archiver = new SingleFileArchiver(createBzip2OutputStream(out));
@@ -313,7 +317,7 @@ public abstract class Archiver {
                 archiver = new TarArchiver(out);
                 break;
             case TAR_GZ_FORMAT:
-                archiver = new TarArchiver(new GZIPOutputStream(out));
+                archiver = new TarArchiver(createGzipOutputStream(out));
                 break;
             case TAR_BZ2_FORMAT:
                 archiver = new TarArchiver(createBzip2OutputStream(out));
@@ -330,6 +334,19 @@ public abstract class Archiver {
         return archiver;
     }
 
+    /**
+     * Creates and returns a Gzip <code>OutputStream</code> using the given <code>OutputStream</code> as the underlying
+     * stream. The data is compressed using several threads if {@link #getCompressionThreads()} is greater than 1.
+     *
+     * @param out the underlying stream
+     * @return a Gzip OutputStream
+     * @throws IOException if an error occurred while writing the Gzip header
+     */
+    protected static OutputStream createGzipOutputStream(OutputStream out) throws IOException {
+        int nbThreads = getCompressionThreads();
+        return nbThreads>1 ? new ParallelGZIPOutputStream(out, nbThreads) : new GZIPOutputStream(out);
+    }
+
     /**
      * Creates and returns a Bzip2 <code>OutputStream</code> using the given <code>OutputStream</code> as the underlying
      * stream.
@@ -350,6 +367,27 @@ public abstract class Archiver {
     }
 
 
+    /**
+     * Sets the number of threads compressing the data of Zip, Gzip and Tar/Gzip archives. With more than one thread,
+     * the data is split into chunks that are compressed in parallel, see
+     * {@link com.mucommander.commons.io.ParallelDeflaterOutputStream}. The value is used by the archivers created
+     * afterwards.
+     *
+     * @param nbThreads the number of compressing threads, 1 to compress on the archiving thread
+     */
+    public static synchronized void setCompressionThreads(int nbThreads) {
+        compressionThreads = Math.max(1, nbThreads);
+    }
+
+    /**
+     * Returns the number of threads compressing the data of Zip, Gzip and Tar/Gzip archives.
+     *
+     * @return the number of threads compressing the data of Zip, Gzip and Tar/Gzip archives
+     */
+    public static synchronized int getCompressionThreads() {
+        return compressionThreads;
+    }
+
     /**
      * Returns an array of available archive formats, single entry formats or many entries formats
      * depending on the value of the specified boolean parameter. 
@@ -45,6 +45,7 @@ class ZipArchiver extends Archiver {
         super(outputStream);
 
         this.zos = new ZipOutputStream(outputStream);
+        this.zos.setCompressionThreads(getCompressionThreads());
     }
 
 
@@ -19,9 +19,20 @@
 package com.mucommander.commons.file.connection;
 
 import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,104 +42,152 @@ import com.mucommander.commons.file.FileURL;
 
 
 /**
+ * ConnectionPool shares {@link ConnectionHandler} instances between the files of a same realm.
+ *
+ * <p>ConnectionHandler instances are pooled by realm/credentials combo, each pool being locked independently of the
+ * others: callers connecting to different servers never wait for each other. The number of ConnectionHandler that can
+ * be locked at the same time for a combo is bounded by a fair semaphore, so that callers waiting for a connection are
+ * served in the order they asked for it. The limit can be set for each protocol, see
+ * {@link #setMaxConnectionsPerRealm(String, int)}.</p>
+ *
+ * <p>Connections are monitored by a single executor, which periodically closes the connections that have been
+ * inactive for too long and keeps the others alive, see {@link ConnectionHandler#getCloseOnInactivityPeriod()} and
+ * {@link ConnectionHandler#getKeepAlivePeriod()}.</p>
+ *
  * @see com.mucommander.commons.file.connection.ConnectionHandler
  * @author Maxence Bernard
  */
-public class ConnectionPool implements Runnable {
+public class ConnectionPool {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
 
-    /** Singleton instance */
-    private static ConnectionPool instance = new ConnectionPool();
+    /** Pools of ConnectionHandler, by realm/credentials combo */
+    private final static Map<PoolKey, RealmPool> pools = new ConcurrentHashMap<>();
+
+    /** Monitors connections, and closes them or keeps them alive */
+    private final static ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2, runnable -> {
+        Thread thread = new Thread(runnable, "ConnectionPool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The task that monitors connections, null if there currently is no registered ConnectionHandler */
+    private static ScheduledFuture<?> monitorTask;
+
+    /** Controls how of often the connections are checked */
+    private final static int MONITOR_PERIOD = 1000;
+
+    /** Number of milliseconds to wait for a connection to be released before giving up */
+    private final static int ACQUIRE_TIMEOUT = 5000;
+
+    /** Default maximum number of simultaneous connections per realm/credentials combo */
+    public final static int DEFAULT_MAX_CONNECTIONS_PER_REALM = 4;
+
+    /** Maximum number of simultaneous connections per realm/credentials combo, for protocols without a specific limit */
+    private static volatile int maxConnectionsPerRealm = DEFAULT_MAX_CONNECTIONS_PER_REALM;
+
+    /** Maximum number of simultaneous connections per realm/credentials combo, by protocol */
+    private final static Map<String, Integer> protocolMaxConnections = new ConcurrentHashMap<>();
+
+    /** Number of ConnectionHandler instances created so far */
+    private final static LongAdder nbCreated = new LongAdder();
+    /** Number of ConnectionHandler instances returned by {@link #getConnectionHandler} so far */
+    private final static LongAdder nbAcquired = new LongAdder();
+    /** Total time spent in {@link #getConnectionHandler}, in nanoseconds */
+    private final static LongAdder acquireTime = new LongAdder();
+    /** Number of times a caller had to wait for a connection to be released */
+    private final static LongAdder nbWaits = new LongAdder();
+    /** Total time spent waiting for a connection to be released, in nanoseconds */
+    private final static LongAdder waitTime = new LongAdder();
+
+    static {
+        executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+    }
 
-    /** List of registered ConnectionHandler */
-    private final static List<ConnectionHandler> connectionHandlers = new ArrayList<>();
 
-    /** The thread that monitors connections, null if there currently is no registered ConnectionHandler */
-    private static Thread monitorThread;
+    /**
+     * Returns the maximum number of simultaneous connections to a realm with a given set of credentials, for
+     * protocols that do not have a specific limit. Callers requesting more connections than this wait for one of them
+     * to be released.
+     *
+     * @return the maximum number of simultaneous connections per realm/credentials combo
+     */
+    public static int getMaxConnectionsPerRealm() {
+        return maxConnectionsPerRealm;
+    }
 
-    /** Controls how of often the thread monitor checks connections */
-    private final static int MONITOR_SLEEP_PERIOD = 1000;
+    /**
+     * Returns the maximum number of simultaneous connections to a realm of the given protocol with a given set of
+     * credentials.
+     *
+     * @param protocol the protocol of the realm, e.g. <code>sftp</code>
+     * @return the maximum number of simultaneous connections per realm/credentials combo
+     */
+    public static int getMaxConnectionsPerRealm(String protocol) {
+        Integer max = protocolMaxConnections.get(protocol.toLowerCase());
+        return max==null?maxConnectionsPerRealm:max;
+    }
 
-    /** Maximum number of simultaneous connections per realm/credentials combo */
-    private final static int MAX_CONNECTIONS_PER_REALM = 4;
+    /**
+     * Sets the maximum number of simultaneous connections to a realm with a given set of credentials, for protocols
+     * that do not have a specific limit. The limit applies to the realms that are connected to from now on.
+     *
+     * @param max the maximum number of simultaneous connections per realm/credentials combo, at least <code>1</code>
+     */
+    public static void setMaxConnectionsPerRealm(int max) {
+        maxConnectionsPerRealm = Math.max(1, max);
+    }
+
+    /**
+     * Sets the maximum number of simultaneous connections to a realm of the given protocol with a given set of
+     * credentials. The limit applies to the realms that are connected to from now on.
+     *
+     * @param protocol the protocol of the realms, e.g. <code>sftp</code>
+     * @param max the maximum number of simultaneous connections per realm/credentials combo, <code>-1</code> to use
+     * the limit of protocols without a specific limit
+     */
+    public static void setMaxConnectionsPerRealm(String protocol, int max) {
+        if(max<=0)
+            protocolMaxConnections.remove(protocol.toLowerCase());
+        else
+            protocolMaxConnections.put(protocol.toLowerCase(), max);
+    }
 
 
+    /**
+     * Returns a ConnectionHandler for the realm and credentials of the given URL, either an unlocked registered one or
+     * a new one created with the given factory. If the maximum number of connections for the realm/credentials combo
+     * is reached and all of them are locked, this method waits for one of them to be released.
+     *
+     * @param connectionHandlerFactory creates the ConnectionHandler if no registered one can be used
+     * @param url the location to connect to
+     * @param acquireLock <code>true</code> to lock the returned ConnectionHandler, which must then be released with
+     * {@link ConnectionHandler#releaseLock()}
+     * @return a ConnectionHandler for the realm and credentials of the given URL
+     * @throws InterruptedIOException if the thread was interrupted or no connection was released in time
+     */
     public static ConnectionHandler getConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) throws InterruptedIOException {
+        long t0 = System.nanoTime();
         FileURL realm = url.getRealm();
+        PoolKey key = new PoolKey(realm, url.getCredentials());
 
-        while(true) {
-            synchronized(connectionHandlers) {      // Ensures that monitor thread is not currently changing the list while we access it
-                Credentials urlCredentials = url.getCredentials();
-                int matchingConnHandlers = 0;
-
-                // Try and find an appropriate existing ConnectionHandler
-                for (ConnectionHandler connHandler : connectionHandlers) {
-                	// ConnectionHandler must match the realm and credentials and must not be locked
-                	if (connHandler.equals(realm, urlCredentials)) {
-                		matchingConnHandlers++;
-                		synchronized(connHandler) {     // Ensures that lock remains unchanged while we access/update it
-                			if (!connHandler.isLocked()) {
-                				// Try to acquire lock if a lock was requested
-                				if(!acquireLock || connHandler.acquireLock()) {
-                					LOGGER.info("returning ConnectionHandler {}, realm = {}", connHandler, realm);
-
-                					// Update last activity timestamp to now
-                					connHandler.updateLastActivityTimestamp();
-
-                					return connHandler;
-                				}
-                			}
-                		}
-                	}
-                    
-                    if (matchingConnHandlers == MAX_CONNECTIONS_PER_REALM) {
-                        LOGGER.info("Maximum number of connection per realm reached, waiting for one to be removed or released...");
-                        try {
-                            // Wait for a ConnectionHandler to be released or removed from the pool
-                            final int timeout = 5000;
-                            long t0 = System.currentTimeMillis();
-                            connectionHandlers.wait(timeout);      // relinquishes the lock on connectionHandlers
-                            if (System.currentTimeMillis() - t0 > timeout) {
-                                throw new InterruptedIOException();
-                            }
-                            break;
-                        } catch(InterruptedException e) {
-                            LOGGER.info("Interrupted while waiting on a connection for {}", url, e);
-                            throw new InterruptedIOException();
-                        }
-                    }
-                }
+        ConnectionHandler connHandler;
+        do {
+            RealmPool pool = pools.computeIfAbsent(key, k -> new RealmPool(k, getMaxConnectionsPerRealm(realm.getScheme())));
+            connHandler = acquireLock
+                    ? pool.acquire(connectionHandlerFactory, url)
+                    : pool.get(connectionHandlerFactory, url);
+            // The pool has been discarded by the monitor in the meantime
+        } while(connHandler==null);
 
-                if (matchingConnHandlers == MAX_CONNECTIONS_PER_REALM) {
-                    continue;
-                }
+        // Update last activity timestamp to now
+        connHandler.updateLastActivityTimestamp();
 
-                // No suitable ConnectionHandler found, create a new one
-                ConnectionHandler connHandler = connectionHandlerFactory.createConnectionHandler(url);
+        nbAcquired.increment();
+        acquireTime.add(System.nanoTime()-t0);
 
-                // Acquire lock if a lock was requested
-                if (acquireLock) {
-                    connHandler.acquireLock();
-                }
-
-                LOGGER.info("adding new ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
-
-                // Insert new ConnectionHandler at first position as if it has more chances to be accessed again soon
-                connectionHandlers.add(0, connHandler);// insertElementAt(connHandler, 0);
-
-                // Start monitor thread if it is not currently running (if there previously was no registered ConnectionHandler)
-                if (monitorThread == null) {
-                    LOGGER.info("starting monitor thread");
-                    monitorThread = new Thread(instance);
-                    monitorThread.start();
-                }
-
-                // Update last activity timestamp to now
-                connHandler.updateLastActivityTimestamp();
-
-                return connHandler;
-            }
-        }
+        return connHandler;
     }
 
 
@@ -140,161 +199,444 @@ public class ConnectionPool implements Runnable {
      * @return a list of registered ConnectionHandler instances
      */
     public static List<ConnectionHandler> getConnectionHandlersSnapshot() {
-        return new ArrayList<>(connectionHandlers);
+        List<ConnectionHandler> snapshot = new ArrayList<>();
+        for(RealmPool pool : pools.values()) {
+            synchronized(pool) {
+                snapshot.addAll(pool.handlers);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the current values of the pool's counters.
+     *
+     * @return the current values of the pool's counters
+     */
+    public static Statistics getStatistics() {
+        int nbActive = 0;
+        int nbIdle = 0;
+        for(RealmPool pool : pools.values()) {
+            synchronized(pool) {
+                nbActive += pool.locked.size();
+                nbIdle += pool.handlers.size()-pool.locked.size();
+            }
+        }
+
+        return new Statistics(nbActive, nbIdle, nbCreated.sum(), nbAcquired.sum(), acquireTime.sum(), nbWaits.sum(), waitTime.sum());
     }
-    
-//    /**
-//     * Returns the ConnectionHandler instance located at the given position in the list.
-//     */
-//    private static ConnectionHandler getConnectionHandlerAt(int i) {
-//        return connectionHandlers.get(i);
-//    }
 
     /**
-     * Called by {@link ConnectionHandler#releaseLock()} to notify the <code>ConnectionHandler</code> that a
+     * Called by {@link ConnectionHandler#releaseLock()} to notify the <code>ConnectionPool</code> that a
      * <code>ConnectionHandler</code> has been released.
+     *
+     * @param connHandler the ConnectionHandler whose lock has been released
+     */
+    static void notifyConnectionHandlerLockReleased(ConnectionHandler connHandler) {
+        RealmPool pool = pools.get(new PoolKey(connHandler.getRealm(), connHandler.getCredentials()));
+        if(pool!=null)
+            pool.lockReleased(connHandler);
+    }
+
+    /**
+     * Starts the monitoring of connections if it is not currently running.
      */
-    static void notifyConnectionHandlerLockReleased() {
-        synchronized (connectionHandlers) {
-            // Notify any thread waiting for a ConnectionHandler to be released
-            connectionHandlers.notify();
+    private static synchronized void startMonitor() {
+        if(monitorTask==null) {
+            LOGGER.info("starting connection monitor");
+            monitorTask = executor.scheduleWithFixedDelay(ConnectionPool::monitorConnections, MONITOR_PERIOD, MONITOR_PERIOD, TimeUnit.MILLISECONDS);
         }
     }
 
     /**
-     * Monitors connections and periodically:
+     * Monitors connections and:
      * <ul>
      *   <li>keeps connections alive
      *   <li>closes and removes connections that have expired
      * </ul>
+     * The monitoring stops when there are no more registered ConnectionHandler.
      */
-    public void run() {
-
-        while (monitorThread != null) {        // Thread will be interrupted by CloseConnectionThread if there are no more ConnectionHandler
-            long now = System.currentTimeMillis();
-
-            synchronized(connectionHandlers) {      // Ensures that getConnectionHandler is not currently changing the list while we access it
-                for (Iterator<ConnectionHandler> it = connectionHandlers.iterator(); it.hasNext();) {
-                    final ConnectionHandler connHandler = it.next();
-                //for (ConnectionHandler connHandler : connectionHandlers) {
-
-                    synchronized(connHandler) {     // Ensures that no one is trying to acquire a lock on the connection while we access it
-                        // Do not touch ConnectionHandler if it is currently locked
-                        if (connHandler.isLocked()) {
-                            continue;
-                        }
-
-                        // Remove ConnectionHandler instance from the list of registered ConnectionHandler
-                        // if it is not connected
-                        if (!connHandler.isConnected()) {
-                            LOGGER.info("Removing unconnected ConnectionHandler {}", connHandler);
-
-                            //connectionHandlers.remove(connHandler);
-                            it.remove();
-                            // Notify any thread waiting for a ConnectionHandler to be released
-                            connectionHandlers.notify();
-
-                            continue;       // Skips close on inactivity and keep alive checks
-                        }
-
-                        long lastUsed = connHandler.getLastActivityTimestamp();
-
-                        // If time-to-live has been reached without any connection activity, remove ConnectionHandler
-                        // from the list of registered ConnectionHandler and close the connection in a separate thread
-                        long closePeriod = connHandler.getCloseOnInactivityPeriod();
-                        if (closePeriod != -1 && now - lastUsed > closePeriod*1000) {
-                            LOGGER.info("Removing timed-out ConnectionHandler {}",connHandler);
-
-                            //connectionHandlers.remove(connHandler);
-                            it.remove();
-                            // Notify any thread waiting for a ConnectionHandler to be released
-                            connectionHandlers.notify();
-
-                            // Close connection in a separate thread as it could lock this thread
-                            new CloseConnectionThread(connHandler).start();
-
-                            continue;       // Skips keep alive check
-                        }
-
-                        // If keep-alive period has been reached without any connection activity or a keep alive,
-                        // keep connection alive in a separate thread
-                        long keepAlivePeriod = connHandler.getKeepAlivePeriod();
-                        if (keepAlivePeriod!=-1 && now-Math.max(lastUsed, connHandler.getLastKeepAliveTimestamp())>keepAlivePeriod*1000) {
-                            // Update last keep alive timestamp to now
-                            connHandler.updateLastKeepAliveTimestamp();
-
-                            // Keep connection alive in a separate thread as it could lock this thread
-                            new KeepAliveConnectionThread(connHandler).start();
-                        }
-                    }
-                }
-
-                // Stop monitor thread if there are no more ConnectionHandler
-                if (connectionHandlers.size() == 0) {
-                    LOGGER.info("No more ConnectionHandler, stopping monitor thread");
-                    monitorThread = null;
-                }
-            }
-
-            // Sleep for MONITOR_SLEEP_PERIOD milliseconds, minus the processing time of this loop
-            try {
-                Thread.sleep(Math.max(0, MONITOR_SLEEP_PERIOD-(System.currentTimeMillis()-now)));
-            } catch(InterruptedException e) {
-                // Will loop again
+    private static void monitorConnections() {
+        long now = System.currentTimeMillis();
+        for(RealmPool pool : pools.values())
+            pool.monitor(now);
+
+        synchronized(ConnectionPool.class) {
+            // A new pool will restart the monitor
+            if(pools.isEmpty() && monitorTask!=null) {
+                LOGGER.info("No more ConnectionHandler, stopping connection monitor");
+                monitorTask.cancel(false);
+                monitorTask = null;
             }
         }
     }
 
 
     /**
-     * Closes a specified ConnectionHandler's connection in a separate thread and removes the ConnectionHandler from
-     * the list of registered ConnectionHandler instances.
+     * Identifies a realm/credentials combo, using the same comparison as {@link ConnectionHandler#equals(FileURL, Credentials)}.
      */
-    private static class CloseConnectionThread extends Thread {
+    private static class PoolKey {
 
-        private ConnectionHandler connHandler;
+        private final FileURL realm;
+        private final Credentials credentials;
 
-        private CloseConnectionThread(ConnectionHandler connHandler) {
-            this.connHandler = connHandler;
+        private PoolKey(FileURL realm, Credentials credentials) {
+            this.realm = realm;
+            this.credentials = credentials;
         }
 
         @Override
-        public void run() {
-            // Try to close connection, only if it is connected
-            if(connHandler.isConnected()) {
-                LOGGER.info("Closing connection held by {}", connHandler);
-                connHandler.closeConnection();
-            }
+        public boolean equals(Object o) {
+            if(!(o instanceof PoolKey))
+                return false;
+
+            PoolKey key = (PoolKey)o;
+            if(!realm.equals(key.realm, false, true))
+                return false;
+
+            return (credentials==null && key.credentials==null)
+                || (credentials!=null && credentials.equals(key.credentials, true))
+                || (key.credentials!=null && key.credentials.equals(credentials, true));
+        }
+
+        @Override
+        public int hashCode() {
+            // Realms do not contain credentials
+            return realm.hashCode();
         }
     }
 
 
     /**
-     * Keeps alive a specified ConnectionHandler's connection in a separate thread. If the connection is not currently
-     * active, {@link com.mucommander.commons.file.connection.ConnectionHandler#keepAlive()} will not be called.
+     * The ConnectionHandler instances of a realm/credentials combo. Each ConnectionHandler locked by the pool holds a
+     * permit of the semaphore, which is returned when the lock is released.
      */
-    private static class KeepAliveConnectionThread extends Thread {
+    private static class RealmPool {
+
+        private final PoolKey key;
 
-        private final ConnectionHandler connHandler;
+        private final int maxConnections;
 
-        private KeepAliveConnectionThread(ConnectionHandler connHandler) {
-            this.connHandler = connHandler;
+        /** Permits to lock a ConnectionHandler, fair so that waiting callers are served first come, first served */
+        private final Semaphore permits;
+
+        /** All registered ConnectionHandler of the combo. ConnectionHandler#equals is not an identity comparison */
+        private final Set<ConnectionHandler> handlers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /** Registered ConnectionHandler that are not locked by the pool, the most recently used first */
+        private final ArrayDeque<ConnectionHandler> idle = new ArrayDeque<>();
+
+        /** ConnectionHandler locked by the pool, which hold a permit */
+        private final Set<ConnectionHandler> locked = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /** True once the pool has been removed from the pools map because it had no more ConnectionHandler */
+        private boolean discarded;
+
+        private RealmPool(PoolKey key, int maxConnections) {
+            this.key = key;
+            this.maxConnections = maxConnections;
+            this.permits = new Semaphore(maxConnections, true);
         }
 
-        @Override
-        public void run() {
-            LOGGER.info("keeping connection alive: {}", connHandler);
+        /**
+         * Returns a locked ConnectionHandler, waiting for one to be released if all of them are locked.
+         *
+         * @return a locked ConnectionHandler, <code>null</code> if this pool has been discarded
+         */
+        private ConnectionHandler acquire(ConnectionHandlerFactory factory, FileURL url) throws InterruptedIOException {
+            try {
+                // Note: tryAcquire() without timeout would not honor the fairness setting
+                if(!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                    LOGGER.info("Maximum number of connection per realm reached, waiting for one to be released...");
+                    long t0 = System.nanoTime();
+                    boolean acquired = permits.tryAcquire(ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS);
+                    nbWaits.increment();
+                    waitTime.add(System.nanoTime()-t0);
+                    if(!acquired)
+                        throw new InterruptedIOException("No connection to "+url.getRealm()+" released in time");
+                }
+            }
+            catch(InterruptedException e) {
+                LOGGER.info("Interrupted while waiting on a connection for {}", url, e);
+                throw new InterruptedIOException();
+            }
+
+            synchronized(this) {
+                if(discarded) {
+                    permits.release();
+                    return null;
+                }
+
+                ConnectionHandler connHandler = lockIdle();
+                if(connHandler==null) {
+                    // All registered ConnectionHandler are locked, and there are less of them than permits
+                    connHandler = create(factory, url);
+                    connHandler.acquireLock();
+                }
+                else {
+                    LOGGER.info("returning ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
+                }
+
+                locked.add(connHandler);
+                return connHandler;
+            }
+        }
+
+        /**
+         * Returns a ConnectionHandler without locking it, preferably an idle one. If all of them are locked and no
+         * more can be created, waits for one to be released.
+         *
+         * @return an unlocked ConnectionHandler, <code>null</code> if this pool has been discarded
+         */
+        private ConnectionHandler get(ConnectionHandlerFactory factory, FileURL url) throws InterruptedIOException {
+            synchronized(this) {
+                if(discarded)
+                    return null;
+
+                for(ConnectionHandler connHandler : idle) {
+                    if(!connHandler.isLocked()) {
+                        LOGGER.info("returning ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
+                        return connHandler;
+                    }
+                }
+
+                if(handlers.size()<maxConnections) {
+                    ConnectionHandler connHandler = create(factory, url);
+                    idle.addFirst(connHandler);
+                    return connHandler;
+                }
+            }
+
+            // Wait for a ConnectionHandler to be released
+            ConnectionHandler connHandler = acquire(factory, url);
+            if(connHandler!=null)
+                connHandler.releaseLock();
+
+            return connHandler;
+        }
+
+        /**
+         * Locks and returns the most recently used idle ConnectionHandler, <code>null</code> if there is none.
+         * Must be called while holding this pool's lock.
+         */
+        private ConnectionHandler lockIdle() {
+            for(Iterator<ConnectionHandler> iterator = idle.iterator(); iterator.hasNext();) {
+                ConnectionHandler connHandler = iterator.next();
+                synchronized(connHandler) {     // Waits for the connection to be kept alive
+                    if(!connHandler.isLocked() && connHandler.acquireLock()) {
+                        iterator.remove();
+                        return connHandler;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Creates and registers a new ConnectionHandler. Must be called while holding this pool's lock.
+         */
+        private ConnectionHandler create(ConnectionHandlerFactory factory, FileURL url) {
+            ConnectionHandler connHandler = factory.createConnectionHandler(url);
+            LOGGER.info("adding new ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
+
+            handlers.add(connHandler);
+            nbCreated.increment();
 
-            synchronized(connHandler) {
-                // Ensures that lock was not grabbed in the meantime
-                if(connHandler.isLocked())
+            startMonitor();
+
+            return connHandler;
+        }
+
+        /**
+         * Returns the given ConnectionHandler to the idle ones and releases its permit, if it was locked by the pool.
+         */
+        private void lockReleased(ConnectionHandler connHandler) {
+            synchronized(this) {
+                if(!locked.remove(connHandler))
                     return;
 
-                // Keep alive connection, only if it is connected
-                if(connHandler.isConnected())
-                    connHandler.keepAlive();
+                if(handlers.contains(connHandler))
+                    idle.addFirst(connHandler);
+            }
+            permits.release();
+        }
+
+        /**
+         * Removes the idle ConnectionHandler that are not connected anymore, closes those that have been inactive for
+         * too long and keeps the others alive if needed. Discards this pool if there are no more ConnectionHandler.
+         */
+        private void monitor(long now) {
+            List<ConnectionHandler> toClose = new ArrayList<>();
+            List<ConnectionHandler> toKeepAlive = new ArrayList<>();
+
+            synchronized(this) {
+                for(Iterator<ConnectionHandler> iterator = idle.iterator(); iterator.hasNext();) {
+                    ConnectionHandler connHandler = iterator.next();
+
+                    // Remove ConnectionHandler instance from the registered ones if it is not connected
+                    if(!connHandler.isConnected()) {
+                        LOGGER.info("Removing unconnected ConnectionHandler {}", connHandler);
+                        iterator.remove();
+                        handlers.remove(connHandler);
+                        continue;       // Skips close on inactivity and keep alive checks
+                    }
+
+                    long lastUsed = connHandler.getLastActivityTimestamp();
+
+                    // If time-to-live has been reached without any connection activity, remove ConnectionHandler
+                    // from the registered ones and close the connection
+                    long closePeriod = connHandler.getCloseOnInactivityPeriod();
+                    if(closePeriod!=-1 && now-lastUsed>closePeriod*1000) {
+                        LOGGER.info("Removing timed-out ConnectionHandler {}", connHandler);
+                        iterator.remove();
+                        handlers.remove(connHandler);
+                        toClose.add(connHandler);
+                        continue;       // Skips keep alive check
+                    }
+
+                    // If keep-alive period has been reached without any connection activity or a keep alive,
+                    // keep connection alive
+                    long keepAlivePeriod = connHandler.getKeepAlivePeriod();
+                    if(keepAlivePeriod!=-1 && now-Math.max(lastUsed, connHandler.getLastKeepAliveTimestamp())>keepAlivePeriod*1000) {
+                        // Update last keep alive timestamp to now
+                        connHandler.updateLastKeepAliveTimestamp();
+                        toKeepAlive.add(connHandler);
+                    }
+                }
+
+                if(handlers.isEmpty() && locked.isEmpty()) {
+                    discarded = true;
+                    pools.remove(key, this);
+                }
             }
+
+            // Close and keep alive connections in separate tasks as it could block the monitor
+            for(ConnectionHandler connHandler : toClose)
+                executor.execute(() -> closeConnection(connHandler));
+            for(ConnectionHandler connHandler : toKeepAlive)
+                executor.execute(() -> keepAlive(connHandler));
+        }
+    }
+
+    /**
+     * Closes the given ConnectionHandler's connection, if it is connected.
+     */
+    private static void closeConnection(ConnectionHandler connHandler) {
+        if(connHandler.isConnected()) {
+            LOGGER.info("Closing connection held by {}", connHandler);
+            connHandler.closeConnection();
         }
     }
 
+    /**
+     * Keeps alive the given ConnectionHandler's connection. If the connection is not currently active,
+     * {@link com.mucommander.commons.file.connection.ConnectionHandler#keepAlive()} will not be called.
+     */
+    private static void keepAlive(ConnectionHandler connHandler) {
+        LOGGER.info("keeping connection alive: {}", connHandler);
+
+        synchronized(connHandler) {
+            // Ensures that lock was not grabbed in the meantime
+            if(connHandler.isLocked())
+                return;
+
+            // Keep alive connection, only if it is connected
+            if(connHandler.isConnected())
+                connHandler.keepAlive();
+        }
+    }
+
+
+    /**
+     * The counters of the pool, as returned by {@link ConnectionPool#getStatistics()}.
+     */
+    public static class Statistics {
+
+        private final int nbActive;
+        private final int nbIdle;
+        private final long nbCreated;
+        private final long nbAcquired;
+        private final long acquireTime;
+        private final long nbWaits;
+        private final long waitTime;
+
+        private Statistics(int nbActive, int nbIdle, long nbCreated, long nbAcquired, long acquireTime, long nbWaits, long waitTime) {
+            this.nbActive = nbActive;
+            this.nbIdle = nbIdle;
+            this.nbCreated = nbCreated;
+            this.nbAcquired = nbAcquired;
+            this.acquireTime = acquireTime;
+            this.nbWaits = nbWaits;
+            this.waitTime = waitTime;
+        }
+
+        /**
+         * Returns the number of registered ConnectionHandler that are currently locked.
+         *
+         * @return the number of registered ConnectionHandler that are currently locked
+         */
+        public int getActiveConnections() {
+            return nbActive;
+        }
+
+        /**
+         * Returns the number of registered ConnectionHandler that are not locked by the pool.
+         *
+         * @return the number of registered ConnectionHandler that are not locked by the pool
+         */
+        public int getIdleConnections() {
+            return nbIdle;
+        }
+
+        /**
+         * Returns the number of ConnectionHandler created so far.
+         *
+         * @return the number of ConnectionHandler created so far
+         */
+        public long getCreatedConnections() {
+            return nbCreated;
+        }
+
+        /**
+         * Returns the number of ConnectionHandler returned by {@link ConnectionPool#getConnectionHandler} so far.
+         *
+         * @return the number of ConnectionHandler returned so far
+         */
+        public long getAcquisitions() {
+            return nbAcquired;
+        }
+
+        /**
+         * Returns the average time spent in {@link ConnectionPool#getConnectionHandler}, in microseconds.
+         *
+         * @return the average time spent getting a ConnectionHandler, in microseconds
+         */
+        public long getAverageAcquireTime() {
+            return nbAcquired==0?0:acquireTime/nbAcquired/1000;
+        }
+
+        /**
+         * Returns the number of times a caller had to wait for a connection to be released.
+         *
+         * @return the number of times a caller had to wait for a connection to be released
+         */
+        public long getWaits() {
+            return nbWaits;
+        }
+
+        /**
+         * Returns the total time spent waiting for a connection to be released, in milliseconds.
+         *
+         * @return the total time spent waiting for a connection to be released, in milliseconds
+         */
+        public long getTotalWaitTime() {
+            return waitTime/1000000;
+        }
+
+        @Override
+        public String toString() {
+            return "active="+nbActive+" idle="+nbIdle+" created="+nbCreated+" acquired="+nbAcquired
+                    +" avgAcquireTime="+getAverageAcquireTime()+"us waits="+nbWaits+" waitTime="+getTotalWaitTime()+"ms";
+        }
+    }
 }
@@ -74,7 +74,7 @@ import java.util.regex.Pattern;
  *
  * @author Maxence Bernard
  */
-public class HTTPFile extends ProtocolFile {
+public class HTTPFile extends ProtocolFile implements RangeReadableFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(HTTPFile.class);
 
     /** java.net.URL corresponding to this */
@@ -90,6 +90,9 @@ public class HTTPFile extends ProtocolFile {
     /** True if file has been resolved on the remote HTTP server, either successfully or unsuccessfully */
     private boolean fileResolved;
 
+    /** True if the server declared accepting byte range requests when the file was resolved */
+    private boolean acceptRanges;
+
     private boolean parentValSet;
     protected AbstractFile parent;
 	
@@ -201,7 +204,9 @@ public class HTTPFile extends ProtocolFile {
             attributes.setDate(date);
 
             // Resolve size with content-length header (-1 if not available)
-            attributes.setSize(conn.getContentLength());
+            attributes.setSize(conn.getContentLengthLong());
+
+            acceptRanges = "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges"));
 
             // Test if content is HTML
             String contentType = conn.getContentType();
@@ -723,6 +728,46 @@ public class HTTPFile extends ProtocolFile {
     }
 
 
+    ///////////////////////////////////////
+    // RangeReadableFile implementation //
+    ///////////////////////////////////////
+
+    /**
+     * Returns <code>true</code> if the server declared accepting byte range requests ('Accept-Ranges: bytes' header)
+     * when the file was resolved.
+     */
+    @Override
+    public boolean isRangeReadSupported() {
+        if (!fileResolved) {
+            try {
+                resolveFile();
+            } catch(IOException ignore) {}
+        }
+
+        return acceptRanges;
+    }
+
+    @Override
+    public InputStream getRangeInputStream(long offset, long length) throws IOException {
+        HttpURLConnection conn = getHttpURLConnection(this.url);
+        conn.setRequestProperty("Range", "bytes="+offset+"-"+(offset+length-1));
+
+        // Establish connection
+        conn.connect();
+
+        // Check HTTP response code and throw appropriate IOException if request failed
+        checkHTTPResponse(conn);
+
+        // The server may ignore the 'Range' header and return the whole resource
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+            conn.disconnect();
+            throw new IOException("Range request not honored by the server, response code="+conn.getResponseCode());
+        }
+
+        return conn.getInputStream();
+    }
+
+
     ///////////////////
     // Inner classes //
     ///////////////////
@@ -31,6 +31,7 @@ import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -69,9 +70,12 @@ import com.mucommander.commons.file.util.Kernel32;
 import com.mucommander.commons.file.util.Kernel32API;
 import com.mucommander.commons.file.util.PathUtils;
 import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.ChannelTransferable;
+import com.mucommander.commons.io.FileTransferException;
 import com.mucommander.commons.io.FilteredOutputStream;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
+import com.mucommander.commons.io.StreamUtils;
 import com.mucommander.commons.runtime.JavaVersion;
 import com.mucommander.commons.runtime.OsFamily;
 import com.mucommander.commons.runtime.OsVersion;
@@ -886,6 +890,38 @@ public class LocalFile extends ProtocolFile {
         return new LocalOutputStream(new FileOutputStream(absPath, true).getChannel());
     }
 
+    /**
+     * Implementation notes: when the given stream supports {@link ChannelTransferable channel transfers}, i.e. when
+     * it reads a local file possibly through counting or throughput limiting streams, the data is sent directly from
+     * the source file to this file using <code>FileChannel#transferTo</code>, without being copied through a Java
+     * buffer. Other streams are copied as usual.
+     */
+    @Override
+    public void copyStream(InputStream in, boolean append, long length) throws FileTransferException {
+        if (!(in instanceof ChannelTransferable) || !((ChannelTransferable)in).isChannelTransferSupported()) {
+            super.copyStream(in, append, length);
+            return;
+        }
+
+        FileChannel out;
+        try {
+            out = new FileOutputStream(absPath, append).getChannel();
+        } catch(IOException e) {
+            throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
+        }
+
+        try {
+            StreamUtils.transferStream((ChannelTransferable)in, out);
+        } finally {
+            // Close channel even if transferStream() threw an exception
+            try {
+                out.close();
+            } catch(IOException e) {
+                throw new FileTransferException(FileTransferException.CLOSING_DESTINATION);
+            }
+        }
+    }
+
     /**
      * Implementation notes: the returned <code>InputStream</code> uses a NIO {@link FileChannel} under the hood to
      * benefit from <code>InterruptibleChannel</code> and allow a thread waiting for an I/O to be gracefully interrupted
@@ -1226,7 +1262,7 @@ public class LocalFile extends ProtocolFile {
      * <code>InterruptibleChannel</code> and allow a thread waiting for an I/O to be gracefully interrupted using
      * <code>Thread#interrupt()</code>.
      */
-    public static class LocalRandomAccessInputStream extends RandomAccessInputStream {
+    public static class LocalRandomAccessInputStream extends RandomAccessInputStream implements ChannelTransferable {
 
         private final FileChannel channel;
         private final ByteBuffer bb;
@@ -1286,6 +1322,58 @@ public class LocalFile extends ProtocolFile {
         public void seek(long offset) throws IOException {
             channel.position(offset);
         }
+
+        @Override
+        public boolean isChannelTransferSupported() {
+            return true;
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel out, long count) throws IOException {
+            long position;
+            long size;
+            try {
+                position = channel.position();
+                size = channel.size();
+            } catch(IOException e) {
+                throw new FileTransferException(FileTransferException.READING_SOURCE);
+            }
+
+            if (position >= size) {
+                return -1;
+            }
+
+            long nbTransferred;
+            try {
+                nbTransferred = channel.transferTo(position, Math.min(count, size - position), out);
+            } catch(IOException e) {
+                // FileChannel#transferTo doesn't tell which side failed: blame the source if it can no longer be
+                // queried, the destination otherwise
+                if (!isSourceReadable()) {
+                    throw new FileTransferException(FileTransferException.READING_SOURCE);
+                }
+                throw e;
+            }
+            channel.position(position + nbTransferred);
+
+            return nbTransferred;
+        }
+
+        /**
+         * Returns <code>true</code> if the channel is still open and its size can be retrieved.
+         */
+        private boolean isSourceReadable() {
+            if (!channel.isOpen()) {
+                return false;
+            }
+
+            try {
+                channel.size();
+                return true;
+            } catch(IOException e) {
+                return false;
+            }
+        }
     }
 
     /**
@@ -1299,11 +1387,21 @@ public class LocalFile extends ProtocolFile {
      * being used.</p>
      *
      */
-    public static class LocalInputStream extends FilterInputStream {
+    public static class LocalInputStream extends FilterInputStream implements ChannelTransferable {
 
         public LocalInputStream(FileChannel channel) {
             super(new LocalRandomAccessInputStream(channel));
         }
+
+        @Override
+        public boolean isChannelTransferSupported() {
+            return true;
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel out, long count) throws IOException {
+            return ((LocalRandomAccessInputStream)in).transferTo(out, count);
+        }
     }
 
     /**
@@ -20,6 +20,8 @@
 package com.mucommander.commons.file.impl.s3;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.filter.FileFilter;
+import com.mucommander.commons.file.filter.FilenameFilter;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
@@ -29,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
 
 /**
  * <code>S3Bucket</code> represents an Amazon S3 bucket.
@@ -87,7 +90,35 @@ public class S3Bucket extends S3File {
 
     @Override
     public AbstractFile[] ls() throws IOException {
-        return listObjects(bucketName, "", this);
+        return collectChildren(lsIterator(), null);
+    }
+
+    /**
+     * Overridden to filter the children as they are listed, see {@link #lsIterator()}.
+     */
+    @Override
+    public AbstractFile[] ls(FileFilter filter) throws IOException {
+        return collectChildren(lsIterator(), filter);
+    }
+
+    /**
+     * Overridden to filter the children as they are listed, see {@link #lsIterator()}.
+     */
+    @Override
+    public AbstractFile[] ls(FilenameFilter filter) throws IOException {
+        return collectChildren(lsIterator(), filter);
+    }
+
+    /**
+     * Returns an iterator over the children of this bucket, which are fetched from S3 one page at a time as the
+     * iterator advances, unlike {@link #ls()} which returns them all at once.
+     *
+     * @return an iterator over the children of this bucket
+     * @throws IOException if the first page of children could not be fetched
+     * @see ObjectListingIterator
+     */
+    public Iterator<AbstractFile> lsIterator() throws IOException {
+        return new ObjectListingIterator(bucketName, "", this);
     }
 
     @Override
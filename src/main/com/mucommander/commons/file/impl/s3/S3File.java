@@ -20,6 +20,7 @@
 package com.mucommander.commons.file.impl.s3;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.io.RandomAccessOutputStream;
 import com.mucommander.commons.runtime.JavaVersion;
 import org.jets3t.service.Constants;
@@ -29,7 +30,13 @@ import org.jets3t.service.S3ServiceException;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Super class of {@link S3Root}, {@link S3Bucket} and {@link S3Object}.
@@ -72,37 +79,106 @@ public abstract class S3File extends ProtocolFile {
             throw new AuthException(fileURL);
     }
     
-    protected AbstractFile[] listObjects(String bucketName, String prefix, S3File parent) throws IOException {
+    /**
+     * Collects the children returned by the given iterator which match the given filter. Children are filtered as
+     * the pages of the listing are fetched, only the matching ones are kept in memory.
+     *
+     * @param iterator iterator over the children, as returned by an {@link ObjectListingIterator}
+     * @param filter the filter the children must match, <code>null</code> to keep them all
+     * @return the matching children
+     * @throws IOException if the children could not be listed
+     */
+    protected static AbstractFile[] collectChildren(Iterator<AbstractFile> iterator, FileFilter filter) throws IOException {
+        List<AbstractFile> children = new ArrayList<>();
         try {
-            S3ObjectsChunk chunk = service.listObjectsChunked(bucketName, prefix, "/", Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE, null, true);
-            org.jets3t.service.model.S3Object objects[] = chunk.getObjects();
-            String[] commonPrefixes = chunk.getCommonPrefixes();
+            AbstractFile child;
+            while(iterator.hasNext()) {
+                child = iterator.next();
+                if(filter==null || filter.match(child))
+                    children.add(child);
+            }
+        }
+        catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return children.toArray(new AbstractFile[0]);
+    }
 
-            if(objects.length==0 && !prefix.equals("")) {
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Iterates over the children of a prefix, fetching them from S3 one page of
+     * {@link Constants#DEFAULT_OBJECT_LIST_CHUNK_SIZE} keys at a time: only the current page is held in memory, which
+     * allows browsing buckets with a very large number of keys incrementally.
+     *
+     * <p>The first page is fetched when the iterator is created. An error occurring while fetching the following ones
+     * is thrown by {@link #hasNext()} as an <code>UncheckedIOException</code>.</p>
+     */
+    protected class ObjectListingIterator implements Iterator<AbstractFile> {
+
+        private final String bucketName;
+        private final String prefix;
+        private final S3File parent;
+
+        /** Children of the current page which have not been returned yet */
+        private final ArrayDeque<AbstractFile> page = new ArrayDeque<>();
+
+        /** Key after which the next page starts, null once the last page has been fetched */
+        private String priorLastKey;
+
+        /**
+         * Creates a new iterator and fetches the first page.
+         *
+         * @param bucketName name of the bucket
+         * @param prefix prefix of the children, empty string for the root of the bucket
+         * @param parent the parent of the children
+         * @throws IOException if the first page could not be fetched or if the prefix does not exist
+         */
+        protected ObjectListingIterator(String bucketName, String prefix, S3File parent) throws IOException {
+            this.bucketName = bucketName;
+            this.prefix = prefix;
+            this.parent = parent;
+
+            if(!fetchPage(null) && !prefix.equals("")) {
                 // This happens only when the directory does not exist
                 throw new IOException();
             }
+        }
 
-            AbstractFile[] children = new AbstractFile[objects.length+commonPrefixes.length];
-            FileURL childURL;
-            int i=0;
-            String objectKey;
+        /**
+         * Fetches the page of children which follows the given key.
+         *
+         * @return true if the page contained at least one object
+         */
+        private boolean fetchPage(String fromKey) throws IOException {
+            S3ObjectsChunk chunk;
+            try {
+                chunk = service.listObjectsChunked(bucketName, prefix, "/", Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE, fromKey, false);
+            }
+            catch(S3ServiceException e) {
+                throw getIOException(e);
+            }
 
+            org.jets3t.service.model.S3Object objects[] = chunk.getObjects();
+            FileURL childURL;
             for(org.jets3t.service.model.S3Object object : objects) {
                 // Discard the object corresponding to the prefix itself
-                objectKey = object.getKey();
+                String objectKey = object.getKey();
                 if(objectKey.equals(prefix))
                     continue;
 
                 childURL = (FileURL)fileURL.clone();
                 childURL.setPath(bucketName + "/" + objectKey);
 
-                children[i] = FileFactory.getFile(childURL, parent, service, object);
-                i++;
+                page.add(FileFactory.getFile(childURL, parent, service, object));
             }
 
             org.jets3t.service.model.S3Object directoryObject;
-            for(String commonPrefix : commonPrefixes) {
+            for(String commonPrefix : chunk.getCommonPrefixes()) {
                 childURL = (FileURL)fileURL.clone();
                 childURL.setPath(bucketName + "/" + commonPrefix);
 
@@ -110,24 +186,35 @@ public abstract class S3File extends ProtocolFile {
                 // Common prefixes are not objects per se, and therefore do not have a date, content-length nor owner.
                 directoryObject.setLastModifiedDate(new Date(System.currentTimeMillis()));
                 directoryObject.setContentLength(0);
-                children[i] = FileFactory.getFile(childURL, parent, service, directoryObject);
-                i++;
+                page.add(FileFactory.getFile(childURL, parent, service, directoryObject));
             }
 
-            // Trim the array if an object was discarded.
-            // Note: Having to recreate an array sucks (puts pressure on the GC), but I haven't found a reliable way
-            // to know in advance whether the prefix will appear in the results or not.
-            if(i<children.length) {
-                AbstractFile[] childrenTrimmed = new AbstractFile[i];
-                System.arraycopy(children, 0, childrenTrimmed, 0, i);
+            priorLastKey = chunk.getPriorLastKey();
 
-                return childrenTrimmed;
+            return objects.length>0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            // A page may contain only the object corresponding to the prefix
+            while(page.isEmpty() && priorLastKey!=null) {
+                try {
+                    fetchPage(priorLastKey);
+                }
+                catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
             }
 
-            return children;
+            return !page.isEmpty();
         }
-        catch(S3ServiceException e) {
-            throw getIOException(e);
+
+        @Override
+        public AbstractFile next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+
+            return page.poll();
         }
     }
 
@@ -0,0 +1,385 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.s3;
+
+import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.IOExecutor;
+import com.mucommander.commons.io.StreamUtils;
+import org.jets3t.service.Constants;
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.security.AWSCredentials;
+import org.jets3t.service.utils.RestUtils;
+import org.jets3t.service.utils.ServiceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Uploads an object to S3 in several parts using the multipart upload API: the stream is cut into parts which are
+ * uploaded concurrently, and assembled by S3 once they have all been uploaded. The length of the object does not need
+ * to be known in advance, and a part that fails to upload is retried on its own.
+ *
+ * <p>The version of JetS3t in use predates multipart uploads: the requests are signed here (AWS signature version 2)
+ * with the service's credentials, and sent to the service's endpoint with <code>HttpURLConnection</code>.</p>
+ *
+ * <p>The parts are read into a bounded number of buffers retrieved from {@link BufferPool}: the stream is not read
+ * further while all buffers are being uploaded.</p>
+ */
+class S3MultipartUpload {
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3MultipartUpload.class);
+
+    /** Default size of the parts. S3 requires all parts but the last one to be at least 5MB */
+    final static int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    /** Default number of parts uploaded concurrently */
+    final static int DEFAULT_CONCURRENCY = 4;
+
+    /** Maximum number of parts of an upload */
+    private final static int MAX_PARTS = 10000;
+
+    /** Maximum number of attempts to upload a part */
+    private final static int MAX_ATTEMPTS = 3;
+
+    /** Content type of the uploaded objects */
+    private final static String CONTENT_TYPE = "application/octet-stream";
+
+    /** Part number of the request initiating an upload, see {@link #openConnection(String, int, String, byte[], int)} */
+    private final static int INITIATE = -1;
+
+    /** Part number of the requests on a whole upload, see {@link #openConnection(String, int, String, byte[], int)} */
+    private final static int WHOLE_UPLOAD = 0;
+
+    private final static Pattern UPLOAD_ID_PATTERN = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+
+    private final S3Service service;
+    private final String bucketName;
+    private final String objectKey;
+    private final int partSize;
+    private final int concurrency;
+
+    /** Identifier of the upload, returned by S3 when the upload is initiated */
+    private String uploadId;
+
+    /**
+     * Creates a new upload of the given object, using parts of {@link #DEFAULT_PART_SIZE} bytes (or more if the object
+     * is too large for {@link #MAX_PARTS} parts of that size), {@link #DEFAULT_CONCURRENCY} of them being uploaded
+     * concurrently.
+     *
+     * @param service the service holding the credentials and the endpoint to use
+     * @param bucketName name of the bucket
+     * @param objectKey key of the object to upload
+     * @param length length of the object, <code>-1</code> if unknown
+     */
+    S3MultipartUpload(S3Service service, String bucketName, String objectKey, long length) {
+        this(service, bucketName, objectKey, (int)Math.max(DEFAULT_PART_SIZE, (length + MAX_PARTS - 1) / MAX_PARTS), DEFAULT_CONCURRENCY);
+    }
+
+    S3MultipartUpload(S3Service service, String bucketName, String objectKey, int partSize, int concurrency) {
+        this.service = service;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.partSize = partSize;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Uploads the object contained in the given stream, which is read until its end but not closed. The upload is
+     * aborted if it fails, so that S3 discards the parts uploaded so far.
+     *
+     * @param in the stream that contains the object to upload
+     * @return the number of bytes uploaded
+     * @throws IOException if the stream could not be read, or if the upload failed
+     */
+    long upload(InputStream in) throws IOException {
+        initiate();
+
+        Semaphore buffers = new Semaphore(concurrency);
+        List<Future<String>> parts = new ArrayList<>();
+        long totalLength = 0;
+        try {
+            while (true) {
+                buffers.acquire();
+                byte[] buffer = BufferPool.getByteArray(partSize);
+                int length;
+                try {
+                    length = StreamUtils.readUpTo(in, buffer, 0, partSize);
+                }
+                catch (IOException e) {
+                    BufferPool.releaseByteArray(buffer);
+                    buffers.release();
+                    throw e;
+                }
+
+                // The last part may be empty only if it is the first one
+                if (length == 0 && !parts.isEmpty()) {
+                    BufferPool.releaseByteArray(buffer);
+                    buffers.release();
+                    break;
+                }
+                if (parts.size() == MAX_PARTS) {
+                    BufferPool.releaseByteArray(buffer);
+                    buffers.release();
+                    throw new IOException("Object too large for "+MAX_PARTS+" parts of "+partSize+" bytes");
+                }
+
+                final int partNumber = parts.size() + 1;
+                parts.add(IOExecutor.submit(() -> {
+                    try {
+                        return uploadPart(partNumber, buffer, length);
+                    }
+                    finally {
+                        BufferPool.releaseByteArray(buffer);
+                        buffers.release();
+                    }
+                }));
+                totalLength += length;
+
+                // Stop reading as soon as a part has failed
+                for (Future<String> part : parts) {
+                    if (part.isDone())
+                        part.get();
+                }
+
+                if (length < partSize)
+                    break;
+            }
+
+            List<String> etags = new ArrayList<>(parts.size());
+            for (Future<String> part : parts)
+                etags.add(part.get());
+
+            complete(etags);
+
+            return totalLength;
+        }
+        catch (IOException | RuntimeException | InterruptedException | ExecutionException e) {
+            for (Future<String> part : parts)
+                part.cancel(true);
+            abort();
+
+            if (e instanceof InterruptedException)
+                throw new InterruptedIOException();
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Initiates the upload and retrieves its identifier.
+     */
+    private void initiate() throws IOException {
+        HttpURLConnection conn = openConnection("POST", INITIATE, null, new byte[0], 0);
+        String response = readResponse(conn);
+        Matcher matcher = UPLOAD_ID_PATTERN.matcher(response);
+        if (!matcher.find())
+            throw new IOException("No upload ID in response: "+response);
+
+        uploadId = matcher.group(1);
+        LOGGER.info("Initiated multipart upload of "+bucketName+"/"+objectKey+", uploadId="+uploadId);
+    }
+
+    /**
+     * Uploads a part, making up to {@link #MAX_ATTEMPTS} attempts.
+     *
+     * @return the ETag of the part
+     */
+    private String uploadPart(int partNumber, byte[] data, int length) throws IOException {
+        String contentMD5;
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(data, 0, length);
+            contentMD5 = ServiceUtils.toBase64(md5.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+            contentMD5 = null;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                HttpURLConnection conn = openConnection("PUT", partNumber, contentMD5, data, length);
+                readResponse(conn);
+                String etag = conn.getHeaderField("ETag");
+                if (etag == null)
+                    throw new IOException("No ETag for part "+partNumber);
+                return etag;
+            }
+            catch (IOException e) {
+                if (attempt == MAX_ATTEMPTS || Thread.currentThread().isInterrupted())
+                    throw e;
+                LOGGER.info("Failed to upload part "+partNumber+" of "+bucketName+"/"+objectKey+", retrying", e);
+            }
+        }
+    }
+
+    /**
+     * Completes the upload, S3 assembling the given parts into the object.
+     */
+    private void complete(List<String> etags) throws IOException {
+        StringBuilder sb = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++)
+            sb.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>").append(etags.get(i)).append("</ETag></Part>");
+        sb.append("</CompleteMultipartUpload>");
+        byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection conn = openConnection("POST", WHOLE_UPLOAD, null, body, body.length);
+        // Note: S3 may report an error after having returned a 200 status code
+        String response = readResponse(conn);
+        if (response.contains("<Error>"))
+            throw new IOException("Failed to complete multipart upload: "+response);
+    }
+
+    /**
+     * Aborts the upload. Errors are logged and otherwise ignored.
+     */
+    private void abort() {
+        if (uploadId == null)
+            return;
+
+        try {
+            readResponse(openConnection("DELETE", WHOLE_UPLOAD, null, null, 0));
+        }
+        catch (IOException e) {
+            LOGGER.info("Failed to abort multipart upload "+uploadId, e);
+        }
+    }
+
+    /**
+     * Returns the query string of the sub-resource of requests on the given part, see
+     * {@link #openConnection(String, int, String, byte[], int)}.
+     *
+     * @param encode <code>true</code> to URL-encode the values, <code>false</code> for the string to sign
+     */
+    private String getSubresource(int partNumber, boolean encode) throws IOException {
+        if (partNumber == INITIATE)
+            return "uploads";
+
+        String subresource = "uploadId="+(encode ? URLEncoder.encode(uploadId, "UTF-8") : uploadId);
+        return partNumber == WHOLE_UPLOAD ? subresource : "partNumber="+partNumber+"&"+subresource;
+    }
+
+    /**
+     * Sends a signed request on the object with the given body.
+     *
+     * @param method HTTP method
+     * @param partNumber number of the part the request is about, {@link #INITIATE} to initiate the upload,
+     * {@link #WHOLE_UPLOAD} for requests on the whole upload
+     * @param contentMD5 base64 MD5 of the body, <code>null</code> for none
+     * @param body the body of the request, <code>null</code> for none
+     * @param length length of the body
+     * @return the connection, whose response has not been read yet
+     */
+    private HttpURLConnection openConnection(String method, int partNumber, String contentMD5, byte[] body, int length) throws IOException {
+        Jets3tProperties properties = service.getJetS3tProperties();
+        boolean https = service.isHttpsOnly();
+        // Same bucket addressing as the requests sent by JetS3t: virtual-host style unless the bucket name is not a
+        // valid DNS name or DNS buckets are disabled
+        String host = S3Service.generateS3HostnameForBucket(bucketName,
+            properties.getBoolProperty("s3service.disable-dns-buckets", false));
+        String virtualPath = properties.getStringProperty("s3service.s3-endpoint-virtual-path", "");
+        int port = https
+            ? properties.getIntProperty("s3service.s3-endpoint-https-port", 443)
+            : properties.getIntProperty("s3service.s3-endpoint-http-port", 80);
+
+        String key;
+        try {
+            key = RestUtils.encodeUrlPath(objectKey, "/");
+        }
+        catch (S3ServiceException e) {
+            throw new IOException(e);
+        }
+
+        // The bucket is part of the path only with path-style requests, but always part of the signed resource
+        String path = (host.equals(Constants.S3_HOSTNAME) ? "/"+bucketName : "")+"/"+key+"?";
+        String resource = "/"+bucketName+"/"+key+"?";
+
+        HttpURLConnection conn = (HttpURLConnection)new URL((https?"https":"http")+"://"+host+":"+port+virtualPath+path+getSubresource(partNumber, true)).openConnection();
+        conn.setRequestMethod(method);
+
+        String date = ServiceUtils.formatRfc822Date(new Date());
+        String contentType = body == null ? "" : CONTENT_TYPE;
+        conn.setRequestProperty("Date", date);
+        if (body != null)
+            conn.setRequestProperty("Content-Type", contentType);
+        if (contentMD5 != null)
+            conn.setRequestProperty("Content-MD5", contentMD5);
+
+        String stringToSign = method+"\n"+(contentMD5 == null ? "" : contentMD5)+"\n"+contentType+"\n"+date+"\n"+resource+getSubresource(partNumber, false);
+        AWSCredentials credentials = service.getAWSCredentials();
+        try {
+            conn.setRequestProperty("Authorization", "AWS "+credentials.getAccessKey()+":"+ServiceUtils.signWithHmacSha1(credentials.getSecretKey(), stringToSign));
+        }
+        catch (S3ServiceException e) {
+            throw new IOException(e);
+        }
+
+        if (body != null) {
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(length);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body, 0, length);
+            }
+        }
+
+        return conn;
+    }
+
+    /**
+     * Reads the response of the given connection, and throws an IOException if its status code is not 2xx.
+     */
+    private static String readResponse(HttpURLConnection conn) throws IOException {
+        int code = conn.getResponseCode();
+        InputStream in = code / 100 == 2 ? conn.getInputStream() : conn.getErrorStream();
+        String response = "";
+        if (in != null) {
+            try {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                StreamUtils.copyStream(in, bout);
+                response = new String(bout.toByteArray(), StandardCharsets.UTF_8);
+            }
+            finally {
+                in.close();
+            }
+        }
+        if (code / 100 != 2)
+            throw new IOException("S3 request failed, response code="+code+": "+response);
+
+        return response;
+    }
+}
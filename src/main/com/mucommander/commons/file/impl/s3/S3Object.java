@@ -20,6 +20,8 @@
 package com.mucommander.commons.file.impl.s3;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.filter.FileFilter;
+import com.mucommander.commons.file.filter.FilenameFilter;
 import com.mucommander.commons.io.BufferPool;
 import com.mucommander.commons.io.FileTransferException;
 import com.mucommander.commons.io.RandomAccessInputStream;
@@ -33,21 +35,25 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
 
 /**
  * <code>S3Object</code> represents an Amazon S3 object.
  *
  * @author Maxence Bernard
  */
-public class S3Object extends S3File {
+public class S3Object extends S3File implements RangeReadableFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(S3Object.class);
 
     private String bucketName;
     private S3ObjectFileAttributes atts;
 
-    /** Maximum size of an S3 object (5GB) */
+    /** Maximum size of an S3 object uploaded with a single PUT request (5GB) */
     private final static long MAX_OBJECT_SIZE = 5368709120l;
 
+    /** Minimum size of the objects uploaded in several parts, see {@link S3MultipartUpload} */
+    private final static long MULTIPART_UPLOAD_THRESHOLD = 2 * S3MultipartUpload.DEFAULT_PART_SIZE;
+
     // TODO: add support for ACL ? (would cost an extra request per object)
     /** Default permissions for S3 objects */
     private final static FilePermissions DEFAULT_PERMISSIONS = new SimpleFilePermissions(384);   // rw-------
@@ -139,7 +145,35 @@ public class S3Object extends S3File {
 
     @Override
     public AbstractFile[] ls() throws IOException {
-        return listObjects(bucketName, getObjectKey(true), this);
+        return collectChildren(lsIterator(), null);
+    }
+
+    /**
+     * Overridden to filter the children as they are listed, see {@link #lsIterator()}.
+     */
+    @Override
+    public AbstractFile[] ls(FileFilter filter) throws IOException {
+        return collectChildren(lsIterator(), filter);
+    }
+
+    /**
+     * Overridden to filter the children as they are listed, see {@link #lsIterator()}.
+     */
+    @Override
+    public AbstractFile[] ls(FilenameFilter filter) throws IOException {
+        return collectChildren(lsIterator(), filter);
+    }
+
+    /**
+     * Returns an iterator over the children of this directory, which are fetched from S3 one page at a time as the
+     * iterator advances, unlike {@link #ls()} which returns them all at once.
+     *
+     * @return an iterator over the children of this directory
+     * @throws IOException if the first page of children could not be fetched
+     * @see ObjectListingIterator
+     */
+    public Iterator<AbstractFile> lsIterator() throws IOException {
+        return new ObjectListingIterator(bucketName, getObjectKey(true), this);
     }
 
     @Override
@@ -238,6 +272,24 @@ public class S3Object extends S3File {
         }
     }
 
+    /**
+     * Always returns <code>true</code>: S3 supports byte range requests.
+     */
+    @Override
+    public boolean isRangeReadSupported() {
+        return true;
+    }
+
+    @Override
+    public InputStream getRangeInputStream(long offset, long length) throws IOException {
+        try {
+            return service.getObject(bucketName, getObjectKey(false), null, null, null, null, offset, offset+length-1).getDataInputStream();
+        }
+        catch(S3ServiceException e) {
+            throw getIOException(e);
+        }
+    }
+
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
         if(!exists())
@@ -334,53 +386,29 @@ public class S3Object extends S3File {
             throw new FileTransferException(FileTransferException.READING_SOURCE);
         }
 
-        // TODO: compute md5 ?
-
-        // If the length is known, we can upload the object directly without having to go through the tedious process
-        // of copying the stream to a temporary file.
-        if(length>=0) {
+        // If the length is known and small enough, upload the object with a single PUT request. Otherwise, upload it in
+        // parts, which does not require the length to be known in advance nor the stream to be copied to a temporary
+        // file, and allows objects larger than the maximum size of a PUT request.
+        if(length>=0 && length<MULTIPART_UPLOAD_THRESHOLD) {
             putObject(in, length);
         }
         else {
-            // Copy the stream to a temporary file so that we can know the object's length, which has to be declared
-            // in the PUT request's headers (that is before the transfer is started).
-            final AbstractFile tempFile;
-            final OutputStream tempOut;
             try {
-                tempFile = FileFactory.getTemporaryFile(false);
-                tempOut = tempFile.getOutputStream();
-            } catch (IOException e) {
-                throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
-            }
+                new S3MultipartUpload(service, bucketName, getObjectKey(false), length).upload(in);
 
-            try {
-                // Copy the stream to the temporary file
-                try {
-                    StreamUtils.copyStream(in, tempOut, IO_BUFFER_SIZE);
-                }
-                finally {
-                    // Close the stream even if copyStream() threw an IOException
-                    try {
-                        tempOut.close();
-                    } catch(IOException e) {
-                        // Do not re-throw the exception to prevent swallowing the exception thrown in the try block
-                    }
-                }
-
-                InputStream tempIn;
-                try {
-                    tempIn = tempFile.getInputStream();
-                } catch(IOException e) {
-                    throw new FileTransferException(FileTransferException.OPENING_SOURCE);
-                }
-
-                putObject(tempIn, tempFile.getSize());
+                atts.fetchAttributes();
+                atts.updateExpirationDate();
+            }
+            catch(IOException e) {
+                LOGGER.info("Multipart upload of {} failed", getURL(), e);
+                throw new FileTransferException(FileTransferException.UNKNOWN_REASON);
             }
             finally {
-                // Delete the temporary file, no matter what.
+                // Close the InputStream, no matter what
                 try {
-                    tempFile.delete();
-                } catch(IOException e) {
+                    in.close();
+                }
+                catch(IOException e) {
                     // Do not re-throw the exception to prevent exceptions caught in the catch block from being replaced
                 }
             }
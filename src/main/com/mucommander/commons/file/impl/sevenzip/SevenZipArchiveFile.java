@@ -26,6 +26,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Created on 23/05/14.
@@ -35,6 +37,12 @@ public class SevenZipArchiveFile extends AbstractROArchiveFile {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SevenZipArchiveFile.class);
 
+    /** Maximum number of data chunks buffered for an entry being extracted by {@link #extractEntries(List, ArchiveEntryHandler)} */
+    private static final int MAX_BUFFERED_CHUNKS = 16;
+
+    /** Maximum number of extracted entries waiting to be handled by {@link #extractEntries(List, ArchiveEntryHandler)} */
+    private static final int MAX_PENDING_ENTRIES = 4;
+
     private ISevenZipInArchive inArchive;
     private ArchiveOpenVolumeCallback archiveOpenVolumeCallback;
 
@@ -117,9 +125,74 @@ public class SevenZipArchiveFile extends AbstractROArchiveFile {
         return cbb.getInputStream();
     }
 
+    @Override
+    public boolean isBatchExtractionSupported() {
+        return true;
+    }
+
+    /**
+     * Extracts the given entries with a single call to {@link ISevenZipInArchive#extract(int[], boolean, IArchiveExtractCallback)},
+     * so that a solid block containing several of the entries is decompressed only once, rather than once per entry.
+     * The archive is decompressed by a separate thread, the handler being called from the calling thread as soon as
+     * an entry starts being decompressed.
+     */
+    @Override
+    public void extractEntries(List<ArchiveEntry> entries, ArchiveEntryHandler handler) throws IOException {
+        Map<Integer, ArchiveEntry> entriesByIndex = new HashMap<>();
+        for (ArchiveEntry entry : entries) {
+            if (!entry.isDirectory()) {
+                entriesByIndex.put((Integer)entry.getEntryObject(), entry);
+            }
+        }
+        if (entriesByIndex.isEmpty()) {
+            return;
+        }
+
+        int[] indices = new int[entriesByIndex.size()];
+        int i = 0;
+        for (int index : entriesByIndex.keySet()) {
+            indices[i++] = index;
+        }
+        Arrays.sort(indices);
+
+        final BatchExtractCallback callback = new BatchExtractCallback(entriesByIndex);
+        Thread thread = new Thread(() -> callback.extract(indices), "7z extraction of " + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+
+        boolean completed = false;
+        try {
+            EntryPipe pipe;
+            while ((pipe = callback.nextPipe()) != null) {
+                try {
+                    if (!handler.handleEntry(pipe.entry, pipe)) {
+                        break;
+                    }
+                } finally {
+                    pipe.discard();
+                }
+            }
+            completed = pipe == null;
+        } finally {
+            callback.finish();
+        }
+
+        if (completed && callback.error != null) {
+            throw callback.error instanceof IOException ? (IOException)callback.error : new IOException(callback.error);
+        }
+    }
+
 
 
 
+    /**
+     * Opens a separate instance of the archive for {@link #extractEntries(List, ArchiveEntryHandler)}, which reads it
+     * in its own thread.
+     */
+    ISevenZipInArchive openBatchArchive() throws IOException, SevenZipException {
+        return SevenZip.openInArchive(ArchiveFormat.SEVEN_ZIP, new SevenZipRandomAccessFile(file));
+    }
+
     /**
      * Creates and return an {@link ArchiveEntry()} whose attributes are fetched from the given {@link com.mucommander.commons.file.impl.sevenzip.provider.SevenZip.Archive.SevenZipEntry}
      *
@@ -137,6 +210,274 @@ public class SevenZipArchiveFile extends AbstractROArchiveFile {
         return result;
     }
 
+    /**
+     * Passes the contents of an entry from the extraction thread to the thread that handles it, by chunks of
+     * decompressed data.
+     */
+    private static class EntryPipe extends InputStream {
+
+        /** Marks the end of the entry */
+        private static final byte[] EOF = new byte[0];
+
+        private final ArchiveEntry entry;
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_BUFFERED_CHUNKS);
+        private byte[] chunk;
+        private int chunkPos;
+        private volatile boolean discarded;
+        private volatile String error;
+
+        EntryPipe(ArchiveEntry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * Called by the extraction thread, blocks while the handler lags behind. Data is dropped once the
+         * handler is done with the entry.
+         */
+        void write(byte[] data) throws SevenZipException {
+            if (discarded || data.length == 0) {
+                return;
+            }
+            try {
+                chunks.put(data);
+            } catch (InterruptedException e) {
+                throw new SevenZipException(e);
+            }
+        }
+
+        /**
+         * Called by the extraction thread once the entry has been decompressed.
+         *
+         * @param error the error to report to the handler, <code>null</code> if the entry was extracted successfully
+         */
+        void end(String error) throws SevenZipException {
+            this.error = error;
+            if (!discarded) {
+                try {
+                    chunks.put(EOF);
+                } catch (InterruptedException e) {
+                    throw new SevenZipException(e);
+                }
+            }
+        }
+
+        /**
+         * Called once the handler is done with the entry, unblocks the extraction thread as well as a thread
+         * blocked reading the entry, which then reaches the end of the stream.
+         */
+        void discard() {
+            discarded = true;
+            chunks.clear();
+            chunks.offer(EOF);
+        }
+
+        /**
+         * Returns <code>false</code> if the end of the entry has been reached.
+         */
+        private boolean nextChunk() throws IOException {
+            if (chunk == EOF) {
+                return false;
+            }
+            if (chunk != null && chunkPos < chunk.length) {
+                return true;
+            }
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            chunkPos = 0;
+            if (chunk == EOF) {
+                if (error != null) {
+                    throw new IOException(error);
+                }
+                return false;
+            }
+            if (discarded) {
+                chunk = EOF;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return nextChunk() ? chunk[chunkPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - chunkPos);
+            System.arraycopy(chunk, chunkPos, b, off, n);
+            chunkPos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return chunk == null || chunk == EOF ? 0 : chunk.length - chunkPos;
+        }
+
+        /**
+         * Discards the rest of the entry. This unblocks a read pending in another thread, for instance the background
+         * thread of a {@link com.mucommander.commons.io.ReadAheadInputStream} wrapping this stream.
+         */
+        @Override
+        public void close() {
+            discard();
+        }
+    }
+
+    /**
+     * Extracts a set of entries in a single pass, creating an {@link EntryPipe} for each of them.
+     */
+    private class BatchExtractCallback implements IArchiveExtractCallback {
+
+        /** Marks the end of the extraction */
+        private final EntryPipe END = new EntryPipe(null);
+
+        private final Map<Integer, ArchiveEntry> entriesByIndex;
+        private final BlockingQueue<EntryPipe> pipes = new ArrayBlockingQueue<>(MAX_PENDING_ENTRIES);
+        /** The entry being decompressed, accessed by the extraction thread only */
+        private EntryPipe current;
+        private volatile boolean aborted;
+        private boolean ended;
+        /** The error that stopped the extraction, if any */
+        private volatile Exception error;
+
+        BatchExtractCallback(Map<Integer, ArchiveEntry> entriesByIndex) {
+            this.entriesByIndex = entriesByIndex;
+        }
+
+        /**
+         * Runs in the extraction thread.
+         */
+        void extract(int[] indices) {
+            ISevenZipInArchive archive = null;
+            try {
+                archive = openBatchArchive();
+                archive.extract(indices, false, this);
+            } catch (SevenZipException | IOException e) {
+                if (!aborted) {
+                    error = e;
+                }
+            } finally {
+                if (archive != null) {
+                    try {
+                        archive.close();
+                    } catch (SevenZipException e) {
+                        LOGGER.debug("Error closing archive", e);
+                    }
+                }
+                if (current != null) {
+                    // Makes the handler fail if it is waiting for the rest of the entry
+                    current.error = "Extraction interrupted";
+                    current.discard();
+                }
+                try {
+                    pipes.put(END);
+                } catch (InterruptedException e) {
+                    LOGGER.debug("Interrupted", e);
+                }
+            }
+        }
+
+        /**
+         * Returns the next entry to handle, <code>null</code> once all entries have been extracted.
+         */
+        EntryPipe nextPipe() throws IOException {
+            try {
+                EntryPipe pipe = pipes.take();
+                if (pipe == END) {
+                    ended = true;
+                    return null;
+                }
+                return pipe;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        /**
+         * Stops the extraction if it is still running and waits for the extraction thread to be done with the
+         * archive.
+         */
+        void finish() {
+            aborted = true;
+            boolean interrupted = false;
+            while (!ended) {
+                try {
+                    EntryPipe pipe = pipes.take();
+                    if (pipe == END) {
+                        ended = true;
+                    } else {
+                        pipe.discard();
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public ISequentialOutStream getStream(int index, ExtractAskMode extractAskMode) throws SevenZipException {
+            if (aborted) {
+                throw new SevenZipException("Extraction aborted");
+            }
+            ArchiveEntry entry = entriesByIndex.get(index);
+            if (entry == null || extractAskMode != ExtractAskMode.EXTRACT) {
+                return null;
+            }
+            final EntryPipe pipe = new EntryPipe(entry);
+            try {
+                pipes.put(pipe);
+            } catch (InterruptedException e) {
+                throw new SevenZipException(e);
+            }
+            current = pipe;
+            return data -> {
+                if (aborted) {
+                    throw new SevenZipException("Extraction aborted");
+                }
+                // Chunks are queued as is, sevenzipjbinding allocates a new array for every call
+                pipe.write(data);
+                return data.length;
+            };
+        }
+
+        @Override
+        public void prepareOperation(ExtractAskMode extractAskMode) throws SevenZipException {
+        }
+
+        @Override
+        public void setOperationResult(ExtractOperationResult extractOperationResult) throws SevenZipException {
+            if (current != null) {
+                EntryPipe pipe = current;
+                current = null;
+                pipe.end(extractOperationResult == ExtractOperationResult.OK ? null : "Extraction error: " + extractOperationResult);
+            }
+        }
+
+        @Override
+        public void setTotal(long total) throws SevenZipException {
+        }
+
+        @Override
+        public void setCompleted(long completeValue) throws SevenZipException {
+        }
+    }
+
     private static class ArchiveOpenVolumeCallback implements IArchiveOpenVolumeCallback {
 
         /**
@@ -24,29 +24,62 @@ import com.mucommander.commons.file.ArchiveFormatProvider;
 import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 import com.mucommander.commons.file.impl.rar.RarArchiveFile;
+import net.sf.sevenzipjbinding.SevenZip;
+import net.sf.sevenzipjbinding.SevenZipNativeInitializationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 
 /**
  * This class is the provider for the '7z' archive format implemented by {@link RarArchiveFile}.
  *
+ * <p>Archives are read with {@link SevenZipArchiveFile}, which relies on the native 7-Zip-JBinding library. If the
+ * native library cannot be loaded on this platform, the pure Java {@link OldSevenZipArchiveFile} is used instead.</p>
+ *
  * @see com.mucommander.commons.file.impl.rar.RarArchiveFile
  * @author Arik Hadas
  */
 public class SevenZipFormatProvider implements ArchiveFormatProvider {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SevenZipFormatProvider.class);
+
 	/** Static instance of the filename filter that matches archive filenames */
     private final static ExtensionFilenameFilter filenameFilter = new ExtensionFilenameFilter(new String[]
         {".7z", ".cb7"}
     );
 
+    /** <code>true</code> if the native library is available, <code>null</code> until it has been initialized */
+    private static Boolean nativeAvailable;
+
+    /**
+     * Returns <code>true</code> if the native 7-Zip-JBinding library could be initialized. The initialization is
+     * attempted only once.
+     *
+     * @return <code>true</code> if the native 7-Zip-JBinding library is available
+     */
+    private static synchronized boolean isNativeAvailable() {
+        if (nativeAvailable == null) {
+            try {
+                if (!SevenZip.isInitializedSuccessfully())
+                    SevenZip.initSevenZipFromPlatformJAR();
+                nativeAvailable = true;
+            } catch (SevenZipNativeInitializationException | LinkageError e) {
+                LOGGER.info("7-Zip-JBinding is not available, using the Java 7z decoder", e);
+                nativeAvailable = false;
+            }
+        }
+        return nativeAvailable;
+    }
+
 
     //////////////////////////////////////////
     // ArchiveFormatProvider implementation //
     //////////////////////////////////////////
 
     public AbstractArchiveFile getFile(AbstractFile file) throws IOException {
-        return new SevenZipArchiveFile(file);
-//        return new OldSevenZipArchiveFile(file);
+        if (isNativeAvailable())
+            return new SevenZipArchiveFile(file);
+        return new OldSevenZipArchiveFile(file);
     }
 
     public FilenameFilter getFilenameFilter() {
@@ -430,8 +430,11 @@ public class Decoder
                                     numDirectBits - Base.kNumAlignBits) << Base.kNumAlignBits);
                             rep0 += m_PosAlignDecoder.ReverseDecode(m_RangeDecoder);
                             if (rep0 < 0) {
-                                if (rep0 == -1)
+                                if (rep0 == -1) {
+                                    // End marker
+                                    _remainLen = kLenIdFinished;
                                     break;
+                                }
                                 return HRESULT.S_FALSE;
                             }
                         }
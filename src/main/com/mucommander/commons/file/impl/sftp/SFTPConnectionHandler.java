@@ -36,6 +36,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -59,12 +60,51 @@ class SFTPConnectionHandler extends ConnectionHandler {
     /** 'Public key' SSH authentication method, not supported at the moment */
     private final static String PUBLIC_KEY_AUTH_METHOD = "publickey";
 
+    /** SFTP channels opened in addition to {@link #sftpSubsystem} by {@link #getChannels(int)} */
+    private final List<SftpSubsystemClient> extraChannels = new ArrayList<>();
+
+    /** Maximum number of channels that can be opened, lowered when the server refuses to open more of them */
+    private int maxChannels = Integer.MAX_VALUE;
+
 
     SFTPConnectionHandler(FileURL location) {
         super(location);
     }
 
 
+    /**
+     * Returns up to <code>count</code> SFTP channels over the same SSH connection, starting with {@link #sftpSubsystem}.
+     * Each channel processes a single request at a time, using several of them allows several requests to be
+     * outstanding at once. The additional channels are opened the first time they are requested, and remain open until
+     * the connection is closed.
+     *
+     * <p>Servers limit the number of channels that can be opened on a connection (10 sessions by default with OpenSSH):
+     * fewer channels than requested are returned if the server refuses to open more of them.</p>
+     *
+     * @param count the number of channels to return
+     * @return the channels, at least one
+     */
+    synchronized List<SftpSubsystemClient> getChannels(int count) {
+        extraChannels.removeIf(SftpSubsystemClient::isClosed);
+
+        count = Math.min(count, maxChannels);
+        while (extraChannels.size() + 1 < count) {
+            try {
+                extraChannels.add(sshClient.openSftpChannel());
+            } catch (IOException e) {
+                LOGGER.info("Could not open more than " + (extraChannels.size() + 1) + " SFTP channels", e);
+                maxChannels = extraChannels.size() + 1;
+                break;
+            }
+        }
+
+        List<SftpSubsystemClient> channels = new ArrayList<>(count);
+        channels.add(sftpSubsystem);
+        channels.addAll(extraChannels.subList(0, Math.max(0, count - 1)));
+        return channels;
+    }
+
+
     //////////////////////////////////////
     // ConnectionHandler implementation //
     //////////////////////////////////////
@@ -232,6 +272,16 @@ class SFTPConnectionHandler extends ConnectionHandler {
             }
         }
 
+        for (SftpSubsystemClient channel : extraChannels) {
+            try {
+                channel.close();
+            } catch(IOException e) {
+                LOGGER.info("IOException caught while closing an additional SFTP channel");
+            }
+        }
+        extraChannels.clear();
+        maxChannels = Integer.MAX_VALUE;
+
         if (sshClient != null) {
             sshClient.disconnect();
         }
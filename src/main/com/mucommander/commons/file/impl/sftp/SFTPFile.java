@@ -55,6 +55,10 @@ import java.util.List;
  * reused by SFTPFile instances located on the same server, dealing with concurrency issues. Connections are
  * thus managed transparently and need not be manually managed.</p>
  *
+ * <p>Streams keep several read or write requests outstanding at once, which the {@link #WINDOW_SIZE_PROPERTY_NAME}
+ * property of the URL allows to adjust to the latency of the link. See {@link SFTPPipelinedInputStream} for more
+ * information.</p>
+ *
  * <p>Low-level SFTP implementation is provided by the <code>J2SSH</code> library distributed under the LGPL license.</p>
  *
  * @see ConnectionPool
@@ -90,6 +94,14 @@ public class SFTPFile extends ProtocolFile {
      * authentication is used. */
     public final static String PRIVATE_KEY_PATH_PROPERTY_NAME = "privateKeyPath";
 
+    /** Name of the property that holds the maximum number of read or write requests that streams keep outstanding at
+     * once, see {@link SFTPPipelinedInputStream}. This property is optional; if it is not set,
+     * {@link #DEFAULT_WINDOW_SIZE} is used. */
+    public final static String WINDOW_SIZE_PROPERTY_NAME = "windowSize";
+
+    /** Default maximum number of read or write requests that streams keep outstanding at once */
+    public final static int DEFAULT_WINDOW_SIZE = 4;
+
     private final static String SEPARATOR = DEFAULT_SEPARATOR;
 
 
@@ -113,15 +125,17 @@ public class SFTPFile extends ProtocolFile {
     }
 
     /**
-     * Sets the time period during which attributes values (e.g. isDirectory, last modified, ...) are cached.
+     * Sets the time period during which attributes values (e.g. isDirectory, last modified, ...), directory listings
+     * and symlink targets are cached.
      * The higher this value, the lower the number of network requests but also the longer it takes
      * before those attributes can be refreshed. A value of <code>0</code> disables attributes caching.
      *
      * <p>This class ensures that the attributes changed remotely by one of its methods are always updated locally, even
      * with attributes caching enabled. To illustrate, after a call to {@link #mkdir()}, {@link #isDirectory()} will
-     * return <code>true</code>, even if the attributes haven't been refreshed. The attributes will however not be
-     * consistent if they have been changed by another {@link SFTPFile} or by another process, and will remain
-     * inconsistent for up to <code>period</code> milliseconds.
+     * return <code>true</code>, even if the attributes haven't been refreshed, and listing the parent directory will
+     * return the new directory (see {@link SFTPListingCache}). The attributes of an existing {@link SFTPFile} instance
+     * will however not be consistent if they have been changed by another {@link SFTPFile} or by another process, and
+     * will remain inconsistent for up to <code>period</code> milliseconds.
      *
      * @param period time period during which attributes values are cached, in milliseconds. 0 disables attributes caching.
      */
@@ -129,6 +143,34 @@ public class SFTPFile extends ProtocolFile {
         attributeCachingPeriod = period;
     }
 
+    /**
+     * Returns the time period during which attributes values and directory listings are cached, in milliseconds.
+     *
+     * @return the time period during which attributes values and directory listings are cached
+     * @see #setAttributeCachingPeriod(long)
+     */
+    static long getAttributeCachingPeriod() {
+        return attributeCachingPeriod;
+    }
+
+    /**
+     * Returns the maximum number of read or write requests that streams keep outstanding at once, as specified by
+     * the {@link #WINDOW_SIZE_PROPERTY_NAME} property of this file's URL.
+     */
+    private int getWindowSize() {
+        String windowSize = fileURL.getProperty(WINDOW_SIZE_PROPERTY_NAME);
+        if(windowSize!=null) {
+            try {
+                return Math.max(1, Integer.parseInt(windowSize));
+            }
+            catch(NumberFormatException e) {
+                LOGGER.info("Invalid {} property: {}", WINDOW_SIZE_PROPERTY_NAME, windowSize);
+            }
+        }
+
+        return DEFAULT_WINDOW_SIZE;
+    }
+
     private OutputStream getOutputStream(boolean append) throws IOException {
         // Retrieve a ConnectionHandler and lock it
         final SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
@@ -136,40 +178,51 @@ public class SFTPFile extends ProtocolFile {
             // Makes sure the connection is started, if not starts it
             connHandler.checkConnection();
 
-            SftpFile sftpFile;
-            if(exists()) {
-                sftpFile = connHandler.sftpSubsystem.openFile(absPath,
-                    append?SftpSubsystemClient.OPEN_WRITE|SftpSubsystemClient.OPEN_APPEND
-                    :SftpSubsystemClient.OPEN_WRITE|SftpSubsystemClient.OPEN_TRUNCATE);
-
-                // Update local attributes
-                if(!append)
-                    fileAttributes.setSize(0);
+            boolean exists = exists();
+            int flags;
+            FileAttributes atts = null;
+            if(exists) {
+                // Blocks may be written out of order: the file is not opened in append mode, the stream starts writing
+                // at the end of the file instead
+                flags = append?SftpSubsystemClient.OPEN_WRITE:SftpSubsystemClient.OPEN_WRITE|SftpSubsystemClient.OPEN_TRUNCATE;
             } else {
                 // Set new file permissions to 644 octal (420 dec): "rw-r--r--"
                 // Note: by default, permissions for files freshly created is 0 (not readable/writable/executable by anyone)!
-                FileAttributes atts = new FileAttributes();
+                flags = SftpSubsystemClient.OPEN_WRITE|SftpSubsystemClient.OPEN_CREATE;
+                atts = new FileAttributes();
                 atts.setPermissions(new UnsignedInteger32(0644));
-                sftpFile = connHandler.sftpSubsystem.openFile(absPath, SftpSubsystemClient.OPEN_WRITE|SftpSubsystemClient.OPEN_CREATE, atts);
-
-                // Update local attributes
-                fileAttributes.setExists(true);
-                fileAttributes.setDate(System.currentTimeMillis());
-                fileAttributes.setSize(0);
             }
 
-            return new CounterOutputStream(
-                // Custom SftpFileOutputStream constructor, not part of the official J2SSH API
-                new SftpFileOutputStream(sftpFile, append ? getSize() : 0L) {
-                    @Override
-                    public void close() throws IOException {
-                        // SftpFileOutputStream.close() closes the open SftpFile file handle
+            final SFTPListingCache cache = SFTPListingCache.getInstance(fileURL);
+            cache.invalidate(absPath);
+            OutputStream out = new SFTPPipelinedOutputStream(connHandler.getChannels(getWindowSize()), absPath, flags, atts, exists && append ? getSize() : 0L) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        // SFTPPipelinedOutputStream.close() closes the open SftpFile file handles
                         super.close();
-
+                    }
+                    finally {
+                        // The size and date of the file have changed
+                        cache.invalidate(absPath);
                         // Release the lock on the ConnectionHandler
                         connHandler.releaseLock();
                     }
                 }
+            };
+
+            // Update local attributes
+            if(exists) {
+                if(!append)
+                    fileAttributes.setSize(0);
+            } else {
+                fileAttributes.setExists(true);
+                fileAttributes.setDate(System.currentTimeMillis());
+                fileAttributes.setSize(0);
+            }
+
+            return new CounterOutputStream(
+                out
                 ,
                 new ByteCounter() {
                     @Override
@@ -246,6 +299,7 @@ public class SFTPFile extends ProtocolFile {
             connHandler.sftpSubsystem.setAttributes(sftpFile, attributes);
             // Update local attribute copy
             fileAttributes.setDate(lastModified);
+            SFTPListingCache.getInstance(fileURL).invalidate(absPath);
         } finally {
             // Close SftpFile instance to release its handle
             if (sftpFile != null) {
@@ -378,10 +432,15 @@ public class SFTPFile extends ProtocolFile {
             // Makes sure the connection is started, if not starts it
             connHandler.checkConnection();
 
-            if (isDirectory()) {
-                connHandler.sftpSubsystem.removeDirectory(absPath);
-            } else {
-                connHandler.sftpSubsystem.removeFile(absPath);
+            try {
+                if (isDirectory()) {
+                    connHandler.sftpSubsystem.removeDirectory(absPath);
+                } else {
+                    connHandler.sftpSubsystem.removeFile(absPath);
+                }
+            } finally {
+                // The file may have been deleted even if an error was reported
+                SFTPListingCache.getInstance(fileURL).invalidate(absPath);
             }
 
             // Update local attributes
@@ -400,20 +459,26 @@ public class SFTPFile extends ProtocolFile {
 
     @Override
     public AbstractFile[] ls() throws IOException {
-        // Retrieve a ConnectionHandler and lock it
-        SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
-        List<SftpFile> files;
-        try {
-            // Makes sure the connection is started, if not starts it
-            connHandler.checkConnection();
+        // Use the cached listing if it has not expired
+        SFTPListingCache cache = SFTPListingCache.getInstance(fileURL);
+        List<SftpFile> files = cache.getListing(absPath);
+        if (files == null) {
+            // Retrieve a ConnectionHandler and lock it
+            SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
+            try {
+                // Makes sure the connection is started, if not starts it
+                connHandler.checkConnection();
 
     //        connHandler.sftpSubsystem.listChildren(file, files);        // Modified J2SSH method to remove the 100 files limitation
 
-            // Use SftpClient.ls() rather than SftpChannel.listChildren() as it seems to be working better
-            files = connHandler.sftpClient.ls(absPath);
-        } finally {
-            // Release the lock on the ConnectionHandler
-            connHandler.releaseLock();
+                // Use SftpClient.ls() rather than SftpChannel.listChildren() as it seems to be working better
+                long generation = cache.getGeneration();
+                files = connHandler.sftpClient.ls(absPath);
+                cache.putListing(absPath, files, generation);
+            } finally {
+                // Release the lock on the ConnectionHandler
+                connHandler.releaseLock();
+            }
         }
 
         int nbFiles = files.size();
@@ -464,7 +529,11 @@ public class SFTPFile extends ProtocolFile {
 
             // Note: this J2SSH method has been patched to set the permissions of the new directory to 0755 (rwxr-xr-x)
             // instead of 0. This patches allows to avoid a 'change permissions' request (cf comment code hereunder).
-            connHandler.sftpSubsystem.makeDirectory(absPath);
+            try {
+                connHandler.sftpSubsystem.makeDirectory(absPath);
+            } finally {
+                SFTPListingCache.getInstance(fileURL).invalidate(absPath);
+            }
 
 //            // Set new directory permissions to 755 octal (493 dec): "rwxr-xr-x"
 //            // Note: by default, permissions for files freshly created is 0 (not readable/writable/executable by anyone)!
@@ -505,7 +574,13 @@ public class SFTPFile extends ProtocolFile {
             }
 
             // Will throw an IOException if the operation failed
-            connHandler.sftpClient.rename(absPath, destFile.getURL().getPath());
+            try {
+                connHandler.sftpClient.rename(absPath, destFile.getURL().getPath());
+            } finally {
+                SFTPListingCache cache = SFTPListingCache.getInstance(fileURL);
+                cache.invalidate(absPath);
+                cache.invalidate(destFile.getURL().getPath());
+            }
 
             // Update destination file attributes by fetching them from the server
             ((SFTPFileAttributes)destFile.getUnderlyingFileObject()).fetchAttributes();
@@ -611,6 +686,7 @@ public class SFTPFile extends ProtocolFile {
             connHandler.checkConnection();
 
             connHandler.sftpSubsystem.changePermissions(absPath, permissions);
+            SFTPListingCache.getInstance(fileURL).invalidate(absPath);
             // Update local attribute copy
             fileAttributes.setPermissions(new SimpleFilePermissions(permissions));
         }
@@ -629,18 +705,18 @@ public class SFTPFile extends ProtocolFile {
             // Makes sure the connection is started, if not starts it
             connHandler.checkConnection();
 
-            SftpFile sftpFile = connHandler.sftpSubsystem.openFile(absPath, SftpSubsystemClient.OPEN_READ);
-
-            // Custom made constructor, not part of the official J2SSH API
-            return new SftpFileInputStream(sftpFile, offset) {
+            return new SFTPPipelinedInputStream(connHandler.getChannels(getWindowSize()), absPath, offset) {
 
                     @Override
                     public void close() throws IOException {
-                        // SftpFileInputStream.close() closes the open SftpFile file handle
-                        super.close();
-
-                        // Release the lock on the ConnectionHandler
-                        connHandler.releaseLock();
+                        try {
+                            // SFTPPipelinedInputStream.close() closes the open SftpFile file handles
+                            super.close();
+                        }
+                        finally {
+                            // Release the lock on the ConnectionHandler
+                            connHandler.releaseLock();
+                        }
                 }
             };
         } catch(IOException e) {
@@ -669,7 +745,7 @@ public class SFTPFile extends ProtocolFile {
 
                 // getSymbolicLinkTarget returns the raw symlink target which can either be an absolute path or a
                 // relative path. If the path is relative preprend the absolute path of the symlink's parent folder.
-                String symlinkTargetPath = connHandler.sftpSubsystem.getSymbolicLinkTarget(fileURL.getPath());
+                String symlinkTargetPath = getLinkTarget(connHandler);
                 if (!symlinkTargetPath.startsWith("/")) {
                     String parentPath = fileURL.getParent().getPath();
                     if (!parentPath.endsWith("/")) {
@@ -699,6 +775,24 @@ public class SFTPFile extends ProtocolFile {
         return getAbsolutePath();
     }
 
+    /**
+     * Returns the raw target of this symlink, from the cache if it has not expired.
+     *
+     * @param connHandler the locked connection handler to use if the target is not cached
+     * @return the raw target of this symlink, either an absolute or a relative path
+     * @throws IOException if the target could not be retrieved
+     */
+    private String getLinkTarget(SFTPConnectionHandler connHandler) throws IOException {
+        SFTPListingCache cache = SFTPListingCache.getInstance(fileURL);
+        String target = cache.getLinkTarget(absPath);
+        if (target == null) {
+            long generation = cache.getGeneration();
+            target = connHandler.sftpSubsystem.getSymbolicLinkTarget(absPath);
+            cache.putLinkTarget(absPath, target, generation);
+        }
+        return target;
+    }
+
     /**
      * If the SFTPFile is a symbolic link, this method returns the name of the file being pointed to by the symbolic link.
      * @return The file pointed to by the symbolic link (null if the FTPFile is not a symbolic link).
@@ -716,7 +810,7 @@ public class SFTPFile extends ProtocolFile {
             connHandler.checkConnection();
             // getSymbolicLinkTarget returns the raw symlink target which can either be an absolute path or a
             // relative path. If the path is relative preprend the absolute path of the symlink's parent folder.
-            symlinkTargetPath = connHandler.sftpSubsystem.getSymbolicLinkTarget(fileURL.getPath());
+            symlinkTargetPath = getLinkTarget(connHandler);
 
         } catch (IOException e) {
             symlinkTargetPath = null;
@@ -782,6 +876,21 @@ public class SFTPFile extends ProtocolFile {
         }
 
         private void fetchAttributes() throws AuthException {
+            // Use the cached attributes if they have not expired, for instance if the parent has just been listed
+            SFTPListingCache cache = SFTPListingCache.getInstance(url);
+            String path = url.getPath();
+            if (cache.containsAttributes(path)) {
+                FileAttributes attrs = cache.getAttributes(path);
+                if (attrs == null) {
+                    setExists(false);
+                } else {
+                    setAttributes(attrs);
+                    setExists(true);
+                }
+                return;
+            }
+
+            long generation = cache.getGeneration();
             SFTPConnectionHandler connHandler = null;
             try {
                 // Retrieve a ConnectionHandler and lock it
@@ -798,8 +907,10 @@ public class SFTPFile extends ProtocolFile {
                 // isLink because it makes impossible to detect changes in the isLink state. Changes should not happen
                 // very often, but still.
                 // Todo: try and fix for this in J2SSH
-                setAttributes(connHandler.sftpSubsystem.getAttributes(url.getPath()));
+                FileAttributes attrs = connHandler.sftpSubsystem.getAttributes(path);
+                setAttributes(attrs);
                 setExists(true);
+                cache.putAttributes(path, attrs, generation);
             } catch (IOException e) {
                 // File doesn't exist on the server
                 setExists(false);
@@ -808,6 +919,11 @@ public class SFTPFile extends ProtocolFile {
                 if (e instanceof AuthException) {
                     throw (AuthException) e;
                 }
+
+                // Remember that the file does not exist only if the server reported it, not if the connection failed
+                if (connHandler != null && connHandler.isConnected()) {
+                    cache.putAttributes(path, null, generation);
+                }
             }
             finally {
                 // Release the lock on the ConnectionHandler
@@ -884,10 +1000,10 @@ public class SFTPFile extends ProtocolFile {
      */
     private class SFTPRandomAccessInputStream extends RandomAccessInputStream {
 
-        private SftpFileInputStream in;
+        private SFTPPipelinedInputStream in;
 
         private SFTPRandomAccessInputStream() throws IOException {
-            this.in = (SftpFileInputStream)getInputStream();
+            this.in = (SFTPPipelinedInputStream)getInputStream();
         }
 
         @Override
@@ -901,7 +1017,6 @@ public class SFTPFile extends ProtocolFile {
         }
 
         public long getOffset() throws IOException {
-            // Custom method, not part of the official J2SSH API
             return in.getPosition();
         }
 
@@ -910,7 +1025,6 @@ public class SFTPFile extends ProtocolFile {
         }
 
         public void seek(long offset) throws IOException {
-            // Custom method, not part of the official J2SSH API
             in.setPosition(offset);
         }
 
@@ -0,0 +1,251 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.sftp;
+
+import com.mucommander.commons.file.FileURL;
+import com.sshtools.j2ssh.sftp.FileAttributes;
+import com.sshtools.j2ssh.sftp.SftpFile;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the directory listings, file attributes and symlink targets retrieved from an SFTP server, so that browsing
+ * the same directories again, refreshing them or monitoring them for changes does not issue a request to the server
+ * every time. The cache is shared by all the connections to the same server with the same login.
+ *
+ * <p>Listing a directory also caches the attributes of its children: the attributes of the files created from the
+ * listed {@link SFTPFile} children are thus retrieved with a single request. Cached values expire after
+ * {@link SFTPFile#setAttributeCachingPeriod(long) the attribute caching period}, and are invalidated when the
+ * corresponding files are modified through {@link SFTPFile}. Modifications performed by other clients remain unnoticed
+ * until the values expire.</p>
+ *
+ * <p>Values retrieved from the server are only cached by the <code>put</code> methods if no invalidation happened since
+ * {@link #getGeneration()} was called before retrieving them, so that a value retrieved concurrently with a
+ * modification is not cached.</p>
+ */
+final class SFTPListingCache {
+
+    /** Number of values of a kind above which expired values are removed when a new value is cached */
+    private final static int MAX_ENTRIES = 10000;
+
+    /** Caches of each server and login */
+    private final static Map<String, SFTPListingCache> CACHES = new ConcurrentHashMap<>();
+
+    /** Directory listings, by directory path */
+    private final Map<String, Entry<List<SftpFile>>> listings = new ConcurrentHashMap<>();
+
+    /** File attributes, by file path. A <code>null</code> value means that the file does not exist */
+    private final Map<String, Entry<FileAttributes>> attributes = new ConcurrentHashMap<>();
+
+    /** Raw symlink targets, by symlink path */
+    private final Map<String, Entry<String>> linkTargets = new ConcurrentHashMap<>();
+
+    /** Incremented each time values are invalidated */
+    private final AtomicLong generation = new AtomicLong();
+
+    private SFTPListingCache() {
+    }
+
+    /**
+     * Returns the cache of the server and login of the given URL.
+     *
+     * @param url the URL of a file located on the server
+     * @return the cache of the server and login of the given URL
+     */
+    static SFTPListingCache getInstance(FileURL url) {
+        // Note: the realm returned by FileURL does not contain credentials. The password is masked: changing it does
+        // not make the cached values invalid.
+        FileURL realm = url.getRealm();
+        realm.setCredentials(url.getCredentials());
+        return CACHES.computeIfAbsent(realm.toString(true, true), key -> new SFTPListingCache());
+    }
+
+    /**
+     * Returns the current generation, to be passed to the <code>put</code> methods along with the values retrieved
+     * from the server after this method has been called.
+     *
+     * @return the current generation
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns the cached listing of the given directory, <code>null</code> if there is none or if it has expired.
+     *
+     * @param path the directory's path
+     * @return the cached listing, <code>null</code> if there is none or if it has expired
+     */
+    List<SftpFile> getListing(String path) {
+        Entry<List<SftpFile>> entry = getEntry(listings, path);
+        return entry==null ? null : entry.value;
+    }
+
+    /**
+     * Caches the listing of the given directory and the attributes of its children, except those of symlinks whose
+     * attributes are those of the link itself rather than those of its target.
+     *
+     * @param path the directory's path
+     * @param files the directory's children, as returned by the server
+     * @param generation the value returned by {@link #getGeneration()} before the listing was retrieved
+     */
+    void putListing(String path, List<SftpFile> files, long generation) {
+        String parentPath = path.endsWith("/") ? path : path+"/";
+        for(SftpFile file : files) {
+            FileAttributes attrs = file.getAttributes();
+            if(attrs!=null && !attrs.isLink())
+                putEntry(attributes, parentPath+file.getFilename(), attrs, generation);
+        }
+
+        putEntry(listings, path, Collections.unmodifiableList(files), generation);
+    }
+
+    /**
+     * Returns <code>true</code> if the attributes of the given file are cached and have not expired.
+     *
+     * @param path the file's path
+     * @return <code>true</code> if the attributes of the given file are cached and have not expired
+     */
+    boolean containsAttributes(String path) {
+        return getEntry(attributes, path)!=null;
+    }
+
+    /**
+     * Returns the cached attributes of the given file, <code>null</code> if the file does not exist or if its
+     * attributes are not cached, which {@link #containsAttributes(String)} tells apart.
+     *
+     * @param path the file's path
+     * @return the cached attributes, <code>null</code> if the file does not exist or if its attributes are not cached
+     */
+    FileAttributes getAttributes(String path) {
+        Entry<FileAttributes> entry = getEntry(attributes, path);
+        return entry==null ? null : entry.value;
+    }
+
+    /**
+     * Caches the attributes of the given file.
+     *
+     * @param path the file's path
+     * @param attrs the file's attributes, <code>null</code> if the file does not exist
+     * @param generation the value returned by {@link #getGeneration()} before the attributes were retrieved
+     */
+    void putAttributes(String path, FileAttributes attrs, long generation) {
+        putEntry(attributes, path, attrs, generation);
+    }
+
+    /**
+     * Returns the cached raw target of the given symlink, <code>null</code> if there is none or if it has expired.
+     *
+     * @param path the symlink's path
+     * @return the cached raw target, <code>null</code> if there is none or if it has expired
+     */
+    String getLinkTarget(String path) {
+        Entry<String> entry = getEntry(linkTargets, path);
+        return entry==null ? null : entry.value;
+    }
+
+    /**
+     * Caches the raw target of the given symlink.
+     *
+     * @param path the symlink's path
+     * @param target the raw target of the symlink
+     * @param generation the value returned by {@link #getGeneration()} before the target was retrieved
+     */
+    void putLinkTarget(String path, String target, long generation) {
+        putEntry(linkTargets, path, target, generation);
+    }
+
+    /**
+     * Invalidates the values cached for the given file, which has been created, modified or deleted: its attributes,
+     * the listing of its parent and, if it is a directory, the values cached for its contents.
+     *
+     * @param path the path of the file
+     */
+    void invalidate(String path) {
+        generation.incrementAndGet();
+
+        if(path.length()>1 && path.endsWith("/"))
+            path = path.substring(0, path.length()-1);
+        String childPrefix = path.equals("/") ? path : path+"/";
+        int separatorPos = path.lastIndexOf('/', path.length()-2);
+        String parentPath = separatorPos<=0 ? "/" : path.substring(0, separatorPos);
+
+        invalidate(listings, path, childPrefix);
+        invalidate(attributes, path, childPrefix);
+        invalidate(linkTargets, path, childPrefix);
+
+        // The parent's listing may be keyed with or without a trailing separator
+        listings.remove(parentPath);
+        listings.remove(parentPath+"/");
+    }
+
+    private static void invalidate(Map<String, ?> map, String path, String childPrefix) {
+        map.keySet().removeIf(key -> key.equals(path) || key.equals(childPrefix) || key.startsWith(childPrefix));
+    }
+
+    private static <T> Entry<T> getEntry(Map<String, Entry<T>> map, String path) {
+        Entry<T> entry = map.get(path);
+        if(entry==null)
+            return null;
+
+        if(System.currentTimeMillis()-entry.time>=SFTPFile.getAttributeCachingPeriod()) {
+            map.remove(path, entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+    private <T> void putEntry(Map<String, Entry<T>> map, String path, T value, long generation) {
+        if(SFTPFile.getAttributeCachingPeriod()<=0)
+            return;
+
+        if(map.size()>=MAX_ENTRIES) {
+            long now = System.currentTimeMillis();
+            map.values().removeIf(entry -> now-entry.time>=SFTPFile.getAttributeCachingPeriod());
+            // Start over if the values have not expired yet
+            if(map.size()>=MAX_ENTRIES)
+                map.clear();
+        }
+
+        Entry<T> entry = new Entry<>(value);
+        map.put(path, entry);
+
+        // Discard the value if it was invalidated while being retrieved
+        if(this.generation.get()!=generation)
+            map.remove(path, entry);
+    }
+
+
+    /**
+     * A cached value and the time at which it was retrieved.
+     */
+    private static class Entry<T> {
+        private final T value;
+        private final long time = System.currentTimeMillis();
+
+        private Entry(T value) {
+            this.value = value;
+        }
+    }
+}
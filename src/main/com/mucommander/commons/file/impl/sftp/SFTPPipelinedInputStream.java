@@ -0,0 +1,319 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.sftp;
+
+import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.IOExecutor;
+import com.sshtools.j2ssh.sftp.SftpFile;
+import com.sshtools.j2ssh.sftp.SftpFileInputStream;
+import com.sshtools.j2ssh.sftp.SftpSubsystemClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file from an SFTP server keeping several read requests outstanding at once, rather than waiting for the
+ * response to a request before sending the next one: the file is read by blocks of {@link #REQUEST_SIZE} bytes, and
+ * the blocks following the one being consumed are requested ahead of time. On high-latency links, this makes the
+ * throughput depend on the number of outstanding requests rather than on the round-trip time.
+ *
+ * <p>J2SSH processes a single request at a time per SFTP channel: the file is opened on each of the channels returned
+ * by {@link SFTPConnectionHandler#getChannels(int)}, and each channel has one request outstanding.</p>
+ *
+ * <p>Seeking within the block being consumed is free, seeking anywhere else discards the blocks requested so far.</p>
+ */
+class SFTPPipelinedInputStream extends InputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SFTPPipelinedInputStream.class);
+
+    /** Number of bytes requested by each read request, the same as OpenSSH's sftp client */
+    final static int REQUEST_SIZE = 32 * 1024;
+
+    /** Streams reading the file through each channel */
+    private final List<SftpFileInputStream> readers = new ArrayList<>();
+
+    /** Readers that are not processing a request */
+    private final BlockingQueue<SftpFileInputStream> idleReaders;
+
+    /** Blocks requested and not consumed yet, in the order of their offset */
+    private final ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+
+    /** Offset of the next block to request */
+    private long nextOffset;
+
+    /** True once a block shorter than {@link #REQUEST_SIZE} has been received, no more blocks are requested */
+    private boolean eofReached;
+
+    /** The block being consumed, <code>null</code> if there is none */
+    private Block current;
+
+    /** Position in the current block */
+    private int currentPos;
+
+    private boolean closed;
+
+    /**
+     * Opens the given file for reading on each of the given channels.
+     *
+     * @param channels the channels to read the file through, the first one being used to report errors opening the file
+     * @param path absolute path to the file
+     * @param offset offset of the first byte to read
+     * @throws IOException if the file could not be opened on the first channel
+     */
+    SFTPPipelinedInputStream(List<SftpSubsystemClient> channels, String path, long offset) throws IOException {
+        for (SftpSubsystemClient channel : channels) {
+            SftpFile file;
+            try {
+                file = channel.openFile(path, SftpSubsystemClient.OPEN_READ);
+            } catch (IOException e) {
+                if (readers.isEmpty())
+                    throw e;
+
+                LOGGER.info("Could not open " + path + " on an additional channel", e);
+                continue;
+            }
+
+            // Custom made constructor, not part of the official J2SSH API
+            readers.add(new SftpFileInputStream(file, 0));
+        }
+
+        idleReaders = new ArrayBlockingQueue<>(readers.size(), false, readers);
+        nextOffset = offset;
+    }
+
+    /**
+     * Requests blocks until the window is full.
+     */
+    private void requestBlocks() {
+        while (!eofReached && pending.size() < readers.size()) {
+            final long offset = nextOffset;
+            pending.add(IOExecutor.submit(() -> readBlock(offset)));
+            nextOffset += REQUEST_SIZE;
+        }
+    }
+
+    /**
+     * Reads the block located at the given offset using the first idle reader. Called by the executor's threads.
+     */
+    private Block readBlock(long offset) throws IOException, InterruptedException {
+        SftpFileInputStream reader = idleReaders.take();
+        byte[] data = BufferPool.getByteArray(REQUEST_SIZE);
+        try {
+            // Custom method, not part of the official J2SSH API
+            reader.setPosition(offset);
+
+            // Servers may return fewer bytes than requested before the end of the file
+            int length = 0;
+            int nbRead;
+            while (length < REQUEST_SIZE && (nbRead = reader.read(data, length, REQUEST_SIZE - length)) > 0)
+                length += nbRead;
+
+            return new Block(offset, data, length);
+        } catch (IOException e) {
+            BufferPool.releaseByteArray(data);
+            throw e;
+        } finally {
+            idleReaders.add(reader);
+        }
+    }
+
+    /**
+     * Makes the next block the current one, waiting for it to be received if needed.
+     *
+     * @return <code>false</code> if the end of the file has been reached
+     */
+    private boolean nextBlock() throws IOException {
+        long offset = getPosition();
+        releaseCurrent();
+        if (eofReached)
+            return false;
+
+        requestBlocks();
+        Block block;
+        try {
+            block = waitFor(pending.poll());
+        } catch (IOException e) {
+            // Start over from the failed block if reading is resumed
+            discardPending();
+            nextOffset = offset;
+            throw e;
+        }
+
+        if (block.length < REQUEST_SIZE) {
+            eofReached = true;
+            discardPending();
+        } else {
+            requestBlocks();
+        }
+
+        current = block;
+        currentPos = 0;
+        return block.length > 0;
+    }
+
+    private Block waitFor(Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Waits for the outstanding requests to complete and discards their blocks, so that the readers are not in use
+     * anymore.
+     */
+    private void discardPending() {
+        Future<Block> future;
+        while ((future = pending.poll()) != null) {
+            try {
+                BufferPool.releaseByteArray(future.get().data);
+            } catch (InterruptedException | ExecutionException e) {
+                // The readers are in a consistent state once the request has completed, no matter how
+            }
+        }
+    }
+
+    private void releaseCurrent() {
+        if (current != null) {
+            BufferPool.releaseByteArray(current.data);
+            current = null;
+        }
+    }
+
+    /**
+     * Returns the offset of the next byte to be read.
+     *
+     * @return the offset of the next byte to be read
+     */
+    long getPosition() {
+        return current == null ? nextOffset : current.offset + currentPos;
+    }
+
+    /**
+     * Sets the offset of the next byte to be read.
+     *
+     * @param offset the offset of the next byte to read
+     */
+    void setPosition(long offset) {
+        if (current != null && offset >= current.offset && offset <= current.offset + current.length) {
+            currentPos = (int)(offset - current.offset);
+            return;
+        }
+
+        discardPending();
+        releaseCurrent();
+        nextOffset = offset;
+        eofReached = false;
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        if ((current == null || currentPos == current.length) && !nextBlock())
+            return -1;
+
+        return current.data[currentPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        if ((current == null || currentPos == current.length) && !nextBlock())
+            return -1;
+
+        len = Math.min(len, current.length - currentPos);
+        System.arraycopy(current.data, currentPos, b, off, len);
+        currentPos += len;
+        return len;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - currentPos;
+    }
+
+    /**
+     * Closes the file on all channels, after the outstanding requests have completed.
+     *
+     * @throws IOException if the file could not be closed on one of the channels
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        // Keep the current block's offset, so that getPosition() remains valid
+        long position = getPosition();
+        discardPending();
+        releaseCurrent();
+        nextOffset = position;
+
+        IOException closeException = null;
+        for (SftpFileInputStream reader : readers) {
+            try {
+                // SftpFileInputStream.close() closes the open SftpFile file handle
+                reader.close();
+            } catch (IOException e) {
+                closeException = e;
+            }
+        }
+
+        if (closeException != null)
+            throw closeException;
+    }
+
+
+    /**
+     * A block of the file, received in response to a read request.
+     */
+    private static class Block {
+        /** Offset of the block in the file */
+        private final long offset;
+        /** The block's data, retrieved from {@link BufferPool} */
+        private final byte[] data;
+        /** Number of bytes received, less than {@link #REQUEST_SIZE} at the end of the file */
+        private final int length;
+
+        private Block(long offset, byte[] data, int length) {
+            this.offset = offset;
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
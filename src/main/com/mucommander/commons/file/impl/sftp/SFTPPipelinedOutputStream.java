@@ -0,0 +1,261 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.sftp;
+
+import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.IOExecutor;
+import com.sshtools.j2ssh.sftp.FileAttributes;
+import com.sshtools.j2ssh.sftp.SftpFile;
+import com.sshtools.j2ssh.sftp.SftpFileOutputStream;
+import com.sshtools.j2ssh.sftp.SftpSubsystemClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a file to an SFTP server keeping several write requests outstanding at once, rather than waiting for the
+ * response to a request before sending the next one: the data is buffered into blocks of
+ * {@link SFTPPipelinedInputStream#REQUEST_SIZE} bytes, each of which is written at its offset while the following ones
+ * are being filled. Errors are reported by the call to {@link #write(byte[], int, int)}, {@link #flush()} or
+ * {@link #close()} that follows them.
+ *
+ * <p>As with {@link SFTPPipelinedInputStream}, the file is opened on each of the channels returned by
+ * {@link SFTPConnectionHandler#getChannels(int)}, and each channel has one request outstanding. Since blocks may be
+ * written out of order, the file must not be opened in append mode: appending is done by writing from the end of the
+ * file.</p>
+ */
+class SFTPPipelinedOutputStream extends OutputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SFTPPipelinedOutputStream.class);
+
+    private final static int REQUEST_SIZE = SFTPPipelinedInputStream.REQUEST_SIZE;
+
+    /** The file opened on each channel */
+    private final List<SftpFile> files = new ArrayList<>();
+
+    /** Files that are not processing a request */
+    private final BlockingQueue<SftpFile> idleFiles;
+
+    /** Outstanding write requests, in the order they were sent */
+    private final ArrayDeque<Future<Void>> pending = new ArrayDeque<>();
+
+    /** The block being filled, retrieved from {@link BufferPool} */
+    private byte[] buffer;
+
+    /** Number of bytes in the block being filled */
+    private int bufferLength;
+
+    /** Offset in the file of the block being filled */
+    private long offset;
+
+    private boolean closed;
+
+    /**
+     * Opens the given file for writing on each of the given channels.
+     *
+     * @param channels the channels to write the file through
+     * @param path absolute path to the file
+     * @param flags the flags used to open the file on the first channel, which must not include
+     * {@link SftpSubsystemClient#OPEN_APPEND}. The file is opened with {@link SftpSubsystemClient#OPEN_WRITE} only on
+     * the other channels.
+     * @param attributes the attributes of the file if it is created, <code>null</code> for none
+     * @param offset offset at which to start writing
+     * @throws IOException if the file could not be opened on the first channel
+     */
+    SFTPPipelinedOutputStream(List<SftpSubsystemClient> channels, String path, int flags, FileAttributes attributes, long offset) throws IOException {
+        for (SftpSubsystemClient channel : channels) {
+            try {
+                if (files.isEmpty())
+                    files.add(attributes == null ? channel.openFile(path, flags) : channel.openFile(path, flags, attributes));
+                else
+                    files.add(channel.openFile(path, SftpSubsystemClient.OPEN_WRITE));
+            } catch (IOException e) {
+                if (files.isEmpty())
+                    throw e;
+
+                LOGGER.info("Could not open " + path + " on an additional channel", e);
+            }
+        }
+
+        idleFiles = new ArrayBlockingQueue<>(files.size(), false, files);
+        buffer = BufferPool.getByteArray(REQUEST_SIZE);
+        this.offset = offset;
+    }
+
+    /**
+     * Sends a request writing the block being filled, waiting for an outstanding request to complete first if the
+     * window is full.
+     */
+    private void sendBlock() throws IOException {
+        checkPending(pending.size() == files.size());
+
+        final byte[] data = buffer;
+        final int length = bufferLength;
+        final long blockOffset = offset;
+        pending.add(IOExecutor.submit(() -> {
+            SftpFile file = idleFiles.take();
+            try {
+                new PositionedOutputStream(file, blockOffset).write(data, 0, length);
+                return null;
+            } finally {
+                idleFiles.add(file);
+                BufferPool.releaseByteArray(data);
+            }
+        }));
+
+        offset += length;
+        buffer = BufferPool.getByteArray(REQUEST_SIZE);
+        bufferLength = 0;
+    }
+
+    /**
+     * Removes the completed requests, throwing the exception of the first one that failed.
+     *
+     * @param waitForOldest <code>true</code> to wait for the oldest request to complete
+     */
+    private void checkPending(boolean waitForOldest) throws IOException {
+        Future<Void> future;
+        while ((future = pending.peek()) != null && (future.isDone() || waitForOldest)) {
+            pending.poll();
+            waitForOldest = false;
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+            }
+        }
+    }
+
+
+    /////////////////////////////////
+    // OutputStream implementation //
+    /////////////////////////////////
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[bufferLength++] = (byte)b;
+        if (bufferLength == REQUEST_SIZE)
+            sendBlock();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, REQUEST_SIZE - bufferLength);
+            System.arraycopy(b, off, buffer, bufferLength, n);
+            bufferLength += n;
+            off += n;
+            len -= n;
+
+            if (bufferLength == REQUEST_SIZE)
+                sendBlock();
+        }
+    }
+
+    /**
+     * Sends the block being filled and waits for all outstanding requests to complete.
+     *
+     * @throws IOException if one of the requests failed
+     */
+    @Override
+    public void flush() throws IOException {
+        if (bufferLength > 0)
+            sendBlock();
+
+        while (!pending.isEmpty())
+            checkPending(true);
+    }
+
+    /**
+     * Flushes this stream and closes the file on all channels. The file is closed even if flushing failed.
+     *
+     * @throws IOException if the data could not be written or the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        IOException exception = null;
+        try {
+            flush();
+        } catch (IOException e) {
+            exception = e;
+
+            // Wait for the remaining requests so that the files are not in use anymore
+            while (!pending.isEmpty()) {
+                try {
+                    checkPending(true);
+                } catch (IOException e2) {
+                    // Report the first error only
+                }
+            }
+        }
+
+        BufferPool.releaseByteArray(buffer);
+
+        for (SftpFile file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                if (exception == null)
+                    exception = e;
+            }
+        }
+
+        if (exception != null)
+            throw exception;
+    }
+
+
+    /**
+     * Writes a block at a given offset of an open file, which remains open after the block has been written.
+     */
+    private static class PositionedOutputStream extends SftpFileOutputStream {
+
+        // Custom SftpFileOutputStream constructor, not part of the official J2SSH API
+        private PositionedOutputStream(SftpFile file, long position) throws IOException {
+            super(file, position);
+        }
+
+        @Override
+        public void close() {
+            // The file is closed by SFTPPipelinedOutputStream
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        protected void finalize() {
+            // SftpFileOutputStream.finalize() closes the file
+        }
+    }
+}
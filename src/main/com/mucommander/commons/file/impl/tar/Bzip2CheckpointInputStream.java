@@ -0,0 +1,165 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.mucommander.commons.file.impl.tar;
+
+import com.mucommander.commons.io.StreamUtils;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.io.compress.bzip2.CBZip2InputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <code>Bzip2CheckpointInputStream</code> decompresses a Bzip2 stream and adds a checkpoint to a {@link CheckpointIndex}
+ * at the end of each block. Bzip2 blocks are compressed independently of each other, so a checkpoint is simply the
+ * position of the block in the compressed stream. A stream can then be created from a checkpoint, to start
+ * decompressing in the middle of the archive.
+ *
+ * <p>Decompression is performed by <code>CBZip2InputStream</code> in its <i>by block</i> mode, which looks for
+ * the next block marker when it is created. Block markers are not byte-aligned, checkpoints are thus positioned a few
+ * bytes before the marker.</p>
+ *
+ * @see CheckpointIndex
+ */
+class Bzip2CheckpointInputStream extends InputStream {
+
+    /** Number of bytes between a checkpoint and the end of the 48-bit block marker that follows it */
+    private final static int MARKER_MARGIN = 10;
+
+    /** Value returned by CBZip2InputStream at the end of a block */
+    private final static int END_OF_BLOCK = -2;
+
+    private final CBZip2InputStream in;
+    /** Index to add checkpoints to, may be null */
+    private final CheckpointIndex index;
+
+    /** Offset in the compressed stream of the first byte read by the CBZip2InputStream */
+    private final long compressedOffset;
+    /** Uncompressed offset of the next byte to return */
+    private long position;
+
+    private final byte oneByte[] = new byte[1];
+    /** Buffer decompressed data is skipped into, created on demand */
+    private byte skipBuffer[];
+
+    /**
+     * Creates a new <code>Bzip2CheckpointInputStream</code> that decompresses the given Bzip2 stream from its start.
+     *
+     * @param in the Bzip2 stream
+     * @param index index to add checkpoints to, <code>null</code> for none
+     * @throws IOException if the stream is not in the Bzip2 format or could not be read
+     */
+    Bzip2CheckpointInputStream(InputStream in, CheckpointIndex index) throws IOException {
+        byte header[] = new byte[4];
+        StreamUtils.readFully(in, header);
+        if(header[0]!='B' || header[1]!='Z' || header[2]!='h' || header[3]<'1' || header[3]>'9')
+            throw new IOException("Not in Bzip2 format");
+
+        this.in = createStream(in);
+        this.index = index;
+        this.compressedOffset = header.length;
+    }
+
+    /**
+     * Creates a new <code>Bzip2CheckpointInputStream</code> that resumes decompression at the given checkpoint.
+     *
+     * @param in the Bzip2 stream, positioned at the checkpoint's compressed offset
+     * @param checkpoint the checkpoint where decompression resumes
+     * @param index index to add checkpoints to, <code>null</code> for none
+     * @throws IOException if the stream could not be read
+     */
+    Bzip2CheckpointInputStream(InputStream in, CheckpointIndex.Checkpoint checkpoint, CheckpointIndex index) throws IOException {
+        this.in = createStream(in);
+        this.index = index;
+        this.compressedOffset = checkpoint.getCompressedOffset();
+        this.position = checkpoint.getUncompressedOffset();
+    }
+
+    private static CBZip2InputStream createStream(InputStream in) throws IOException {
+        try {
+            // CBZip2InputStream reads the source stream one byte at a time
+            return new CBZip2InputStream(new BufferedInputStream(in), SplittableCompressionCodec.READ_MODE.BYBLOCK);
+        }
+        catch(RuntimeException e) {
+            // CBZip2InputStream is known to throw NullPointerException if the stream is not properly Bzip2-encoded
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Adds a checkpoint at the start of the next block, if the index needs one.
+     */
+    private void addCheckpoint() {
+        if(index!=null && index.isCheckpointNeeded(position))
+            index.addCheckpoint(new CheckpointIndex.Checkpoint(compressedOffset+in.getProcessedByteCount()-MARKER_MARGIN, 0, position, null));
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        return read(oneByte, 0, 1)==-1 ? -1 : oneByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if(len==0)
+            return 0;
+
+        int nbRead;
+        try {
+            do {
+                nbRead = in.read(b, off, len);
+                if(nbRead==END_OF_BLOCK)
+                    addCheckpoint();
+            } while(nbRead==END_OF_BLOCK || nbRead==0);
+        }
+        catch(RuntimeException e) {
+            throw new IOException(e);
+        }
+
+        if(nbRead>0)
+            position += nbRead;
+        return nbRead;
+    }
+
+    /**
+     * Skips decompressed data. Unlike <code>InputStream#skip(long)</code>, this method returns <code>-1</code> when the
+     * end of the stream has been reached, as expected by {@link StreamUtils#skipFully(InputStream, long)}.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if(n<=0)
+            return 0;
+
+        if(skipBuffer==null)
+            skipBuffer = new byte[8192];
+        return read(skipBuffer, 0, (int)Math.min(n, skipBuffer.length));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.mucommander.commons.file.impl.tar;
+
+import com.mucommander.commons.file.AbstractFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>CheckpointIndex</code> records the points of a compressed archive where decompression can be resumed, so that
+ * an entry can be read without decompressing the archive from its start. Checkpoints are added by the decompressing
+ * streams as they go, at least <code>span</code> uncompressed bytes apart, and are kept sorted by uncompressed offset.
+ *
+ * <p>An index is only valid for the version of the archive it was created for: {@link #isValidFor(AbstractFile)}
+ * compares the archive's date and size with those it had when the index was created.</p>
+ *
+ * <p>This class is thread-safe: the index of an archive can be used by several streams at the same time.</p>
+ *
+ * @see GzipCheckpointInputStream
+ * @see Bzip2CheckpointInputStream
+ */
+class CheckpointIndex {
+
+    /** Minimum uncompressed distance between two checkpoints */
+    private final long span;
+
+    /** Date and size of the archive when this index was created */
+    private final long archiveDate;
+    private final long archiveSize;
+
+    /** Checkpoints, sorted by uncompressed offset */
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+    /**
+     * Creates an empty index for the given archive file.
+     *
+     * @param archiveFile the compressed archive file
+     * @param span minimum uncompressed distance between two checkpoints
+     */
+    CheckpointIndex(AbstractFile archiveFile, long span) {
+        this.span = span;
+        this.archiveDate = archiveFile.getDate();
+        this.archiveSize = archiveFile.getSize();
+    }
+
+    /**
+     * Returns <code>true</code> if the given archive file hasn't changed since this index was created.
+     *
+     * @param archiveFile the compressed archive file
+     * @return <code>true</code> if the given archive file hasn't changed since this index was created
+     */
+    boolean isValidFor(AbstractFile archiveFile) {
+        return archiveFile.getDate()==archiveDate && archiveFile.getSize()==archiveSize;
+    }
+
+    /**
+     * Returns <code>true</code> if a checkpoint should be added at the given uncompressed offset, i.e. if it is at
+     * least <code>span</code> bytes past the last checkpoint. Streams call this method before creating a checkpoint,
+     * which can be expensive.
+     *
+     * @param uncompressedOffset an uncompressed offset
+     * @return <code>true</code> if a checkpoint should be added at the given uncompressed offset
+     */
+    synchronized boolean isCheckpointNeeded(long uncompressedOffset) {
+        long lastOffset = checkpoints.isEmpty() ? 0 : checkpoints.get(checkpoints.size()-1).uncompressedOffset;
+        return uncompressedOffset>lastOffset && uncompressedOffset-lastOffset>=span;
+    }
+
+    /**
+     * Adds the given checkpoint to this index, unless it is too close to the last checkpoint.
+     *
+     * @param checkpoint the checkpoint to add
+     */
+    synchronized void addCheckpoint(Checkpoint checkpoint) {
+        if(isCheckpointNeeded(checkpoint.uncompressedOffset))
+            checkpoints.add(checkpoint);
+    }
+
+    /**
+     * Returns the checkpoint that is the closest to the given uncompressed offset without being past it,
+     * <code>null</code> if there is no such checkpoint.
+     *
+     * @param uncompressedOffset the uncompressed offset to reach
+     * @return the last checkpoint before the given offset, <code>null</code> if there is none
+     */
+    synchronized Checkpoint getCheckpoint(long uncompressedOffset) {
+        int low = 0;
+        int high = checkpoints.size()-1;
+        Checkpoint checkpoint = null;
+        while(low<=high) {
+            int mid = (low+high)>>>1;
+            Checkpoint candidate = checkpoints.get(mid);
+            if(candidate.uncompressedOffset<=uncompressedOffset) {
+                checkpoint = candidate;
+                low = mid+1;
+            }
+            else {
+                high = mid-1;
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Returns the number of checkpoints in this index.
+     *
+     * @return the number of checkpoints in this index
+     */
+    synchronized int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+
+    /**
+     * A point of a compressed stream where decompression can be resumed.
+     */
+    static class Checkpoint {
+
+        /** Offset of the byte where decompression resumes, in the compressed stream */
+        private final long compressedOffset;
+        /** Number of bits of the byte at compressedOffset that belong to the previous block */
+        private final int bitOffset;
+        /** Offset of the checkpoint in the uncompressed stream */
+        private final long uncompressedOffset;
+        /** Uncompressed data that precedes the checkpoint and may be referenced after it, null if none is needed */
+        private final byte[] window;
+
+        Checkpoint(long compressedOffset, int bitOffset, long uncompressedOffset, byte[] window) {
+            this.compressedOffset = compressedOffset;
+            this.bitOffset = bitOffset;
+            this.uncompressedOffset = uncompressedOffset;
+            this.window = window;
+        }
+
+        long getCompressedOffset() {
+            return compressedOffset;
+        }
+
+        int getBitOffset() {
+            return bitOffset;
+        }
+
+        long getUncompressedOffset() {
+            return uncompressedOffset;
+        }
+
+        byte[] getWindow() {
+            return window;
+        }
+    }
+}
@@ -0,0 +1,674 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.mucommander.commons.file.impl.tar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * <code>GzipCheckpointInputStream</code> decompresses a GZIP stream, like <code>java.util.zip.GZIPInputStream</code>,
+ * and adds checkpoints to a {@link CheckpointIndex} as it goes. A checkpoint is taken at the start of a deflate block,
+ * it is made of the block's position in the compressed stream, which is not byte-aligned, and of the last 32KB of
+ * uncompressed data that the block may reference. A stream can then be created from a checkpoint, to start
+ * decompressing in the middle of the archive.
+ *
+ * <p>The inflater is implemented here because <code>java.util.zip.Inflater</code> neither reports block boundaries
+ * nor can start at a bit offset. Concatenated GZIP members are supported; the CRC of a member is only verified if
+ * the member was read from its start.</p>
+ *
+ * @see CheckpointIndex
+ */
+class GzipCheckpointInputStream extends InputStream {
+
+    /** Size of the uncompressed data buffer, holds the data that back-references may point to and the data not read yet */
+    private final static int WINDOW_SIZE = 65536;
+    private final static int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    /** Maximum distance of a back-reference */
+    private final static int MAX_DISTANCE = 32768;
+    /** Maximum length of a back-reference */
+    private final static int MAX_MATCH = 258;
+
+    private final static int INPUT_BUFFER_SIZE = 65536;
+
+    /** Maximum length of a Huffman code */
+    private final static int MAX_BITS = 15;
+
+    /** GZIP header flags */
+    private final static int FHCRC = 2;
+    private final static int FEXTRA = 4;
+    private final static int FNAME = 8;
+    private final static int FCOMMENT = 16;
+
+    /** Decompression states */
+    private final static int BLOCK_HEADER = 0;
+    private final static int STORED_BLOCK = 1;
+    private final static int HUFFMAN_BLOCK = 2;
+    private final static int MEMBER_TRAILER = 3;
+    private final static int END = 4;
+
+    private final static int LENGTH_BASE[] = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+    private final static int LENGTH_EXTRA[] = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    private final static int DISTANCE_BASE[] = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097,
+        6145, 8193, 12289, 16385, 24577
+    };
+    private final static int DISTANCE_EXTRA[] = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+    /** Order in which code length code lengths are stored */
+    private final static int CODE_LENGTH_ORDER[] = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+    };
+
+    /** Decoding tables of the fixed Huffman codes */
+    private final static int FIXED_LITERAL_TABLE[] = new int[1<<9];
+    private final static int FIXED_DISTANCE_TABLE[] = new int[1<<5];
+    private final static int FIXED_LITERAL_BITS;
+    private final static int FIXED_DISTANCE_BITS;
+
+    static {
+        int lengths[] = new int[288];
+        for(int i=0; i<288; i++)
+            lengths[i] = i<144 ? 8 : i<256 ? 9 : i<280 ? 7 : 8;
+        try {
+            FIXED_LITERAL_BITS = buildTable(lengths, 0, 288, FIXED_LITERAL_TABLE);
+
+            for(int i=0; i<30; i++)
+                lengths[i] = 5;
+            FIXED_DISTANCE_BITS = buildTable(lengths, 0, 30, FIXED_DISTANCE_TABLE);
+        }
+        catch(ZipException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** The compressed stream */
+    private final InputStream in;
+    /** Index to add checkpoints to, may be null */
+    private final CheckpointIndex index;
+
+    private final byte inBuffer[] = new byte[INPUT_BUFFER_SIZE];
+    private int inPos;
+    private int inLimit;
+    /** Offset of inBuffer[0] in the compressed stream */
+    private long inOffset;
+
+    /** Bits read from the compressed stream but not consumed yet, least significant first */
+    private long bitBuffer;
+    private int bitCount;
+    /** Number of zero bits appended to bitBuffer after the end of the compressed stream */
+    private int paddingBits;
+
+    /** Uncompressed data, indexed by uncompressed offset modulo WINDOW_SIZE */
+    private final byte window[] = new byte[WINDOW_SIZE];
+    /** Uncompressed offset of the next byte to decompress */
+    private long outPos;
+    /** Uncompressed offset of the next byte to return */
+    private long readPos;
+    /** Uncompressed offset of the first byte back-references can point to */
+    private long historyStart;
+
+    private int state;
+    private boolean lastBlock;
+    private int storedRemaining;
+
+    private final int literalTable[] = new int[1<<MAX_BITS];
+    private final int distanceTable[] = new int[1<<MAX_BITS];
+    private final int codeLengthTable[] = new int[1<<7];
+    private final int codeLengths[] = new int[286+30];
+    private int currentLiteralTable[];
+    private int currentDistanceTable[];
+    private int literalBits;
+    private int distanceBits;
+
+    private final CRC32 crc = new CRC32();
+    /** True if the current member is read from its start, and its CRC can be verified */
+    private boolean checkCrc;
+    /** Uncompressed offset up to which the CRC has been computed */
+    private long crcPos;
+    /** Uncompressed offset of the current member's start */
+    private long memberStart;
+
+    /**
+     * Creates a new <code>GzipCheckpointInputStream</code> that decompresses the given GZIP stream from its start.
+     *
+     * @param in the GZIP stream
+     * @param index index to add checkpoints to, <code>null</code> for none
+     * @throws IOException if the stream is not in the GZIP format or could not be read
+     */
+    GzipCheckpointInputStream(InputStream in, CheckpointIndex index) throws IOException {
+        this.in = in;
+        this.index = index;
+
+        if(!readMemberHeader(true))
+            throw new ZipException("Not in GZIP format");
+        state = BLOCK_HEADER;
+    }
+
+    /**
+     * Creates a new <code>GzipCheckpointInputStream</code> that resumes decompression at the given checkpoint.
+     *
+     * @param in the GZIP stream, positioned at the checkpoint's compressed offset
+     * @param checkpoint the checkpoint where decompression resumes
+     * @param index index to add checkpoints to, <code>null</code> for none
+     * @throws IOException if the stream could not be read
+     */
+    GzipCheckpointInputStream(InputStream in, CheckpointIndex.Checkpoint checkpoint, CheckpointIndex index) throws IOException {
+        this.in = in;
+        this.index = index;
+
+        inOffset = checkpoint.getCompressedOffset();
+        outPos = readPos = checkpoint.getUncompressedOffset();
+
+        byte history[] = checkpoint.getWindow();
+        historyStart = outPos - history.length;
+        for(int i=0; i<history.length; i++)
+            window[(int)(historyStart+i) & WINDOW_MASK] = history[i];
+
+        // Skip the bits that belong to the previous block
+        getBits(checkpoint.getBitOffset());
+        state = BLOCK_HEADER;
+    }
+
+
+    /**
+     * Decompresses data until the window is full or the end of the stream is reached.
+     */
+    private void inflate() throws IOException {
+        while(state!=END && outPos-readPos<=WINDOW_SIZE-MAX_MATCH) {
+            switch(state) {
+                case BLOCK_HEADER:
+                    if(index!=null)
+                        addCheckpoint();
+                    readBlockHeader();
+                    break;
+
+                case STORED_BLOCK:
+                    copyStored();
+                    break;
+
+                case HUFFMAN_BLOCK:
+                    inflateHuffman();
+                    break;
+
+                case MEMBER_TRAILER:
+                    readMemberTrailer();
+                    state = readMemberHeader(false) ? BLOCK_HEADER : END;
+                    break;
+            }
+        }
+
+        updateCrc();
+    }
+
+    /**
+     * Adds a checkpoint at the current position, which is the start of a block, if the index needs one.
+     */
+    private void addCheckpoint() {
+        if(paddingBits>0 || !index.isCheckpointNeeded(outPos))
+            return;
+
+        long bitPosition = (inOffset+inPos)*8 - bitCount;
+        byte history[] = new byte[(int)Math.min(MAX_DISTANCE, outPos-historyStart)];
+        long start = outPos - history.length;
+        for(int i=0; i<history.length; i++)
+            history[i] = window[(int)(start+i) & WINDOW_MASK];
+
+        index.addCheckpoint(new CheckpointIndex.Checkpoint(bitPosition>>>3, (int)(bitPosition&7), outPos, history));
+    }
+
+    private void readBlockHeader() throws IOException {
+        lastBlock = getBits(1)==1;
+        switch(getBits(2)) {
+            case 0:
+                alignToByte();
+                int length = readAlignedByte() | (readAlignedByte()<<8);
+                int complement = readAlignedByte() | (readAlignedByte()<<8);
+                if(length!=(~complement & 0xFFFF))
+                    throw new ZipException("invalid stored block lengths");
+                storedRemaining = length;
+                state = STORED_BLOCK;
+                break;
+
+            case 1:
+                currentLiteralTable = FIXED_LITERAL_TABLE;
+                literalBits = FIXED_LITERAL_BITS;
+                currentDistanceTable = FIXED_DISTANCE_TABLE;
+                distanceBits = FIXED_DISTANCE_BITS;
+                state = HUFFMAN_BLOCK;
+                break;
+
+            case 2:
+                readDynamicTables();
+                state = HUFFMAN_BLOCK;
+                break;
+
+            default:
+                throw new ZipException("invalid block type");
+        }
+    }
+
+    private void readDynamicTables() throws IOException {
+        int nbLiteralCodes = getBits(5) + 257;
+        int nbDistanceCodes = getBits(5) + 1;
+        int nbCodeLengthCodes = getBits(4) + 4;
+        if(nbLiteralCodes>286 || nbDistanceCodes>30)
+            throw new ZipException("too many length or distance symbols");
+
+        int lengths[] = codeLengths;
+        for(int i=0; i<19; i++)
+            lengths[CODE_LENGTH_ORDER[i]] = i<nbCodeLengthCodes ? getBits(3) : 0;
+        int codeLengthBits = buildTable(lengths, 0, 19, codeLengthTable);
+
+        int total = nbLiteralCodes + nbDistanceCodes;
+        int n = 0;
+        while(n<total) {
+            int symbol = decodeSymbol(codeLengthTable, codeLengthBits);
+            if(symbol<16) {
+                lengths[n++] = symbol;
+                continue;
+            }
+
+            int value = 0;
+            int repeat;
+            if(symbol==16) {
+                if(n==0)
+                    throw new ZipException("invalid bit length repeat");
+                value = lengths[n-1];
+                repeat = 3 + getBits(2);
+            }
+            else if(symbol==17) {
+                repeat = 3 + getBits(3);
+            }
+            else {
+                repeat = 11 + getBits(7);
+            }
+
+            if(n+repeat>total)
+                throw new ZipException("invalid bit length repeat");
+            while(repeat-->0)
+                lengths[n++] = value;
+        }
+
+        if(lengths[256]==0)
+            throw new ZipException("invalid code -- missing end-of-block");
+
+        literalBits = buildTable(lengths, 0, nbLiteralCodes, literalTable);
+        distanceBits = buildTable(lengths, nbLiteralCodes, nbDistanceCodes, distanceTable);
+        currentLiteralTable = literalTable;
+        currentDistanceTable = distanceTable;
+    }
+
+    private void copyStored() throws IOException {
+        while(storedRemaining>0 && outPos-readPos<WINDOW_SIZE) {
+            // Bytes already in the bit buffer come first
+            if(bitCount>=8) {
+                window[(int)outPos & WINDOW_MASK] = (byte)getBits(8);
+                outPos++;
+                storedRemaining--;
+                continue;
+            }
+
+            if(inPos==inLimit && !fillInputBuffer())
+                throw new EOFException("Unexpected end of ZLIB input stream");
+
+            int windowPos = (int)outPos & WINDOW_MASK;
+            int length = Math.min(Math.min(storedRemaining, inLimit-inPos), Math.min(WINDOW_SIZE-windowPos, WINDOW_SIZE-(int)(outPos-readPos)));
+            System.arraycopy(inBuffer, inPos, window, windowPos, length);
+            inPos += length;
+            outPos += length;
+            storedRemaining -= length;
+        }
+
+        if(storedRemaining==0)
+            state = lastBlock ? MEMBER_TRAILER : BLOCK_HEADER;
+    }
+
+    private void inflateHuffman() throws IOException {
+        byte window[] = this.window;
+        while(outPos-readPos<=WINDOW_SIZE-MAX_MATCH) {
+            int symbol = decodeSymbol(currentLiteralTable, literalBits);
+            if(symbol<256) {
+                window[(int)outPos & WINDOW_MASK] = (byte)symbol;
+                outPos++;
+                continue;
+            }
+
+            if(symbol==256) {
+                state = lastBlock ? MEMBER_TRAILER : BLOCK_HEADER;
+                return;
+            }
+
+            symbol -= 257;
+            if(symbol>=29)
+                throw new ZipException("invalid literal/length code");
+            int length = LENGTH_BASE[symbol] + getBits(LENGTH_EXTRA[symbol]);
+
+            symbol = decodeSymbol(currentDistanceTable, distanceBits);
+            if(symbol>=30)
+                throw new ZipException("invalid distance code");
+            int distance = DISTANCE_BASE[symbol] + getBits(DISTANCE_EXTRA[symbol]);
+            if(distance>outPos-historyStart)
+                throw new ZipException("invalid distance too far back");
+
+            int dst = (int)outPos & WINDOW_MASK;
+            int src = (int)(outPos-distance) & WINDOW_MASK;
+            if(distance>=length && dst+length<=WINDOW_SIZE && src+length<=WINDOW_SIZE) {
+                System.arraycopy(window, src, window, dst, length);
+            }
+            else {
+                // Overlapping or wrapping copy
+                for(int i=0; i<length; i++)
+                    window[(dst+i) & WINDOW_MASK] = window[(src+i) & WINDOW_MASK];
+            }
+            outPos += length;
+        }
+    }
+
+    /**
+     * Reads the GZIP header of a member.
+     *
+     * @param first <code>true</code> for the first member of the stream
+     * @return <code>false</code> if there is no other member: end of stream or trailing garbage after the first member
+     */
+    private boolean readMemberHeader(boolean first) throws IOException {
+        int id1 = readAlignedByteOrEOF();
+        int id2 = id1<0 ? -1 : readAlignedByteOrEOF();
+        if(id1!=0x1F || id2!=0x8B) {
+            if(first)
+                throw new ZipException("Not in GZIP format");
+            return false;
+        }
+
+        if(readAlignedByte()!=8)
+            throw new ZipException("Unsupported compression method");
+        int flags = readAlignedByte();
+        // Modification time, extra flags and OS
+        skipAligned(6);
+        if((flags&FEXTRA)!=0)
+            skipAligned(readAlignedByte() | (readAlignedByte()<<8));
+        if((flags&FNAME)!=0)
+            while(readAlignedByte()!=0);
+        if((flags&FCOMMENT)!=0)
+            while(readAlignedByte()!=0);
+        if((flags&FHCRC)!=0)
+            skipAligned(2);
+
+        crc.reset();
+        checkCrc = true;
+        crcPos = outPos;
+        memberStart = outPos;
+        historyStart = outPos;
+
+        return true;
+    }
+
+    private void readMemberTrailer() throws IOException {
+        alignToByte();
+        updateCrc();
+
+        long crcValue = readAlignedInt();
+        long size = readAlignedInt();
+        if(checkCrc && (crcValue!=crc.getValue() || size!=((outPos-memberStart) & 0xFFFFFFFFL)))
+            throw new ZipException("Corrupt GZIP trailer");
+    }
+
+    /**
+     * Updates the CRC with the data decompressed since the last call.
+     */
+    private void updateCrc() {
+        if(!checkCrc) {
+            crcPos = outPos;
+            return;
+        }
+
+        while(crcPos<outPos) {
+            int start = (int)crcPos & WINDOW_MASK;
+            int length = (int)Math.min(outPos-crcPos, WINDOW_SIZE-start);
+            crc.update(window, start, length);
+            crcPos += length;
+        }
+    }
+
+
+    /////////////////////
+    // Huffman decoding //
+    /////////////////////
+
+    /**
+     * Fills the given table so that the entry indexed by the next <code>n</code> bits of the stream holds the symbol
+     * and length of the code these bits start with, <code>n</code> being the length of the longest code. Unused
+     * entries are set to <code>0</code>.
+     *
+     * @return the length of the longest code
+     */
+    private static int buildTable(int lengths[], int offset, int nbSymbols, int table[]) throws ZipException {
+        int count[] = new int[MAX_BITS+1];
+        for(int i=0; i<nbSymbols; i++)
+            count[lengths[offset+i]]++;
+        count[0] = 0;
+
+        int maxBits = 0;
+        int left = 1;
+        for(int bits=1; bits<=MAX_BITS; bits++) {
+            left = (left<<1) - count[bits];
+            if(left<0)
+                throw new ZipException("invalid code lengths set");
+            if(count[bits]>0)
+                maxBits = bits;
+        }
+
+        int nextCode[] = new int[MAX_BITS+1];
+        int code = 0;
+        for(int bits=1; bits<=MAX_BITS; bits++) {
+            code = (code+count[bits-1])<<1;
+            nextCode[bits] = code;
+        }
+
+        int size = 1<<maxBits;
+        for(int i=0; i<size; i++)
+            table[i] = 0;
+
+        for(int symbol=0; symbol<nbSymbols; symbol++) {
+            int length = lengths[offset+symbol];
+            if(length==0)
+                continue;
+
+            // Codes are stored most significant bit first, the table is indexed least significant bit first
+            int reversed = Integer.reverse(nextCode[length]++) >>> (32-length);
+            int entry = (symbol<<4) | length;
+            for(int i=reversed; i<size; i+=1<<length)
+                table[i] = entry;
+        }
+
+        return maxBits;
+    }
+
+    private int decodeSymbol(int table[], int bits) throws IOException {
+        if(bitCount<bits)
+            fillBitBuffer(bits);
+        int entry = table[(int)bitBuffer & ((1<<bits)-1)];
+        int length = entry & 15;
+        if(length==0)
+            throw new ZipException("invalid code");
+        dropBits(length);
+        return entry>>>4;
+    }
+
+
+    //////////////////
+    // Bit reading //
+    //////////////////
+
+    private boolean fillInputBuffer() throws IOException {
+        inOffset += inLimit;
+        inPos = inLimit = 0;
+
+        int nbRead;
+        do {
+            nbRead = in.read(inBuffer, 0, INPUT_BUFFER_SIZE);
+        } while(nbRead==0);
+
+        if(nbRead<0)
+            return false;
+
+        inLimit = nbRead;
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if(inPos==inLimit && !fillInputBuffer())
+            return -1;
+        return inBuffer[inPos++] & 0xFF;
+    }
+
+    /**
+     * Fills the bit buffer with at least <code>n</code> bits. Zero bits are appended past the end of the stream, so that
+     * the last codes can be looked up; an <code>EOFException</code> is thrown only if such bits are consumed.
+     */
+    private void fillBitBuffer(int n) throws IOException {
+        while(bitCount<n) {
+            int b = readByte();
+            if(b<0) {
+                if(paddingBits>=32)
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                b = 0;
+                paddingBits += 8;
+            }
+            bitBuffer |= (long)b << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    private void dropBits(int n) throws EOFException {
+        bitBuffer >>>= n;
+        bitCount -= n;
+        if(bitCount<paddingBits)
+            throw new EOFException("Unexpected end of ZLIB input stream");
+    }
+
+    private int getBits(int n) throws IOException {
+        if(bitCount<n)
+            fillBitBuffer(n);
+        int value = (int)(bitBuffer & ((1L<<n)-1));
+        dropBits(n);
+        return value;
+    }
+
+    private void alignToByte() throws EOFException {
+        dropBits(bitCount&7);
+    }
+
+    private int readAlignedByteOrEOF() throws IOException {
+        if(bitCount-paddingBits>=8)
+            return getBits(8);
+        return bitCount>0 ? -1 : readByte();
+    }
+
+    private int readAlignedByte() throws IOException {
+        int b = readAlignedByteOrEOF();
+        if(b<0)
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        return b;
+    }
+
+    private long readAlignedInt() throws IOException {
+        return readAlignedByte() | (readAlignedByte()<<8) | (readAlignedByte()<<16) | ((long)readAlignedByte()<<24);
+    }
+
+    private void skipAligned(int n) throws IOException {
+        for(int i=0; i<n; i++)
+            readAlignedByte();
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    /**
+     * Decompresses data if all the decompressed data has been read.
+     *
+     * @return <code>false</code> if the end of the stream has been reached
+     */
+    private boolean ensureAvailable() throws IOException {
+        while(readPos==outPos) {
+            if(state==END)
+                return false;
+            inflate();
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!ensureAvailable())
+            return -1;
+        return window[(int)readPos++ & WINDOW_MASK] & 0xFF;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if(len==0)
+            return 0;
+        if(!ensureAvailable())
+            return -1;
+
+        int start = (int)readPos & WINDOW_MASK;
+        int nbRead = (int)Math.min(Math.min(len, outPos-readPos), WINDOW_SIZE-start);
+        System.arraycopy(window, start, b, off, nbRead);
+        readPos += nbRead;
+        return nbRead;
+    }
+
+    /**
+     * Skips decompressed data. Unlike <code>InputStream#skip(long)</code>, this method returns <code>-1</code> when the
+     * end of the stream has been reached, as expected by {@link com.mucommander.commons.io.StreamUtils#skipFully(InputStream, long)}.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if(n<=0)
+            return 0;
+        if(!ensureAvailable())
+            return -1;
+
+        long nbSkipped = Math.min(n, outPos-readPos);
+        readPos += nbSkipped;
+        return nbSkipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int)(outPos-readPos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -24,15 +24,14 @@ import com.mucommander.commons.file.impl.tar.provider.TarEntry;
 import com.mucommander.commons.file.impl.tar.provider.TarInputStream;
 import com.mucommander.commons.io.StreamUtils;
 import com.mucommander.commons.util.StringUtils;
-import org.apache.hadoop.io.compress.bzip2.CBZip2InputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPInputStream;
 
 
 /**
@@ -47,6 +46,12 @@ import java.util.zip.GZIPInputStream;
 public class TarArchiveFile extends AbstractROArchiveFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(TarArchiveFile.class);
 
+    /** Minimum uncompressed distance between two checkpoints of a Gzip-compressed archive, each of them holds 32KB */
+    private final static long GZIP_CHECKPOINT_SPAN = 8 * 1024 * 1024;
+
+    /** Checkpoints of a compressed archive, recorded while decompressing it. Null until the archive is first read. */
+    private CheckpointIndex checkpointIndex;
+
     /**
      * Creates a TarArchiveFile on of the given file.
      *
@@ -57,9 +62,26 @@ public class TarArchiveFile extends AbstractROArchiveFile {
     }
 
 
+    /**
+     * Returns the checkpoint index of this archive, creating a new one if the archive has changed since the index was
+     * created.
+     *
+     * @param span minimum uncompressed distance between two checkpoints
+     * @return the checkpoint index of this archive
+     */
+    private synchronized CheckpointIndex getCheckpointIndex(long span) {
+        if (checkpointIndex == null || !checkpointIndex.isValidFor(file))
+            checkpointIndex = new CheckpointIndex(file, span);
+
+        return checkpointIndex;
+    }
+
     /**
      * Returns a TarInputStream which can be used to read TAR entries.
      *
+     * <p>If the archive is compressed, decompression starts at the last checkpoint before the entry, checkpoints being
+     * recorded whenever the archive is decompressed. Uncompressed archives are read directly at the entry's offset.</p>
+     *
      * @param entryOffset offset from the start of the archive to an entry. Must be a multiple of recordSize, or
      * <code>0</code> to start at the first entry.
      * @return a TarInputStream which can be used to read TAR entries
@@ -68,38 +90,45 @@ public class TarArchiveFile extends AbstractROArchiveFile {
      * or is not implemented.
      */
     private TarInputStream createTarStream(long entryOffset) throws IOException, UnsupportedFileOperationException {
-        InputStream in = file.getInputStream();
+        InputStream in;
+        CheckpointIndex.Checkpoint checkpoint = null;
 
         String name = getName();
             // Gzip-compressed file
-        if (StringUtils.endsWithIgnoreCase(name, "tgz") || StringUtils.endsWithIgnoreCase(name, "tar.gz"))
+        if (StringUtils.endsWithIgnoreCase(name, "tgz") || StringUtils.endsWithIgnoreCase(name, "tar.gz")) {
                 // Note: this will fail for gz/tgz entries inside a tar file (IOException: Not in GZIP format),
                 // why is a complete mystery: the gz/tgz entry can be extracted and then properly browsed
-            in = new GZIPInputStream(in);
-
+            CheckpointIndex index = getCheckpointIndex(GZIP_CHECKPOINT_SPAN);
+            checkpoint = index.getCheckpoint(entryOffset);
+            in = checkpoint == null
+                    ? new GzipCheckpointInputStream(file.getInputStream(), index)
+                    : new GzipCheckpointInputStream(file.getInputStream(checkpoint.getCompressedOffset()), checkpoint, index);
+        }
         // Bzip2-compressed file
         else if (StringUtils.endsWithIgnoreCase(name, "tbz2") || StringUtils.endsWithIgnoreCase(name, "tar.bz2")) {
-            try {
-                // Skips the 2 magic bytes 'BZ', as required by CBZip2InputStream. Quoted from CBZip2InputStream's Javadoc:
-                // "Although BZip2 headers are marked with the magic 'Bz'. this constructor expects the next byte in the
-                // stream to be the first one after the magic.  Thus callers have to skip the first two bytes. Otherwise
-                // this constructor will throw an exception."
-                StreamUtils.skipFully(in, 2);
-
-                // Quoted from CBZip2InputStream's Javadoc:
-                // "CBZip2InputStream reads bytes from the compressed source stream via the single byte {@link java.io.InputStream#read()
-                // read()} method exclusively. Thus you should consider to use a buffered source stream."
-                in = new CBZip2InputStream(new BufferedInputStream(in));
-            } catch (Exception e) {
-                // CBZip2InputStream is known to throw NullPointerException if file is not properly Bzip2-encoded
-                // so we need to catch those and throw them as IOException
-                LOGGER.info("Exception caught while creating CBZip2InputStream, throwing IOException", e);
-
-                throw new IOException();
-            }
+            // Bzip2 blocks are independent from each other, a checkpoint is recorded for each of them
+            CheckpointIndex index = getCheckpointIndex(0);
+            checkpoint = index.getCheckpoint(entryOffset);
+            in = checkpoint == null
+                    ? new Bzip2CheckpointInputStream(file.getInputStream(), index)
+                    : new Bzip2CheckpointInputStream(file.getInputStream(checkpoint.getCompressedOffset()), checkpoint, index);
+        }
+        // Uncompressed file
+        else {
+            return new TarInputStream(file.getInputStream(entryOffset), 0);
+        }
+
+        try {
+            StreamUtils.skipFully(in, entryOffset - (checkpoint == null ? 0 : checkpoint.getUncompressedOffset()));
+        } catch (IOException e) {
+            in.close();
+            throw e;
         }
 
-        return new TarInputStream(in, entryOffset);
+        if (checkpoint != null)
+            LOGGER.trace("resuming decompression at offset {} to reach entry at offset {}", checkpoint.getUncompressedOffset(), entryOffset);
+
+        return new TarInputStream(in, 0);
     }
 
 
@@ -149,4 +178,28 @@ public class TarArchiveFile extends AbstractROArchiveFile {
 
         throw new IOException("Unknown TAR entry: "+entry.getName());
     }
+
+    /**
+     * Returns <code>true</code>: TAR archives have no index, listing them requires reading (and decompressing) the
+     * whole archive.
+     */
+    @Override
+    protected boolean isEntryCacheable() {
+        return true;
+    }
+
+    /**
+     * Writes the entry's offset, which is all {@link #getEntryInputStream(ArchiveEntry, ArchiveEntryIterator)} needs.
+     */
+    @Override
+    protected void writeEntryObject(ArchiveEntry entry, DataOutput out) throws IOException {
+        out.writeLong(((TarEntry)entry.getEntryObject()).getOffset());
+    }
+
+    @Override
+    protected Object readEntryObject(ArchiveEntry entry, DataInput in) throws IOException {
+        TarEntry tarEntry = new TarEntry(entry.getPath());
+        tarEntry.setOffset(in.readLong());
+        return tarEntry;
+    }
 }
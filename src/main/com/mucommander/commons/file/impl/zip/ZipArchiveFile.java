@@ -188,11 +188,20 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
     }
 
 
+    /**
+     * This method is not synchronized beyond checking the ZipFile instance: <code>ZipFile</code> allows several entries
+     * to be read concurrently, so that viewers, searches and unpack operations on the same archive do not wait for
+     * each other.
+     */
     @Override
-    public synchronized InputStream getEntryInputStream(ArchiveEntry entry, ArchiveEntryIterator entryIterator) throws IOException, UnsupportedFileOperationException {
+    public InputStream getEntryInputStream(ArchiveEntry entry, ArchiveEntryIterator entryIterator) throws IOException, UnsupportedFileOperationException {
         // If the underlying AbstractFile has random read access, use our own ZipFile implementation to read the entry
         if (file.isFileOperationSupported(FileOperation.RANDOM_READ_FILE)) {
-            checkZipFile();
+            ZipFile zipFile;
+            synchronized(this) {
+                checkZipFile();
+                zipFile = this.zipFile;
+            }
 
             ZipEntry zipEntry = (com.mucommander.commons.file.impl.zip.provider.ZipEntry)entry.getEntryObject();
             if(zipEntry==null)  // Should not normally happen
@@ -236,6 +245,15 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
         }
     }
 
+    /**
+     * Returns <code>true</code> if the underlying file has random read access: entries are then read using
+     * <code>ZipFile</code>, which allows several entries to be read concurrently.
+     */
+    @Override
+    public boolean isConcurrentEntryReadSupported() {
+        return file.isFileOperationSupported(FileOperation.RANDOM_READ_FILE);
+    }
+
     //////////////////////////////////////////
     // AbstractRWArchiveFile implementation //
     //////////////////////////////////////////
@@ -0,0 +1,296 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.zip.provider;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.UnsupportedFileOperationException;
+import com.mucommander.commons.io.RandomAccessInputStream;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * EntryReaderPool provides the {@link EntryReader} instances used by the streams returned by
+ * {@link ZipFile#getInputStream(ZipEntry)}, allowing several entries of the same Zip file to be read concurrently
+ * without contending for a single file handle:
+ * <ul>
+ *   <li>if the Zip file is a local file, all readers share a single <code>FileChannel</code> and use positional reads,
+ *   which do not depend on a file pointer and can thus be performed concurrently,</li>
+ *   <li>otherwise, each reader is given its own <code>RandomAccessInputStream</code>. Streams are returned to the pool
+ *   when a reader is closed, and reused by the next readers.</li>
+ * </ul>
+ *
+ * <p>Like the rest of {@link ZipFile}, the pool does not need to be closed: the channel and the pooled streams are
+ * closed as soon as no reader is in use anymore.</p>
+ */
+final class EntryReaderPool {
+
+    /** Maximum number of idle RandomAccessInputStream kept for reuse */
+    private final static int MAX_IDLE_STREAMS = 8;
+
+    /** The Zip file */
+    private final AbstractFile file;
+
+    /** The Zip file as a <code>java.io.File</code>, <code>null</code> if it is not a local file */
+    private final File localFile;
+
+    /** The channel shared by all readers of a local file, <code>null</code> when no reader is in use */
+    private FileChannel channel;
+
+    /** Channels to a file that has been replaced while readers were using them, closed once no reader is in use */
+    private final List<FileChannel> replacedChannels = new ArrayList<>();
+
+    /** Streams of the readers that have been closed, available for reuse */
+    private final ArrayDeque<RandomAccessInputStream> idleStreams = new ArrayDeque<>();
+
+    /** Number of readers currently in use */
+    private int nbReaders;
+
+    EntryReaderPool(AbstractFile file) {
+        this.file = file;
+
+        Object underlyingFile = file.getUnderlyingFileObject();
+        this.localFile = underlyingFile instanceof File ? (File)underlyingFile : null;
+    }
+
+    /**
+     * Returns a reader for the Zip file, which must be closed once it is not needed anymore.
+     *
+     * @return a reader for the Zip file
+     * @throws IOException if the Zip file could not be opened
+     * @throws UnsupportedFileOperationException if the Zip file does not have random read access
+     */
+    synchronized EntryReader getReader() throws IOException, UnsupportedFileOperationException {
+        EntryReader reader;
+        if(localFile!=null) {
+            if(channel==null)
+                channel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ);
+            reader = new ChannelReader(channel);
+        }
+        else {
+            RandomAccessInputStream rais = idleStreams.poll();
+            reader = new StreamReader(rais==null?file.getRandomAccessInputStream():rais);
+        }
+
+        nbReaders++;
+        return reader;
+    }
+
+    /**
+     * Replaces the shared channel if it is the given one. An interrupted thread closes the channel it is reading from,
+     * which would otherwise break all the other readers.
+     *
+     * @param closedChannel the channel found closed
+     * @return the new shared channel
+     * @throws IOException if the file could not be opened
+     */
+    private synchronized FileChannel reopenChannel(FileChannel closedChannel) throws IOException {
+        if(channel==closedChannel)
+            channel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ);
+
+        return channel;
+    }
+
+    /**
+     * Called once the Zip file has been replaced by another file, for instance after it has been rewritten: the
+     * readers obtained from now on read the new file, while those in use keep reading the file they were opened on.
+     */
+    synchronized void fileReplaced() {
+        if(channel!=null) {
+            replacedChannels.add(channel);
+            channel = null;
+        }
+    }
+
+    /**
+     * Called when a reader is closed.
+     *
+     * @param rais the reader's stream to return to the pool, <code>null</code> if the reader uses the shared channel
+     * @throws IOException if an error occurred while closing the channel or a stream
+     */
+    private synchronized void readerClosed(RandomAccessInputStream rais) throws IOException {
+        nbReaders--;
+
+        if(rais!=null) {
+            if(nbReaders>0 && idleStreams.size()<MAX_IDLE_STREAMS)
+                idleStreams.add(rais);
+            else
+                rais.close();
+        }
+
+        if(nbReaders==0)
+            closeAll();
+    }
+
+    /**
+     * Closes the shared channel, the channels to replaced files and the idle streams.
+     */
+    private void closeAll() throws IOException {
+        try {
+            if(channel!=null)
+                channel.close();
+        }
+        finally {
+            channel = null;
+
+            for(FileChannel replacedChannel : replacedChannels) {
+                try {
+                    replacedChannel.close();
+                }
+                catch(IOException ignore) {
+                }
+            }
+            replacedChannels.clear();
+
+            RandomAccessInputStream rais;
+            while((rais=idleStreams.poll())!=null) {
+                try {
+                    rais.close();
+                }
+                catch(IOException ignore) {
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Reads bytes at arbitrary positions of the Zip file. A reader must only be used by one thread at a time, but
+     * readers obtained from the same pool can be used concurrently.
+     */
+    abstract class EntryReader {
+
+        private boolean closed;
+
+        /**
+         * Reads up to <code>len</code> bytes located at the given position in the Zip file.
+         *
+         * @param pos position in the Zip file of the first byte to read
+         * @param b the buffer into which the data is read
+         * @param off start offset in the buffer
+         * @param len maximum number of bytes to read
+         * @return the number of bytes read, <code>-1</code> if the end of file has been reached
+         * @throws IOException if an I/O error occurred
+         */
+        abstract int read(long pos, byte b[], int off, int len) throws IOException;
+
+        /**
+         * Reads exactly <code>len</code> bytes located at the given position in the Zip file.
+         *
+         * @param pos position in the Zip file of the first byte to read
+         * @param b the buffer into which the data is read
+         * @param off start offset in the buffer
+         * @param len number of bytes to read
+         * @throws IOException if an I/O error occurred or the end of file has been reached
+         */
+        void readFully(long pos, byte b[], int off, int len) throws IOException {
+            while(len>0) {
+                int nbRead = read(pos, b, off, len);
+                if(nbRead<0)
+                    throw new EOFException();
+                pos += nbRead;
+                off += nbRead;
+                len -= nbRead;
+            }
+        }
+
+        /**
+         * Returns this reader to the pool. Subsequent calls have no effect.
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        void close() throws IOException {
+            if(!closed) {
+                closed = true;
+                readerClosed(getStream());
+            }
+        }
+
+        /**
+         * Returns the stream used by this reader, <code>null</code> if it uses the shared channel.
+         */
+        abstract RandomAccessInputStream getStream();
+    }
+
+    /**
+     * Reader for local files, using positional reads on the shared channel.
+     */
+    private class ChannelReader extends EntryReader {
+
+        private FileChannel channel;
+
+        ChannelReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        int read(long pos, byte b[], int off, int len) throws IOException {
+            try {
+                return channel.read(ByteBuffer.wrap(b, off, len), pos);
+            }
+            catch(ClosedByInterruptException e) {
+                throw e;
+            }
+            catch(ClosedChannelException e) {
+                // The channel has been closed by another reader's thread being interrupted
+                channel = reopenChannel(channel);
+                return channel.read(ByteBuffer.wrap(b, off, len), pos);
+            }
+        }
+
+        @Override
+        RandomAccessInputStream getStream() {
+            return null;
+        }
+    }
+
+    /**
+     * Reader using its own RandomAccessInputStream, which is sought only when the position differs from that of the
+     * previous read.
+     */
+    private class StreamReader extends EntryReader {
+
+        private final RandomAccessInputStream rais;
+
+        StreamReader(RandomAccessInputStream rais) {
+            this.rais = rais;
+        }
+
+        @Override
+        int read(long pos, byte b[], int off, int len) throws IOException {
+            if(rais.getOffset()!=pos)
+                rais.seek(pos);
+            return rais.read(b, off, len);
+        }
+
+        @Override
+        RandomAccessInputStream getStream() {
+            return rais;
+        }
+    }
+}
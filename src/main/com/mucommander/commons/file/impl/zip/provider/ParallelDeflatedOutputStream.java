@@ -0,0 +1,83 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.zip.provider;
+
+import com.mucommander.commons.io.ParallelDeflaterOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * ParallelDeflatedOutputStream compresses data using the DEFLATED compression method and several threads, delegating
+ * the compression work to a {@link ParallelDeflaterOutputStream}. The <code>Deflater</code> given to the superclass
+ * is left unused.
+ */
+public class ParallelDeflatedOutputStream extends DeflatedOutputStream {
+
+    /** Compresses the entry's data using several threads */
+    private ParallelDeflaterOutputStream pdos;
+
+    /**
+     * Creates a new <code>ParallelDeflatedOutputStream</code> that writes compressed data to the given
+     * <code>OutputStream</code>.
+     *
+     * @param out the OutputStream where the compressed data is sent to
+     * @param deflater the Deflater of the <code>ZipOutputStream</code>, left unused
+     * @param buf the buffer of the <code>ZipOutputStream</code>, left unused
+     * @param level the compression level
+     * @param nbThreads number of chunks compressed at the same time
+     */
+    public ParallelDeflatedOutputStream(OutputStream out, Deflater deflater, byte buf[], int level, int nbThreads) {
+        super(out, deflater, buf);
+
+        this.pdos = new ParallelDeflaterOutputStream(out, level, nbThreads, ParallelDeflaterOutputStream.DEFAULT_CHUNK_SIZE);
+    }
+
+    @Override
+    public void finishDeflate() throws IOException {
+        pdos.finish();
+    }
+
+
+    /////////////////////////////////////////
+    // ZipEntryOutputStream implementation //
+    /////////////////////////////////////////
+
+    @Override
+    public int getTotalIn() {
+        return (int)pdos.getTotalIn();
+    }
+
+    @Override
+    public int getTotalOut() {
+        return (int)pdos.getTotalOut();
+    }
+
+
+    /////////////////////////////////
+    // OutputStream implementation //
+    /////////////////////////////////
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+        pdos.write(b, offset, length);
+        crc.update(b, offset, length);
+    }
+}
@@ -44,10 +44,4 @@ final class ZipEntryInfo {
 
     /** The encoding used for filename and comment fields */
     String encoding;
-
-    /** The filename's bytes */
-    byte filename[];
-
-    /** The comment's bytes */
-    byte comment[];
 }
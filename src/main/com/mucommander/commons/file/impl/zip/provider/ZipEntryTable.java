@@ -0,0 +1,278 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.zip.provider;
+
+import com.mucommander.commons.io.EncodingDetector;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * ZipEntryTable holds the entries of a {@link ZipFile}, in the order they were found in the central directory.
+ *
+ * <p>The central directory is read into a single buffer and decoded in a single pass which only records where each
+ * central file header starts: the buffer holds the filenames, extra fields and comments of all entries, and the
+ * fixed-size fields are decoded from it when the corresponding {@link ZipEntry} is requested for the first time.
+ * This keeps the memory footprint of large archives low, and entries that are never accessed are never
+ * created.</p>
+ *
+ * <p>Adding or removing an entry materializes all entries and releases the buffer: the table then behaves like a
+ * regular list. The name index used by {@link #getEntry(String)} is only built when first needed.</p>
+ */
+final class ZipEntryTable extends AbstractList<ZipEntry> implements ZipConstants {
+
+    /** Length of a central file header, without the variable-size fields */
+    private final static int CFH_FIXED_LEN = 46;
+
+    /** The raw central directory, <code>null</code> once all entries have been materialized */
+    private byte cd[];
+    /** Offset of the central directory in the Zip file */
+    private long cdOffset;
+    /** Offset of each entry's central file header in {@link #cd} */
+    private int recordOffsets[];
+    /** Entries materialized so far, <code>null</code> elements for those that haven't been requested yet */
+    private ZipEntry materialized[];
+    private int nbEntries;
+
+    /** The encoding used for parsing entries that do not declare using UTF-8 */
+    private String encoding;
+
+    /** All entries, once the central directory buffer has been released */
+    private List<ZipEntry> entries;
+
+    /** Maps entry names to entries, <code>null</code> until {@link #getEntry(String)} is called */
+    private Map<String, ZipEntry> nameMap;
+
+    /**
+     * Creates an empty table.
+     */
+    ZipEntryTable() {
+        entries = new ArrayList<>();
+    }
+
+    /**
+     * Creates a table for the entries of the given central directory.
+     *
+     * @param cd the central directory, from its first central file header up to (at least) its last one
+     * @param cdOffset offset of the central directory in the Zip file
+     * @param defaultEncoding the encoding to use for entries that do not declare using UTF-8, <code>null</code> to
+     * detect it
+     * @throws ZipException if the central directory is corrupt or an entry uses an unsupported compression method
+     */
+    ZipEntryTable(byte cd[], long cdOffset, String defaultEncoding) throws ZipException {
+        this.cd = cd;
+        this.cdOffset = cdOffset;
+
+        // Accumulates filenames and comments whose encoding is unknown
+        byte accumulator[] = defaultEncoding==null ? new byte[EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE] : null;
+        int accumulatorLen = 0;
+
+        int offsets[] = new int[Math.max(16, cd.length/(CFH_FIXED_LEN+32))];
+        int count = 0;
+        int off = 0;
+        while(off+4<=cd.length && cd[off]==CFH_SIG[0] && cd[off+1]==CFH_SIG[1] && cd[off+2]==CFH_SIG[2] && cd[off+3]==CFH_SIG[3]) {
+            if(off+CFH_FIXED_LEN>cd.length)
+                throw new ZipException("Invalid central directory (truncated file header)");
+
+            // Note: ZipEntry#setMethod(int) will throw a java.lang.InternalError ("invalid compression method") if the
+            // method is different from DEFLATED or STORED (happens with IMPLODED for example).
+            // Thus we check the method ourselves to fail gracefully.
+            int method = ZipShort.getValue(cd, off+10);
+            if(method!=DEFLATED && method!=STORED)
+                throw new ZipException("Unsupported compression method");
+
+            int fileNameLen = ZipShort.getValue(cd, off+28);
+            int extraLen = ZipShort.getValue(cd, off+30);
+            int commentLen = ZipShort.getValue(cd, off+32);
+            int recordLen = CFH_FIXED_LEN + fileNameLen + extraLen + commentLen;
+            if(off+recordLen>cd.length)
+                throw new ZipException("Invalid central directory (truncated file header)");
+
+            // Accumulate the filename and comment bytes of entries that do not declare using UTF-8
+            if(accumulator!=null && !isUTF8(off) && accumulatorLen<accumulator.length) {
+                int len = Math.min(fileNameLen, accumulator.length-accumulatorLen);
+                System.arraycopy(cd, off+CFH_FIXED_LEN, accumulator, accumulatorLen, len);
+                accumulatorLen += len;
+
+                len = Math.min(commentLen, accumulator.length-accumulatorLen);
+                System.arraycopy(cd, off+CFH_FIXED_LEN+fileNameLen+extraLen, accumulator, accumulatorLen, len);
+                accumulatorLen += len;
+            }
+
+            if(count==offsets.length)
+                offsets = Arrays.copyOf(offsets, count*2);
+            offsets[count++] = off;
+
+            off += recordLen;
+        }
+
+        this.recordOffsets = offsets;
+        this.nbEntries = count;
+        this.materialized = new ZipEntry[count];
+
+        // Note: the detected encoding may be null if no encoding could be detected.
+        // In that case, the default system encoding will be used to create the strings
+        if(accumulator==null)
+            encoding = defaultEncoding;
+        else if(accumulatorLen>0)
+            encoding = EncodingDetector.detectEncoding(Arrays.copyOf(accumulator, accumulatorLen));
+    }
+
+    /**
+     * Returns <code>true</code> if the entry whose central file header starts at the given offset declares using
+     * UTF-8 for its filename and comment (bit 11 of the general purpose bit flag).
+     */
+    private boolean isUTF8(int off) {
+        return (ZipShort.getValue(cd, off+8)&0x800)!=0;
+    }
+
+    /**
+     * Creates the entry whose central file header starts at the given offset in the central directory buffer.
+     *
+     * <p>The ZipEntry knows all data that can be obtained from the central directory alone, but not the data that
+     * requires the local file header to be read.</p>
+     */
+    private ZipEntry materialize(int off) {
+        ZipEntry ze = new ZipEntry();
+        ZipEntryInfo entryInfo = new ZipEntryInfo();
+
+        entryInfo.centralHeaderOffset = cdOffset + off;
+
+        int versionMadeBy = ZipShort.getValue(cd, off+4);
+        ze.setPlatform((versionMadeBy >> 8) & 0x0F);
+
+        int gp = ZipShort.getValue(cd, off+8);   // General purpose bit flag
+        entryInfo.encoding = (gp&0x800)!=0?UTF_8:encoding;
+        entryInfo.hasDataDescriptor = (gp&8)!=0;
+
+        ze.setMethod(ZipShort.getValue(cd, off+10));
+        ze.setDosTime(ZipLong.getValue(cd, off+12));
+        ze.setCrc(ZipLong.getValue(cd, off+16));
+        ze.setCompressedSize(ZipLong.getValue(cd, off+20));
+        ze.setSize(ZipLong.getValue(cd, off+24));
+
+        int fileNameLen = ZipShort.getValue(cd, off+28);
+        int extraLen = ZipShort.getValue(cd, off+30);
+        int commentLen = ZipShort.getValue(cd, off+32);
+
+        ze.setInternalAttributes(ZipShort.getValue(cd, off+36));
+        ze.setExternalAttributes(ZipLong.getValue(cd, off+38));
+
+        // Offset to local file header, data offset will be filled later
+        entryInfo.headerOffset = ZipLong.getValue(cd, off+42);
+
+        off += CFH_FIXED_LEN;
+        ZipFile.setFilename(ze, ZipFile.getString(Arrays.copyOfRange(cd, off, off+fileNameLen), entryInfo.encoding));
+        off += fileNameLen;
+        ze.setExtra(Arrays.copyOfRange(cd, off, off+extraLen));
+        off += extraLen;
+        ze.setComment(ZipFile.getString(Arrays.copyOfRange(cd, off, off+commentLen), entryInfo.encoding));
+
+        entryInfo.centralHeaderLen = CFH_FIXED_LEN + fileNameLen + extraLen + commentLen;
+
+        ze.setEntryInfo(entryInfo);
+        return ze;
+    }
+
+    /**
+     * Materializes all entries and releases the central directory buffer. Does nothing if this has already been done.
+     */
+    private void materializeAll() {
+        if(entries!=null)
+            return;
+
+        List<ZipEntry> list = new ArrayList<>(nbEntries);
+        for(int i=0; i<nbEntries; i++)
+            list.add(get(i));
+
+        entries = list;
+        cd = null;
+        recordOffsets = null;
+        materialized = null;
+    }
+
+    /**
+     * Returns the entry with the given name, <code>null</code> if there is none.
+     *
+     * @param name the name of the entry
+     * @return the entry with the given name, <code>null</code> if there is none
+     */
+    synchronized ZipEntry getEntry(String name) {
+        if(nameMap==null) {
+            Map<String, ZipEntry> map = new HashMap<>(size()*4/3+1);
+            for(ZipEntry ze : this)
+                map.put(ze.getName(), ze);
+            nameMap = map;
+        }
+
+        return nameMap.get(name);
+    }
+
+
+    //////////////////////////////////
+    // AbstractList implementation  //
+    //////////////////////////////////
+
+    @Override
+    public synchronized ZipEntry get(int index) {
+        if(entries!=null)
+            return entries.get(index);
+
+        if(index<0 || index>=nbEntries)
+            throw new IndexOutOfBoundsException("Index: "+index+", Size: "+nbEntries);
+
+        ZipEntry ze = materialized[index];
+        if(ze==null)
+            materialized[index] = ze = materialize(recordOffsets[index]);
+
+        return ze;
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries!=null?entries.size():nbEntries;
+    }
+
+    @Override
+    public synchronized void add(int index, ZipEntry ze) {
+        materializeAll();
+        entries.add(index, ze);
+        modCount++;
+
+        if(nameMap!=null)
+            nameMap.put(ze.getName(), ze);
+    }
+
+    @Override
+    public synchronized ZipEntry remove(int index) {
+        materializeAll();
+        ZipEntry ze = entries.remove(index);
+        modCount++;
+
+        if(nameMap!=null)
+            nameMap.remove(ze.getName());
+
+        return ze;
+    }
+}
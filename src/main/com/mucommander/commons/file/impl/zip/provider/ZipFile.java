@@ -25,10 +25,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.Hashtable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Vector;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -73,6 +77,12 @@ import java.util.zip.ZipException;
 public class ZipFile implements ZipConstants {
     private static final Logger LOGGER = LoggerFactory.getLogger(ZipFile.class);
 
+    /**
+     * Minimum ratio of unused space to the Zip file's size above which {@link #defragment()} rewrites the Zip file
+     * rather than moving entries within it
+     */
+    private final static float REWRITE_MIN_UNUSED_RATIO = 0.2f;
+
     /** The underlying archive file */
     private AbstractFile file;
 
@@ -83,10 +93,7 @@ public class ZipFile implements ZipConstants {
     private RandomAccessOutputStream raos;
 
     /** Contains ZipEntry instances corresponding to the archive's entries, in the order they were found in the archive. */
-    private Vector<ZipEntry> entries = new Vector<>();
-
-    /** Maps entry paths to corresponding ZipEntry instances */
-    private Map<String, ZipEntry> nameMap = new Hashtable<>();
+    private ZipEntryTable entries = new ZipEntryTable();
 
     /** Global zip file comment */
     private String comment;
@@ -97,6 +104,9 @@ public class ZipFile implements ZipConstants {
      */
     private String defaultEncoding = null;
 
+    /** Provides concurrent read access to the entries' data */
+    private final EntryReaderPool readers;
+
     /** Holds byte buffer instance used to convert short and longs, avoids creating lots of small arrays */
     private ZipBuffer zipBuffer = new ZipBuffer();
 
@@ -114,6 +124,7 @@ public class ZipFile implements ZipConstants {
      */
     public ZipFile(AbstractFile f) throws IOException, ZipException, UnsupportedFileOperationException {
         this.file = f;
+        this.readers = new EntryReaderPool(f);
 
         try {
             openRead();
@@ -249,7 +260,7 @@ public class ZipFile implements ZipConstants {
      * @return the ZipEntry corresponding to the given name or <code>null</code> if not present.
      */
     public ZipEntry getEntry(String name) {
-        return nameMap.get(name);
+        return entries.getEntry(name);
     }
 
     /**
@@ -267,27 +278,28 @@ public class ZipFile implements ZipConstants {
         if (entryInfo == null)
             throw new ZipException("Unknown entry: "+ze.getName());
 
-        openRead();
-        RandomAccessInputStream entryIn = this.rais;
-
-        // If data offset is -1 (not calculated yet), calculate it now
-        if (entryInfo.dataOffset == -1)
-            calculateDataOffset(entryInfo);
-
-        this.rais = null;
-        
-        long start = entryInfo.dataOffset;
-        BoundedInputStream bis = new BoundedInputStream(entryIn, start, ze.getCompressedSize());
-        switch (ze.getMethod()) {
-            case ZipConstants.STORED:
-                return bis;
-            case ZipConstants.DEFLATED:
-                bis.addDummy();
-                return new InflaterInputStream(bis, new Inflater(true));
-            default:
-                throw new ZipException("Found unsupported compression method "
-                                       + ze.getMethod());
+        if (ze.getMethod()!=ZipConstants.STORED && ze.getMethod()!=ZipConstants.DEFLATED)
+            throw new ZipException("Found unsupported compression method "
+                                   + ze.getMethod());
+
+        // Use a reader rather than the rais field, so that several entries can be read concurrently
+        EntryReaderPool.EntryReader reader = readers.getReader();
+        try {
+            // If data offset is -1 (not calculated yet), calculate it now
+            if (entryInfo.dataOffset == -1)
+                calculateDataOffset(entryInfo, reader);
         }
+        catch(IOException e) {
+            reader.close();
+            throw e;
+        }
+
+        BoundedInputStream bis = new BoundedInputStream(reader, entryInfo.dataOffset, ze.getCompressedSize());
+        if (ze.getMethod() == ZipConstants.STORED)
+            return bis;
+
+        bis.addDummy();
+        return new InflaterInputStream(bis, new Inflater(true));
     }
 
 
@@ -344,7 +356,7 @@ public class ZipFile implements ZipConstants {
                 raos.seek(0);
             }
             else {
-                cdStartOffset = entries.elementAt(0).getEntryInfo().centralHeaderOffset;
+                cdStartOffset = entries.get(0).getEntryInfo().centralHeaderOffset;
                 long shift;
 
                 if(entryIndex==nbEntries-1) {
@@ -353,7 +365,7 @@ public class ZipFile implements ZipConstants {
                     // entry) to where the entry's local header started.
 
                     // The entry before the deleted one, will become the last one
-                    ZipEntryInfo lastEntryInfo = entries.elementAt(nbEntries-2).getEntryInfo();
+                    ZipEntryInfo lastEntryInfo = entries.get(nbEntries-2).getEntryInfo();
 
                     // Destination offset
                     long newCdStartOffset = entryInfo.headerOffset;
@@ -367,7 +379,7 @@ public class ZipFile implements ZipConstants {
                     // Update central directory header offsets
                     shift = cdStartOffset-newCdStartOffset;
                     for(int i=0; i<nbEntries-1; i++)
-                        entries.elementAt(i).getEntryInfo().centralHeaderOffset -= shift;
+                        entries.get(i).getEntryInfo().centralHeaderOffset -= shift;
 
                     cdStartOffset = newCdStartOffset;
                     cdEndOffset = newCdStartOffset + cdLength;
@@ -392,9 +404,9 @@ public class ZipFile implements ZipConstants {
                     // - move the file headers that are located after the deleted entry to where the deleted entry's
                     // header was (this will remove the deleted entry's file header)
                     
-                    ZipEntryInfo lastEntryInfo = entries.elementAt(nbEntries-1).getEntryInfo();
+                    ZipEntryInfo lastEntryInfo = entries.get(nbEntries-1).getEntryInfo();
 
-                    long startOffset = entries.elementAt(entryIndex+1).getEntryInfo().centralHeaderOffset;
+                    long startOffset = entries.get(entryIndex+1).getEntryInfo().centralHeaderOffset;
                     cdEndOffset = lastEntryInfo.centralHeaderOffset + lastEntryInfo.centralHeaderLen;
 
                     StreamUtils.copyChunk(rais, raos, startOffset, entryInfo.centralHeaderOffset, cdEndOffset-startOffset);
@@ -403,7 +415,7 @@ public class ZipFile implements ZipConstants {
                     // offset has changed
                     shift = entryInfo.centralHeaderLen;
                     for(int i=entryIndex+1; i<nbEntries; i++)
-                        entries.elementAt(i).getEntryInfo().centralHeaderOffset -= shift;
+                        entries.get(i).getEntryInfo().centralHeaderOffset -= shift;
 
                     cdEndOffset -= shift;
                 }
@@ -416,8 +428,7 @@ public class ZipFile implements ZipConstants {
             raos.setLength(raos.getOffset());
 
             // All good, remove the deleted entry from the lists
-            entries.removeElementAt(entryIndex);
-            nameMap.remove(ze.getName());
+            entries.remove(entryIndex);
         } finally {
             try {
                 closeRead();
@@ -465,7 +476,6 @@ public class ZipFile implements ZipConstants {
             // Add the new entry to the internal lists
             entry.setEntryInfo(entryInfo);
             entries.add(entry);
-            nameMap.put(entry.getName(), entry);
 
             // create the ZipEntryOutputStream to write the entry's contents
 
@@ -485,7 +495,7 @@ public class ZipFile implements ZipConstants {
                     long cdLength = 0;                  // Length of central directory
                     long cdOffset = raos.getOffset();   // Offset of central directory
                     for(int i=0; i<nbEntries; i++) {
-                        tempZe = entries.elementAt(i);
+                        tempZe = entries.get(i);
                         tempEntryInfo = tempZe.getEntryInfo();
 
                         // Update offset to central header
@@ -585,6 +595,11 @@ public class ZipFile implements ZipConstants {
      * <p>Fragmentation occurs when deleting entries with {@link #deleteEntry(ZipEntry)}. When deleting several entries,
      * this method should be called once after all entries have deleted.</p>
      *
+     * <p>If the Zip file is a local file and a large part of it is unused (see {@link #REWRITE_MIN_UNUSED_RATIO}),
+     * the entries are copied sequentially, without being recompressed, to a new file which then replaces the Zip file.
+     * Otherwise, entries are moved within the Zip file to fill the free space, which only requires writing the
+     * entries located after the first fragment but results in random accesses to the file.</p>
+     *
      * <p>The underlying {@link AbstractFile} must have random write access. If not, an <code>IOException</code> will be
      * thrown.</p>
      *
@@ -596,6 +611,229 @@ public class ZipFile implements ZipConstants {
         if(nbEntries==0)
             return;
 
+        Object underlyingFile = file.getUnderlyingFileObject();
+        if(underlyingFile instanceof File) {
+            long entryLengths[];
+            try {
+                openRead();
+                entryLengths = getEntryLengths();
+            }
+            finally {
+                closeRead();
+            }
+
+            // Everything located before the central directory and not used by an entry
+            long unusedLength = entries.get(0).getEntryInfo().centralHeaderOffset;
+            for(long entryLength : entryLengths)
+                unusedLength -= entryLength;
+
+            if(unusedLength<=0)
+                return;
+
+            if(unusedLength>=REWRITE_MIN_UNUSED_RATIO*file.getSize() && rewrite((File)underlyingFile, entryLengths))
+                return;
+        }
+
+        defragmentInPlace();
+    }
+
+    /**
+     * Returns the number of bytes occupied by each entry in the Zip file: local file header, data and data descriptor.
+     * The data offset of entries is calculated if it is not known yet. This method requires the Zip file to be opened
+     * for random read access.
+     *
+     * @return the number of bytes occupied by each entry, in the order of {@link #entries}
+     * @throws IOException if an I/O error occurred
+     */
+    private long[] getEntryLengths() throws IOException {
+        int nbEntries = entries.size();
+        long entryLengths[] = new long[nbEntries];
+        byte signature[] = new byte[4];
+        for(int i=0; i<nbEntries; i++) {
+            ZipEntry ze = entries.get(i);
+            ZipEntryInfo entryInfo = ze.getEntryInfo();
+
+            // If data offset is -1 (not calculated yet), calculate it now
+            if (entryInfo.dataOffset == -1)
+                calculateDataOffset(entryInfo);
+
+            long entryLength = entryInfo.dataOffset - entryInfo.headerOffset + ze.getCompressedSize();
+
+            // The data descriptor signature is optional
+            if(entryInfo.hasDataDescriptor) {
+                rais.seek(entryInfo.dataOffset + ze.getCompressedSize());
+                rais.readFully(signature);
+                entryLength += Arrays.equals(signature, DD_SIG) ? 16 : 12;
+            }
+
+            entryLengths[i] = entryLength;
+        }
+
+        return entryLengths;
+    }
+
+    /**
+     * Copies the entries of the given local Zip file to a new file, in a single sequential pass and without
+     * recompressing them, followed by a new central directory. The new file then replaces the Zip file.
+     *
+     * <p>The new file is created in the same folder as the Zip file's real path, for the replacement to be atomic and
+     * for symbolic links to the Zip file to be preserved. Its permissions, owner and group are those of the Zip file,
+     * if the filesystem supports POSIX attributes. The Zip file is not replaced if it has several hard links, which
+     * would be split, or if its owner or group cannot be given to the new file.</p>
+     *
+     * @param localFile the Zip file
+     * @param entryLengths the number of bytes occupied by each entry, as returned by {@link #getEntryLengths()}
+     * @return <code>true</code> if the Zip file was rewritten, <code>false</code> if it cannot or could not be
+     * replaced, in which case the Zip file is left untouched
+     * @throws IOException if an I/O error occurred while copying the entries
+     */
+    private boolean rewrite(File localFile, long entryLengths[]) throws IOException {
+        int nbEntries = entries.size();
+
+        // Copy entries in the order they are stored, so that the Zip file is read sequentially
+        Integer order[] = new Integer[nbEntries];
+        for(int i=0; i<nbEntries; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> entries.get(i).getEntryInfo().headerOffset));
+
+        long headerOffsets[] = new long[nbEntries];
+        long centralHeaderOffsets[] = new long[nbEntries];
+        long centralHeaderLens[] = new long[nbEntries];
+
+        Path zipPath = localFile.toPath().toRealPath();
+        if(getLinkCount(zipPath)>1) {
+            LOGGER.info(localFile+" has several hard links, defragmenting it in place");
+            return false;
+        }
+
+        Path tempPath = Files.createTempFile(zipPath.getParent(), zipPath.getFileName().toString(), ".tmp");
+        try {
+            if(!copyOwnership(zipPath, tempPath)) {
+                LOGGER.info("Could not preserve the owner of "+localFile+", defragmenting it in place");
+                return false;
+            }
+
+            try {
+                openRead();
+
+                try (CounterOutputStream out = new CounterOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), WRITE_BUFFER_SIZE))) {
+                    ByteCounter counter = out.getCounter();
+
+                    for(int i : order) {
+                        headerOffsets[i] = counter.getByteCount();
+
+                        rais.seek(entries.get(i).getEntryInfo().headerOffset);
+                        if(StreamUtils.copyStream(rais, out, WRITE_BUFFER_SIZE, entryLengths[i])!=entryLengths[i])
+                            throw new ZipException("Invalid entry (truncated): "+entries.get(i).getName());
+                    }
+
+                    long cdOffset = counter.getByteCount();
+                    long cdLength = 0;
+                    for(int i=0; i<nbEntries; i++) {
+                        ZipEntry ze = entries.get(i);
+                        ZipEntryInfo entryInfo = ze.getEntryInfo();
+
+                        centralHeaderOffsets[i] = counter.getByteCount();
+
+                        // Preserve existing encoding when rewriting CFH so that it matches LFH
+                        cdLength += ZipOutputStream.writeCentralFileHeader(ze, out, entryInfo.encoding, headerOffsets[i], entryInfo.hasDataDescriptor, zipBuffer);
+
+                        centralHeaderLens[i] = counter.getByteCount() - centralHeaderOffsets[i];
+                    }
+
+                    ZipOutputStream.writeCentralDirectoryEnd(out, nbEntries, cdLength, cdOffset, comment, UTF_8, zipBuffer);
+                }
+            }
+            finally {
+                closeRead();
+            }
+
+            try {
+                Files.setPosixFilePermissions(tempPath, Files.getPosixFilePermissions(zipPath));
+            }
+            catch(UnsupportedOperationException e) {
+                // Permissions of the new file are the filesystem's defaults
+            }
+
+            try {
+                Files.move(tempPath, zipPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(IOException e) {
+                // For instance if the Zip file is open by another process under Windows
+                LOGGER.info("Could not replace "+localFile+", defragmenting it in place", e);
+                return false;
+            }
+        }
+        finally {
+            Files.deleteIfExists(tempPath);
+        }
+
+        // Entries currently being read keep reading the former file
+        readers.fileReplaced();
+
+        for(int i=0; i<nbEntries; i++) {
+            ZipEntryInfo entryInfo = entries.get(i).getEntryInfo();
+            entryInfo.dataOffset += headerOffsets[i] - entryInfo.headerOffset;
+            entryInfo.headerOffset = headerOffsets[i];
+            entryInfo.centralHeaderOffset = centralHeaderOffsets[i];
+            entryInfo.centralHeaderLen = centralHeaderLens[i];
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the number of hard links to the given file, <code>1</code> if the filesystem doesn't report it.
+     *
+     * @param path the file
+     * @return the number of hard links to the file
+     * @throws IOException if an I/O error occurred
+     */
+    private static int getLinkCount(Path path) throws IOException {
+        try {
+            return (Integer)Files.getAttribute(path, "unix:nlink");
+        }
+        catch(UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Gives the owner and group of a file to another one, if the filesystem supports POSIX attributes.
+     *
+     * @param source the file whose owner and group are copied
+     * @param dest the file to modify
+     * @return <code>false</code> if the owner or group differ and could not be changed, for instance because of
+     * insufficient privileges
+     * @throws IOException if an I/O error occurred while reading the attributes
+     */
+    private static boolean copyOwnership(Path source, Path dest) throws IOException {
+        PosixFileAttributeView destView = Files.getFileAttributeView(dest, PosixFileAttributeView.class);
+        if(destView==null)
+            return true;
+
+        PosixFileAttributes sourceAttributes = Files.readAttributes(source, PosixFileAttributes.class);
+        PosixFileAttributes destAttributes = destView.readAttributes();
+        try {
+            if(!sourceAttributes.group().equals(destAttributes.group()))
+                destView.setGroup(sourceAttributes.group());
+            if(!sourceAttributes.owner().equals(destAttributes.owner()))
+                destView.setOwner(sourceAttributes.owner());
+            return true;
+        }
+        catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes free space fragments by moving entries within the Zip file, see {@link #defragment()}.
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private void defragmentInPlace() throws IOException {
+        int nbEntries = entries.size();
+
         try {
             openRead();
             openWrite();
@@ -606,7 +844,7 @@ public class ZipFile implements ZipConstants {
 
             // Special case for the first entry
 
-            currentEntry = entries.elementAt(0);
+            currentEntry = entries.get(0);
             currentEntryInfo = currentEntry.getEntryInfo();
 
             // If data offset is -1 (not calculated yet), calculate it now
@@ -627,7 +865,7 @@ public class ZipFile implements ZipConstants {
             // Process all other entries
 
             for(int i=1; i<nbEntries; i++) {
-                currentEntry = entries.elementAt(i);
+                currentEntry = entries.get(i);
                 currentEntryInfo = currentEntry.getEntryInfo();
 
                 // If data offset is -1 (not calculated yet), calculate it now
@@ -662,7 +900,7 @@ public class ZipFile implements ZipConstants {
                 ZipEntryInfo entryInfo;
 
                 for(int i=0; i<nbEntries; i++) {
-                    ze = entries.elementAt(i);
+                    ze = entries.get(i);
                     entryInfo = ze.getEntryInfo();
 
                     // Update offset to central directory file header
@@ -729,31 +967,29 @@ public class ZipFile implements ZipConstants {
         entryInfo.dataOffset = dataOffset;
     }
 
+    /**
+     * Same as {@link #calculateDataOffset(ZipEntryInfo)} but reads the local file header using the given reader,
+     * which allows this method to be called concurrently.
+     *
+     * @param entryInfo the ZipEntryInfo object in which to store the data offset
+     * @param reader the reader to use for reading the local file header
+     * @throws IOException if an unexpected I/O error occurred
+     */
+    private static void calculateDataOffset(ZipEntryInfo entryInfo, EntryReaderPool.EntryReader reader) throws IOException {
+        // Read the filename and extra field lengths, located after the first 26 bytes of the local file header
+        byte[] b = new byte[4];
+        reader.readFully(entryInfo.headerOffset + 26, b, 0, 4);
+
+        entryInfo.dataOffset = entryInfo.headerOffset + 30 + ZipShort.getValue(b, 0) + ZipShort.getValue(b, 2);
+    }
 
-    /** Combined length of all constant-size fields of the Central File Header */
-    private static final int CFH_LEN =
-        /* version made by                 */ 2
-        /* version needed to extract       */ + 2
-        /* general purpose bit flag        */ + 2
-        /* compression method              */ + 2
-        /* last mod file time              */ + 2
-        /* last mod file date              */ + 2
-        /* crc-32                          */ + 4
-        /* compressed size                 */ + 4
-        /* uncompressed size               */ + 4
-        /* filename length                 */ + 2
-        /* extra field length              */ + 2
-        /* file comment length             */ + 2
-        /* disk number start               */ + 2
-        /* internal file attributes        */ + 2
-        /* external file attributes        */ + 4
-        /* relative offset of local header */ + 4;
 
     /**
      * Reads the central directory of the given archive and populates
      * the internal tables with ZipEntry instances.
      *
-     * <p>The ZipEntrys will know all data that can be obtained from
+     * <p>The central directory is read in one go and handed to a {@link ZipEntryTable}, which creates ZipEntry
+     * instances only when they are requested. The ZipEntrys will know all data that can be obtained from
      * the central directory alone, but not the data that requires the
      * local file header or additional data to be read.</p>
      *
@@ -761,171 +997,18 @@ public class ZipFile implements ZipConstants {
      * @throws ZipException if this file is not a valid Zip file
      */
     private void parseCentralDirectory() throws IOException {
+        long eocdOffset = positionAtCentralDirectory();
+        long cdOffset = rais.getOffset();
 
-        positionAtCentralDirectory();
-
-        byte[] cfh = new byte[CFH_LEN];
-
-        byte[] signatureBytes = new byte[4];
-        rais.readFully(signatureBytes);
-        long sig = ZipLong.getValue(signatureBytes);
-        final long cfhSig = ZipLong.getValue(CFH_SIG);
-
-        boolean defaultEncodingSet = defaultEncoding!=null;
-        ByteArrayOutputStream encodingAccumulator = defaultEncodingSet?null:new ByteArrayOutputStream();
-
-        while (sig == cfhSig) {
-            ZipEntryInfo entryInfo = new ZipEntryInfo();
-
-            // Set Central directory file header offset
-            entryInfo.centralHeaderOffset = rais.getOffset() - 4;     // 4 for the header signature
-
-            rais.readFully(cfh);
-            ZipEntry ze = new ZipEntry();
-
-            int versionMadeBy = ZipShort.getValue(cfh, 0);
-            // off += 2;
-            ze.setPlatform((versionMadeBy >> 8) & 0x0F);
-
-            // skip version info
-            // off += 2;
-
-            int gp = ZipShort.getValue(cfh, 4);   // General purpose bit flag
-            boolean isUTF8 = (gp&0x800)!=0;         // Tests if bit 11 is set, signaling UTF-8 is used for filename and comment
-
-            if(isUTF8) {
-                entryInfo.encoding = UTF_8;
-                LOGGER.info("Entry declared as UTF-8");
-            }
-            else if(defaultEncodingSet) {
-                entryInfo.encoding = defaultEncoding;
-                LOGGER.info("Using default encoding: "+defaultEncoding);
-            }
-            else {
-//                FileLogger.finest("Encoding will be detected later");
-            }
-
-            entryInfo.hasDataDescriptor = (gp&8)!=0;
-            // off += 2;
-
-            int method = ZipShort.getValue(cfh, 6);
-            // Note: ZipEntry#setMethod(int) will throw a java.lang.InternalError ("invalid compression method") if the
-            // method is different from DEFLATED or STORED (happens with IMPLODED for example).
-            // Thus we check the method ourselves to fail gracefully.
-            if(method!=DEFLATED && method!=STORED)
-                throw new ZipException("Unsupported compression method");
-
-            ze.setMethod(method);
-            // off += 2;
-
-            ze.setDosTime(ZipLong.getValue(cfh, 8));
-            // off += 4;
-
-            ze.setCrc(ZipLong.getValue(cfh, 12));
-            // off += 4;
-
-            ze.setCompressedSize(ZipLong.getValue(cfh, 16));
-            // off += 4;
-
-            ze.setSize(ZipLong.getValue(cfh, 20));
-            // off += 4;
-
-            int fileNameLen = ZipShort.getValue(cfh, 24);
-            // off += 2;
+        // Read the whole central directory at once: decoding it from memory is much faster than issuing small reads
+        long cdLength = eocdOffset - cdOffset;
+        if(cdLength<0 || cdLength>Integer.MAX_VALUE-8)
+            throw new ZipException("Invalid Zip file (bad central directory offset)");
 
-            int extraLen = ZipShort.getValue(cfh, 26);
-            // off += 2;
+        byte[] cd = new byte[(int)cdLength];
+        rais.readFully(cd);
 
-            int commentLen = ZipShort.getValue(cfh, 28);
-            // off += 2;
-
-            // skip disk number
-            // off += 2;
-
-            ze.setInternalAttributes(ZipShort.getValue(cfh, 32));
-            // off += 2;
-
-            ze.setExternalAttributes(ZipLong.getValue(cfh, 34));
-            // off += 4;
-
-            // Read filename bytes
-            byte[] filename = new byte[fileNameLen];
-            rais.readFully(filename);
-
-            // If the encoding is known already, set the String now
-            if(entryInfo.encoding!=null) {
-                setFilename(ze, getString(filename, entryInfo.encoding));
-            }
-            else {
-                // Keep the filename bytes, String will be encoded after
-                entryInfo.filename = filename;
-                // Accumulate those unidentified bytes for encoding detection
-                feedEncodingAccumulator(encodingAccumulator, filename);
-            }
-
-            // Offset to local file header
-            entryInfo.headerOffset = ZipLong.getValue(cfh, 38);
-            // data offset will be filled later
-
-            // Read and set extra bytes
-            byte extra[] = new byte[extraLen];
-            rais.readFully(extra);
-            ze.setExtra(extra);
-
-            // Read comment bytes
-            byte[] comment = new byte[commentLen];
-            rais.readFully(comment);
-
-            // If the encoding is known already, set the String now
-            if(entryInfo.encoding!=null) {
-                ze.setComment(getString(comment, entryInfo.encoding));
-            }
-            else {
-                // Keep the comment bytes, String will be encoded after
-                entryInfo.comment = comment;
-                // Accumulate those unidentified bytes for encoding detection
-                feedEncodingAccumulator(encodingAccumulator, comment);
-            }
-
-            entryInfo.centralHeaderLen = 46 + fileNameLen + extraLen + commentLen;
-
-            // Add the new entry to the internal lists
-            ze.setEntryInfo(entryInfo);
-            entries.add(ze);
-            nameMap.put(ze.getName(), ze);
-
-            // Swallow signature
-            rais.readFully(signatureBytes);
-            sig = ZipLong.getValue(signatureBytes);
-        }
-
-        if(encodingAccumulator!=null && encodingAccumulator.size()>0) {
-            int nbEntries = entries.size();
-            // Note: guessedEncoding may be null if no encoding could be detected.
-            // In that case, the default system encoding will be used to create the string
-            String guessedEncoding = EncodingDetector.detectEncoding(encodingAccumulator.toByteArray());
-
-            LOGGER.info("Guessed encoding: "+guessedEncoding);
-
-            ZipEntry entry;
-            ZipEntryInfo entryInfo;
-            for(int i=0; i<nbEntries; i++) {
-                entry = entries.elementAt(i);
-                entryInfo = entry.getEntryInfo();
-
-                // Skip those entries for which we know the encoding already
-                if(entryInfo.encoding != null)
-                    continue;
-
-                entryInfo.encoding = guessedEncoding;
-
-                setFilename(entry, getString(entryInfo.filename, guessedEncoding));
-                entryInfo.filename = null;
-
-                entry.setComment(getString(entryInfo.comment, guessedEncoding));
-                entryInfo.comment = null;
-            }
-        }
+        entries = new ZipEntryTable(cd, cdOffset, defaultEncoding);
     }
 
     /**
@@ -940,27 +1023,13 @@ public class ZipFile implements ZipConstants {
      * @param ze the ZipEntry object in which to set the filename
      * @param filename the filename to set 
      */
-    private static void setFilename(ZipEntry ze, String filename) {
+    static void setFilename(ZipEntry ze, String filename) {
         if(ze.getPlatform()==ZipEntry.PLATFORM_FAT)
             filename = filename.replace('\\', '/');
 
         ze.setName(filename);
     }
 
-    /**
-     * Feeds the given bytes to the encoding accumulator (used for encoding detection). The bytes will be ignored if
-     * the accumulator has enough data already.
-     *
-     * @param encodingAccumulator the ByteArrayOutputStream that holds filename and comment bytes
-     * @param bytes the bytes to feed to the encoding accumulator
-     * @throws IOException if an I/O occurs (should never happen)
-     */
-    private static void feedEncodingAccumulator(ByteArrayOutputStream encodingAccumulator, byte bytes[]) throws IOException {
-        if(encodingAccumulator.size() < EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE)
-            encodingAccumulator.write(bytes);
-        // Else accumulator has enough bytes, ignore the given bytes
-    }
-
     /** Minimum possible size for the End Of Central Directory record (no comment) */
     private static final int MIN_EOCD_SIZE =
         /* end of central dir signature    */ 4
@@ -1011,11 +1080,12 @@ public class ZipFile implements ZipConstants {
      * it and positions the stream at the first central directory
      * record.
      *
+     * @return the offset of the end of central dir record, i.e. the end of the central directory
      * @throws IOException if an I/O error occurs
      * @throws ZipException if the end of central directory signature could not be found. This can be interpreted as the
      * underlying file not being a Zip file
      */
-    private void positionAtCentralDirectory() throws IOException {
+    private long positionAtCentralDirectory() throws IOException {
         long length = rais.getLength();
         if(length<MIN_EOCD_SIZE)
             throw new ZipException("Invalid Zip file (too small)");
@@ -1053,6 +1123,8 @@ public class ZipFile implements ZipConstants {
                 throw new ZipException("Invalid Zip stream (EOCD signature not found)");
             }
 
+            long eocdOffset = length-bufLen+off;
+
             // Parse the offset to the central directory start
             off += CFD_LOCATOR_OFFSET;
             byte[] cdStart = new byte[4];
@@ -1075,6 +1147,8 @@ public class ZipFile implements ZipConstants {
 
             // Seek to the start of the central directory
             rais.seek(ZipLong.getValue(cdStart));
+
+            return eocdOffset;
         }
         finally {
             BufferPool.releaseByteArray(buf);
@@ -1089,7 +1163,7 @@ public class ZipFile implements ZipConstants {
      * @param encoding the encoding to use to instantiate the String
      * @return String instance that was created with the given encoding
      */
-    private static String getString(byte[] bytes, String encoding) {
+    static String getString(byte[] bytes, String encoding) {
         if(bytes.length==0)
             return "";
 
@@ -1112,36 +1186,29 @@ public class ZipFile implements ZipConstants {
     ///////////////////
     
     /**
-     * InputStream that delegates requests to the underlying RandomAccessFile, making sure that only bytes from a
-     * certain range can be read.
+     * InputStream that reads the data of an entry using an {@link EntryReaderPool.EntryReader}, making sure that only
+     * bytes from a certain range can be read.
      */
     private static class BoundedInputStream extends InputStream {
 
-        private final RandomAccessInputStream rais;
+        private final EntryReaderPool.EntryReader reader;
 
         private long remaining;
         private long loc;
         private boolean addDummyByte = false;
 
-        BoundedInputStream(RandomAccessInputStream rais, long start, long remaining) {
-            this.rais = rais;
+        private final byte oneByte[] = new byte[1];
+
+        BoundedInputStream(EntryReaderPool.EntryReader reader, long start, long remaining) {
+            this.reader = reader;
             this.remaining = remaining;
             loc = start;
         }
 
         @Override
         public int read() throws IOException {
-            if (remaining-- <= 0) {
-                if (addDummyByte) {
-                    addDummyByte = false;
-                    return 0;
-                }
-                return -1;
-            }
-            synchronized (rais) {
-                rais.seek(loc++);
-                return rais.read();
-            }
+            int ret = read(oneByte, 0, 1);
+            return ret<=0 ? -1 : oneByte[0]&0xFF;
         }
 
         @Override
@@ -1162,11 +1229,7 @@ public class ZipFile implements ZipConstants {
             if (len > remaining) {
                 len = (int) remaining;
             }
-            int ret;
-            synchronized (rais) {
-                rais.seek(loc);
-                ret = rais.read(b, off, len);
-            }
+            int ret = reader.read(loc, b, off, len);
             if (ret > 0) {
                 loc += ret;
                 remaining -= ret;
@@ -1176,7 +1239,7 @@ public class ZipFile implements ZipConstants {
 
         @Override
         public void close() throws IOException {
-            rais.close();
+            reader.close();
         }
 
         /**
@@ -19,6 +19,7 @@
 package com.mucommander.commons.file.impl.zip.provider;
 
 import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.ParallelDeflaterOutputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
 
 import java.io.IOException;
@@ -61,6 +62,9 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
     /** Compression method zip entries */
     private int method = DEFLATED;
 
+    /** Number of threads compressing DEFLATED entries, 1 to compress them on the calling thread */
+    private int compressionThreads = 1;
+
     /** Deflater instance that is used to compress DEFLATED entries */
     protected Deflater deflater = new Deflater(level, true);
 
@@ -297,7 +301,12 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
             deflater.reset();
             deflater.setLevel(level);
 
-            zeos = new DeflatedOutputStream(out, deflater, deflaterBuf);
+            // Entries that fit in a single chunk gain nothing from parallel compression
+            long size = entry.getSize();
+            if(compressionThreads>1 && (size==-1 || size>ParallelDeflaterOutputStream.DEFAULT_CHUNK_SIZE))
+                zeos = new ParallelDeflatedOutputStream(out, deflater, deflaterBuf, level, compressionThreads);
+            else
+                zeos = new DeflatedOutputStream(out, deflater, deflaterBuf);
         }
         else {
             zeos = new StoredOutputStream(out);
@@ -308,6 +317,18 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
         entryInfo.dataOffset = written;
     }
 
+    /**
+     * Sets the number of threads compressing DEFLATED entries. With more than one thread, the data of large entries
+     * is split into chunks that are compressed in parallel by a {@link ParallelDeflaterOutputStream}.
+     *
+     * <p>Default is 1, i.e. entries are compressed by the thread that writes them.</p>
+     *
+     * @param nbThreads the number of threads compressing DEFLATED entries
+     */
+    public void setCompressionThreads(int nbThreads) {
+        this.compressionThreads = Math.max(1, nbThreads);
+    }
+
     /**
      * Sets the file comment.
      *
@@ -23,9 +23,14 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class allows to share and reuse byte buffers to avoid excessive memory allocation and garbage collection.
@@ -48,6 +53,10 @@ import java.util.List;
  * </ul>
  * </p>
  *
+ * <p>Pooled buffers are kept in lock-free buckets, one per buffer class and length, so that getting and releasing
+ * buffers doesn't serialize concurrent copy jobs. Hit and miss counts are kept for monitoring purposes, see
+ * {@link #getHitCount()} and {@link #getMissCount()}.</p>
+ *
  * <p>Note: this class is thread safe and thus can safely be used by concurrent threads.</p>
  *
  * @author Maxence Bernard, Nicolas Rinaudo
@@ -57,23 +66,32 @@ public class BufferPool {
     /** Logger used by this class. */
     private static final Logger LOGGER = LoggerFactory.getLogger(BufferPool.class);
 
-    /** List of BufferContainer instances that wraps available buffers */
-    private static List<BufferContainer> bufferContainers = new ArrayList<>();
+    /** Available buffers by buffer class and length, most recently released first */
+    private static final Map<SizeClass, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /** Identities of all available buffers, used to detect buffers released twice */
+    private static final Set<BufferKey> pooledBuffers = Collections.newSetFromMap(new ConcurrentHashMap<BufferKey, Boolean>());
 
     /** The initial default buffer size */
     public final static int INITIAL_DEFAULT_BUFFER_SIZE = 65536;
 
     /** Size of buffers returned by get*Buffer methods without a size argument */
-    public static int defaultBufferSize = INITIAL_DEFAULT_BUFFER_SIZE;
+    public static volatile int defaultBufferSize = INITIAL_DEFAULT_BUFFER_SIZE;
 
     /** The initial max pool size */
     public final static long INITIAL_POOL_LIMIT = 10485760;
 
     /** Maximum combined size of all pooled buffers, in bytes */
-    public static long maxPoolSize = INITIAL_POOL_LIMIT;
+    public static volatile long maxPoolSize = INITIAL_POOL_LIMIT;
 
     /** Current combined size of all pooled buffers, in bytes */
-    public static long poolSize;
+    private static final AtomicLong poolSize = new AtomicLong();
+
+    /** Number of buffers returned from the pool */
+    private static final AtomicLong hitCount = new AtomicLong();
+
+    /** Number of buffers created because none was available in the pool */
+    private static final AtomicLong missCount = new AtomicLong();
 
 
     /**
@@ -82,7 +100,7 @@ public class BufferPool {
      *
      * @return a byte array with a length of {@link #getDefaultBufferSize()}
      */
-    public static synchronized byte[] getByteArray() {
+    public static byte[] getByteArray() {
         return getByteArray(getDefaultBufferSize());
     }
 
@@ -100,7 +118,7 @@ public class BufferPool {
      * @param length length of the byte array
      * @return a byte array of the specified size
      */
-    public static synchronized byte[] getByteArray(int length) {
+    public static byte[] getByteArray(int length) {
         return (byte[])getBuffer(new ByteArrayFactory(), length);
     }
 
@@ -110,7 +128,7 @@ public class BufferPool {
      *
      * @return a char array with a length of {@link #getDefaultBufferSize()}
      */
-    public static synchronized char[] getCharArray() {
+    public static char[] getCharArray() {
         return getCharArray(getDefaultBufferSize());
     }
 
@@ -128,7 +146,7 @@ public class BufferPool {
      * @param length length of the char array
      * @return a char array of the specified length
      */
-    public static synchronized char[] getCharArray(int length) {
+    public static char[] getCharArray(int length) {
         return (char[])getBuffer(new CharArrayFactory(), length);
     }
 
@@ -138,7 +156,7 @@ public class BufferPool {
      *
      * @return a ByteBuffer with a capacity equal to {@link #getDefaultBufferSize()}
      */
-    public static synchronized ByteBuffer getByteBuffer() {
+    public static ByteBuffer getByteBuffer() {
         return getByteBuffer(getDefaultBufferSize());
     }
 
@@ -156,10 +174,25 @@ public class BufferPool {
      * @param capacity capacity of the ByteBuffer
      * @return a ByteBuffer with the specified capacity
      */
-    public static synchronized ByteBuffer getByteBuffer(int capacity) {
+    public static ByteBuffer getByteBuffer(int capacity) {
         return (ByteBuffer)getBuffer(new ByteBufferFactory(), capacity);
     }
 
+    /**
+     * Returns a ByteBuffer of the specified capacity, either direct or allocated on the heap. Direct buffers are
+     * better suited to NIO channel operations, heap buffers to code accessing the backing array.
+     *
+     * <p>This method won't return the same buffer instance until it has been released with
+     * {@link #releaseByteBuffer(ByteBuffer)}.</p>
+     *
+     * @param capacity capacity of the ByteBuffer
+     * @param direct <code>true</code> for a direct buffer, <code>false</code> for a heap buffer
+     * @return a ByteBuffer with the specified capacity
+     */
+    public static ByteBuffer getByteBuffer(int capacity, boolean direct) {
+        return (ByteBuffer)getBuffer(new ByteBufferFactory(direct), capacity);
+    }
+
 
     /**
      * Convenience method that has the same effect as calling {@link #getCharBuffer(int)} with
@@ -167,7 +200,7 @@ public class BufferPool {
      *
      * @return a CharBuffer with a capacity equal to {@link #getDefaultBufferSize()}
      */
-    public static synchronized CharBuffer getCharBuffer() {
+    public static CharBuffer getCharBuffer() {
         return getCharBuffer(getDefaultBufferSize());
     }
 
@@ -185,7 +218,7 @@ public class BufferPool {
      * @param capacity capacity of the CharBuffer
      * @return a CharBuffer with the specified capacity
      */
-    public static synchronized CharBuffer getCharBuffer(int capacity) {
+    public static CharBuffer getCharBuffer(int capacity) {
         return (CharBuffer)getBuffer(new CharBufferFactory(), capacity);
     }
 
@@ -197,7 +230,7 @@ public class BufferPool {
      * @param factory BufferFactory used to identify the target buffer class and create a new buffer (if necessary)
      * @return a buffer with a size equal to {@link #getDefaultBufferSize()}
      */
-    public static synchronized Object getBuffer(BufferFactory factory) {
+    public static Object getBuffer(BufferFactory factory) {
         return getBuffer(factory, getDefaultBufferSize());
     }
 
@@ -214,22 +247,21 @@ public class BufferPool {
      * @param size size of the buffer
      * @return a buffer of the specified size
      */
-    public static synchronized Object getBuffer(BufferFactory factory, int size) {
-        // Looks for a buffer container in the pool that matches the specified size and buffer class.
-        Iterator<BufferContainer> it = bufferContainers.iterator();
-        while (it.hasNext()) {
-            BufferContainer bufferContainer = it.next();
-            Object buffer = bufferContainer.getBuffer();
-
-            // Caution: mind the difference between BufferContainer#getLength() and BufferContainer#getSize()
-            if (bufferContainer.getLength() == size && (factory.matchesBufferClass(buffer.getClass()))) {
-                it.remove();
-                //bufferContainers.removeElementAt(i);
-                poolSize -= bufferContainer.getSize();
+    public static Object getBuffer(BufferFactory factory, int size) {
+        // Looks for a buffer in the bucket that matches the specified size and buffer class.
+        Bucket bucket = buckets.get(new SizeClass(factory.getBufferClass(), size, factory.isDirect()));
+        if (bucket != null) {
+            Object buffer = bucket.buffers.pollFirst();
+            if (buffer != null) {
+                bucket.count.decrementAndGet();
+                pooledBuffers.remove(new BufferKey(buffer));
+                poolSize.addAndGet(-factory.newBufferContainer(buffer).getSize());
+                hitCount.incrementAndGet();
                 return buffer;
             }
         }
 
+        missCount.incrementAndGet();
         LOGGER.trace("Creating new buffer with {} size=", factory, size);
 
         // No buffer with the same class and size found in the pool, create a new one and return it
@@ -249,7 +281,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseByteArray(byte buffer[]) {
+    public static boolean releaseByteArray(byte buffer[]) {
         return releaseBuffer(buffer, new ByteArrayFactory());
     }
 
@@ -265,7 +297,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseCharArray(char buffer[]) {
+    public static boolean releaseCharArray(char buffer[]) {
         return releaseBuffer(buffer, new CharArrayFactory());
     }
 
@@ -281,7 +313,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseByteBuffer(ByteBuffer buffer) {
+    public static boolean releaseByteBuffer(ByteBuffer buffer) {
         return releaseBuffer(buffer, new ByteBufferFactory());
     }
 
@@ -297,7 +329,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseCharBuffer(CharBuffer buffer) {
+    public static boolean releaseCharBuffer(CharBuffer buffer) {
         return releaseBuffer(buffer, new CharBufferFactory());
     }
 
@@ -315,27 +347,42 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool or the pool size limit has been reached
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseBuffer(Object buffer, BufferFactory factory) {
+    public static boolean releaseBuffer(Object buffer, BufferFactory factory) {
         if(buffer==null)
             throw new IllegalArgumentException("specified buffer is null");
 
-        BufferContainer bufferContainer = factory.newBufferContainer(buffer);
-
-        if(bufferContainers.contains(bufferContainer)) {
-            LOGGER.info("Warning: specified buffer is already in the pool: {}", buffer);
+        BufferKey key = new BufferKey(buffer);
+        if(!pooledBuffers.add(key)) {
+            // Releasing a buffer twice means it may still be in use by the first caller
+            LOGGER.warn("Specified buffer is already in the pool: {}", buffer);
             return false;
         }
 
+        BufferContainer bufferContainer = factory.newBufferContainer(buffer);
         long bufferSize = bufferContainer.getSize();        // size in bytes (!= length)
 
-        if(maxPoolSize!=-1 && poolSize+bufferSize>maxPoolSize) {
-            LOGGER.info("Warning: maximum pool size reached, buffer not added to the pool of type {}. Enable trace to get the buffer.", buffer.getClass());
-            LOGGER.trace("Warning: maximum pool size reached, buffer not added to the pool of type {} : {}", buffer.getClass(), buffer);
-            return false;
+        // Reserves room for the buffer, the pool size may be updated concurrently
+        long currentSize;
+        do {
+            currentSize = poolSize.get();
+            if(maxPoolSize!=-1 && currentSize+bufferSize>maxPoolSize) {
+                pooledBuffers.remove(key);
+                LOGGER.info("Warning: maximum pool size reached, buffer not added to the pool of type {}. Enable trace to get the buffer.", buffer.getClass());
+                LOGGER.trace("Warning: maximum pool size reached, buffer not added to the pool of type {} : {}", buffer.getClass(), buffer);
+                return false;
+            }
+        } while(!poolSize.compareAndSet(currentSize, currentSize+bufferSize));
+
+        SizeClass sizeClass = new SizeClass(factory.getBufferClass(), bufferContainer.getLength(), bufferContainer.isDirect());
+        Bucket bucket = buckets.get(sizeClass);
+        if(bucket==null) {
+            Bucket newBucket = new Bucket(sizeClass);
+            bucket = buckets.putIfAbsent(sizeClass, newBucket);
+            if(bucket==null)
+                bucket = newBucket;
         }
-
-        bufferContainers.add(bufferContainer);
-        poolSize += bufferSize;
+        bucket.count.incrementAndGet();
+        bucket.buffers.offerFirst(buffer);
 
         return true;
     }
@@ -343,7 +390,7 @@ public class BufferPool {
     /**
      * Returns <code>true</code> if the specified buffer is currently in the pool.
      *
-     * <p>Note that it is not necessary (and thus not recommended for performance reasons) to call this method before
+     * <p>Note that it is not necessary (and thus not recommended for performance reasons) to call this method before
      * calling <code>release*Buffer</code> as it already performs this test before adding a buffer to the pool.</p>
      *
      * @param buffer the buffer to look for in the pool
@@ -351,7 +398,7 @@ public class BufferPool {
      * @return <code>true</code> if the specified buffer is already in the pool
      */
     public static boolean containsBuffer(Object buffer, BufferFactory factory) {
-        return bufferContainers.contains(factory.newBufferContainer(buffer));
+        return pooledBuffers.contains(new BufferKey(buffer));
     }
 
 
@@ -362,7 +409,11 @@ public class BufferPool {
      * @return the number of buffers currently in the pool
      */
     public static int getBufferCount() {
-        return bufferContainers.size();
+        int count = 0;
+        for (Bucket bucket : buckets.values()) {
+            count += bucket.count.get();
+        }
+        return count;
     }
 
     /**
@@ -374,15 +425,32 @@ public class BufferPool {
      */
     public static int getBufferCount(BufferFactory factory) {
         int count = 0;
-        for (BufferContainer bufferContainer : bufferContainers) {
-            if (factory.matchesBufferClass(bufferContainer.getBuffer().getClass())) {
-                count ++;
+        for (Bucket bucket : buckets.values()) {
+            if (factory.matchesBufferClass(bucket.sizeClass.bufferClass)) {
+                count += bucket.count.get();
             }
-
         }
         return count;
     }
 
+    /**
+     * Returns the number of buffers that were returned from the pool instead of being created.
+     *
+     * @return the number of buffers returned from the pool
+     */
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of buffers that were created because no matching buffer was available in the pool.
+     *
+     * @return the number of buffers created by <code>get*Buffer</code> methods
+     */
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
     /**
      * Returns the default size of buffers returned by <code>get*Buffer</code> methods without a <code>size</code>
      * argument.
@@ -400,7 +468,7 @@ public class BufferPool {
      *
      * @param bufferSize the new buffer size
      */
-    public static synchronized void setDefaultBufferSize(int bufferSize) {
+    public static void setDefaultBufferSize(int bufferSize) {
         BufferPool.defaultBufferSize = bufferSize;
     }
 
@@ -411,7 +479,7 @@ public class BufferPool {
      * @return the combined size in bytes of all buffers that are currenty in the pool
      */
     public static long getPoolSize() {
-        return poolSize;
+        return poolSize.get();
     }
 
     /**
@@ -434,7 +502,7 @@ public class BufferPool {
      *
      * @param maxPoolSize the maximum combined size in bytes for all buffers in the pool
      */
-    public static synchronized void setMaxPoolSize(long maxPoolSize) {
+    public static void setMaxPoolSize(long maxPoolSize) {
         BufferPool.maxPoolSize = maxPoolSize;
     }
 
@@ -490,6 +558,15 @@ public class BufferPool {
          * @return the size of the wrapped buffer instance, expressed in bytes
          */
         protected abstract int getSize();
+
+        /**
+         * Returns <code>true</code> if the wrapped buffer is allocated outside of the Java heap.
+         *
+         * @return <code>true</code> if the wrapped buffer is a direct buffer
+         */
+        protected boolean isDirect() {
+            return false;
+        }
     }
 
     /**
@@ -533,6 +610,16 @@ public class BufferPool {
          * @return the Class of buffer instances this factory creates
          */
         public abstract Class<?> getBufferClass();
+
+        /**
+         * Returns <code>true</code> if the buffers this factory creates are allocated outside of the Java heap.
+         * Direct and heap buffers of the same class are pooled separately.
+         *
+         * @return <code>true</code> if this factory creates direct buffers
+         */
+        public boolean isDirect() {
+            return false;
+        }
     }
 
     /**
@@ -597,16 +684,34 @@ public class BufferPool {
 
     /**
      * This class is a {@link BufferFactory} implementation for <code>java.nio.ByteBuffer</code> buffers.
-     * ByteBuffer instances created by {@link #newBuffer(int)} are direct ; the actually Class of those instances may be actually
-     * be <code>java.nio.DirectByteBuffer</code> and not <code>java.nio.ByteBuffer</code> as returned by
-     * {@link #getBufferClass()}.
+     * ByteBuffer instances created by {@link #newBuffer(int)} are direct unless specified otherwise ; the actually
+     * Class of those instances may be actually be <code>java.nio.DirectByteBuffer</code> and not
+     * <code>java.nio.ByteBuffer</code> as returned by {@link #getBufferClass()}.
      */
     public static class ByteBufferFactory extends BufferFactory {
+        private final boolean direct;
+
+        public ByteBufferFactory() {
+            this(true);
+        }
+
+        /**
+         * @param direct <code>true</code> to create direct buffers, <code>false</code> to create heap buffers
+         */
+        public ByteBufferFactory(boolean direct) {
+            this.direct = direct;
+        }
+
         @Override
         public Object newBuffer(int size) {
             // Note: the returned instance is actually a java.nio.DirectByteBuffer, this is why it's important to
             // compare classes using Class#isAssignableFrom(Class)
-            return ByteBuffer.allocateDirect(size);
+            return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+
+        @Override
+        public boolean isDirect() {
+            return direct;
         }
 
         @Override
@@ -621,6 +726,11 @@ public class BufferPool {
                 protected int getSize() {
                     return getLength();
                 }
+
+                @Override
+                protected boolean isDirect() {
+                    return ((ByteBuffer)buffer).isDirect();
+                }
             };
         }
 
@@ -660,8 +770,81 @@ public class BufferPool {
         }
     }
 
-	public static synchronized void releaseAll() {
-		bufferContainers.clear();
-		poolSize = 0;
-	}
+    /**
+     * Identifies a pool bucket: buffers of the same class, length and allocation kind.
+     */
+    private static final class SizeClass {
+        final Class<?> bufferClass;
+        final int length;
+        final boolean direct;
+
+        SizeClass(Class<?> bufferClass, int length, boolean direct) {
+            this.bufferClass = bufferClass;
+            this.length = length;
+            this.direct = direct;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SizeClass)) {
+                return false;
+            }
+            SizeClass sizeClass = (SizeClass)o;
+            return length == sizeClass.length && direct == sizeClass.direct && bufferClass == sizeClass.bufferClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return (bufferClass.hashCode() * 31 + length) * 2 + (direct ? 1 : 0);
+        }
+    }
+
+    /**
+     * Available buffers of a size class. The count is kept apart as the size of a concurrent deque is not a constant
+     * time operation.
+     */
+    private static final class Bucket {
+        final SizeClass sizeClass;
+        final Deque<Object> buffers = new ConcurrentLinkedDeque<>();
+        final AtomicInteger count = new AtomicInteger();
+
+        Bucket(SizeClass sizeClass) {
+            this.sizeClass = sizeClass;
+        }
+    }
+
+    /**
+     * Compares buffers by identity: the <code>equals</code> method of NIO buffers compares their content.
+     */
+    private static final class BufferKey {
+        final Object buffer;
+
+        BufferKey(Object buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof BufferKey) && buffer == ((BufferKey)o).buffer;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(buffer);
+        }
+    }
+
+    /**
+     * Removes all buffers from the pool.
+     */
+    public static void releaseAll() {
+        for (Bucket bucket : buckets.values()) {
+            Object buffer;
+            while ((buffer = bucket.buffers.pollFirst()) != null) {
+                bucket.count.decrementAndGet();
+                pooledBuffers.remove(new BufferKey(buffer));
+            }
+        }
+        poolSize.set(0);
+    }
 }
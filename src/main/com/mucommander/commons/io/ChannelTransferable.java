@@ -0,0 +1,55 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Implemented by input streams which can send their data directly to a channel, without copying it through a
+ * Java buffer, e.g. using <code>FileChannel#transferTo</code>.
+ *
+ * <p>Filter streams implement this interface to let transfers go through them while keeping their behavior
+ * (counting bytes, limiting the throughput...); such streams support channel transfers only if the stream they
+ * filter does, hence {@link #isChannelTransferSupported()}.</p>
+ *
+ * @see StreamUtils#transferStream(ChannelTransferable, WritableByteChannel)
+ */
+public interface ChannelTransferable {
+
+    /**
+     * Returns <code>true</code> if {@link #transferTo(WritableByteChannel, long)} can be called on this stream.
+     *
+     * @return <code>true</code> if this stream supports channel transfers
+     */
+    boolean isChannelTransferSupported();
+
+    /**
+     * Transfers up to <code>count</code> bytes from the current position of this stream to the given channel, and
+     * advances the position of this stream by the number of bytes transferred.
+     *
+     * @param out the channel to write to
+     * @param count maximum number of bytes to transfer
+     * @return the number of bytes transferred, <code>-1</code> if the end of the stream has been reached
+     * @throws IOException if an I/O error occurred while reading this stream or writing the channel; implementations
+     * throw a {@link FileTransferException} with the {@link FileTransferException#READING_SOURCE} reason when they
+     * know this stream is at fault
+     */
+    long transferTo(WritableByteChannel out, long count) throws IOException;
+}
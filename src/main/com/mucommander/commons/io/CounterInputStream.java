@@ -20,6 +20,7 @@ package com.mucommander.commons.io;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * An InputStream that keeps track of the number of bytes that have been read from it. Bytes that are skipped (using
@@ -33,7 +34,7 @@ import java.io.InputStream;
  * @see ByteCounter
  * @author Maxence Bernard
  */
-public class CounterInputStream extends InputStream {
+public class CounterInputStream extends InputStream implements ChannelTransferable {
 
     /** Underlying InputStream */
     private final InputStream in;
@@ -169,4 +170,23 @@ public class CounterInputStream extends InputStream {
     public void reset() throws IOException  {
         in.reset();
     }
+
+
+    ////////////////////////////////////////
+    // ChannelTransferable implementation //
+    ////////////////////////////////////////
+
+    @Override
+    public boolean isChannelTransferSupported() {
+        return (in instanceof ChannelTransferable) && ((ChannelTransferable)in).isChannelTransferSupported();
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel out, long count) throws IOException {
+        long nbTransferred = ((ChannelTransferable)in).transferTo(out, count);
+        if (nbTransferred > 0) {
+            counter.add(nbTransferred);
+        }
+        return nbTransferred;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>IOExecutor</code> runs the background I/O tasks of streams, such as the range downloads of
+ * {@link SegmentedInputStream}, the reads of {@link ReadAheadInputStream} or the requests of pipelined network
+ * streams, in a single pool of at most {@link #MAX_THREADS} daemon threads. Threads are kept alive for a while to be
+ * reused by the next streams, tasks submitted while all threads are busy wait for one of them to be available.
+ *
+ * <p>Tasks submitted with {@link #execute(Runnable)} and {@link #submit(Callable)} must not wait for other tasks of
+ * this executor, which could be queued behind them. Tasks that do, for instance a read-ahead reading a stream which
+ * is itself downloaded by other tasks, must be submitted with {@link #tryExecuteDependent(Runnable)}: at most half of
+ * the threads run such tasks, so that the tasks they wait for can always be run.</p>
+ */
+public final class IOExecutor {
+
+    /** Maximum number of threads running background I/O tasks */
+    public static final int MAX_THREADS = 32;
+
+    /** Number of seconds an idle thread is kept alive */
+    private static final int KEEP_ALIVE_SECONDS = 60;
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "I/O worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /** Permits of the tasks which may wait for other tasks */
+    private static final Semaphore DEPENDENT_TASKS = new Semaphore(MAX_THREADS / 2);
+
+    /**
+     * This class cannot be instantiated.
+     */
+    private IOExecutor() {
+    }
+
+    /**
+     * Runs the given task in the background. The task must not wait for other tasks of this executor.
+     *
+     * @param task the task to run
+     */
+    public static void execute(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * Runs the given task in the background. The task must not wait for other tasks of this executor.
+     *
+     * @param task the task to run
+     * @param <T> the type of the task's result
+     * @return the result of the task
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        return EXECUTOR.submit(task);
+    }
+
+    /**
+     * Runs the given task in the background if the number of tasks which may wait for other tasks allows it.
+     * Otherwise, the task is not run and <code>false</code> is returned, in which case the caller should do the work
+     * itself.
+     *
+     * @param task the task to run, which may wait for tasks submitted to this executor
+     * @return <code>true</code> if the task has been submitted
+     */
+    public static boolean tryExecuteDependent(Runnable task) {
+        if (!DEPENDENT_TASKS.tryAcquire()) {
+            return false;
+        }
+        try {
+            EXECUTOR.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    DEPENDENT_TASKS.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            DEPENDENT_TASKS.release();
+            throw e;
+        }
+        return true;
+    }
+}
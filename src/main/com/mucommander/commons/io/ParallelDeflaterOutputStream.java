@@ -0,0 +1,309 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * <code>ParallelDeflaterOutputStream</code> compresses data in the raw <i>deflate</i> format using several threads.
+ * The data is split into fixed-size chunks which are compressed independently by a pool of threads, and the
+ * compressed chunks are written to the underlying stream in order. This is the approach of <i>pigz</i>:
+ * <ul>
+ *   <li>each chunk is compressed with the last 32KB of the previous chunk as a preset dictionary, so that matches
+ *   across chunks are not lost and the compression ratio stays close to that of a single <code>Deflater</code>,</li>
+ *   <li>each chunk but the last one ends with a sync flush, which aligns it on a byte boundary so that chunks can be
+ *   concatenated into a single valid deflate stream.</li>
+ * </ul>
+ *
+ * <p>The number of chunks being compressed or waiting to be written is bounded: <code>write</code> blocks until
+ * the oldest chunk has been written when the limit is reached. The data written to this stream is thus never far
+ * ahead of the data written to the underlying stream, and progress measured on either side remains accurate.</p>
+ *
+ * <p>This class is not thread-safe: it is meant to be written by a single thread, the compression being performed by
+ * a pool of threads shared by all instances.</p>
+ *
+ * @see ParallelGZIPOutputStream
+ */
+public class ParallelDeflaterOutputStream extends OutputStream {
+
+    /** Default size of the chunks compressed independently */
+    public final static int DEFAULT_CHUNK_SIZE = 128 * 1024;
+
+    /** Size of the deflate window, used as a preset dictionary */
+    private final static int DICTIONARY_SIZE = 32 * 1024;
+
+    /** Threads compressing the chunks of all streams */
+    private static final ExecutorService COMPRESSORS = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "ParallelDeflater");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Deflater of each compressing thread, reused for all the chunks it compresses */
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    /** The underlying stream compressed data is written to */
+    protected final OutputStream out;
+
+    private final int level;
+    private final int chunkSize;
+    /** Maximum number of chunks being compressed or waiting to be written */
+    private final int maxPendingChunks;
+
+    /** Chunks submitted for compression, in order */
+    private final ArrayDeque<PendingChunk> pendingChunks = new ArrayDeque<>();
+
+    /** Chunk being filled */
+    private byte chunk[];
+    private int chunkLength;
+    /** Last chunk submitted for compression, the dictionary of the next one */
+    private byte previousChunk[];
+
+    private long totalIn;
+    private long totalOut;
+    private boolean finished;
+
+    private final byte oneByte[] = new byte[1];
+
+    /**
+     * Creates a new <code>ParallelDeflaterOutputStream</code> using the default compression level and chunk size.
+     *
+     * @param out the stream to write compressed data to
+     * @param nbThreads number of chunks compressed at the same time, at least <code>1</code>
+     */
+    public ParallelDeflaterOutputStream(OutputStream out, int nbThreads) {
+        this(out, Deflater.DEFAULT_COMPRESSION, nbThreads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new <code>ParallelDeflaterOutputStream</code>.
+     *
+     * @param out the stream to write compressed data to
+     * @param level the compression level, see <code>Deflater</code>
+     * @param nbThreads number of chunks compressed at the same time, at least <code>1</code>
+     * @param chunkSize size of the chunks compressed independently, in bytes
+     */
+    public ParallelDeflaterOutputStream(OutputStream out, int level, int nbThreads, int chunkSize) {
+        this.out = out;
+        this.level = level;
+        this.chunkSize = chunkSize;
+        // Twice as many chunks as threads, so that threads do not wait for the chunks to be written
+        this.maxPendingChunks = 2 * Math.max(1, nbThreads);
+
+        chunk = BufferPool.getByteArray(chunkSize);
+    }
+
+    /**
+     * Returns the number of uncompressed bytes submitted for compression so far.
+     *
+     * @return the number of uncompressed bytes submitted for compression so far
+     */
+    public long getTotalIn() {
+        return totalIn;
+    }
+
+    /**
+     * Returns the number of compressed bytes written to the underlying stream so far.
+     *
+     * @return the number of compressed bytes written to the underlying stream so far
+     */
+    public long getTotalOut() {
+        return totalOut;
+    }
+
+    /**
+     * Compresses the remaining data and writes all the compressed data to the underlying stream, <b>without</b> closing
+     * it. This method has no effect if it has already been called.
+     *
+     * @throws IOException if an error occurred while writing to the underlying stream
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        submitChunk(true);
+        while (!pendingChunks.isEmpty()) {
+            writeChunk();
+        }
+
+        BufferPool.releaseByteArray(previousChunk);
+        previousChunk = null;
+    }
+
+    /**
+     * Submits the chunk being filled for compression, and writes compressed chunks until there are no more than
+     * <code>maxPendingChunks</code> pending ones.
+     */
+    private void submitChunk(final boolean last) throws IOException {
+        final byte input[] = chunk;
+        final int length = chunkLength;
+        final byte dictionary[] = previousChunk;
+        pendingChunks.add(new PendingChunk(COMPRESSORS.submit(() -> deflate(input, length, dictionary, last)), dictionary));
+
+        totalIn += length;
+        previousChunk = input;
+        chunk = last ? null : BufferPool.getByteArray(chunkSize);
+        chunkLength = 0;
+
+        while (pendingChunks.size() > maxPendingChunks) {
+            writeChunk();
+        }
+    }
+
+    /**
+     * Waits for the oldest pending chunk to be compressed and writes it to the underlying stream.
+     */
+    private void writeChunk() throws IOException {
+        PendingChunk pendingChunk = pendingChunks.poll();
+        ByteArrayOutputStream compressed;
+        try {
+            compressed = pendingChunk.result.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        // The dictionary was the input of the previous chunk, which has been written already
+        if (pendingChunk.dictionary != null) {
+            BufferPool.releaseByteArray(pendingChunk.dictionary);
+        }
+
+        compressed.writeTo(out);
+        totalOut += compressed.size();
+    }
+
+    /**
+     * Compresses a chunk, called by the compressing threads.
+     *
+     * @param input the chunk to compress
+     * @param length number of bytes of the chunk to compress
+     * @param dictionary the previous chunk, <code>null</code> for the first one
+     * @param last <code>true</code> if this is the last chunk, which ends the deflate stream
+     * @return the compressed chunk
+     */
+    private ByteArrayOutputStream deflate(byte input[], int length, byte dictionary[], boolean last) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        if (dictionary != null) {
+            int dictionaryLength = Math.min(DICTIONARY_SIZE, chunkSize);
+            deflater.setDictionary(dictionary, chunkSize - dictionaryLength, dictionaryLength);
+        }
+        deflater.setInput(input, 0, length);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+        byte buffer[] = BufferPool.getByteArray();
+        try {
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // The output is complete when the buffer is not filled entirely
+                int nbDeflated;
+                do {
+                    nbDeflated = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, nbDeflated);
+                } while (nbDeflated == buffer.length);
+            }
+        } finally {
+            BufferPool.releaseByteArray(buffer);
+        }
+
+        return compressed;
+    }
+
+
+    /////////////////////////////////
+    // OutputStream implementation //
+    /////////////////////////////////
+
+    @Override
+    public void write(int b) throws IOException {
+        oneByte[0] = (byte)b;
+        write(oneByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Stream finished");
+        }
+
+        while (len > 0) {
+            int nbCopied = Math.min(len, chunkSize - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, nbCopied);
+            chunkLength += nbCopied;
+            off += nbCopied;
+            len -= nbCopied;
+
+            if (chunkLength == chunkSize) {
+                submitChunk(false);
+            }
+        }
+    }
+
+    /**
+     * Flushes the underlying stream. The chunk being filled is not compressed before it is full, as compressing
+     * partial chunks would degrade the compression ratio.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Finishes compressing the data and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * A chunk submitted for compression.
+     */
+    private static class PendingChunk {
+        final Future<ByteArrayOutputStream> result;
+        final byte dictionary[];
+
+        PendingChunk(Future<ByteArrayOutputStream> result, byte dictionary[]) {
+            this.result = result;
+            this.dictionary = dictionary;
+        }
+    }
+}
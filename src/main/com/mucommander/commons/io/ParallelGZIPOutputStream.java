@@ -0,0 +1,96 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <code>ParallelGZIPOutputStream</code> writes data in the GZIP format, like <code>java.util.zip.GZIPOutputStream</code>,
+ * but compresses it using several threads. The data is compressed by a {@link ParallelDeflaterOutputStream} into a
+ * single GZIP member, which can be read by any GZIP decompressor.
+ */
+public class ParallelGZIPOutputStream extends ParallelDeflaterOutputStream {
+
+    /** GZIP header: magic, deflate method, no flag, no modification time, no extra flag, unknown OS */
+    private final static byte HEADER[] = {0x1F, (byte)0x8B, 8, 0, 0, 0, 0, 0, 0, (byte)0xFF};
+
+    /** CRC of the uncompressed data */
+    private final CRC32 crc = new CRC32();
+
+    private boolean trailerWritten;
+
+    /**
+     * Creates a new <code>ParallelGZIPOutputStream</code> and writes the GZIP header.
+     *
+     * @param out the stream to write compressed data to
+     * @param nbThreads number of chunks compressed at the same time, at least <code>1</code>
+     * @throws IOException if the header could not be written
+     */
+    public ParallelGZIPOutputStream(OutputStream out, int nbThreads) throws IOException {
+        this(out, Deflater.DEFAULT_COMPRESSION, nbThreads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new <code>ParallelGZIPOutputStream</code> and writes the GZIP header.
+     *
+     * @param out the stream to write compressed data to
+     * @param level the compression level, see <code>Deflater</code>
+     * @param nbThreads number of chunks compressed at the same time, at least <code>1</code>
+     * @param chunkSize size of the chunks compressed independently, in bytes
+     * @throws IOException if the header could not be written
+     */
+    public ParallelGZIPOutputStream(OutputStream out, int level, int nbThreads, int chunkSize) throws IOException {
+        super(out, level, nbThreads, chunkSize);
+
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    /**
+     * Compresses the remaining data and writes the GZIP trailer, <b>without</b> closing the underlying stream.
+     */
+    @Override
+    public void finish() throws IOException {
+        super.finish();
+
+        if (!trailerWritten) {
+            trailerWritten = true;
+            writeInt(crc.getValue());
+            writeInt(getTotalIn());
+        }
+    }
+
+    /**
+     * Writes the lower 32 bits of the given value in little-endian order.
+     */
+    private void writeInt(long value) throws IOException {
+        out.write((int)value & 0xFF);
+        out.write((int)(value >> 8) & 0xFF);
+        out.write((int)(value >> 16) & 0xFF);
+        out.write((int)(value >> 24) & 0xFF);
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+
+/**
+ * <code>ReadAheadInputStream</code> reads an underlying stream in a background thread, so that the source is read
+ * while the data read previously is being processed, typically written to a destination. When data is copied from a
+ * network stream to a disk or the other way around, the read and write latencies overlap instead of adding up.
+ *
+ * <p>The background thread reads the underlying stream into a fixed number of buffers retrieved from
+ * {@link BufferPool}, and waits for a buffer to be consumed when they are all full. The read-ahead can be limited to
+ * a number of bytes, the underlying stream is not read past that limit. The background thread comes from
+ * {@link IOExecutor}; if too many streams are already read ahead, the underlying stream is read directly by the
+ * <code>read</code> methods.</p>
+ *
+ * <p>An error raised while reading the underlying stream is thrown by the <code>read</code> method which reaches the
+ * point where it occurred. Closing this stream stops the background thread and closes the underlying stream, which
+ * unblocks a pending read. Read methods are meant to be called by a single thread at a time, <code>close</code> can
+ * be called from any thread.</p>
+ *
+ * @see StreamUtils#copyStreamOverlapped(InputStream, java.io.OutputStream, int, long)
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /** Default number of buffers filled ahead */
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    private final InputStream in;
+    private final int bufferSize;
+    private final int bufferCount;
+
+    /** Buffers filled by the background thread, guarded by this */
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    /** True when the underlying stream has been read entirely, guarded by this */
+    private boolean eof;
+    /** Error raised while reading the underlying stream, guarded by this */
+    private IOException error;
+    /** True when this stream has been closed, written while holding the lock on this */
+    private volatile boolean closed;
+
+    /** Buffer being consumed, accessed by the reading thread only */
+    private Chunk current;
+
+    /** True if the underlying stream is read by the reading thread, no background thread being available */
+    private final boolean direct;
+    /** Number of bytes that can still be read from the underlying stream when reading it directly */
+    private long remaining;
+
+    /**
+     * Creates a new <code>ReadAheadInputStream</code> that reads the whole underlying stream ahead, using
+     * {@link #DEFAULT_BUFFER_COUNT} buffers of the specified size.
+     *
+     * @param in the stream to read ahead
+     * @param bufferSize size of the buffers, in bytes
+     */
+    public ReadAheadInputStream(InputStream in, int bufferSize) {
+        this(in, bufferSize, DEFAULT_BUFFER_COUNT, -1);
+    }
+
+    /**
+     * Creates a new <code>ReadAheadInputStream</code> and starts reading the underlying stream in the background.
+     *
+     * @param in the stream to read ahead
+     * @param bufferSize size of the buffers, in bytes
+     * @param bufferCount maximum number of buffers filled ahead, at least <code>1</code>
+     * @param length maximum number of bytes to read from the underlying stream, <code>-1</code> for no limit
+     */
+    public ReadAheadInputStream(InputStream in, int bufferSize, int bufferCount, long length) {
+        this.in = in;
+        this.bufferSize = bufferSize;
+        this.bufferCount = Math.max(1, bufferCount);
+
+        final long limit = length < 0 ? Long.MAX_VALUE : length;
+        // The underlying stream may itself be read by background tasks, see IOExecutor
+        direct = !IOExecutor.tryExecuteDependent(() -> readAhead(limit));
+        remaining = limit;
+    }
+
+    /**
+     * Reads the underlying stream until its end, the given limit, an error or this stream being closed.
+     */
+    private void readAhead(long remaining) {
+        try {
+            while (remaining > 0) {
+                byte[] buffer = BufferPool.getByteArray(bufferSize);
+                int nbRead;
+                try {
+                    nbRead = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                } catch (IOException | RuntimeException e) {
+                    BufferPool.releaseByteArray(buffer);
+                    throw e;
+                }
+                if (nbRead <= 0) {
+                    BufferPool.releaseByteArray(buffer);
+                    if (nbRead < 0) {
+                        break;
+                    }
+                    continue;
+                }
+                remaining -= nbRead;
+
+                synchronized (this) {
+                    while (chunks.size() >= bufferCount && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        BufferPool.releaseByteArray(buffer);
+                        return;
+                    }
+                    chunks.add(new Chunk(buffer, nbRead));
+                    notifyAll();
+                }
+            }
+            synchronized (this) {
+                eof = true;
+                notifyAll();
+            }
+        } catch (IOException e) {
+            setError(e);
+        } catch (InterruptedException e) {
+            setError(new InterruptedIOException());
+        } catch (RuntimeException e) {
+            setError(new IOException(e));
+        }
+    }
+
+    private synchronized void setError(IOException e) {
+        error = e;
+        notifyAll();
+    }
+
+    /**
+     * Returns the buffer to consume, waiting for the background thread to fill one if necessary.
+     *
+     * @return the buffer to consume, <code>null</code> if the end of the stream has been reached
+     */
+    private Chunk nextChunk() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current != null) {
+            if (current.position < current.length) {
+                return current;
+            }
+            BufferPool.releaseByteArray(current.data);
+            current = null;
+        }
+
+        synchronized (this) {
+            while (chunks.isEmpty() && !eof && error == null && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (chunks.isEmpty()) {
+                if (error != null) {
+                    throw error;
+                }
+                return null;
+            }
+            current = chunks.poll();
+            notifyAll();
+            return current;
+        }
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        if (direct) {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+        Chunk chunk = nextChunk();
+        if (chunk == null) {
+            return -1;
+        }
+        return chunk.data[chunk.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (direct) {
+            return readDirect(b, off, len);
+        }
+        Chunk chunk = nextChunk();
+        if (chunk == null) {
+            return -1;
+        }
+        int nbRead = Math.min(len, chunk.length - chunk.position);
+        System.arraycopy(chunk.data, chunk.position, b, off, nbRead);
+        chunk.position += nbRead;
+        return nbRead;
+    }
+
+    /**
+     * Reads the underlying stream, up to the read-ahead limit.
+     */
+    private int readDirect(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (remaining == 0) {
+            return -1;
+        }
+        int nbRead = in.read(b, off, (int)Math.min(len, remaining));
+        if (nbRead > 0) {
+            remaining -= nbRead;
+        }
+        return nbRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (direct) {
+            return (int)Math.min(in.available(), remaining);
+        }
+        int available = current == null ? 0 : current.length - current.position;
+        synchronized (this) {
+            for (Chunk chunk : chunks) {
+                available += chunk.length;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Stops reading ahead and closes the underlying stream. The buffers filled ahead are returned to the pool.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Chunk chunk : chunks) {
+                BufferPool.releaseByteArray(chunk.data);
+            }
+            chunks.clear();
+            notifyAll();
+        }
+        // Closing the underlying stream unblocks the background thread if it is waiting for data
+        in.close();
+    }
+
+
+    /**
+     * A buffer filled by the background thread.
+     */
+    private static class Chunk {
+        final byte[] data;
+        final int length;
+        int position;
+
+        Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
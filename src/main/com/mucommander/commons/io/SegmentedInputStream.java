@@ -0,0 +1,360 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+
+/**
+ * <code>SegmentedInputStream</code> reads a remote resource by downloading several byte ranges (segments) of it
+ * concurrently, and returns them in order. When the throughput of a single connection is limited by the latency or
+ * by the server, downloading several ranges at once uses the available bandwidth.
+ *
+ * <p>Segments are downloaded by background threads of {@link IOExecutor} into buffers of the segment size, a fixed number of them being
+ * downloaded ahead of the one being read. The data of a segment can be read as soon as it is downloaded, without
+ * waiting for the rest of the segment. If the download of a segment fails or ends prematurely, it is resumed from
+ * where it stopped with a new range request; an error is only thrown by the <code>read</code> method once
+ * {@link #MAX_ATTEMPTS} attempts in a row have failed without reading anything.</p>
+ *
+ * <p>Read methods are meant to be called by a single thread at a time, <code>close</code> can be called from any
+ * thread.</p>
+ *
+ * @see ReadAheadInputStream
+ */
+public class SegmentedInputStream extends InputStream {
+
+    /** Default size of the segments, in bytes */
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    /** Default number of segments downloaded concurrently */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /** Maximum number of consecutive failed attempts to download a segment */
+    public static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Opens the streams of the segments.
+     */
+    public interface RangeOpener {
+
+        /**
+         * Opens a stream reading the given range of the resource.
+         *
+         * @param offset offset of the first byte to read
+         * @param length number of bytes to read
+         * @return a stream reading the range, which may return less than <code>length</code> bytes if the connection
+         * is lost
+         * @throws IOException if the stream could not be opened
+         */
+        InputStream openRange(long offset, long length) throws IOException;
+    }
+
+    private final RangeOpener opener;
+    private final long end;
+    private final int segmentSize;
+    private final int concurrency;
+
+    /** Offset of the first segment that has not been scheduled yet */
+    private long nextOffset;
+    /** Segments being downloaded, in order, the first one being read. Guarded by this */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    /** Position of the next byte to read in the first segment */
+    private int position;
+
+    /** True when this stream has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new <code>SegmentedInputStream</code> using segments of {@link #DEFAULT_SEGMENT_SIZE} bytes,
+     * {@link #DEFAULT_CONCURRENCY} of them being downloaded concurrently.
+     *
+     * @param opener opens the streams of the segments
+     * @param offset offset of the first byte to read
+     * @param length number of bytes to read
+     */
+    public SegmentedInputStream(RangeOpener opener, long offset, long length) {
+        this(opener, offset, length, DEFAULT_SEGMENT_SIZE, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Creates a new <code>SegmentedInputStream</code> and starts downloading the first segments in the background.
+     *
+     * @param opener opens the streams of the segments
+     * @param offset offset of the first byte to read
+     * @param length number of bytes to read
+     * @param segmentSize size of the segments, in bytes
+     * @param concurrency maximum number of segments downloaded concurrently, at least <code>1</code>
+     */
+    public SegmentedInputStream(RangeOpener opener, long offset, long length, int segmentSize, int concurrency) {
+        this.opener = opener;
+        this.nextOffset = offset;
+        this.end = offset + length;
+        this.segmentSize = segmentSize;
+        this.concurrency = Math.max(1, concurrency);
+
+        scheduleSegments();
+    }
+
+    /**
+     * Schedules the download of the next segments, up to the concurrency limit.
+     */
+    private synchronized void scheduleSegments() {
+        while (segments.size() < concurrency && nextOffset < end && !closed) {
+            Segment segment = new Segment(nextOffset, (int)Math.min(segmentSize, end - nextOffset));
+            nextOffset += segment.length;
+            segments.add(segment);
+            IOExecutor.execute(segment::download);
+        }
+    }
+
+    /**
+     * Returns the segment to read from, waiting for some of its data to be downloaded if necessary.
+     *
+     * @return the segment to read from, <code>null</code> if the end of the stream has been reached
+     */
+    private Segment currentSegment() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        Segment segment;
+        synchronized (this) {
+            segment = segments.peek();
+            if (segment != null && position == segment.length) {
+                segments.poll().release();
+                position = 0;
+                scheduleSegments();
+                segment = segments.peek();
+            }
+        }
+        if (segment != null) {
+            segment.await(position);
+        }
+        return segment;
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        Segment segment = currentSegment();
+        if (segment == null) {
+            return -1;
+        }
+        return segment.data[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        Segment segment = currentSegment();
+        if (segment == null) {
+            return -1;
+        }
+        int nbRead = Math.min(len, segment.available() - position);
+        System.arraycopy(segment.data, position, b, off, nbRead);
+        position += nbRead;
+        return nbRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        Segment segment;
+        synchronized (this) {
+            segment = segments.peek();
+        }
+        return segment == null ? 0 : segment.available() - position;
+    }
+
+    /**
+     * Closes this stream and stops the downloads in progress.
+     */
+    @Override
+    public void close() {
+        Segment[] pending;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = segments.toArray(new Segment[0]);
+            segments.clear();
+        }
+        for (Segment segment : pending) {
+            segment.release();
+        }
+    }
+
+
+    /**
+     * A range of the resource, downloaded by a background thread into a buffer.
+     */
+    private class Segment {
+
+        private final long offset;
+        private final int length;
+        private final byte[] data;
+
+        /** Number of bytes downloaded, guarded by this */
+        private int filled;
+        /** True when the download is over, successfully or not, guarded by this */
+        private boolean done;
+        /** Error which ended the download, guarded by this */
+        private IOException error;
+        /** True when the buffer is not needed anymore, guarded by this */
+        private boolean released;
+        /** The stream being read, closed to stop the download */
+        private InputStream in;
+
+        private Segment(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+            this.data = BufferPool.getByteArray(length);
+        }
+
+        /**
+         * Downloads the segment, resuming it where it stopped if the connection is lost.
+         */
+        private void download() {
+            int pos = 0;
+            int failedAttempts = 0;
+            IOException lastError = null;
+            while (pos < length && failedAttempts < MAX_ATTEMPTS && !isReleased()) {
+                int attemptStart = pos;
+                try {
+                    InputStream rangeIn = opener.openRange(offset + pos, length - pos);
+                    if (!setStream(rangeIn)) {
+                        break;
+                    }
+                    try {
+                        int nbRead;
+                        while (pos < length && (nbRead = rangeIn.read(data, pos, length - pos)) != -1) {
+                            pos += nbRead;
+                            setFilled(pos);
+                        }
+                    } finally {
+                        setStream(null);
+                        rangeIn.close();
+                    }
+                    if (pos < length) {
+                        throw new EOFException("Range at " + (offset + pos) + " ended prematurely");
+                    }
+                } catch (IOException | RuntimeException e) {
+                    lastError = e instanceof IOException ? (IOException)e : new IOException(e);
+                    // Only attempts which did not read anything count as failures
+                    failedAttempts = pos > attemptStart ? 1 : failedAttempts + 1;
+                }
+            }
+
+            synchronized (this) {
+                done = true;
+                if (pos < length) {
+                    error = lastError == null ? new IOException("Download interrupted") : lastError;
+                }
+                if (released) {
+                    BufferPool.releaseByteArray(data);
+                }
+                notifyAll();
+            }
+        }
+
+        private synchronized boolean isReleased() {
+            return released;
+        }
+
+        /**
+         * Sets the stream being read, returns <code>false</code> and closes it if the segment has been released.
+         */
+        private boolean setStream(InputStream stream) throws IOException {
+            synchronized (this) {
+                if (!released || stream == null) {
+                    in = stream;
+                    return true;
+                }
+            }
+            stream.close();
+            return false;
+        }
+
+        private synchronized void setFilled(int filled) {
+            this.filled = filled;
+            notifyAll();
+        }
+
+        private synchronized int available() {
+            return filled;
+        }
+
+        /**
+         * Waits for the byte at the given position to be downloaded.
+         */
+        private synchronized void await(int position) throws IOException {
+            while (filled <= position && !done && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (filled <= position) {
+                throw error;
+            }
+        }
+
+        /**
+         * Called once the buffer is not needed anymore: stops the download and returns the buffer to the pool once
+         * the download is over.
+         */
+        private void release() {
+            InputStream stream;
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                if (done) {
+                    BufferPool.releaseByteArray(data);
+                }
+                stream = in;
+                notifyAll();
+            }
+            if (stream != null) {
+                try {
+                    // Unblocks the download thread
+                    stream.close();
+                } catch (IOException e) {
+                    // Ignored, the download is over
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package com.mucommander.commons.io;
 
 import java.io.*;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * This class provides convience static methods that operate on streams. All read/write buffers are allocated using
@@ -28,6 +29,9 @@ import java.io.*;
  */
 public class StreamUtils {
 
+    /** Maximum number of bytes sent by a single channel transfer in {@link #transferStream(ChannelTransferable, WritableByteChannel)} */
+    public static final int TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
     /**
      * This method is a shorthand for {@link #copyStream(java.io.InputStream, java.io.OutputStream, int)} called with a
      * {@link BufferPool#getDefaultBufferSize() default buffer size}.
@@ -127,6 +131,83 @@ public class StreamUtils {
         return totalRead;
     }
 
+    /**
+     * Copies up to <code>length</code> bytes from the given <code>InputStream</code> to the specified
+     * <code>OutputStream</code> like {@link #copyStream(InputStream, OutputStream, int, long)}, but reads the
+     * <code>InputStream</code> ahead in a background thread while the data read previously is being written. The
+     * source and the destination are used at the same time instead of waiting for each other, which speeds up copies
+     * between a network and a disk. This method does *NOT* close any of the given streams.
+     *
+     * <p>{@link ReadAheadInputStream#DEFAULT_BUFFER_COUNT} buffers of the specified size are retrieved from
+     * {@link BufferPool}. The source stream is not read past <code>length</code> bytes; if the copy fails, the position
+     * of the source stream is undefined.</p>
+     *
+     * @param in the InputStream to read from
+     * @param out the OutputStream to write to
+     * @param bufferSize size of the buffers to use, in bytes
+     * @param length number of bytes to copy from InputStream
+     * @return the number of bytes that were copied
+     * @throws FileTransferException if something went wrong while reading from or writing to one of the provided streams
+     * @see ReadAheadInputStream
+     */
+    public static long copyStreamOverlapped(InputStream in, OutputStream out, int bufferSize, long length) throws FileTransferException {
+        // Do not close the source stream along with the read-ahead stream
+        ReadAheadInputStream readAheadIn = new ReadAheadInputStream(new FilterInputStream(in) {
+            @Override
+            public void close() {
+            }
+        }, bufferSize, ReadAheadInputStream.DEFAULT_BUFFER_COUNT, length);
+
+        byte buffer[] = BufferPool.getByteArray(bufferSize);
+        try {
+            return copyStream(readAheadIn, out, buffer, length);
+        }
+        finally {
+            BufferPool.releaseByteArray(buffer);
+            // Stops the background thread if the copy failed
+            try {
+                readAheadIn.close();
+            } catch(IOException e) {
+                // Cannot happen, the source stream is not closed
+            }
+        }
+    }
+
+    /**
+     * Transfers the contents of the given stream to the specified channel until the end of the stream is reached,
+     * using {@link ChannelTransferable#transferTo(WritableByteChannel, long)}: data is sent directly from the source
+     * to the channel without going through a Java buffer. This method does *NOT* close the stream or the channel.
+     *
+     * <p>Data is transferred in chunks of {@link #TRANSFER_CHUNK_SIZE} bytes at most, so that the stream keeps
+     * control over the transfer between chunks (progress, throughput limit, interruption).</p>
+     *
+     * @param in the stream to read from, must {@link ChannelTransferable#isChannelTransferSupported() support}
+     * channel transfers
+     * @param out the channel to write to
+     * @return the number of bytes that were transferred
+     * @throws FileTransferException if something went wrong while transferring the data: the reason is
+     * {@link FileTransferException#READING_SOURCE} if the stream reported the failure as its own,
+     * {@link FileTransferException#WRITING_DESTINATION} otherwise
+     */
+    public static long transferStream(ChannelTransferable in, WritableByteChannel out) throws FileTransferException {
+        long totalTransferred = 0;
+        long nbTransferred;
+
+        try {
+            while ((nbTransferred = in.transferTo(out, TRANSFER_CHUNK_SIZE)) >= 0) {
+                totalTransferred += nbTransferred;
+            }
+        } catch(FileTransferException e) {
+            // The stream found out which side failed
+            throw new FileTransferException(e.getReason(), totalTransferred);
+        } catch(IOException e) {
+            // Failures the source stream doesn't report as its own come from the destination
+            throw new FileTransferException(FileTransferException.WRITING_DESTINATION, totalTransferred);
+        }
+
+        return totalTransferred;
+    }
+
     /**
      * This method is a shorthand for {@link #transcode(java.io.InputStream, String, java.io.OutputStream, String, int)}
      * called with a {@link BufferPool#getDefaultBufferSize() default buffer size}.
@@ -20,6 +20,7 @@ package com.mucommander.commons.io;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * ThroughputLimitInputStream extends InputStream to provide control over the transfer speed and limit it to a specified
@@ -44,7 +45,7 @@ import java.io.InputStream;
  *
  * @author Maxence Bernard
  */
-public class ThroughputLimitInputStream extends InputStream {
+public class ThroughputLimitInputStream extends InputStream implements ChannelTransferable {
 
     /** Underlying InputStream */
     private InputStream in;
@@ -277,4 +278,25 @@ public class ThroughputLimitInputStream extends InputStream {
     public boolean markSupported() {
         return in.markSupported();
     }
+
+
+    ////////////////////////////////////////
+    // ChannelTransferable implementation //
+    ////////////////////////////////////////
+
+    @Override
+    public boolean isChannelTransferSupported() {
+        return (in instanceof ChannelTransferable) && ((ChannelTransferable)in).isChannelTransferSupported();
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel out, long count) throws IOException {
+        // Same as read(byte[], int, int): wait until at least 1 byte is allowed and transfer no more than allowed
+        long nbTransferred = ((ChannelTransferable)in).transferTo(out, bpsLimit>=0?Math.min(getNbAllowedBytes(),count):count);
+
+        if(nbTransferred>0)
+            addToLimitCounter(nbTransferred);
+
+        return nbTransferred;
+    }
 }
@@ -74,6 +74,8 @@ public enum MuPreference {
     SYNTAX_THEME_NAME(MuPreferences.SYNTAX_THEME_NAME),
 	ENABLE_BONJOUR_DISCOVERY(MuPreferences.ENABLE_BONJOUR_DISCOVERY),
 	LIST_HIDDEN_FILES(MuPreferences.LIST_HIDDEN_FILES),
+	FTP_MAX_CONNECTIONS(MuPreferences.FTP_MAX_CONNECTIONS),
+	SFTP_MAX_CONNECTIONS(MuPreferences.SFTP_MAX_CONNECTIONS),
 	SMB_LM_COMPATIBILITY(MuPreferences.SMB_LM_COMPATIBILITY),
 	SMB_USE_EXTENDED_SECURITY(MuPreferences.SMB_USE_EXTENDED_SECURITY),
 	SHOW_TAB_HEADER(MuPreferences.SHOW_SINGLE_TAB_HEADER),
@@ -96,7 +98,10 @@ public enum MuPreference {
 	FIND_FILE_ARCHIVES(MuPreferences.FIND_FILE_ARCHIVES),
 	FIND_FILE_IGNORE_HIDDEN(MuPreferences.FIND_FILE_IGNORE_HIDDEN),
 	FIND_FILE_CASE_SENSITIVE(MuPreferences.FIND_FILE_CASE_SENSITIVE),
-	FIND_FILE_SEARCH_HEX(MuPreferences.FIND_FILE_SEARCH_HEX);
+	FIND_FILE_SEARCH_HEX(MuPreferences.FIND_FILE_SEARCH_HEX),
+	FIND_FILE_PARALLELISM(MuPreferences.FIND_FILE_PARALLELISM),
+	ARCHIVE_ENTRY_CACHE_SIZE(MuPreferences.ARCHIVE_ENTRY_CACHE_SIZE),
+	ARCHIVE_COMPRESSION_THREADS(MuPreferences.ARCHIVE_COMPRESSION_THREADS);
 
 
 
@@ -27,6 +27,8 @@ import com.mucommander.commons.conf.Configuration;
 import com.mucommander.commons.conf.ConfigurationException;
 import com.mucommander.commons.conf.ConfigurationListener;
 import com.mucommander.commons.conf.ValueList;
+import com.mucommander.commons.file.ArchiveEntryCache;
+import com.mucommander.commons.file.connection.ConnectionPool;
 import com.mucommander.commons.runtime.JavaVersion;
 import com.mucommander.commons.runtime.OsFamily;
 import com.mucommander.ui.icon.FileIcons;
@@ -371,6 +373,20 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String LIST_HIDDEN_FILES                  = FTP_SECTION + '.' + "list_hidden_files";
 	/** Default value for {@link #LIST_HIDDEN_FILES}. */
 	public static final boolean DEFAULT_LIST_HIDDEN_FILES         = false;
+	/** Maximum number of simultaneous connections to an FTP server with the same credentials. */
+	public static final String FTP_MAX_CONNECTIONS                = FTP_SECTION + '.' + "max_connections";
+	/** Default value for {@link #FTP_MAX_CONNECTIONS}. */
+	public static final int DEFAULT_FTP_MAX_CONNECTIONS           = ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_REALM;
+
+
+	// - Variables used for SFTP ---------------------------------------------
+	// -----------------------------------------------------------------------
+	/** Section containing all SFTP variables. */
+	public static final String SFTP_SECTION                       = "sftp";
+	/** Maximum number of simultaneous connections to an SFTP server with the same credentials. */
+	public static final String SFTP_MAX_CONNECTIONS               = SFTP_SECTION + '.' + "max_connections";
+	/** Default value for {@link #SFTP_MAX_CONNECTIONS}. */
+	public static final int DEFAULT_SFTP_MAX_CONNECTIONS          = ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_REALM;
 
 
 	// - Variables used for SMB ----------------------------------------------
@@ -409,6 +425,26 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String FIND_FILE_IGNORE_HIDDEN            = FIND_FILE_SECTION + ".ignore_hidden";
 	public static final String FIND_FILE_CASE_SENSITIVE           = FIND_FILE_SECTION + ".case_sensitive";
 	public static final String FIND_FILE_SEARCH_HEX               = FIND_FILE_SECTION + ".search_hex";
+	/** Maximum number of threads searching local folders, <code>1</code> disables parallel search.
+	 * Can be overridden for any protocol by appending its name, e.g. <code>find_file.parallelism.sftp</code>. */
+	public static final String FIND_FILE_PARALLELISM              = FIND_FILE_SECTION + ".parallelism";
+	/** Default value for {@link #FIND_FILE_PARALLELISM}. */
+	public static final int DEFAULT_FIND_FILE_PARALLELISM         = Runtime.getRuntime().availableProcessors();
+	/** Default number of threads searching folders of remote protocols. */
+	public static final int DEFAULT_FIND_FILE_REMOTE_PARALLELISM  = 2;
+
+	// - Archives ------------------------------------------------------------
+	// -----------------------------------------------------------------------
+	/** Section containing all archive variables. */
+	public static final String ARCHIVE_SECTION                    = "archive";
+	/** Maximum size in bytes of the cached archive listings, <code>0</code> disables the cache. */
+	public static final String ARCHIVE_ENTRY_CACHE_SIZE           = ARCHIVE_SECTION + ".entry_cache_size";
+	/** Default value for {@link #ARCHIVE_ENTRY_CACHE_SIZE}. */
+	public static final long DEFAULT_ARCHIVE_ENTRY_CACHE_SIZE     = ArchiveEntryCache.DEFAULT_MAX_SIZE;
+	/** Number of threads compressing Zip and Gzip archives, <code>1</code> disables parallel compression. */
+	public static final String ARCHIVE_COMPRESSION_THREADS        = ARCHIVE_SECTION + ".compression_threads";
+	/** Default value for {@link #ARCHIVE_COMPRESSION_THREADS}. */
+	public static final int DEFAULT_ARCHIVE_COMPRESSION_THREADS   = Runtime.getRuntime().availableProcessors();
 	
 	private static final String ROOT_ELEMENT = "preferences";
 
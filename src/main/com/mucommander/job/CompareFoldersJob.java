@@ -0,0 +1,396 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.StreamUtils;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.dialog.file.ProgressDialog;
+import com.mucommander.ui.main.MainFrame;
+import com.mucommander.ui.main.table.FileTable;
+import com.mucommander.ui.main.table.views.BaseFileTableModel;
+
+/**
+ * This job compares the folders displayed by the two file tables of a MainFrame and marks the files that are
+ * different.
+ *
+ * <p>Files are matched by name using hash indexes of both folders. A file which has no counterpart in the other
+ * folder is marked. Files present in both folders are compared by date (the most recent one is marked), by size or
+ * by content (both are marked). When subfolders are compared, two folders are different if their trees don't have
+ * the same files or if any of their files differ; otherwise folders are ignored.</p>
+ *
+ * <p>Files are marked as they are found, while the comparison goes on. The files processed by this job are those of
+ * the left folder, files of the right folder without counterpart are marked when the job starts.</p>
+ */
+public class CompareFoldersJob extends FileJob {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompareFoldersJob.class);
+
+    /** What is compared between two files with the same name */
+    public enum Mode {
+        DATE,
+        SIZE,
+        CONTENT
+    }
+
+    /** Minimum delay between two updates of the file tables, in milliseconds */
+    private final static long MARK_REFRESH_RATE_MS = 250;
+
+    private final Mode mode;
+    private final boolean compareSubfolders;
+
+    private final FileTable leftTable;
+    private final FileTable rightTable;
+    private final AbstractFile leftFolder;
+    private final AbstractFile rightFolder;
+
+    /** Files of the compared folders by name */
+    private final Map<String, AbstractFile> leftFiles;
+    private final Map<String, AbstractFile> rightFiles;
+
+    /** Files of the right folder which have no counterpart in the left folder */
+    private final FileSet rightOnlyFiles;
+
+    /** Files found different and not marked yet, guarded by this */
+    private final List<AbstractFile> leftMarks = new ArrayList<>();
+    private final List<AbstractFile> rightMarks = new ArrayList<>();
+    private long lastMarkTime;
+
+    private final String errorDialogTitle;
+
+
+    /**
+     * Creates a new CompareFoldersJob comparing the current folders of the MainFrame's file tables, without
+     * starting it. This constructor must be called from the event dispatch thread.
+     *
+     * @param progressDialog dialog which shows this job's progress
+     * @param mainFrame mainFrame this job has been triggered by
+     * @param mode what is compared between files with the same name
+     * @param compareSubfolders <code>true</code> to compare the contents of subfolders recursively
+     */
+    public CompareFoldersJob(ProgressDialog progressDialog, MainFrame mainFrame, Mode mode, boolean compareSubfolders) {
+        super(progressDialog, mainFrame, new FileSet());
+
+        this.mode = mode;
+        this.compareSubfolders = compareSubfolders;
+        this.leftTable = mainFrame.getLeftPanel().getFileTable();
+        this.rightTable = mainFrame.getRightPanel().getFileTable();
+        this.leftFolder = leftTable.getFileTableModel().getCurrentFolder();
+        this.rightFolder = rightTable.getFileTableModel().getCurrentFolder();
+        this.leftFiles = indexFiles(leftTable.getFileTableModel());
+        this.rightFiles = indexFiles(rightTable.getFileTableModel());
+        this.errorDialogTitle = Translator.get("CompareFolders.label");
+
+        // The left files are processed, the right files which have no counterpart only need to be marked
+        FileSet files = new FileSet(leftFolder);
+        for (AbstractFile file : leftFiles.values()) {
+            if (compareSubfolders || !file.isDirectory()) {
+                files.add(file);
+            }
+        }
+        setFiles(files);
+        rightOnlyFiles = new FileSet(rightFolder);
+        for (AbstractFile file : rightFiles.values()) {
+            if ((compareSubfolders || !file.isDirectory()) && !leftFiles.containsKey(file.getName())) {
+                rightOnlyFiles.add(file);
+            }
+        }
+
+        // Files are marked by this job, not unmarked
+        setAutoUnmark(false);
+    }
+
+    /**
+     * Returns the files displayed by the given table model by name, the parent folder excluded.
+     */
+    private static Map<String, AbstractFile> indexFiles(BaseFileTableModel tableModel) {
+        int nbFiles = tableModel.getFileCount();
+        Map<String, AbstractFile> files = new LinkedHashMap<>(nbFiles * 4 / 3 + 1);
+        for (int i = tableModel.hasParentFolder() ? 1 : 0; i < nbFiles; i++) {
+            AbstractFile file = tableModel.getFileAt(i);
+            files.put(file.getName(), file);
+        }
+        return files;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the given files, which are not folders, are equal according to the comparison
+     * mode. Contents are compared only if sizes are equal, and only until the first difference.
+     */
+    private boolean filesEqual(AbstractFile leftFile, AbstractFile rightFile) throws IOException {
+        switch (mode) {
+            case DATE:
+                return leftFile.getDate() == rightFile.getDate();
+            case SIZE:
+                return leftFile.getSize() == rightFile.getSize();
+            default:
+                return leftFile.getSize() == rightFile.getSize() && contentEquals(leftFile, rightFile);
+        }
+    }
+
+    /**
+     * Reads both files block by block and returns <code>false</code> at the first difference.
+     */
+    private boolean contentEquals(AbstractFile leftFile, AbstractFile rightFile) throws IOException {
+        InputStream leftIn = null;
+        InputStream rightIn = null;
+        try {
+            leftIn = leftFile.getInputStream();
+            rightIn = rightFile.getInputStream();
+            return contentEquals(leftIn, rightIn, () -> getState() == State.INTERRUPTED);
+        } finally {
+            closeQuietly(leftIn);
+            closeQuietly(rightIn);
+        }
+    }
+
+    /**
+     * Reads both streams block by block and returns <code>false</code> at the first difference, without reading
+     * the rest of the streams. The streams are not closed.
+     *
+     * @param leftIn the first stream
+     * @param rightIn the second stream
+     * @param stopped tells if the comparison must be stopped, checked before each block
+     * @return <code>true</code> if both streams have the same content, or if the comparison has been stopped
+     * @throws IOException if one of the streams couldn't be read
+     */
+    static boolean contentEquals(InputStream leftIn, InputStream rightIn, BooleanSupplier stopped) throws IOException {
+        byte leftBuffer[] = BufferPool.getByteArray();
+        byte rightBuffer[] = BufferPool.getByteArray();
+        try {
+            while (!stopped.getAsBoolean()) {
+                int leftRead = StreamUtils.readUpTo(leftIn, leftBuffer);
+                int rightRead = StreamUtils.readUpTo(rightIn, rightBuffer);
+                if (leftRead != rightRead) {
+                    return false;
+                }
+                for (int i = 0; i < leftRead; i++) {
+                    if (leftBuffer[i] != rightBuffer[i]) {
+                        return false;
+                    }
+                }
+                if (leftRead < leftBuffer.length) {
+                    return true;
+                }
+            }
+            return true;
+        } finally {
+            BufferPool.releaseByteArray(leftBuffer);
+            BufferPool.releaseByteArray(rightBuffer);
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing to do here
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given folders contain the same files, recursively. Symbolic links to folders
+     * are not followed.
+     */
+    private boolean foldersEqual(AbstractFile leftFolder, AbstractFile rightFolder) throws IOException {
+        AbstractFile leftChildren[] = leftFolder.ls();
+        AbstractFile rightChildren[] = rightFolder.ls();
+        if (leftChildren.length != rightChildren.length) {
+            return false;
+        }
+
+        Map<String, AbstractFile> rightChildrenByName = new HashMap<>(rightChildren.length * 4 / 3 + 1);
+        for (AbstractFile rightChild : rightChildren) {
+            rightChildrenByName.put(rightChild.getName(), rightChild);
+        }
+
+        for (AbstractFile leftChild : leftChildren) {
+            if (getState() == State.INTERRUPTED) {
+                return false;
+            }
+            AbstractFile rightChild = rightChildrenByName.get(leftChild.getName());
+            if (rightChild == null || leftChild.isDirectory() != rightChild.isDirectory()) {
+                return false;
+            }
+
+            // Notify job that we're starting to process this file, pauses the job if needed
+            nextFile(leftChild);
+            if (leftChild.isDirectory()) {
+                if (!leftChild.isSymlink() && !rightChild.isSymlink() && !foldersEqual(leftChild, rightChild)) {
+                    return false;
+                }
+            } else if (!filesEqual(leftChild, rightChild)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Adds a file to the files to mark, and marks them in the tables if they haven't been updated for a while.
+     */
+    private synchronized void markFile(AbstractFile file, boolean left) {
+        (left ? leftMarks : rightMarks).add(file);
+        if (System.currentTimeMillis() - lastMarkTime >= MARK_REFRESH_RATE_MS) {
+            flushMarks();
+        }
+    }
+
+    /**
+     * Marks the pending files in the tables, in the event dispatch thread.
+     */
+    private synchronized void flushMarks() {
+        lastMarkTime = System.currentTimeMillis();
+        if (leftMarks.isEmpty() && rightMarks.isEmpty()) {
+            return;
+        }
+        final List<AbstractFile> leftFilesToMark = new ArrayList<>(leftMarks);
+        final List<AbstractFile> rightFilesToMark = new ArrayList<>(rightMarks);
+        leftMarks.clear();
+        rightMarks.clear();
+        SwingUtilities.invokeLater(() -> {
+            markFiles(leftTable, leftFolder, leftFilesToMark);
+            markFiles(rightTable, rightFolder, rightFilesToMark);
+        });
+    }
+
+    private static void markFiles(FileTable table, AbstractFile folder, List<AbstractFile> files) {
+        BaseFileTableModel tableModel = table.getFileTableModel();
+        // Do nothing if the table has changed folder in the meantime
+        if (files.isEmpty() || !folder.equals(tableModel.getCurrentFolder())) {
+            return;
+        }
+        for (AbstractFile file : files) {
+            tableModel.setFileMarked(file, true);
+        }
+        table.repaint();
+
+        // Notify registered listeners that currently marked files have changed on the file table
+        table.fireMarkedFilesChangedEvent();
+    }
+
+
+    ////////////////////////////
+    // FileJob implementation //
+    ////////////////////////////
+
+    @Override
+    protected boolean processFile(AbstractFile file, Object recurseParams) {
+        // Stop if interrupted
+        if (getState() == State.INTERRUPTED) {
+            return false;
+        }
+
+        AbstractFile leftFile = file;
+        AbstractFile rightFile = rightFiles.get(file.getName());
+
+        // The file has no counterpart in the right folder
+        if (rightFile == null) {
+            markFile(leftFile, true);
+            return true;
+        }
+
+        do {		// Loop for retry
+            try {
+                if (leftFile.isDirectory() != rightFile.isDirectory()) {
+                    markFile(leftFile, true);
+                    markFile(rightFile, false);
+                } else if (leftFile.isDirectory()) {
+                    if (!foldersEqual(leftFile, rightFile) && getState() != State.INTERRUPTED) {
+                        markFile(leftFile, true);
+                        markFile(rightFile, false);
+                    }
+                } else if (mode == Mode.DATE) {
+                    // Mark the most recent file
+                    long leftDate = leftFile.getDate();
+                    long rightDate = rightFile.getDate();
+                    if (leftDate != rightDate) {
+                        markFile(leftDate > rightDate ? leftFile : rightFile, leftDate > rightDate);
+                    }
+                } else if (!filesEqual(leftFile, rightFile) && getState() != State.INTERRUPTED) {
+                    markFile(leftFile, true);
+                    markFile(rightFile, false);
+                }
+                return true;
+            } catch (IOException e) {
+                LOGGER.debug("Failed to compare " + leftFile + " with " + rightFile, e);
+
+                int ret = showErrorDialog(errorDialogTitle, Translator.get(leftFile.isDirectory() ? "cannot_read_folder" : "cannot_read_file", file.getName()));
+                // Retry loops
+                if (ret == RETRY_ACTION) {
+                    continue;
+                }
+                // Cancel, skip or close dialog returns false
+                return false;
+            }
+        } while (true);
+    }
+
+    // This job does not modify anything
+    @Override
+    protected boolean hasFolderChanged(AbstractFile folder) {
+        return false;
+    }
+
+
+    ////////////////////////
+    // Overridden methods //
+    ////////////////////////
+
+    @Override
+    protected void jobStarted() {
+        super.jobStarted();
+
+        for (AbstractFile file : rightOnlyFiles) {
+            markFile(file, false);
+        }
+    }
+
+    @Override
+    protected void jobStopped() {
+        super.jobStopped();
+
+        // Mark the remaining files, also when the job has been interrupted
+        flushMarks();
+    }
+
+    @Override
+    public String getStatusString() {
+        return Translator.get("compare_folders_dialog.comparing", getCurrentFilename());
+    }
+}
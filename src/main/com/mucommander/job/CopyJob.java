@@ -80,6 +80,7 @@ public class CopyJob extends AbstractCopyJob {
         this.errorDialogTitle = Translator.get(mode==Mode.DOWNLOAD ? "download_dialog.error_title" : "copy_dialog.error_title");
         scanDirectoryThread = new ScanDirectoryThread(files);
         scanDirectoryThread.start();
+        setTransferConcurrency(getDefaultTransferConcurrency(getBaseSourceFolder(), destFolder));
     }
 
 
@@ -94,10 +95,17 @@ public class CopyJob extends AbstractCopyJob {
      * @param file the file or folder to move
      * @param recurseParams destination folder where the given file will be copied (null for top level files)
      * 
-     * @return <code>true</code> if the file has been copied.
+     * @return <code>true</code> if the file has been copied, or queued for copy if transfers are pipelined.
      */
     @Override
     protected boolean processFile(AbstractFile file, Object recurseParams) {
+        if (recurseParams != null) {
+            return copyRecursively(file, recurseParams);
+        }
+        return processTopLevelFile(file, () -> copyRecursively(file, null));
+    }
+
+    private boolean copyRecursively(AbstractFile file, Object recurseParams) {
         // Stop if interrupted
         if (getState() == State.INTERRUPTED) {
             return false;
@@ -165,6 +173,7 @@ public class CopyJob extends AbstractCopyJob {
                     // for each file in folder...
                     AbstractFile subFiles[] = file.ls();
 //filesDiscovered(subFiles);
+                    TransferGroup folderGroup = startTransferGroup();
                     for (int i = 0; i < subFiles.length && getState() != State.INTERRUPTED; i++) {
                         // Notify job that we're starting to process this file (needed for recursive calls to processFile)
                         nextFile(subFiles[i]);
@@ -175,15 +184,20 @@ public class CopyJob extends AbstractCopyJob {
                     // needs to work with the folder after calling super.processFile.
                     currentDestFile = destFile;
 
-                    // Only when finished with folder, set destination folder's date to match the original folder one
-                    if (destFile.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
-                        try {
-                            destFile.changeDate(file.getDate());
-                        } catch (IOException e) {
-                            LOGGER.debug("failed to change the date of "+destFile, e);
-                            // Fail silently
+                    // Only when finished with folder (including its pipelined transfers), set destination folder's
+                    // date to match the original folder one
+                    final AbstractFile destFolderFile = destFile;
+                    finishTransferGroup(folderGroup, complete -> {
+                        if (destFolderFile.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
+                            try {
+                                destFolderFile.changeDate(file.getDate());
+                            } catch (IOException e) {
+                                LOGGER.debug("failed to change the date of "+destFolderFile, e);
+                                // Fail silently
+                            }
                         }
-                    }
+                        return true;
+                    });
 
                     return true;
                 } catch (IOException e) {
@@ -200,8 +214,8 @@ public class CopyJob extends AbstractCopyJob {
         }
         // File is a regular file, copy it
         else  {
-            // Copy the file
-            return tryCopyFile(file, destFile, append, errorDialogTitle);
+            // Copy the file, in a worker thread if transfers are pipelined
+            return submitTransfer(file, destFile, append, errorDialogTitle, null);
         }
     }
 
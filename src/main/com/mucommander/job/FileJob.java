@@ -110,6 +110,9 @@ public abstract class FileJob implements Runnable {
 
     /** If set to true, processed files will be unmarked from current table */
     private boolean autoUnmark = true;
+
+    /** Table in which processed files are unmarked, the active one when the job started */
+    private FileTable activeTable;
 	
     /** File to be selected after job has finished (can be null if not set) */
     private AbstractFile fileToSelect;
@@ -447,8 +450,8 @@ public abstract class FileJob implements Runnable {
                 // Call the jobResumed method to notify of the new job's state
                 jobResumed();
 
-                // Wake up the job's thread that is potentially waiting for pause to be over 
-                pauseLock.notify();
+                // Wake up the job's threads that are potentially waiting for pause to be over
+                pauseLock.notifyAll();
 
                 // Switch to RUNNING state and notify listeners
                 setState(State.RUNNING);
@@ -556,6 +559,49 @@ public abstract class FileJob implements Runnable {
     }
 
 
+    /**
+     * This method is called in the job's thread when this job has been interrupted, once the file being processed at
+     * the time of the interruption has returned from {@link #processFile(AbstractFile,Object)}.
+     *
+     * <p>This method implementation does nothing but it can be overridden by subclasses to finish the work still in
+     * progress in other threads. Unlike {@link #jobStopped()}, which may be called by the thread interrupting the
+     * job, it is safe to block in this method.</p>
+     */
+    protected void jobInterrupted() {
+        LOGGER.debug("called");
+    }
+
+
+    /**
+     * This method is called in the job's thread when a top level file has been processed, unmarking it in the table
+     * that was active when the job started if 'auto unmark' is enabled and the file was processed successfully.
+     *
+     * <p>Subclasses which finish processing files in other threads can override this method to report the files
+     * once they are really over.</p>
+     *
+     * @param file the top level file that has been processed
+     * @param success <code>true</code> if the file was processed successfully
+     */
+    protected void fileProcessed(AbstractFile file, boolean success) {
+        if (autoUnmark && success) {
+            unmarkFile(file);
+        }
+    }
+
+
+    /**
+     * Unmarks the given file in the table that was active when the job started.
+     *
+     * @param file the file to unmark
+     */
+    protected void unmarkFile(AbstractFile file) {
+        if (activeTable != null) {
+            // Do not repaint rows individually as it would be too expensive
+            activeTable.setFileMarked(file, false, false);
+        }
+    }
+
+
     /**
      * This method is called when this job has been paused, either by the user, or by the job when asking for user input.
      * 
@@ -819,13 +865,20 @@ public abstract class FileJob implements Runnable {
      * This method is public as a side-effect of this class implementing <code>Runnable</code>.
      */
     public final void run() {
-        FileTable activeTable = getMainFrame().getActiveTable();
+        activeTable = getMainFrame().getActiveTable();
 
         // Notify that this job has started
         jobStarted();
 
 //this.nbFilesDiscovered += nbFiles;
 
+        // Nothing to process: the job is over as soon as it has started
+        if (nbFiles == 0) {
+            stop();
+            jobCompleted();
+            setState(State.FINISHED);
+        }
+
         // Loop on all source files, checking that job has not been interrupted
         for(int i = 0; i < nbFiles; i++) {
             AbstractFile currentFile = files.elementAt(i);
@@ -838,15 +891,14 @@ public abstract class FileJob implements Runnable {
             boolean success = processFile(currentFile, null);
 
             // Stop if job was interrupted
-            if (getState() == State.INTERRUPTED)
+            if (getState() == State.INTERRUPTED) {
+                jobInterrupted();
                 break;
+            }
 
             // Unmark file in active table if 'auto unmark' is enabled
             // and file was processed successfully
-            if (autoUnmark && success) {
-                // Do not repaint rows individually as it would be too expensive
-                activeTable.setFileMarked(currentFile, false, false);
-            }
+            fileProcessed(currentFile, success);
 
             // If last file was reached without any user interruption, all files have been processed with or
             // without errors, switch to FINISHED state and notify listeners
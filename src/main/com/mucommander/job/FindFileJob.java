@@ -17,9 +17,17 @@
  */
 package com.mucommander.job;
 
+import com.mucommander.commons.file.AbstractArchiveEntryFile;
+import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ArchiveEntry;
+import com.mucommander.commons.file.ArchiveEntryIterator;
+import com.mucommander.commons.file.FileProtocols;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.commons.runtime.OsFamily;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
 import com.mucommander.ui.main.MainFrame;
 import org.apache.commons.io.IOCase;
 import org.apache.commons.io.filefilter.AbstractFileFilter;
@@ -30,24 +38,45 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Job for directory scanning
  */
 public class FindFileJob extends FileJob {
 
+    /**
+     * Local files of at least this size are searched through memory-mapped windows
+     */
+    private static final long MAPPED_SEARCH_THRESHOLD = 1024 * 1024;
+
     private AbstractFile startDirectory;
     private String fileContent;
     private boolean searchSubdirectories;
     private boolean searchArchives;
     private boolean ignoreHidden;
     private SearchPattern searchPattern;
+    /** Searchers aren't thread-safe, every thread of a parallel search gets its own one */
+    private ThreadLocal<BlockSearcher> searcher;
+    /** Number of threads used to search, 1 for the sequential search on the job's thread */
+    private int parallelism = 1;
 
     private AbstractFileFilter fileFilter;
 
     private final List<AbstractFile> list = new ArrayList<>();
 
+    /**
+     * Whether the content of archive entries matches, for archives whose entries have been searched in a single pass.
+     * Results are removed once used.
+     */
+    private final Map<AbstractArchiveFile, Map<String, Boolean>> archiveContentMatches = new ConcurrentHashMap<>();
+
     public FindFileJob(MainFrame mainFrame) {
         super(mainFrame);
         setAutoUnmark(false);
@@ -65,48 +94,151 @@ public class FindFileJob extends FileJob {
         if (getState() == State.INTERRUPTED) {
             return false;
         }
+        if (recurseParams == null && parallelism > 1) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new SearchAction(file));
+            } finally {
+                pool.shutdownNow();
+            }
+            return getState() != State.INTERRUPTED;
+        }
+        AbstractFile subFiles[] = visit(file);
+        if (subFiles != null) {
+            for (int i = 0; i < subFiles.length && getState() != State.INTERRUPTED; i++) {
+                if (ignoreHidden && subFiles[i].isHidden()) {
+                    continue;
+                }
+                // Notify job that we're starting to process this file (needed for recursive calls to processFile)
+                nextFile(subFiles[i]);
+                processFile(subFiles[i], Boolean.TRUE);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Searches the given file and lists the files that have to be searched next.
+     *
+     * @param file the file or folder to search
+     * @return the children of a folder or archive to recurse into, <code>null</code> if there are none
+     */
+    private AbstractFile[] visit(AbstractFile file) {
         // If file is a directory, recurs
         if (file.isDirectory() && (!file.isSymlink() || file.equals(startDirectory))) {
             searchInFile(file);
             if (!searchSubdirectories && !file.equals(startDirectory)) {
-                return true;
-            }
-            try {
-                AbstractFile subFiles[] = file.ls();
-                for (int i = 0; i < subFiles.length && getState() != State.INTERRUPTED; i++) {
-                    if (ignoreHidden && file.isHidden()) {
-                        continue;
-                    }
-                    // Notify job that we're starting to process this file (needed for recursive calls to processFile)
-                    nextFile(subFiles[i]);
-                    processFile(subFiles[i], null);
-                }
-            } catch(Throwable e) {
-                // Should we tell the user?
+                return null;
             }
-        } else { // If not, increase file counter and bytes total
+        } else {
             if (!ignoreHidden || !file.isHidden()) {
                 searchInFile(file);
             }
+            if (!file.isArchive() || !searchArchives) {
+                return null;
+            }
+            searchArchiveContent(file);
         }
+        try {
+            return file.ls();
+        } catch(Throwable e) {
+            // Should we tell the user?
+            return null;
+        }
+    }
 
-        if (file.isArchive() && searchArchives) {
+    /**
+     * Fork/join task searching a file and, for folders and archives, their content. Every child becomes a task of
+     * its own, so listing folders and scanning file contents are spread over the pool's threads.
+     */
+    private class SearchAction extends RecursiveAction {
+        private final AbstractFile file;
+
+        SearchAction(AbstractFile file) {
+            this.file = file;
+        }
+
+        @Override
+        protected void compute() {
+            if (getState() == State.INTERRUPTED) {
+                return;
+            }
+            // Blocks while the job is paused
+            nextFile(file);
+            AbstractFile subFiles[] = visit(file);
+            if (subFiles == null) {
+                return;
+            }
+            List<SearchAction> actions = new ArrayList<>(subFiles.length);
+            for (AbstractFile subFile : subFiles) {
+                if (!ignoreHidden || !subFile.isHidden()) {
+                    actions.add(new SearchAction(subFile));
+                }
+            }
+            invokeAll(actions);
+        }
+    }
+
+    /**
+     * Searches the content of an archive's files in a single pass if the archive compresses several entries together,
+     * the results being used when the entries are visited. Does nothing for other archives, whose entries are
+     * searched one by one.
+     *
+     * @param file the archive file
+     */
+    private void searchArchiveContent(AbstractFile file) {
+        if (fileContent == null || fileContent.isEmpty() || searcher == null) {
+            return;
+        }
+        AbstractArchiveFile archiveFile = file.getAncestor(AbstractArchiveFile.class);
+        if (archiveFile == null || !archiveFile.isBatchExtractionSupported()) {
+            return;
+        }
+
+        // Entries that are not in the map if the extraction fails are searched one by one
+        Map<String, Boolean> matches = new ConcurrentHashMap<>();
+        archiveContentMatches.put(archiveFile, matches);
+        try {
+            List<ArchiveEntry> entries = new ArrayList<>();
+            ArchiveEntryIterator iterator = archiveFile.getEntryIterator();
             try {
-                AbstractFile subFiles[] = file.ls();
-                for (int i = 0; i < subFiles.length && getState() != State.INTERRUPTED; i++) {
-                    if (ignoreHidden && file.isHidden()) {
-                        continue;
+                ArchiveEntry entry;
+                while ((entry = iterator.nextEntry()) != null) {
+                    if (!entry.isDirectory() && fileFilter.accept(new File(archiveFile.getArchiveEntryFile(entry).toString()))) {
+                        entries.add(entry);
                     }
-                    // Notify job that we're starting to process this file (needed for recursive calls to processFile)
-                    nextFile(subFiles[i]);
-                    processFile(subFiles[i], null);
                 }
-            } catch(Throwable e) {
-                // Should we tell the user?
+            } finally {
+                iterator.close();
             }
+
+            archiveFile.extractEntries(entries, (entry, in) -> {
+                try {
+                    matches.put(entry.getPath(), searcher.get().indexOf(new InputStreamSource(in)) >= 0);
+                } catch (SearchException e) {
+                    throw new IOException(e);
+                }
+                return getState() != State.INTERRUPTED;
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
-        return true;
+    /**
+     * Returns whether the content of the given archive entry matches, if it has been searched by
+     * {@link #searchArchiveContent(AbstractFile)}.
+     *
+     * @param f the file to search
+     * @return whether the content of the file matches, <code>null</code> if it hasn't been searched yet
+     */
+    private Boolean getArchiveContentMatch(AbstractFile f) {
+        AbstractArchiveEntryFile entryFile = f.getAncestor(AbstractArchiveEntryFile.class);
+        if (entryFile == null) {
+            return null;
+        }
+        Map<String, Boolean> matches = archiveContentMatches.get(entryFile.getArchiveFile());
+        return matches == null ? null : matches.remove(entryFile.getEntry().getPath());
     }
 
     private void searchInFile(AbstractFile file) {
@@ -128,29 +260,113 @@ public class FindFileJob extends FileJob {
             return false;
         }
 
+        if (searcher == null) {
+            return false;
+        }
+        Boolean archiveContentMatch = getArchiveContentMatch(f);
+        if (archiveContentMatch != null) {
+            return archiveContentMatch;
+        }
         try {
-            SearchSourceStream source = new InputStreamSource(f.getInputStream());
-            long pos = SearchUtils.indexOf(source, searchPattern);
+            long pos = searcher.get().indexOf(createSearchSource(f));
             //Profiler.stop("check_new");
             return pos >= 0;
         } catch (SearchException | IOException e) {
             e.printStackTrace();
             return false;
-                }
-            }
-
+        }
+    }
 
+    private static SearchSourceStream createSearchSource(AbstractFile f) throws IOException {
+        Object fileObject = f.getUnderlyingFileObject();
+        if (fileObject instanceof File) {
+            File file = (File)fileObject;
+            if (file.length() >= MAPPED_SEARCH_THRESHOLD) {
+                return new MappedFileSource(file);
+            }
+        }
+        return new InputStreamSource(f.getInputStream());
+    }
 
 
+    /**
+     * Returns the files found so far, in the order they have been found. The list is appended to while the job
+     * is running, readers have to synchronize on this job.
+     *
+     * @return the found files
+     */
     public List<AbstractFile> getResults() {
         return list;
     }
 
+    /**
+     * Returns a copy of the files found so far sorted by path. A parallel search finds files in a non-deterministic
+     * order, this gives the same order as a sequential search of a folder tree sorted by name.
+     *
+     * @return the found files sorted by path
+     */
+    public List<AbstractFile> getSortedResults() {
+        List<AbstractFile> result;
+        synchronized (this) {
+            result = new ArrayList<>(list);
+        }
+        Collections.sort(result, new Comparator<AbstractFile>() {
+            @Override
+            public int compare(AbstractFile f1, AbstractFile f2) {
+                return f1.getAbsolutePath().compareTo(f2.getAbsolutePath());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns <code>true</code> if the files are searched by several threads.
+     *
+     * @return true for a parallel search
+     */
+    public boolean isParallel() {
+        return parallelism > 1;
+    }
+
+    /**
+     * Overrides the number of search threads configured for the start folder's protocol.
+     *
+     * @param parallelism number of threads, <code>1</code> searches sequentially on the job's thread
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the number of search threads configured for the given folder's protocol, see
+     * {@link MuPreferences#FIND_FILE_PARALLELISM}.
+     *
+     * @param folder the folder to search
+     * @return number of threads to use
+     */
+    private static int getConfiguredParallelism(AbstractFile folder) {
+        String protocol = folder.getURL().getScheme();
+        String value = MuConfigurations.getPreferences().getVariable(MuPreferences.FIND_FILE_PARALLELISM + '.' + protocol);
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                // Fall back to the default value
+            }
+        }
+        if (FileProtocols.FILE.equals(protocol)) {
+            return Math.max(1, MuConfigurations.getPreferences().getVariable(MuPreference.FIND_FILE_PARALLELISM,
+                    MuPreferences.DEFAULT_FIND_FILE_PARALLELISM));
+        }
+        return MuPreferences.DEFAULT_FIND_FILE_REMOTE_PARALLELISM;
+    }
+
     public void setStartDirectory(AbstractFile startDirectory) {
         this.startDirectory = startDirectory;
         FileSet fs = new FileSet();
         fs.add(startDirectory);
         setFiles(fs);
+        setParallelism(getConfiguredParallelism(startDirectory));
     }
 
     public void setup(String fileMask, String fileContent, boolean searchSubdirs, boolean searchArchives, boolean caseSensitive, boolean ignoreHidden, String encoding, boolean hexMode, byte[] bytes) {
@@ -182,6 +398,12 @@ public class FindFileJob extends FileJob {
                 e.printStackTrace();
             }
         }
+        if (searchPattern != null) {
+            final SearchPattern pattern = searchPattern;
+            searcher = ThreadLocal.withInitial(() -> new BlockSearcher(pattern));
+        } else {
+            searcher = null;
+        }
 
     }
 
@@ -63,6 +63,7 @@ public class MoveJob extends AbstractCopyJob {
 
         this.errorDialogTitle = Translator.get("move_dialog.error_title");
         this.renameMode = renameMode;
+        setTransferConcurrency(getDefaultTransferConcurrency(getBaseSourceFolder(), destFolder));
     }
 
 
@@ -76,10 +77,19 @@ public class MoveJob extends AbstractCopyJob {
      * @param file the file or folder to move
      * @param recurseParams destination folder where the given file will be moved (null for top level files)
      * 
-     * @return <code>true</code> if the file has been moved completly (copied + deleted).
+     * @return <code>true</code> if the file has been moved completly (copied + deleted), or queued for copy if
+     * transfers are pipelined. The source folder of queued files is deleted once they have all been moved.
      */
     @Override
     protected boolean processFile(AbstractFile file, Object recurseParams) {
+        if (recurseParams != null) {
+            return moveRecursively(file, recurseParams);
+        }
+        // Pipelined transfers must be over, and the moved folders deleted, before the job completes
+        return processTopLevelFile(file, () -> moveRecursively(file, null));
+    }
+
+    private boolean moveRecursively(AbstractFile file, Object recurseParams) {
         // Stop if interrupted
         if (getState() == State.INTERRUPTED)
             return false;
@@ -164,36 +174,10 @@ public class MoveJob extends AbstractCopyJob {
                 } while(true);
             }
 			
-            // move each file in this folder recursively
+            AbstractFile subFiles[];
             do {		// Loop for retry
                 try {
-                    AbstractFile subFiles[] = file.ls();
-                    boolean isFolderEmpty = true;
-                    for (AbstractFile subFile : subFiles) {
-                        // Return now if the job was interrupted, so that we do not attempt to delete this folder
-                        if (getState() == State.INTERRUPTED)
-                            return false;
-
-                        // Notify job that we're starting to process this file (needed for recursive calls to processFile)
-                        nextFile(subFile);
-                        if (!processFile(subFile, destFile))
-                            isFolderEmpty = false;
-                    }
-
-                    // Only when finished with folder, set destination folder's date to match the original folder one
-                    if (destFile.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
-                        try {
-                            destFile.changeDate(file.getDate());
-                        }
-                        catch (IOException e) {
-                            LOGGER.debug("failed to change the date of "+destFile, e);
-                            // Fail silently
-                        }
-                    }
-
-                    // If one file failed to be moved, return false (failure) since this folder could not be moved totally
-                    if(!isFolderEmpty)
-                        return false;
+                    subFiles = file.ls();
                 } catch (IOException e) {
                     // file.ls() failed
                     int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_read_folder", file.getName()));
@@ -206,51 +190,105 @@ public class MoveJob extends AbstractCopyJob {
                 break;
             } while(true);
 
-            // Return now if the job was interrupted, so that we do not attempt to delete this folder
-            if (getState() == State.INTERRUPTED)
-                return false;
+            // Moving the files changes the date of the source folder
+            final long date = file.getDate();
 
-            // finally, delete the empty folder
-            do {		// Loop for retry
-                try  {
-                    file.delete();
-                    return true;
-                } catch(IOException e) {
-                    int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_folder", file.getAbsolutePath()));
-                    // Retry loops
-                    if (ret == RETRY_ACTION)
-                        continue;
-                    // Cancel, skip or close dialog returns false
-                    return false;
+            // move each file in this folder recursively
+            TransferGroup folderGroup = startTransferGroup();
+            for (AbstractFile subFile : subFiles) {
+                // Stop now if the job was interrupted, so that we do not attempt to delete this folder
+                if (getState() == State.INTERRUPTED) {
+                    folderGroup.failed();
+                    break;
                 }
-            } while(true);
+
+                // Notify job that we're starting to process this file (needed for recursive calls to processFile)
+                nextFile(subFile);
+                if (!processFile(subFile, destFile))
+                    folderGroup.failed();
+            }
+
+            // The folder can be deleted once its files have been moved
+            final AbstractFile destFolderFile = destFile;
+            return finishTransferGroup(folderGroup, complete -> finishFolderMove(file, destFolderFile, date, complete));
         }
         // File is a regular file, move it by copying it to the destination and then deleting it
         else  {
             // if renameTo() was not supported or failed, or if it wasn't possible because of 'append',
-            // try the hard way by copying the file first, and then deleting the source file.
-            if (tryCopyFile(file, destFile, append, errorDialogTitle) && getState() != State.INTERRUPTED) {
-                // Delete the source file
-                do {		// Loop for retry
-                    try  {
-                        file.delete();
-                        // All OK
-                        return true;
-                    } catch(IOException e) {
-                        LOGGER.debug("IOException caught", e);
+            // try the hard way by copying the file first, and then deleting the source file. A file copied
+            // completely is deleted even if the job has been interrupted in the meantime, it has been moved.
+            return submitTransfer(file, destFile, append, errorDialogTitle,
+                    (sourceFile, success) -> success && deleteSourceFile(sourceFile));
+        }
+    }
 
-                        int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_file", file.getAbsolutePath()));
-                        // Retry loops
-                        if (ret==RETRY_ACTION)
-                            continue;
-                        // Cancel, skip or close dialog returns false
-                        return false;
-                    }
-                } while(true);
+    /**
+     * Sets the date of the destination folder and deletes the source folder if all its files have been moved.
+     *
+     * @param date the date of the source folder before its files were moved
+     * @param complete <code>true</code> if all files of the folder have been moved
+     * @return <code>true</code> if the source folder has been deleted
+     */
+    private boolean finishFolderMove(AbstractFile file, AbstractFile destFile, long date, boolean complete) {
+        // Only when finished with folder, set destination folder's date to match the original folder one
+        if (destFile.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
+            try {
+                destFile.changeDate(date);
+            }
+            catch (IOException e) {
+                LOGGER.debug("failed to change the date of "+destFile, e);
+                // Fail silently
             }
+        }
 
+        // If one file failed to be moved, return false (failure) since this folder could not be moved totally
+        if (!complete)
             return false;
-        }
+
+        // finally, delete the empty folder
+        do {		// Loop for retry
+            try  {
+                file.delete();
+                return true;
+            } catch(IOException e) {
+                // No questions once the job has been interrupted
+                if (getState() == State.INTERRUPTED)
+                    return false;
+                int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_folder", file.getAbsolutePath()));
+                // Retry loops
+                if (ret == RETRY_ACTION)
+                    continue;
+                // Cancel, skip or close dialog returns false
+                return false;
+            }
+        } while(true);
+    }
+
+    /**
+     * Deletes a source file once it has been copied to the destination.
+     *
+     * @return <code>true</code> if the file has been deleted
+     */
+    private boolean deleteSourceFile(AbstractFile file) {
+        do {		// Loop for retry
+            try  {
+                file.delete();
+                // All OK
+                return true;
+            } catch(IOException e) {
+                LOGGER.debug("IOException caught", e);
+
+                // No questions once the job has been interrupted
+                if (getState() == State.INTERRUPTED)
+                    return false;
+                int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_file", file.getAbsolutePath()));
+                // Retry loops
+                if (ret==RETRY_ACTION)
+                    continue;
+                // Cancel, skip or close dialog returns false
+                return false;
+            }
+        } while(true);
     }
 
     // This job modifies baseDestFolder and its subfolders
@@ -23,18 +23,30 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 import com.mucommander.commons.file.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.apple.eio.FileManager;
+import com.mucommander.commons.file.connection.ConnectionPool;
 import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.commons.io.ByteCounter;
 import com.mucommander.commons.io.ChecksumInputStream;
 import com.mucommander.commons.io.CounterInputStream;
+import com.mucommander.commons.io.ChannelTransferable;
 import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.ReadAheadInputStream;
+import com.mucommander.commons.io.SegmentedInputStream;
 import com.mucommander.commons.io.ThroughputLimitInputStream;
 import com.mucommander.commons.io.security.MuProvider;
 import com.mucommander.commons.runtime.OsFamily;
@@ -48,6 +60,12 @@ import com.mucommander.ui.main.MainFrame;
  *
  * <p>What makes TransferFileJob different from FileJob (and explains its very inspired name) is that a class
  * implementing TransferFileJob has to be able to give progress information about the file currently being processed.
+ *
+ * <p>Files can be transferred in a pipeline (see {@link #setTransferConcurrency(int)}): the job thread walks the
+ * source files and hands regular files to {@link #submitTransfer(AbstractFile, AbstractFile, boolean, String, TransferListener)},
+ * worker threads copy several of them at the same time, and the job thread collects the finished transfers. Error
+ * dialogs, collisions and progress counters are handled by the job thread only, as in sequential mode. The files of
+ * a folder are submitted in a {@link TransferGroup}, which is notified once all of them have been transferred.
  * 
  * @author Maxence Bernard
  */
@@ -82,15 +100,81 @@ public abstract class TransferFileJob extends FileJob {
     /** True when the checksum of the source or destination file is being calculated. */
     private boolean isCheckingIntegrity;
 
+    /** If true, source files are read ahead in a background thread while the destination is being written */
+    private boolean readAheadEnabled = true;
+
     /** The checksum algorithm used for checking the integrity of transferred files. The algorithm has to be the fastest
      * possible (to have the minimum impact on transfer speed) and does not need to have a good resitance to collision. */
     private final static String CHECKSUM_VERIFICATION_ALGORITHM = "Adler32";
 
+    /** Minimum number of bytes to read for a source file to be downloaded by several segments concurrently */
+    private final static long SEGMENTED_DOWNLOAD_THRESHOLD = 8 * 1024 * 1024;
+
     /**
      * If user changed "Overwrite all readonly" in the question dialog
      */
     private boolean overwriteAllReadonly = false;
 
+    /** Maximum number of files transferred at the same time, 1 if files are transferred by the job thread */
+    private int transferConcurrency = 1;
+
+    /** Worker threads of pipelined transfers, created by the first submitted transfer */
+    private ThreadPoolExecutor transferExecutor;
+
+    /** Transfer handled by the current worker thread, not set in the job thread */
+    private final ThreadLocal<Transfer> workerTransfer = new ThreadLocal<>();
+
+    /** Submitted transfers which have not been collected yet, their byte counters are accounted in the totals */
+    private final Set<Transfer> activeTransfers = ConcurrentHashMap.newKeySet();
+
+    /** Transfers finished by worker threads, waiting to be collected by the job thread */
+    private final BlockingQueue<Transfer> finishedTransfers = new LinkedBlockingQueue<>();
+
+    /** Number of submitted transfers not collected yet, accessed by the job thread only */
+    private int pendingTransfers;
+
+    /** True if a pipelined transfer failed since the last call to {@link #waitForTransfers()} */
+    private boolean transfersFailed;
+
+    /** Group of the files submitted by the job thread, <code>null</code> for top level files */
+    private TransferGroup currentTransferGroup;
+
+    /** Top level files whose transfers were still in progress when they were returned, accessed by the job thread only */
+    private final Set<AbstractFile> deferredFiles = new HashSet<>();
+
+    /** True while the job is paused, guarded by this */
+    private boolean transfersPaused;
+
+    /**
+     * Notified by the job thread when a transfer submitted with
+     * {@link #submitTransfer(AbstractFile, AbstractFile, boolean, String, TransferListener)} is over.
+     */
+    protected interface TransferListener {
+        /**
+         * Called in the job thread when the file has been transferred, or when it failed and the user chose not to
+         * retry.
+         *
+         * @param sourceFile the transferred file
+         * @param success <code>true</code> if the file has been transferred
+         * @return <code>true</code> if the file has been processed successfully
+         */
+        boolean transferFinished(AbstractFile sourceFile, boolean success);
+    }
+
+    /**
+     * Notified by the job thread when all files of a {@link TransferGroup} have been processed.
+     */
+    protected interface TransferGroupListener {
+        /**
+         * Called in the job thread once the files of the group, including those of its sub-groups, have been
+         * transferred or have failed.
+         *
+         * @param complete <code>true</code> if all files of the group have been processed successfully
+         * @return <code>true</code> if the group has been processed successfully, its parent group fails otherwise
+         */
+        boolean groupFinished(boolean complete);
+    }
+
 
     static {
         // Register additional MessageDigest implementations provided by the muCommander API
@@ -106,9 +190,70 @@ public abstract class TransferFileJob extends FileJob {
         this.currentFileByteCounter = new ByteCounter();
         this.currentFileSkippedByteCounter = new ByteCounter();
 
-        // Account the current file's byte counter in the total byte counter
-        this.totalByteCounter = new ByteCounter(currentFileByteCounter);
-        this.totalSkippedByteCounter = new ByteCounter(currentFileSkippedByteCounter);
+        // Account the current file's and the pipelined transfers' byte counters in the total byte counters
+        this.totalByteCounter = new ByteCounter(new TransfersByteCounter(currentFileByteCounter, false));
+        this.totalSkippedByteCounter = new ByteCounter(new TransfersByteCounter(currentFileSkippedByteCounter, true));
+    }
+
+    /**
+     * Returns the number of files to transfer at the same time between the given folders: files are transferred
+     * one at a time between local folders and inside archives, and in parallel when one side is remote and latency
+     * bound. The number of transfers is kept under {@link ConnectionPool#getMaxConnectionsPerRealm()}, leaving a
+     * connection for listing the source folders.
+     *
+     * @param sourceFolder the base source folder, may be <code>null</code>
+     * @param destFolder the base destination folder
+     * @return the number of files to transfer at the same time
+     */
+    protected static int getDefaultTransferConcurrency(AbstractFile sourceFolder, AbstractFile destFolder) {
+        // Archive entries cannot be read or written concurrently
+        if (sourceFolder == null || sourceFolder.getParentArchive() != null || destFolder.getParentArchive() != null) {
+            return 1;
+        }
+        boolean localSource = sourceFolder.hasAncestor(LocalFile.class);
+        boolean localDest = destFolder.hasAncestor(LocalFile.class);
+        if (localSource && localDest) {
+            return 1;
+        }
+        String protocol = (localSource ? destFolder : sourceFolder).getURL().getScheme();
+        int connections = ConnectionPool.getMaxConnectionsPerRealm(protocol) - 1;
+        // Each transfer uses two connections of the same realm
+        if (!localSource && !localDest && sourceFolder.getURL().getRealm().equals(destFolder.getURL().getRealm())) {
+            connections /= 2;
+        }
+        return Math.max(1, connections);
+    }
+
+    /**
+     * Sets the maximum number of files transferred at the same time by
+     * {@link #submitTransfer(AbstractFile, AbstractFile, boolean, String, TransferListener)}. With a value of
+     * <code>1</code> (the default), files are transferred by the job thread. This method must be called before
+     * the job is started.
+     *
+     * @param transferConcurrency maximum number of files transferred at the same time
+     */
+    public void setTransferConcurrency(int transferConcurrency) {
+        this.transferConcurrency = Math.max(1, transferConcurrency);
+    }
+
+    /**
+     * Returns the maximum number of files transferred at the same time.
+     *
+     * @return the maximum number of files transferred at the same time
+     */
+    public int getTransferConcurrency() {
+        return transferConcurrency;
+    }
+
+    /**
+     * Returns <code>true</code> if files submitted with
+     * {@link #submitTransfer(AbstractFile, AbstractFile, boolean, String, TransferListener)} are transferred by
+     * worker threads.
+     *
+     * @return true if files are transferred in a pipeline
+     */
+    protected boolean isTransferPipelined() {
+        return transferConcurrency > 1;
     }
 
     protected void copyToReadonlyFile(AbstractFile sourceFile, AbstractFile destFile, boolean append) throws FileTransferException {
@@ -129,7 +274,7 @@ public abstract class TransferFileJob extends FileJob {
      */
     protected void copyFile(AbstractFile sourceFile, AbstractFile destFile, boolean append) throws FileTransferException {
         // Reset this field in case it was set to true for the previous file
-        isCheckingIntegrity = false;
+        setCheckingIntegrity(false);
 
         // Throw a specific FileTransferException if source and destination files are identical
         if (sourceFile.equalsCanonical(destFile))
@@ -151,6 +296,7 @@ public abstract class TransferFileJob extends FileJob {
 
         // If the file wasn't copied using copyRemotelyTo(), or if copyRemotelyTo() failed
         InputStream in = null;
+        InputStream transferIn;
         if (!copied) {
             // Copy source file stream to destination file
             try {
@@ -160,29 +306,31 @@ public abstract class TransferFileJob extends FileJob {
                 try  {
                     long destFileSize = destFile.getSize();
                     if (append && destFileSize > 0) {
-                        in = sourceFile.getInputStream(destFileSize);
+                        in = readAhead(getSourceInputStream(sourceFile, destFileSize, inLength - destFileSize), destFile);
                         // Do not calculate checksum, as it needs to be calculated on the whole file
 
                         inLength -= destFileSize;
                         // Increase current file ByteCounter by the number of bytes skipped
-                        currentFileByteCounter.add(destFileSize);
+                        getFileByteCounter().add(destFileSize);
                         // Increase skipped ByteCounter by the number of bytes skipped
-                        currentFileSkippedByteCounter.add(destFileSize);
+                        getFileSkippedByteCounter().add(destFileSize);
                     } else {
-                        in = sourceFile.getInputStream();
+                        in = readAhead(getSourceInputStream(sourceFile, 0, inLength), destFile);
                         if (integrityCheckEnabled) {
                             in = new ChecksumInputStream(in, MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM));
                     }
                     }
 
-                    setCurrentInputStream(in);
+                    transferIn = setCurrentInputStream(in);
                 } catch(Exception e) {
                     LOGGER.debug("IOException caught, throwing FileTransferException", e);
                     throw new FileTransferException(FileTransferException.OPENING_SOURCE);
                 }
 
-                // Copy source stream to destination file
-                destFile.copyStream(tlin, append, inLength);
+                // Copy source stream to destination file. Between local files, the data is transferred from channel
+                // to channel through the registered stream, which keeps counting and limiting the throughput. The
+                // integrity check needs the data to be read, such streams are copied through a buffer.
+                destFile.copyStream(transferIn, append, inLength);
             }
             finally {
                 // This block will always be executed, even if an exception
@@ -234,7 +382,7 @@ public abstract class TransferFileJob extends FileJob {
             String destinationChecksum;
 
             // Indicate that integrity is being checked, the value is reset when the next file starts
-            isCheckingIntegrity = true;
+            setCheckingIntegrity(true);
 
             if (in != null && (in instanceof ChecksumInputStream)) {
                 // The file was copied with a ChecksumInputStream, the checksum is already calculated, simply
@@ -268,8 +416,55 @@ public abstract class TransferFileJob extends FileJob {
         }
     }
 
+    /**
+     * Returns a stream reading the given source file from the specified offset. Large remote files that can be read by
+     * byte ranges are downloaded by several segments concurrently, see {@link SegmentedInputStream}.
+     *
+     * @param sourceFile the file to read
+     * @param offset offset of the first byte to read
+     * @param length number of bytes to read, <code>-1</code> if unknown
+     */
+    private InputStream getSourceInputStream(AbstractFile sourceFile, long offset, long length) throws IOException {
+        if (length >= SEGMENTED_DOWNLOAD_THRESHOLD) {
+            AbstractFile file = sourceFile;
+            while (!(file instanceof RangeReadableFile) && file.hasAncestor()) {
+                file = file.getAncestor();
+            }
+            if (file instanceof RangeReadableFile && ((RangeReadableFile)file).isRangeReadSupported()) {
+                return new SegmentedInputStream(((RangeReadableFile)file)::getRangeInputStream, offset, length);
+            }
+        }
+        return offset == 0 ? sourceFile.getInputStream() : sourceFile.getInputStream(offset);
+    }
+
+    /**
+     * Returns a stream reading the given source stream ahead if {@link #isReadAheadUsed(InputStream, AbstractFile)}
+     * allows it for this transfer, the source stream otherwise.
+     */
+    private InputStream readAhead(InputStream in, AbstractFile destFile) {
+        return isReadAheadUsed(in, destFile) ? new ReadAheadInputStream(in, AbstractFile.IO_BUFFER_SIZE) : in;
+    }
+
+    /**
+     * Returns <code>true</code> if the given source stream should be read ahead in a background thread while the
+     * specified destination file is written, see {@link ReadAheadInputStream}. This implementation reads ahead if
+     * {@link #isReadAheadEnabled() enabled}, except for streams which are transferred from channel to channel to a
+     * local file and for segmented downloads, which are already read ahead. Subclasses may override this method to choose the copy mode of each transfer.
+     *
+     * @param in the stream of the source file
+     * @param destFile the destination file
+     * @return true if the source stream should be read ahead
+     */
+    protected boolean isReadAheadUsed(InputStream in, AbstractFile destFile) {
+        if (!readAheadEnabled || in instanceof SegmentedInputStream) {
+            return false;
+        }
+        boolean channelTransfer = in instanceof ChannelTransferable && ((ChannelTransferable)in).isChannelTransferSupported();
+        return !(channelTransfer && destFile.hasAncestor(LocalFile.class));
+    }
+
     private String calculateChecksum(AbstractFile file) throws IOException, NoSuchAlgorithmException {
-        currentFileByteCounter.reset();
+        getFileByteCounter().reset();
         InputStream in = setCurrentInputStream(file.getInputStream());
         try {
             return AbstractFile.calculateChecksum(in, MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM));
@@ -310,55 +505,15 @@ public abstract class TransferFileJob extends FileJob {
                 // Print the exception's stack trace
                 LOGGER.debug("Copy failed", e);
 
-                int reason = e.getReason();
-                int choice;
-                switch(reason) {
-                    // Could not open source file for read
-                    case FileTransferException.OPENING_SOURCE:
-                        choice = showErrorDialog(errorDialogTitle, Translator.get("cannot_read_file", sourceFile.getName()));
-                        break;
-                    // Could not open destination file for write
-                    case FileTransferException.OPENING_DESTINATION:
-                        // if write to read-only file
-                        if (!destFile.getPermissions().getBitValue(PermissionAccesses.USER_ACCESS, PermissionTypes.WRITE_PERMISSION)) {
-                            if (overwriteAllReadonly) {
-                                choice = OVERWRITE_READONLY_ACTION;
-                            } else {
-                                String actionTexts[] = new String[]{SKIP_TEXT, SKIP_ALL_TEXT, OVERWRITE_READONLY_TEXT, OVERWRITE_READONLY_ALL_TEXT, CANCEL_TEXT};
-                                int actionValues[] = new int[]{SKIP_ACTION, SKIP_ALL_ACTION, OVERWRITE_READONLY_ACTION, OVERWRITE_READONLY_ALL_ACTION, CANCEL_ACTION};
-                                choice = showErrorDialog(errorDialogTitle, Translator.get("overwrite_readonly_file", destFile.getName()), actionTexts, actionValues);
-                            }
-                        } else {
-                        choice = showErrorDialog(errorDialogTitle, Translator.get("cannot_write_file", destFile.getName()));
-                        }
-                        break;
-                    // Source and destination files are identical
-                    case FileTransferException.SOURCE_AND_DESTINATION_IDENTICAL:
-                        choice = showErrorDialog(errorDialogTitle, Translator.get("same_source_destination"));
-                        break;
-                    // Checksum of source and destination files don't match
-                    case FileTransferException.CHECKSUM_MISMATCH:
-                        choice = showErrorDialog(errorDialogTitle, Translator.get("integrity_check_error"));
-                        break;
-                    default:
-                        choice = showErrorDialog(errorDialogTitle,
-                                                 Translator.get("error_while_transferring", sourceFile.getName()),
-                                                 new String[]{SKIP_TEXT, SKIP_ALL_TEXT, APPEND_TEXT, RETRY_TEXT, CANCEL_TEXT},
-                                                 new int[]{SKIP_ACTION, SKIP_ALL_ACTION, APPEND_ACTION, RETRY_ACTION, CANCEL_ACTION}
-                                                 );
-                    break;
-                }
+                int choice = showTransferErrorDialog(e, sourceFile, destFile, errorDialogTitle);
                 // Retry action (append or retry)
-                if (choice == RETRY_ACTION || choice == APPEND_ACTION || choice == OVERWRITE_READONLY_ACTION || choice == OVERWRITE_READONLY_ALL_ACTION) {
+                if (isRetryChoice(choice)) {
                     // Reset current file byte counters
                     currentFileByteCounter.reset();
                     currentFileSkippedByteCounter.reset();
                     // Append resumes transfer
                     append = choice == APPEND_ACTION;
                     overwriteReadonly = choice == OVERWRITE_READONLY_ACTION || choice == OVERWRITE_READONLY_ALL_ACTION;
-                    if (choice == OVERWRITE_READONLY_ALL_ACTION) {
-                        overwriteAllReadonly = true;
-                    }
                     continue;
                 }
 
@@ -368,6 +523,354 @@ public abstract class TransferFileJob extends FileJob {
         } while(true);
     }
 
+    /**
+     * Shows the error dialog matching the reason of a failed transfer and returns the action chosen by the user.
+     */
+    private int showTransferErrorDialog(FileTransferException e, AbstractFile sourceFile, AbstractFile destFile, String errorDialogTitle) {
+        int reason = e.getReason();
+        int choice;
+        switch(reason) {
+            // Could not open source file for read
+            case FileTransferException.OPENING_SOURCE:
+                choice = showErrorDialog(errorDialogTitle, Translator.get("cannot_read_file", sourceFile.getName()));
+                break;
+            // Could not open destination file for write
+            case FileTransferException.OPENING_DESTINATION:
+                // if write to read-only file
+                if (!destFile.getPermissions().getBitValue(PermissionAccesses.USER_ACCESS, PermissionTypes.WRITE_PERMISSION)) {
+                    if (overwriteAllReadonly) {
+                        choice = OVERWRITE_READONLY_ACTION;
+                    } else {
+                        String actionTexts[] = new String[]{SKIP_TEXT, SKIP_ALL_TEXT, OVERWRITE_READONLY_TEXT, OVERWRITE_READONLY_ALL_TEXT, CANCEL_TEXT};
+                        int actionValues[] = new int[]{SKIP_ACTION, SKIP_ALL_ACTION, OVERWRITE_READONLY_ACTION, OVERWRITE_READONLY_ALL_ACTION, CANCEL_ACTION};
+                        choice = showErrorDialog(errorDialogTitle, Translator.get("overwrite_readonly_file", destFile.getName()), actionTexts, actionValues);
+                    }
+                } else {
+                    choice = showErrorDialog(errorDialogTitle, Translator.get("cannot_write_file", destFile.getName()));
+                }
+                break;
+            // Source and destination files are identical
+            case FileTransferException.SOURCE_AND_DESTINATION_IDENTICAL:
+                choice = showErrorDialog(errorDialogTitle, Translator.get("same_source_destination"));
+                break;
+            // Checksum of source and destination files don't match
+            case FileTransferException.CHECKSUM_MISMATCH:
+                choice = showErrorDialog(errorDialogTitle, Translator.get("integrity_check_error"));
+                break;
+            default:
+                choice = showErrorDialog(errorDialogTitle,
+                                         Translator.get("error_while_transferring", sourceFile.getName()),
+                                         new String[]{SKIP_TEXT, SKIP_ALL_TEXT, APPEND_TEXT, RETRY_TEXT, CANCEL_TEXT},
+                                         new int[]{SKIP_ACTION, SKIP_ALL_ACTION, APPEND_ACTION, RETRY_ACTION, CANCEL_ACTION}
+                                         );
+            break;
+        }
+        if (choice == OVERWRITE_READONLY_ALL_ACTION) {
+            overwriteAllReadonly = true;
+        }
+        return choice;
+    }
+
+    /**
+     * Returns <code>true</code> if the given error dialog choice means that the transfer has to be started again.
+     */
+    private static boolean isRetryChoice(int choice) {
+        return choice == RETRY_ACTION || choice == APPEND_ACTION || choice == OVERWRITE_READONLY_ACTION || choice == OVERWRITE_READONLY_ALL_ACTION;
+    }
+
+    /**
+     * Copies the given source file to the specified destination file like
+     * {@link #tryCopyFile(AbstractFile, AbstractFile, boolean, String)}. If transfers are pipelined
+     * (see {@link #setTransferConcurrency(int)}), the file is copied by a worker thread and this method returns as
+     * soon as the transfer is queued; the listener is notified in the job thread when the transfer is over, after
+     * the user has been asked what to do if it failed. Otherwise the file is copied before this method returns.
+     *
+     * <p>This method blocks while the maximum number of transfers is queued, collecting finished transfers meanwhile.
+     * Pipelined transfers are only guaranteed to be over after {@link #waitForTransfers()} has been called. A queued
+     * file belongs to the current {@link TransferGroup}, which fails if the transfer fails.</p>
+     *
+     * @param sourceFile the file to copy
+     * @param destFile the destination file
+     * @param append <code>true</code> to resume the transfer
+     * @param errorDialogTitle title of the error dialogs
+     * @param listener notified when the transfer is over, may be <code>null</code>
+     * @return <code>false</code> if the file couldn't be transferred, <code>true</code> if it has been transferred
+     * or queued
+     */
+    protected boolean submitTransfer(AbstractFile sourceFile, AbstractFile destFile, boolean append, String errorDialogTitle, TransferListener listener) {
+        if (!isTransferPipelined()) {
+            boolean success = tryCopyFile(sourceFile, destFile, append, errorDialogTitle);
+            return listener == null ? success : listener.transferFinished(sourceFile, success);
+        }
+
+        // Collect the transfers finished so far, and wait for the workers if too many transfers are queued
+        Transfer finished;
+        while ((finished = finishedTransfers.poll()) != null) {
+            collectTransfer(finished);
+        }
+        while (pendingTransfers >= transferConcurrency * 2 && getState() != State.INTERRUPTED) {
+            try {
+                collectTransfer(finishedTransfers.take());
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        if (getState() == State.INTERRUPTED) {
+            return false;
+        }
+
+        if (transferExecutor == null) {
+            transferExecutor = new ThreadPoolExecutor(transferConcurrency, transferConcurrency, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), runnable -> {
+                        Thread thread = new Thread(runnable, "TransferWorker");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            transferExecutor.allowCoreThreadTimeOut(true);
+        }
+        Transfer transfer = new Transfer(sourceFile, destFile, append, errorDialogTitle, listener, currentTransferGroup);
+        if (transfer.group != null) {
+            transfer.group.pending++;
+        }
+        activeTransfers.add(transfer);
+        startTransfer(transfer);
+        return true;
+    }
+
+    /**
+     * Waits until all files submitted with
+     * {@link #submitTransfer(AbstractFile, AbstractFile, boolean, String, TransferListener)} have been transferred
+     * and collected, notifying the groups whose files are all processed.
+     *
+     * @return <code>true</code> if all files and top level groups finished since the last call to this method succeeded
+     */
+    protected boolean waitForTransfers() {
+        while (pendingTransfers > 0) {
+            try {
+                collectTransfer(finishedTransfers.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        boolean success = !transfersFailed;
+        transfersFailed = false;
+        return success;
+    }
+
+    /**
+     * Processes a top level file with the given action, typically a recursive copy. When transfers are pipelined,
+     * the files queued by the action are submitted in a group of their own: if they are still being transferred when
+     * this method returns, the file is reported to {@link #fileProcessed(AbstractFile, boolean)} once they are over,
+     * with the result of their transfers. The transfers are waited for after the last top level file.
+     *
+     * @param file the top level file
+     * @param action processes the file, returns <code>false</code> if it couldn't be processed
+     * @return <code>false</code> if the file couldn't be processed, <code>true</code> if it has been processed or
+     * its files are still being transferred
+     */
+    protected boolean processTopLevelFile(AbstractFile file, BooleanSupplier action) {
+        boolean last = getCurrentFileIndex() == getNbFiles() - 1;
+        if (!isTransferPipelined()) {
+            return action.getAsBoolean();
+        }
+
+        TransferGroup group = startTransferGroup();
+        if (!action.getAsBoolean()) {
+            group.failed();
+        }
+        finishTransferGroup(group, complete -> {
+            // The file has been returned while its files were being transferred
+            if (deferredFiles.remove(file)) {
+                fileProcessed(file, complete);
+            }
+            return complete;
+        });
+
+        // Pipelined transfers must be over before the job completes
+        if (last) {
+            waitForTransfers();
+        }
+
+        if (group.result == null) {
+            deferredFiles.add(file);
+            return true;
+        }
+        return group.result;
+    }
+
+    /**
+     * Overrides {@link FileJob#fileProcessed(AbstractFile, boolean)} to ignore the files returned by
+     * {@link #processTopLevelFile(AbstractFile, BooleanSupplier)} while their transfers are still in progress: they
+     * are reported once their transfers are over.
+     */
+    @Override
+    protected void fileProcessed(AbstractFile file, boolean success) {
+        if (!deferredFiles.contains(file)) {
+            super.fileProcessed(file, success);
+        }
+    }
+
+    /**
+     * Starts a group holding the files submitted from now on, typically the files of a folder, until the group is
+     * finished with {@link #finishTransferGroup(TransferGroup, TransferGroupListener)}. Groups are nested: a group
+     * started while another one is open is part of it.
+     *
+     * @return the new group
+     */
+    protected TransferGroup startTransferGroup() {
+        TransferGroup group = new TransferGroup(currentTransferGroup);
+        if (group.parent != null) {
+            group.parent.pending++;
+        }
+        currentTransferGroup = group;
+        return group;
+    }
+
+    /**
+     * Closes a group started by {@link #startTransferGroup()}, files submitted afterwards belong to the enclosing
+     * group. The listener is notified in the job thread once all files of the group and of its sub-groups have been
+     * processed: right away if none of them is still being transferred, otherwise when the last one is collected,
+     * e.g. to set the date of a folder after its files have been written.
+     *
+     * @param group the group to close, the last one started
+     * @param listener notified when the files of the group have been processed
+     * @return the result of the listener if it has been notified, <code>true</code> if files of the group are still
+     * being transferred
+     */
+    protected boolean finishTransferGroup(TransferGroup group, TransferGroupListener listener) {
+        currentTransferGroup = group.parent;
+        group.listener = listener;
+        group.closed = true;
+        return group.pending > 0 || completeGroup(group, false);
+    }
+
+    /**
+     * Notifies the listener of a group whose files have all been processed, and its parent group if it was waiting
+     * for this one.
+     *
+     * @param deferred <code>true</code> if the group is completed after it has been closed, by a collected transfer
+     * @return the result of the listener
+     */
+    private boolean completeGroup(TransferGroup group, boolean deferred) {
+        boolean success = group.listener.groupFinished(group.complete);
+        group.result = success;
+        TransferGroup parent = group.parent;
+        if (parent != null) {
+            if (!success) {
+                parent.failed();
+            }
+            parent.pending--;
+            if (parent.closed && parent.pending == 0) {
+                completeGroup(parent, true);
+            }
+        } else if (deferred && !success) {
+            transfersFailed = true;
+        }
+        return success;
+    }
+
+    private void startTransfer(final Transfer transfer) {
+        pendingTransfers++;
+        transferExecutor.execute(() -> {
+            workerTransfer.set(transfer);
+            try {
+                if (getState() != State.INTERRUPTED && !transfer.skipped) {
+                    if (transfer.overwriteReadonly) {
+                        copyToReadonlyFile(transfer.sourceFile, transfer.destFile, transfer.append);
+                    } else {
+                        copyFile(transfer.sourceFile, transfer.destFile, transfer.append);
+                    }
+                    transfer.copied = true;
+                }
+            } catch (FileTransferException e) {
+                transfer.error = e;
+            } catch (RuntimeException e) {
+                LOGGER.warn("Transfer of " + transfer.sourceFile + " failed", e);
+                transfer.error = new FileTransferException(FileTransferException.UNKNOWN_REASON);
+            } finally {
+                workerTransfer.remove();
+                finishedTransfers.add(transfer);
+            }
+        });
+    }
+
+    /**
+     * Handles a transfer finished by a worker thread: asks the user what to do if it failed, accounts its bytes in
+     * the totals and notifies its listener. Called by the job thread only.
+     */
+    private void collectTransfer(Transfer transfer) {
+        pendingTransfers--;
+        // Errors caused by the user interrupting the job or skipping the file are not reported
+        if (transfer.error != null && getState() != State.INTERRUPTED && !transfer.skipped) {
+            LOGGER.debug("Copy failed", transfer.error);
+
+            int choice = showTransferErrorDialog(transfer.error, transfer.sourceFile, transfer.destFile, transfer.errorDialogTitle);
+            if (isRetryChoice(choice)) {
+                transfer.byteCounter.reset();
+                transfer.skippedByteCounter.reset();
+                transfer.append = choice == APPEND_ACTION;
+                transfer.overwriteReadonly = choice == OVERWRITE_READONLY_ACTION || choice == OVERWRITE_READONLY_ALL_ACTION;
+                transfer.error = null;
+                startTransfer(transfer);
+                return;
+            }
+        }
+
+        totalByteCounter.add(transfer.byteCounter, true);
+        totalSkippedByteCounter.add(transfer.skippedByteCounter, true);
+        activeTransfers.remove(transfer);
+
+        boolean success = transfer.copied && transfer.error == null;
+        if (transfer.listener != null) {
+            success = transfer.listener.transferFinished(transfer.sourceFile, success);
+        }
+        TransferGroup group = transfer.group;
+        if (group == null) {
+            if (!success) {
+                transfersFailed = true;
+            }
+            return;
+        }
+        if (!success) {
+            group.failed();
+        }
+        group.pending--;
+        if (group.closed && group.pending == 0) {
+            completeGroup(group, true);
+        }
+    }
+
+    /**
+     * Returns the counter of the bytes processed in the file transferred by the current thread.
+     */
+    private ByteCounter getFileByteCounter() {
+        Transfer transfer = workerTransfer.get();
+        return transfer == null ? currentFileByteCounter : transfer.byteCounter;
+    }
+
+    /**
+     * Returns the counter of the bytes skipped in the file transferred by the current thread.
+     */
+    private ByteCounter getFileSkippedByteCounter() {
+        Transfer transfer = workerTransfer.get();
+        return transfer == null ? currentFileSkippedByteCounter : transfer.skippedByteCounter;
+    }
+
+    private void setCheckingIntegrity(boolean checkingIntegrity) {
+        // The status reflects the file processed by the job thread
+        if (workerTransfer.get() == null) {
+            isCheckingIntegrity = checkingIntegrity;
+        }
+    }
+
+    /**
+     * Returns the throughput limit of a pipelined transfer: the job's limit is shared by the worker threads.
+     */
+    private long getTransferThroughputLimit() {
+        return throughputLimit <= 0 ? -1 : Math.max(1, throughputLimit / transferConcurrency);
+    }
+
 
     /**
      * Registers the given InputStream as currently in use, in order to:
@@ -384,6 +887,17 @@ public abstract class TransferFileJob extends FileJob {
      * @return the 'augmented' InputStream using the given stream as the underlying InputStream
      */
     protected synchronized InputStream setCurrentInputStream(InputStream in) {
+        Transfer transfer = workerTransfer.get();
+        if (transfer != null) {
+            transfer.tlin = new ThroughputLimitInputStream(new CounterInputStream(in, transfer.byteCounter),
+                    transfersPaused ? 0 : getTransferThroughputLimit());
+            // Interrupt the transfer right away if the job was stopped or the file skipped in the meantime
+            if (getState() == State.INTERRUPTED || transfer.skipped) {
+                transfer.close();
+            }
+            return transfer.tlin;
+        }
+
         if(tlin==null) {
             tlin = new ThroughputLimitInputStream(new CounterInputStream(in, currentFileByteCounter), throughputLimit);
         } else {
@@ -397,6 +911,12 @@ public abstract class TransferFileJob extends FileJob {
      * Closes the currently registered source InputStream.
      */
     protected synchronized void closeCurrentInputStream() {
+        Transfer transfer = workerTransfer.get();
+        if (transfer != null) {
+            transfer.close();
+            return;
+        }
+
         if (tlin != null) {
             try {
                 tlin.close();
@@ -427,6 +947,26 @@ public abstract class TransferFileJob extends FileJob {
         this.integrityCheckEnabled = integrityCheckEnabled;
     }
 
+    /**
+     * Returns <code>true</code> if source files are read ahead in a background thread while the destination files
+     * are written, so that reads and writes overlap. Enabled by default.
+     *
+     * @return true if source files are read ahead
+     * @see #isReadAheadUsed(InputStream, AbstractFile)
+     */
+    public boolean isReadAheadEnabled() {
+        return readAheadEnabled;
+    }
+
+    /**
+     * Specifies if source files are read ahead in a background thread while the destination files are written.
+     *
+     * @param readAheadEnabled true to read source files ahead
+     */
+    public void setReadAheadEnabled(boolean readAheadEnabled) {
+        this.readAheadEnabled = readAheadEnabled;
+    }
+
     /**
      * Returns <code>true</code> if the integrity of the current file is being verified.
      *
@@ -438,9 +978,18 @@ public abstract class TransferFileJob extends FileJob {
 
 
     /**
-     * Interrupts the current file transfer and advance to the next one.
+     * Interrupts the current file transfer and advance to the next one. If transfers are pipelined, only the transfer
+     * of the file being processed by the job thread is skipped, the other files keep being transferred.
      */
     public synchronized void skipCurrentFile() {
+        AbstractFile currentFile = getCurrentFile();
+        for (Transfer transfer : activeTransfers) {
+            if (transfer.sourceFile == currentFile) {
+                transfer.skipped = true;
+                transfer.close();
+            }
+        }
+
         if (tlin != null) {
             LOGGER.debug("skipping current file, closing "+ tlin);
 
@@ -545,9 +1094,12 @@ public abstract class TransferFileJob extends FileJob {
         synchronized(this) {
             if (getState() != State.PAUSED && tlin != null) {
                 tlin.setThroughputLimit(throughputLimit);
+            }
+            if (!transfersPaused) {
+                setTransfersThroughputLimit(getTransferThroughputLimit());
+            }
         }
     }
-    }
 
     /**
      * Returns the current transfer throughput limit, in bytes per second. <code>0</code> or <code>-1</code> means that
@@ -577,10 +1129,30 @@ public abstract class TransferFileJob extends FileJob {
 
                 closeCurrentInputStream();
             }
+
+            // Interrupt pipelined transfers, queued ones are dropped by the workers
+            for (Transfer transfer : activeTransfers) {
+                transfer.close();
+            }
+            if (transferExecutor != null) {
+                transferExecutor.shutdown();
+            }
         }
     }
 
 
+    /**
+     * Overrides {@link FileJob#jobInterrupted()} to wait for the pipelined transfers, which have been interrupted by
+     * {@link #jobStopped()}: files transferred before the interruption are collected and their groups are notified.
+     */
+    @Override
+    protected void jobInterrupted() {
+        super.jobInterrupted();
+
+        waitForTransfers();
+    }
+
+
     /**
      * Overrides {@link FileJob#jobPaused()} to pause any file processing
      * by having the source InputStream's read methods lock.
@@ -592,6 +1164,9 @@ public abstract class TransferFileJob extends FileJob {
         synchronized(this) {
             if(tlin !=null)
                 tlin.setThroughputLimit(0);
+
+            transfersPaused = true;
+            setTransfersThroughputLimit(0);
         }
     }
 
@@ -608,8 +1183,19 @@ public abstract class TransferFileJob extends FileJob {
             // Restore previous throughput limit (if any, -1 by default)
             if (tlin != null) {
                 tlin.setThroughputLimit(throughputLimit);
+            }
+
+            transfersPaused = false;
+            setTransfersThroughputLimit(getTransferThroughputLimit());
         }
     }
+
+    private void setTransfersThroughputLimit(long bytesPerSecond) {
+        for (Transfer transfer : activeTransfers) {
+            if (transfer.tlin != null) {
+                transfer.tlin.setThroughputLimit(bytesPerSecond);
+            }
+        }
     }
 
 
@@ -661,6 +1247,97 @@ public abstract class TransferFileJob extends FileJob {
         return super.getStatusString();
     }
 
+
+    /**
+     * A file transferred by a worker thread.
+     */
+    private static class Transfer {
+        final AbstractFile sourceFile;
+        final AbstractFile destFile;
+        final String errorDialogTitle;
+        final TransferListener listener;
+        final TransferGroup group;
+        final ByteCounter byteCounter = new ByteCounter();
+        final ByteCounter skippedByteCounter = new ByteCounter();
+        boolean append;
+        boolean overwriteReadonly;
+        /** Stream of the transfer, guarded by the job */
+        ThroughputLimitInputStream tlin;
+        volatile boolean skipped;
+        volatile boolean copied;
+        volatile FileTransferException error;
+
+        Transfer(AbstractFile sourceFile, AbstractFile destFile, boolean append, String errorDialogTitle, TransferListener listener, TransferGroup group) {
+            this.sourceFile = sourceFile;
+            this.destFile = destFile;
+            this.append = append;
+            this.errorDialogTitle = errorDialogTitle;
+            this.listener = listener;
+            this.group = group;
+        }
+
+        void close() {
+            if (tlin != null) {
+                try {
+                    tlin.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to close " + tlin, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Files submitted between {@link #startTransferGroup()} and
+     * {@link #finishTransferGroup(TransferGroup, TransferGroupListener)}, e.g. the files of a folder. The group is
+     * complete once it has been closed and all its files and sub-groups have been processed. Accessed by the job
+     * thread only.
+     */
+    protected static final class TransferGroup {
+        private final TransferGroup parent;
+        private TransferGroupListener listener;
+        /** Number of transfers and sub-groups of this group which are not over */
+        private int pending;
+        /** True once the group has been closed by finishTransferGroup() */
+        private boolean closed;
+        /** False if a file of this group couldn't be processed */
+        private boolean complete = true;
+        /** Result of the listener, <code>null</code> until the group is over */
+        private Boolean result;
+
+        private TransferGroup(TransferGroup parent) {
+            this.parent = parent;
+        }
+
+        /**
+         * Marks this group as failed, e.g. when one of its files couldn't be processed by the job thread.
+         */
+        public void failed() {
+            complete = false;
+        }
+    }
+
+    /**
+     * Adds the byte counts of the transfers in progress to the count of the file processed by the job thread.
+     */
+    private class TransfersByteCounter extends ByteCounter {
+        private final boolean skipped;
+
+        TransfersByteCounter(ByteCounter currentFileCounter, boolean skipped) {
+            super(currentFileCounter);
+            this.skipped = skipped;
+        }
+
+        @Override
+        public long getByteCount() {
+            long count = super.getByteCount();
+            for (Transfer transfer : activeTransfers) {
+                count += (skipped ? transfer.skippedByteCounter : transfer.byteCounter).getByteCount();
+            }
+            return count;
+        }
+    }
+
 //    /**
 //     * Method overridden to return a more accurate percentage of job processed so far by taking
 //     * into account the current file's processed percentage.
@@ -23,6 +23,7 @@ import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.impl.ProxyFile;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.commons.file.util.PathUtils;
+import com.mucommander.commons.io.StreamUtils;
 import com.mucommander.text.Translator;
 import com.mucommander.ui.action.ActionManager;
 import com.mucommander.ui.action.impl.UnmarkAllAction;
@@ -32,7 +33,9 @@ import com.mucommander.ui.main.MainFrame;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -40,6 +43,16 @@ import java.util.List;
  * order using {@link com.mucommander.commons.file.AbstractArchiveFile#getEntryIterator()}, to traverse the archive only once
  * and achieve optimal performance.
  *
+ * <p>Entries of archives that can be read concurrently (see {@link AbstractArchiveFile#isConcurrentEntryReadSupported()})
+ * are extracted by several worker threads: the job thread still traverses the archive, creates the folders and asks
+ * the user about collisions in the entries' order, then submits the files to the workers. Other archives, like TAR
+ * or GZip ones which must be decompressed sequentially, are extracted by the job thread.</p>
+ *
+ * <p>Archives which compress several entries as a single block (see
+ * {@link AbstractArchiveFile#isBatchExtractionSupported()}) are traversed first to create the folders and resolve
+ * collisions, their files being then extracted all at once with
+ * {@link AbstractArchiveFile#extractEntries(List, ArchiveEntryHandler)}, so that each block is decompressed only once.</p>
+ *
  * @author Maxence Bernard
  */
 public class UnpackJob extends AbstractCopyJob {
@@ -50,6 +63,9 @@ public class UnpackJob extends AbstractCopyJob {
     /** Depth of the folder in which the top entries are located. 0 is the highest depth (archive's root folder) */
     protected int baseArchiveDepth;
 
+    /** Maximum number of entries extracted at the same time */
+    private final static int MAX_UNPACK_CONCURRENCY = 4;
+
     private long totalFilesSize;
     private int totalFilesCount;
 
@@ -74,6 +90,8 @@ public class UnpackJob extends AbstractCopyJob {
 
         this.errorDialogTitle = Translator.get("unpack_dialog.error_title");
         this.baseArchiveDepth = 0;
+
+        setTransferConcurrency(getDefaultUnpackConcurrency(destFolder));
     }
 
     /**
@@ -95,6 +113,24 @@ public class UnpackJob extends AbstractCopyJob {
         this.errorDialogTitle = Translator.get("unpack_dialog.error_title");
         this.baseArchiveDepth = baseArchiveDepth;
         this.selectedEntries = selectedEntries;
+
+        setTransferConcurrency(getDefaultUnpackConcurrency(destFolder));
+    }
+
+
+    /**
+     * Returns the number of entries to extract at the same time to the given folder, when the archive allows it:
+     * one per processor, up to {@link #MAX_UNPACK_CONCURRENCY}. Entries are extracted one at a time to a folder
+     * located inside an archive, as archive entries cannot be written concurrently.
+     *
+     * @param destFolder the base destination folder
+     * @return the number of entries to extract at the same time
+     */
+    private static int getDefaultUnpackConcurrency(AbstractFile destFolder) {
+        if (destFolder.getParentArchive() != null) {
+            return 1;
+        }
+        return Math.min(MAX_UNPACK_CONCURRENCY, Runtime.getRuntime().availableProcessors());
     }
 
 
@@ -184,6 +220,14 @@ public class UnpackJob extends AbstractCopyJob {
         AbstractArchiveFile archiveFile = file.getAncestor(AbstractArchiveFile.class);
         ArchiveEntryIterator iterator = null;
 
+        // Extract files using worker threads if the archive allows it, each of them reading its own entry stream
+        boolean parallel = isTransferPipelined() && archiveFile.isConcurrentEntryReadSupported();
+
+        // Otherwise, files are extracted in a single pass once all entries have been traversed, if the archive allows it
+        boolean batch = !parallel && archiveFile.isBatchExtractionSupported();
+        List<ArchiveEntry> batchEntries = new ArrayList<>();
+        Map<String, AbstractFile> batchDestFiles = new HashMap<>();
+
 
         // calculate total size and files count
         calculateTotalSize(archiveFile);
@@ -234,8 +278,11 @@ public class UnpackJob extends AbstractCopyJob {
                     continue;
                 }
 
-                processedFilesCount++;
-                processedFilesSize += entry.getSize();
+                // Files extracted in a single pass are accounted for when they are extracted
+                if (!batch || entry.isDirectory()) {
+                    processedFilesCount++;
+                    processedFilesSize += entry.getSize();
+                }
 
                 // Resolve the entry file
                 entryFile = archiveFile.getArchiveEntryFile(entryPath);
@@ -271,6 +318,10 @@ System.out.println(file.getAbsolutePath() + " -> " + file.getCanonicalPath());
                 destFile = checkForCollision(entryFile, destFolder, destFile, false);
                 if (destFile == null) {
                     // A collision occurred and either the file was skipped, or the user cancelled the job
+                    if (batch && !entry.isDirectory()) {
+                        processedFilesCount++;
+                        processedFilesSize += entry.getSize();
+                    }
                     continue;
                 }
 
@@ -311,20 +362,37 @@ System.out.println(file.getAbsolutePath() + " -> " + file.getCanonicalPath());
                         destParentFile.mkdirs();
                     }
 
+                    if (parallel) {
+                        // The iterator is not passed: it is used by the job thread while workers read entries
+                        submitTransfer(new ProxiedEntryFile(entryFile, entry, archiveFile, (ArchiveEntryIterator)null), destFile, append, errorDialogTitle, null);
+                    }
+                    else if (batch) {
+                        batchEntries.add(entry);
+                        batchDestFiles.put(entry.getPath(), destFile);
+                    }
                     // The entry is wrapped in a ProxyFile to override #getInputStream() and delegate it to
                     // ArchiveFile#getEntryInputStream in order to take advantage of the ArchiveEntryIterator, which for
                     // some archive file implementations (such as TAR) can speed things by an order of magnitude.
-                    if (!tryCopyFile(new ProxiedEntryFile(entryFile, entry, archiveFile, iterator), destFile, append, errorDialogTitle)) {
+                    else if (!tryCopyFile(new ProxiedEntryFile(entryFile, entry, archiveFile, iterator), destFile, append, errorDialogTitle)) {
                         // !!! we don't need to break the process in this case
 //                        return false;
                     }
                 }
             }
 
+            if (!batchEntries.isEmpty() && getState() != State.INTERRUPTED) {
+                extractBatch(archiveFile, batchEntries, batchDestFiles, errorDialogTitle);
+            }
+
             return true;
         } catch (IOException e) {
             showErrorDialog(errorDialogTitle, Translator.get("cannot_read_file", archiveFile.getName()));
         } finally {
+            // Wait for the files being extracted by worker threads
+            if (parallel) {
+                waitForTransfers();
+            }
+
             // The ArchiveEntryIterator must be closed when finished
             if (iterator != null) {
                 try {
@@ -338,6 +406,32 @@ System.out.println(file.getAbsolutePath() + " -> " + file.getCanonicalPath());
         return false;
     }
 
+    /**
+     * Extracts the given file entries in a single pass over the archive, copying each of them to its destination file.
+     *
+     * @param archiveFile the archive containing the entries
+     * @param entries the file entries to extract
+     * @param destFiles the destination file of each entry, by entry path
+     * @param errorDialogTitle title of the dialog shown if an entry could not be copied
+     * @throws IOException if an error occurred while reading the archive
+     */
+    private void extractBatch(final AbstractArchiveFile archiveFile, List<ArchiveEntry> entries, final Map<String, AbstractFile> destFiles, final String errorDialogTitle) throws IOException {
+        archiveFile.extractEntries(entries, (entry, in) -> {
+            if (getState() == State.INTERRUPTED) {
+                return false;
+            }
+
+            processedFilesCount++;
+            processedFilesSize += entry.getSize();
+
+            AbstractFile entryFile = archiveFile.getArchiveEntryFile(entry.getPath());
+            nextFile(entryFile);
+            tryCopyFile(new ProxiedEntryFile(entryFile, entry, archiveFile, in), destFiles.get(entry.getPath()), append, errorDialogTitle);
+
+            return getState() != State.INTERRUPTED;
+        });
+    }
+
     // This job modifies the base destination folder and its subfolders
     @Override
     protected boolean hasFolderChanged(AbstractFile folder) {
@@ -463,6 +557,8 @@ System.out.println(file.getAbsolutePath() + " -> " + file.getCanonicalPath());
         private ArchiveEntry entry;
         private AbstractArchiveFile archiveFile;
         private ArchiveEntryIterator iterator;
+        /** Contents of the entry already being extracted, <code>null</code> if none or once it has been returned */
+        private InputStream in;
 
         public ProxiedEntryFile(AbstractFile entryFile, ArchiveEntry entry, AbstractArchiveFile archiveFile, ArchiveEntryIterator iterator) {
             super(entryFile);
@@ -472,9 +568,28 @@ System.out.println(file.getAbsolutePath() + " -> " + file.getCanonicalPath());
             this.iterator = iterator;
         }
 
+        public ProxiedEntryFile(AbstractFile entryFile, ArchiveEntry entry, AbstractArchiveFile archiveFile, InputStream in) {
+            this(entryFile, entry, archiveFile, (ArchiveEntryIterator)null);
+
+            this.in = in;
+        }
+
         @Override
         public InputStream getInputStream() throws IOException {
+            // The stream being extracted can only be read once, the entry is read again if the transfer is retried
+            if (in != null) {
+                InputStream stream = in;
+                in = null;
+                return stream;
+            }
             return archiveFile.getEntryInputStream(entry, iterator);
         }
+
+        @Override
+        public InputStream getInputStream(long offset) throws IOException {
+            InputStream stream = getInputStream();
+            StreamUtils.skipFully(stream, offset);
+            return stream;
+        }
     }
 }
@@ -0,0 +1,214 @@
+package com.mucommander.search;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.io.BinaryDetector;
+import com.mucommander.commons.io.BoundedReader;
+import com.mucommander.commons.io.EncodingDetector;
+import com.mucommander.commons.io.bom.BOMInputStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexes the text content of files on a bounded pool of worker threads.
+ * <p>
+ * Files are detected as text with {@link BinaryDetector}, decoded with the encoding guessed by
+ * {@link EncodingDetector} and streamed into the index, only the first {@link #MAX_INDEXED_CHARACTERS} characters
+ * of a file are indexed. The work queue is bounded: when it is full, the thread submitting a file extracts it itself,
+ * which slows down the folder walk to the pace of the workers.
+ * </p>
+ */
+class ContentExtractor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentExtractor.class);
+
+    /** Maximum number of characters indexed per file */
+    static final long MAX_INDEXED_CHARACTERS = 4 * 1024 * 1024;
+
+    /** Files larger than this are not read at all */
+    static final long MAX_FILE_SIZE = 64 * 1024 * 1024;
+
+    private static final int DETECTION_BYTES = Math.max(BinaryDetector.RECOMMENDED_BYTE_SIZE, EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE);
+
+    private final IndexWriter writer;
+    private final ThreadPoolExecutor executor;
+
+    /** Number of submitted files not indexed yet, guarded by this */
+    private int pending;
+    /** First error raised by a worker, rethrown by {@link #awaitCompletion()} */
+    private IOException error;
+
+    ContentExtractor(IndexWriter writer, int threads) {
+        this.writer = writer;
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Indexes the given document with the content of the file, replacing the document with the same path.
+     *
+     * @param file the file to extract the content of
+     * @param path the indexed path of the file
+     * @param doc the document holding the other fields of the file
+     */
+    void submit(final AbstractFile file, final String path, final Document doc) {
+        synchronized (this) {
+            pending++;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    index(file, path, doc);
+                } catch (IOException e) {
+                    synchronized (ContentExtractor.this) {
+                        if (error == null) {
+                            error = e;
+                        }
+                    }
+                } finally {
+                    synchronized (ContentExtractor.this) {
+                        pending--;
+                        ContentExtractor.this.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until all submitted files have been indexed.
+     *
+     * @throws IOException if a document couldn't be written to the index
+     */
+    synchronized void awaitCompletion() throws IOException {
+        while (pending > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (error != null) {
+            IOException e = error;
+            error = null;
+            throw e;
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private void index(AbstractFile file, String path, Document doc) throws IOException {
+        ReadErrorTracker reader = null;
+        try {
+            Reader text = openText(file);
+            if (text != null) {
+                reader = new ReadErrorTracker(text);
+            }
+        } catch (Exception e) {
+            // Unreadable files are indexed without content
+            LOGGER.debug("Cannot read content of " + path, e);
+        }
+        try {
+            if (reader != null) {
+                doc.add(new TextField(SearchFields.CONTENT, reader));
+            }
+            try {
+                writer.updateDocument(new Term(SearchFields.PATH, path), doc);
+            } catch (IOException e) {
+                if (reader == null || reader.error == null) {
+                    throw e;
+                }
+                // The file couldn't be read while it was being indexed: the writer has dropped the document,
+                // index it again without content
+                LOGGER.debug("Cannot read content of " + path, reader.error);
+                doc.removeFields(SearchFields.CONTENT);
+                writer.updateDocument(new Term(SearchFields.PATH, path), doc);
+            }
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing to do here
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a reader on the text content of a file.
+     *
+     * @return the reader, <code>null</code> if the file is too large or contains binary data
+     */
+    private static Reader openText(AbstractFile file) throws IOException {
+        if (file.getSize() > MAX_FILE_SIZE) {
+            return null;
+        }
+        PushbackInputStream in = new PushbackInputStream(file.getInputStream(), DETECTION_BYTES);
+        try {
+            if (BinaryDetector.guessBinary(in)) {
+                in.close();
+                return null;
+            }
+            String encoding = EncodingDetector.detectEncoding(in);
+            if (encoding == null || !Charset.isSupported(encoding)) {
+                encoding = "UTF-8";
+            }
+            // Filter out the byte-order mark of UTF encoded files
+            Reader reader = new InputStreamReader(encoding.toLowerCase().startsWith("utf") ? new BOMInputStream(in) : in, encoding);
+            return new BoundedReader(new BufferedReader(reader), MAX_INDEXED_CHARACTERS);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reader remembering the error it has thrown, to tell errors reading a file from errors writing the index.
+     */
+    private static class ReadErrorTracker extends FilterReader {
+        private IOException error;
+
+        ReadErrorTracker(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                error = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            try {
+                return super.read(cbuf, off, len);
+            } catch (IOException e) {
+                error = e;
+                throw e;
+            }
+        }
+    }
+}
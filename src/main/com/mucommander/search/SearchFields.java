@@ -8,4 +8,15 @@ package com.mucommander.search;
 public class SearchFields {
     public static final String PATH = "path";
     public static final String FILE_NAME = "file_name";
+    /** Absolute path of the parent folder, used to list the indexed children of a folder */
+    public static final String PARENT = "parent";
+    /** <code>1</code> for folders the indexer descends into, <code>0</code> for other files */
+    public static final String DIRECTORY = "directory";
+    /** Date of a file, or for folders the date the folder had when its children were indexed */
+    public static final String DATE = "date";
+    public static final String SIZE = "size";
+    /** Tokenized text content of a file, not stored */
+    public static final String CONTENT = "content";
+    /** <code>1</code> if the content of a file, or of all files of a folder, has been indexed */
+    public static final String CONTENT_INDEXED = "content_indexed";
 }
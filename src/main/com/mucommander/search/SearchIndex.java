@@ -0,0 +1,496 @@
+package com.mucommander.search;
+
+import com.mucommander.PlatformManager;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent file name index shared by all searches.
+ * <p>
+ * The index is opened once and kept open with a single {@link IndexWriter}, searches use near-real-time searchers
+ * provided by a {@link SearcherManager}. Every indexed folder stores the date it had when its children were indexed,
+ * so {@link #update(AbstractFile, Future, boolean)} lists only the folders which have changed since the previous update
+ * and gets the sub-folders of unchanged folders from the index itself. When the content of files is indexed, a file
+ * edited in place doesn't change the date of its folder: folders are then listed even when their own date hasn't
+ * changed, and only the files whose date or size has changed are indexed again. Removed files are deleted in batches.
+ * </p>
+ * <p>
+ * Updates run one at a time on a background thread, see {@link #scheduleUpdate(AbstractFile, boolean)}. An update
+ * keeps running when the search which requested it is cancelled, so that the next search finds the index up to date.
+ * </p>
+ * <p>
+ * Optionally, the text content of files (including archive entries, as the indexer descends into archives) is
+ * indexed by a {@link ContentExtractor}, so that files containing some text can be searched in the index.
+ * </p>
+ */
+public class SearchIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndex.class);
+
+    /** Number of pending deletions sent to the writer at once */
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    /** Number of listed folders after which the changes are committed and made visible to searches */
+    private static final int COMMIT_INTERVAL = 5000;
+
+    /** Date stored for folders which have been indexed as a child but whose children haven't been indexed yet */
+    private static final long NOT_LISTED = -1;
+
+    private static final String TRUE = "1";
+    private static final String FALSE = "0";
+
+    private static SearchIndex instance;
+
+    private final Directory dir;
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+    private final ContentExtractor contentExtractor;
+
+    /** Deletions waiting to be sent to the writer, guarded by itself */
+    private final List<Query> pendingDeletes = new ArrayList<>();
+
+    /** Serializes index updates, several searches may run at the same time */
+    private final Object updateLock = new Object();
+
+    /** Runs the scheduled updates, one at a time */
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Search indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Scheduled updates which haven't completed yet, by path of their folder, guarded by itself */
+    private final Map<String, ScheduledUpdate> scheduledUpdates = new HashMap<>();
+
+    /**
+     * Opens the index stored in the given folder, creating it if needed.
+     *
+     * @param indexPath the folder of the index
+     * @throws IOException if the index couldn't be opened
+     */
+    SearchIndex(File indexPath) throws IOException {
+        if (!indexPath.exists()) {
+            indexPath.mkdir();
+        }
+        dir = FSDirectory.open(indexPath);
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_43, new StandardAnalyzer(Version.LUCENE_43));
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        writer = new IndexWriter(dir, iwc);
+        try {
+            searcherManager = new SearcherManager(writer, true, null);
+        } catch (IOException e) {
+            writer.close();
+            throw e;
+        }
+        contentExtractor = new ContentExtractor(writer, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the shared index, opening it the first time.
+     *
+     * @return the shared index
+     * @throws IOException if the index couldn't be opened
+     */
+    public static synchronized SearchIndex getInstance() throws IOException {
+        if (instance == null) {
+            instance = new SearchIndex(new File(PlatformManager.getPreferencesFolder().getAbsolutePath(), "index"));
+        }
+        return instance;
+    }
+
+    /**
+     * Commits pending changes and closes the shared index if it has been opened.
+     *
+     * @throws IOException if the index couldn't be written
+     */
+    public static synchronized void closeInstance() throws IOException {
+        if (instance == null) {
+            return;
+        }
+        SearchIndex index = instance;
+        instance = null;
+        index.close();
+    }
+
+    /**
+     * Stops the scheduled updates, commits pending changes and closes this index.
+     *
+     * @throws IOException if the index couldn't be written
+     */
+    void close() throws IOException {
+        synchronized (scheduledUpdates) {
+            // A running update stops after the folder it is indexing
+            for (ScheduledUpdate update : scheduledUpdates.values()) {
+                update.future.cancel(false);
+            }
+        }
+        indexer.shutdown();
+        try {
+            indexer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            contentExtractor.awaitCompletion();
+            contentExtractor.shutdown();
+            flushDeletes();
+            searcherManager.close();
+            writer.close();
+        } finally {
+            dir.close();
+        }
+    }
+
+    /**
+     * Searches files whose name matches the given wildcard pattern in the given folder, and optionally which contain
+     * the given text. Found files which don't exist anymore are removed from the index.
+     *
+     * @param targetFolder the folder to search
+     * @param searchString wildcard pattern for the file name
+     * @param content text the files must contain, <code>null</code> or empty to ignore the content
+     * @param maxHits maximum number of files to return
+     * @return absolute paths of the found files
+     * @throws IOException if the index couldn't be read
+     */
+    public List<String> search(String targetFolder, String searchString, String content, int maxHits) throws IOException {
+        searcherManager.maybeRefresh();
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            BooleanQuery query = new BooleanQuery();
+            query.add(new WildcardQuery(new Term(SearchFields.FILE_NAME, searchString)), BooleanClause.Occur.MUST);
+            query.add(new PrefixQuery(new Term(SearchFields.PATH, targetFolder)), BooleanClause.Occur.MUST);
+            if (content != null && !content.trim().isEmpty()) {
+                query.add(createContentQuery(content), BooleanClause.Occur.MUST);
+            }
+
+            ScoreDoc[] hits = searcher.search(query, maxHits).scoreDocs;
+            List<String> result = new ArrayList<>(hits.length);
+            for (ScoreDoc hit : hits) {
+                Document hitDoc = searcher.doc(hit.doc);
+                String path = hitDoc.get(SearchFields.PATH);
+                AbstractFile file = FileFactory.getFile(path);
+                if (file != null && file.exists()) {
+                    result.add(path);
+                } else {
+                    delete(path, isDirectory(hitDoc), file == null ? null : file.getSeparator());
+                }
+            }
+            return result;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Returns a query matching files which contain the given text as a phrase.
+     */
+    private static Query createContentQuery(String content) throws IOException {
+        QueryParser parser = new QueryParser(Version.LUCENE_43, SearchFields.CONTENT, new StandardAnalyzer(Version.LUCENE_43));
+        try {
+            return parser.parse('"' + QueryParser.escape(content.trim()) + '"');
+        } catch (ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Schedules an update of the index of the given folder on the background thread of this index. If an update of
+     * the same folder which indexes at least the same information is already scheduled or running, it is returned
+     * instead of scheduling a new one.
+     *
+     * @param folder the folder to index
+     * @param indexContent <code>true</code> to index the text content of files
+     * @return the update, whose result is the number of folders which have been listed
+     * @see #update(AbstractFile, Future, boolean)
+     */
+    public Future<Integer> scheduleUpdate(AbstractFile folder, boolean indexContent) {
+        String path = folder.getAbsolutePath();
+        synchronized (scheduledUpdates) {
+            ScheduledUpdate update = scheduledUpdates.get(path);
+            if (update != null && !update.future.isDone() && (update.indexContent || !indexContent)) {
+                return update.future;
+            }
+            update = new ScheduledUpdate(folder, indexContent);
+            scheduledUpdates.put(path, update);
+            indexer.execute(update.future);
+            return update.future;
+        }
+    }
+
+    /**
+     * Brings the index of the given folder up to date. Only folders whose date has changed since they were last
+     * indexed are listed, or when the content is indexed, all folders but only the files which have changed since
+     * they were last indexed are written.
+     *
+     * @param folder the folder to index
+     * @param task the task performing the update, the update stops as soon as it is cancelled
+     * @param indexContent <code>true</code> to index the text content of files
+     * @return the number of folders which have been listed
+     * @throws IOException if the index couldn't be written
+     */
+    public int update(AbstractFile folder, Future<?> task, boolean indexContent) throws IOException {
+        synchronized (updateLock) {
+            searcherManager.maybeRefresh();
+            // Snapshot of the index before the update: documents written by this update are never read back
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                Deque<AbstractFile> folders = new LinkedList<>();
+                folders.add(folder);
+                int listed = 0;
+                while (!folders.isEmpty() && !task.isCancelled()) {
+                    if (updateFolder(searcher, folders.pollLast(), folders, indexContent) && ++listed % COMMIT_INTERVAL == 0) {
+                        commit();
+                    }
+                }
+                commit();
+                return listed;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        }
+    }
+
+    /**
+     * Commits pending changes and makes them visible to searches.
+     *
+     * @throws IOException if the index couldn't be written
+     */
+    public void commit() throws IOException {
+        contentExtractor.awaitCompletion();
+        flushDeletes();
+        writer.commit();
+        searcherManager.maybeRefresh();
+    }
+
+    /**
+     * Indexes the children of a folder which have changed since they were last indexed, and queues its sub-folders.
+     *
+     * @return <code>true</code> if the folder has been listed
+     */
+    private boolean updateFolder(IndexSearcher searcher, AbstractFile folder, Deque<AbstractFile> folders, boolean indexContent) throws IOException {
+        String path = folder.getAbsolutePath();
+        long date = folder.getDate();
+        Map<String, Document> indexedChildren = findChildren(searcher, path);
+        Document indexed = findDocument(searcher, path);
+        if (!indexContent && indexed != null && getLong(indexed, SearchFields.DATE) == date) {
+            // No file has been added or removed, files edited in place don't change the indexed names:
+            // only sub-folders need to be checked
+            for (Document child : indexedChildren.values()) {
+                if (isDirectory(child)) {
+                    AbstractFile subFolder = FileFactory.getFile(child.get(SearchFields.PATH));
+                    if (subFolder != null) {
+                        folders.addLast(subFolder);
+                    }
+                }
+            }
+            return false;
+        }
+        // When the content is indexed, files edited in place have to be checked even if the folder's date is unchanged
+        boolean folderChanged = indexed == null || getLong(indexed, SearchFields.DATE) != date
+                || (indexContent && !isContentIndexed(indexed));
+
+        AbstractFile[] children;
+        try {
+            children = folder.ls();
+        } catch (NullPointerException ignored) {
+            //com.github.junrar.Archive setFile
+            //exception in archive constructor maybe file is encrypted or currupt
+            return false;
+        } catch (IOException ignored) {
+            //broken channel or archive error can occur
+            return false;
+        }
+        for (AbstractFile child : children) {
+            //{@link com.mucommander.commons.file.AbstractArchiveFile#ls} may return itself!
+            if (folder.equals(child)) {
+                continue;
+            }
+            String childPath = child.getAbsolutePath();
+            Document indexedChild = indexedChildren.remove(childPath);
+            if (isTraversable(child)) {
+                // Keep the date of known folders, they are checked on their own
+                if (indexedChild == null || !isDirectory(indexedChild)) {
+                    writer.updateDocument(new Term(SearchFields.PATH, childPath),
+                            createDocument(child, childPath, path, true, NOT_LISTED, false));
+                }
+                folders.addLast(child);
+            } else if (indexedChild == null || isDirectory(indexedChild)
+                    || getLong(indexedChild, SearchFields.DATE) != child.getDate()
+                    || getLong(indexedChild, SearchFields.SIZE) != child.getSize()
+                    || (indexContent && !isContentIndexed(indexedChild))) {
+                Document doc = createDocument(child, childPath, path, false, child.getDate(), indexContent);
+                if (indexContent) {
+                    contentExtractor.submit(child, childPath, doc);
+                } else {
+                    writer.updateDocument(new Term(SearchFields.PATH, childPath), doc);
+                }
+            }
+        }
+        // Files which have disappeared since the last update, along with their content
+        for (Document removed : indexedChildren.values()) {
+            delete(removed.get(SearchFields.PATH), isDirectory(removed), folder.getSeparator());
+        }
+
+        // The folder's date is stored last, an interrupted update lists the folder again next time
+        if (folderChanged) {
+            AbstractFile parent = folder.getParent();
+            writer.updateDocument(new Term(SearchFields.PATH, path),
+                    createDocument(folder, path, parent == null ? "" : parent.getAbsolutePath(), true, date, indexContent));
+        }
+        return true;
+    }
+
+    /**
+     * An update scheduled on the background thread, see {@link #scheduleUpdate(AbstractFile, boolean)}.
+     */
+    private class ScheduledUpdate implements Callable<Integer> {
+        private final AbstractFile folder;
+        private final boolean indexContent;
+        private final FutureTask<Integer> future = new FutureTask<>(this);
+
+        ScheduledUpdate(AbstractFile folder, boolean indexContent) {
+            this.folder = folder;
+            this.indexContent = indexContent;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            try {
+                return update(folder, future, indexContent);
+            } finally {
+                synchronized (scheduledUpdates) {
+                    String path = folder.getAbsolutePath();
+                    if (scheduledUpdates.get(path) == this) {
+                        scheduledUpdates.remove(path);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isTraversable(AbstractFile file) {
+        return file.isBrowsable() && !file.isHidden() && !file.isSymlink();
+    }
+
+    private static boolean isDirectory(Document doc) {
+        return TRUE.equals(doc.get(SearchFields.DIRECTORY));
+    }
+
+    private static boolean isContentIndexed(Document doc) {
+        return TRUE.equals(doc.get(SearchFields.CONTENT_INDEXED));
+    }
+
+    private static long getLong(Document doc, String field) {
+        IndexableField value = doc.getField(field);
+        return value == null || value.numericValue() == null ? Long.MIN_VALUE : value.numericValue().longValue();
+    }
+
+    private static Document createDocument(AbstractFile file, String path, String parentPath, boolean directory, long date, boolean contentIndexed) {
+        // Path fields are indexed (i.e. searchable), but not tokenized into separate words
+        Document doc = new Document();
+        doc.add(new StringField(SearchFields.PATH, path, Field.Store.YES));
+        doc.add(new StringField(SearchFields.FILE_NAME, file.getName(), Field.Store.YES));
+        doc.add(new StringField(SearchFields.PARENT, parentPath, Field.Store.NO));
+        doc.add(new StringField(SearchFields.DIRECTORY, directory ? TRUE : FALSE, Field.Store.YES));
+        doc.add(new LongField(SearchFields.DATE, date, Field.Store.YES));
+        doc.add(new LongField(SearchFields.SIZE, directory ? 0 : file.getSize(), Field.Store.YES));
+        doc.add(new StringField(SearchFields.CONTENT_INDEXED, contentIndexed ? TRUE : FALSE, Field.Store.YES));
+        return doc;
+    }
+
+    private static Document findDocument(IndexSearcher searcher, String path) throws IOException {
+        ScoreDoc[] hits = searcher.search(new TermQuery(new Term(SearchFields.PATH, path)), 1).scoreDocs;
+        return hits.length == 0 ? null : searcher.doc(hits[0].doc);
+    }
+
+    /**
+     * Returns the indexed children of a folder mapped by their path.
+     */
+    private static Map<String, Document> findChildren(IndexSearcher searcher, String path) throws IOException {
+        final List<Integer> docs = new ArrayList<>();
+        searcher.search(new TermQuery(new Term(SearchFields.PARENT, path)), new Collector() {
+            private int docBase;
+
+            @Override
+            public void setScorer(Scorer scorer) {
+            }
+
+            @Override
+            public void collect(int doc) {
+                docs.add(docBase + doc);
+            }
+
+            @Override
+            public void setNextReader(AtomicReaderContext context) {
+                docBase = context.docBase;
+            }
+
+            @Override
+            public boolean acceptsDocsOutOfOrder() {
+                return true;
+            }
+        });
+        Map<String, Document> children = new HashMap<>(docs.size() * 2);
+        for (int doc : docs) {
+            Document child = searcher.doc(doc);
+            children.put(child.get(SearchFields.PATH), child);
+        }
+        return children;
+    }
+
+    /**
+     * Queues the deletion of a file and, for a folder, of all files below it.
+     *
+     * @param separator path separator of the file, <code>null</code> if unknown
+     */
+    private void delete(String path, boolean directory, String separator) throws IOException {
+        synchronized (pendingDeletes) {
+            pendingDeletes.add(new TermQuery(new Term(SearchFields.PATH, path)));
+            if (directory && separator != null) {
+                String prefix = path.endsWith(separator) ? path : path + separator;
+                pendingDeletes.add(new PrefixQuery(new Term(SearchFields.PATH, prefix)));
+            }
+            if (pendingDeletes.size() >= DELETE_BATCH_SIZE) {
+                flushDeletes();
+            }
+        }
+    }
+
+    private void flushDeletes() throws IOException {
+        synchronized (pendingDeletes) {
+            if (pendingDeletes.isEmpty()) {
+                return;
+            }
+            LOGGER.debug("Deleting {} documents from the search index", pendingDeletes.size());
+            writer.deleteDocuments(pendingDeletes.toArray(new Query[pendingDeletes.size()]));
+            pendingDeletes.clear();
+        }
+    }
+}
@@ -18,22 +18,22 @@
 
 package com.mucommander.ui.action.impl;
 
-import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.runtime.OsFamily;
 import com.mucommander.ui.action.*;
+import com.mucommander.ui.dialog.file.CompareFoldersDialog;
 import com.mucommander.ui.main.MainFrame;
-import com.mucommander.ui.main.table.FileTable;
-import com.mucommander.ui.main.table.views.BaseFileTableModel;
 
 import javax.swing.KeyStroke;
 import java.awt.event.KeyEvent;
 import java.util.Map;
 
 /**
- * This action compares the content of the 2 MainFrame's file tables and marks the files that are different.
+ * This action invokes the {@link com.mucommander.ui.dialog.file.CompareFoldersDialog} which allows to compare the
+ * content of the 2 MainFrame's file tables and mark the files that are different.
  *
  * @author Maxence Bernard
  */
+@InvokesDialog
 public class CompareFoldersAction extends MuAction {
 
     public CompareFoldersAction(MainFrame mainFrame, Map<String,Object> properties) {
@@ -42,56 +42,7 @@ public class CompareFoldersAction extends MuAction {
 
     @Override
     public void performAction() {
-        FileTable leftTable = mainFrame.getLeftPanel().getFileTable();
-        FileTable rightTable = mainFrame.getRightPanel().getFileTable();
-
-        BaseFileTableModel leftTableModel = leftTable.getFileTableModel();
-        BaseFileTableModel rightTableModel = rightTable.getFileTableModel();
-
-        int nbFilesLeft = leftTableModel.getFileCount();
-        int nbFilesRight = rightTableModel.getFileCount();
-        int fileIndex;
-        String tempFileName;
-        AbstractFile tempFile;
-        for(int i=0; i<nbFilesLeft; i++) {
-            tempFile = leftTableModel.getFileAt(i);
-            if(tempFile.isDirectory())
-                continue;
-
-            tempFileName = tempFile.getName();
-            fileIndex = -1;
-            for(int j=0; j<nbFilesRight; j++)
-                if (rightTableModel.getFileAt(j).getName().equals(tempFileName)) {
-                    fileIndex = j;
-                    break;
-                }
-            if (fileIndex < 0 || rightTableModel.getFileAt(fileIndex).getDate()<tempFile.getDate()) {
-                leftTableModel.setFileMarked(tempFile, true);
-                leftTable.repaint();
-            }
-        }
-
-        for(int i=0; i<nbFilesRight; i++) {
-            tempFile = rightTableModel.getFileAt(i);
-            if(tempFile.isDirectory())
-                continue;
-
-            tempFileName = tempFile.getName();
-            fileIndex = -1;
-            for(int j=0; j<nbFilesLeft; j++)
-                if (leftTableModel.getFileAt(j).getName().equals(tempFileName)) {
-                    fileIndex = j;
-                    break;
-                }
-            if (fileIndex==-1 || leftTableModel.getFileAt(fileIndex).getDate()<tempFile.getDate()) {
-                rightTableModel.setFileMarked(tempFile, true);
-                rightTable.repaint();
-            }
-        }
-
-        // Notify registered listeners that currently marked files have changed on the file tables
-        leftTable.fireMarkedFilesChangedEvent();
-        rightTable.fireMarkedFilesChangedEvent();
+        new CompareFoldersDialog(mainFrame).showDialog();
     }
 
 	@Override
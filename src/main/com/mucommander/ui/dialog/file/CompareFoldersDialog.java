@@ -0,0 +1,139 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.dialog.file;
+
+import com.mucommander.job.CompareFoldersJob;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.action.ActionProperties;
+import com.mucommander.ui.action.impl.CompareFoldersAction;
+import com.mucommander.ui.dialog.DialogToolkit;
+import com.mucommander.ui.dialog.FocusDialog;
+import com.mucommander.ui.layout.YBoxPanel;
+import com.mucommander.ui.main.MainFrame;
+
+import javax.swing.*;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * This dialog prepares a {@link com.mucommander.job.CompareFoldersJob} and lets the user choose how files with the
+ * same name are compared, and whether subfolders are compared.
+ */
+public class CompareFoldersDialog extends FocusDialog implements ActionListener {
+
+    private MainFrame mainFrame;
+
+    private JRadioButton dateRadioButton;
+    private JRadioButton sizeRadioButton;
+    private JRadioButton contentRadioButton;
+    private JCheckBox subfoldersCheckBox;
+    private JButton okButton;
+
+    /** Last comparison mode used, saved after validation of this dialog */
+    private static CompareFoldersJob.Mode lastUsedMode = CompareFoldersJob.Mode.DATE;
+
+    /** Last value of the 'compare subfolders' option, saved after validation of this dialog */
+    private static boolean lastCompareSubfolders;
+
+    /** Dialog size constraints */
+    private final static Dimension MINIMUM_DIALOG_DIMENSION = new Dimension(320,0);
+
+
+    public CompareFoldersDialog(MainFrame mainFrame) {
+        super(mainFrame, ActionProperties.getActionLabel(CompareFoldersAction.Descriptor.ACTION_ID), mainFrame);
+
+        this.mainFrame = mainFrame;
+
+        YBoxPanel mainPanel = new YBoxPanel();
+
+        mainPanel.add(new JLabel(Translator.get("compare_folders_dialog.compare_by")+" :"));
+        mainPanel.addSpace(5);
+
+        dateRadioButton = new JRadioButton(Translator.get("compare_folders_dialog.date"), lastUsedMode==CompareFoldersJob.Mode.DATE);
+        sizeRadioButton = new JRadioButton(Translator.get("compare_folders_dialog.size"), lastUsedMode==CompareFoldersJob.Mode.SIZE);
+        contentRadioButton = new JRadioButton(Translator.get("compare_folders_dialog.content"), lastUsedMode==CompareFoldersJob.Mode.CONTENT);
+
+        ButtonGroup buttonGroup = new ButtonGroup();
+        buttonGroup.add(dateRadioButton);
+        buttonGroup.add(sizeRadioButton);
+        buttonGroup.add(contentRadioButton);
+
+        mainPanel.add(dateRadioButton);
+        mainPanel.add(sizeRadioButton);
+        mainPanel.add(contentRadioButton);
+        mainPanel.addSpace(10);
+
+        subfoldersCheckBox = new JCheckBox(Translator.get("compare_folders_dialog.subfolders"), lastCompareSubfolders);
+        mainPanel.add(subfoldersCheckBox);
+        mainPanel.addSpace(10);
+
+        okButton = new JButton(Translator.get("ok"));
+        JButton cancelButton = new JButton(Translator.get("cancel"));
+        mainPanel.add(DialogToolkit.createOKCancelPanel(okButton, cancelButton, getRootPane(), this));
+
+        getContentPane().add(mainPanel);
+
+        // Give initial keyboard focus to the selected comparison mode
+        setInitialFocusComponent(getSelectedRadioButton());
+
+        // Call dispose() when dialog is closed
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        setMinimumSize(MINIMUM_DIALOG_DIMENSION);
+        setResizable(false);
+    }
+
+    private JRadioButton getSelectedRadioButton() {
+        if (sizeRadioButton.isSelected())
+            return sizeRadioButton;
+        if (contentRadioButton.isSelected())
+            return contentRadioButton;
+        return dateRadioButton;
+    }
+
+    private CompareFoldersJob.Mode getSelectedMode() {
+        if (sizeRadioButton.isSelected())
+            return CompareFoldersJob.Mode.SIZE;
+        if (contentRadioButton.isSelected())
+            return CompareFoldersJob.Mode.CONTENT;
+        return CompareFoldersJob.Mode.DATE;
+    }
+
+
+    ///////////////////////////////////
+    // ActionListener implementation //
+    ///////////////////////////////////
+
+    public void actionPerformed(ActionEvent e) {
+        // Start by disposing this dialog
+        dispose();
+
+        if(e.getSource()==okButton) {
+            // Save the options that were used for the next time this dialog is invoked
+            lastUsedMode = getSelectedMode();
+            lastCompareSubfolders = subfoldersCheckBox.isSelected();
+
+            // Start comparing files
+            ProgressDialog progressDialog = new ProgressDialog(mainFrame, Translator.get("progress_dialog.processing_files"));
+            CompareFoldersJob job = new CompareFoldersJob(progressDialog, mainFrame, lastUsedMode, lastCompareSubfolders);
+            progressDialog.start(job);
+        }
+    }
+}
@@ -58,6 +58,7 @@ import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.event.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Find file dialog
@@ -101,8 +102,12 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
 
     private class UpdateRunner extends SwingWorker<List<AbstractFile>, AbstractFile> {
 
+        /** Set once the found files have been replaced by the sorted results of a parallel search */
+        private boolean resultsSorted;
+
         @Override
         protected List<AbstractFile> doInBackground() throws Exception {
+            FindFileJob searchJob = job;
             btnNewSearch.setEnabled(false);
             while (job != null && job.getState() != FileJob.State.FINISHED) {
                 checkUpdates();
@@ -114,11 +119,15 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
             }
             checkUpdates();
             job = null;
-            return null;
+            // A parallel search finds files in no particular order, show them in the order of a sequential search
+            return searchJob != null && searchJob.isParallel() ? searchJob.getSortedResults() : null;
         }
 
         @Override
         protected void done() {
+            if (!isCancelled()) {
+                showSortedResults();
+            }
             showProgress(false);
             updateButtons();
             super.done();
@@ -126,12 +135,34 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
 
         @Override
         protected void process(List<AbstractFile> chunks) {
+            if (resultsSorted) {
+                // chunks published before the end of the search are already part of the sorted results
+                return;
+            }
             for (AbstractFile f : chunks) {
                 listModel.addElement(f);
                 updateResultLabel();
             }
         }
 
+        private void showSortedResults() {
+            List<AbstractFile> sortedResults;
+            try {
+                sortedResults = get();
+            } catch (InterruptedException | ExecutionException e) {
+                return;
+            }
+            if (sortedResults == null) {
+                return;
+            }
+            resultsSorted = true;
+            listModel.clear();
+            for (AbstractFile f : sortedResults) {
+                listModel.addElement(f);
+            }
+            updateResultLabel();
+        }
+
         private void checkUpdates() {
             if (job == null) {
                 return;
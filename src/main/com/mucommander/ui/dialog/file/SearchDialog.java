@@ -45,6 +45,11 @@ public class SearchDialog extends FocusDialog implements ActionListener, KeyList
      */
     private JTextField searchStringInputField;
 
+    /**
+     * Text field used for the text the found files must contain.
+     */
+    private JTextField contentInputField;
+
     /**
      * Run/stop button.
      */
@@ -121,6 +126,9 @@ public class SearchDialog extends FocusDialog implements ActionListener, KeyList
         mainPanel.add(new JLabel(Translator.get("search_dialog.file_label")));
         mainPanel.add(searchStringInputField = new JTextField());
         searchStringInputField.setEnabled(true);
+        mainPanel.add(new JLabel(Translator.get("find_dialog.contains")));
+        mainPanel.add(contentInputField = new JTextField());
+        contentInputField.setEnabled(true);
 
         // Adds a textual description of the shell output area.
         mainPanel.addSpace(10);
@@ -189,7 +197,7 @@ public class SearchDialog extends FocusDialog implements ActionListener, KeyList
     public void actionPerformed(ActionEvent e) {
         Object source = e.getSource();
         if (source == runStopButton) {
-            runSearchTask(folderInputField.getText(), searchStringInputField.getText());
+            runSearchTask(folderInputField.getText(), searchStringInputField.getText(), contentInputField.getText());
         } else if (source == cancelButton) {
             if (currentProcess != null) {
                 currentProcess.cancel(true);
@@ -199,7 +207,7 @@ public class SearchDialog extends FocusDialog implements ActionListener, KeyList
         }
     }
 
-    private void runSearchTask(String targetFolder, String searchString) {
+    private void runSearchTask(String targetFolder, String searchString, String content) {
         // Starts the spinning dial.
         dial.setAnimated(true);
         // Resets the process output area.
@@ -209,7 +217,8 @@ public class SearchDialog extends FocusDialog implements ActionListener, KeyList
         // No new command can be entered while a process is running.
         folderInputField.setEnabled(false);
         searchStringInputField.setEnabled(false);
-        currentProcess = new SearchTask(targetFolder, searchString, listModel, new Callback() {
+        contentInputField.setEnabled(false);
+        currentProcess = new SearchTask(targetFolder, searchString, content, listModel, new Callback() {
             @Override
             public void call() {
                 dial.setAnimated(false);
@@ -218,6 +227,7 @@ public class SearchDialog extends FocusDialog implements ActionListener, KeyList
                 // No new command can be entered while a process is running.
                 folderInputField.setEnabled(true);
                 searchStringInputField.setEnabled(true);
+                contentInputField.setEnabled(true);
                 try {
                     currentProcess.get();
                 } catch (ExecutionException e) {
@@ -0,0 +1,319 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/soft/trolcommander
+ * Copyright (C) 2013-2015 Oleg Trifonov
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.main.table;
+
+import com.mucommander.commons.file.AbstractFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calculates directory sizes for all file tables.
+ * <p>
+ * Directories are walked by a shared fork/join pool, every sub-folder being a separate task, so that the sizes of
+ * many folders are calculated at the same time. The size of the files of every folder and its list of sub-folders are
+ * cached by canonical path and directory date: a folder isn't listed again as long as its date doesn't change, but its
+ * sub-folders are still checked since changes deeper in the tree don't change the date of the folder. A directory
+ * requested by several tables at the same time is walked once, all listeners receive the same results along with the
+ * folder they requested, which may be another path of the same directory, e.g. through a symbolic link.
+ * </p>
+ * <p>
+ * Listeners are notified in the event dispatch thread, with partial sizes every {@link #REFRESH_RATE_MS}
+ * milliseconds while the directory is being walked, and with the final size once it is done.
+ * </p>
+ */
+public class DirectorySizeService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySizeService.class);
+
+    /** Partial results refresh rate in milliseconds */
+    private static final long REFRESH_RATE_MS = 300;
+
+    /** Maximum number of cached directory sizes */
+    private static final int MAX_CACHED_DIRECTORIES = 10000;
+
+    /** Listing folders is mostly waiting for I/O, so there are more walker threads than processors */
+    private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final DirectorySizeService INSTANCE = new DirectorySizeService();
+
+    /**
+     * Receives the size of a directory.
+     */
+    public interface Listener {
+        /**
+         * Called in the event dispatch thread when the size of a directory has been calculated or updated.
+         *
+         * @param folder the directory
+         * @param size the size calculated so far, <code>-1</code> if the calculation failed
+         * @param finished <code>true</code> if the calculation is over
+         */
+        void sizeCalculated(AbstractFile folder, long size, boolean finished);
+    }
+
+    private final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+
+    /** Folder listings by canonical path, in access order */
+    private final Map<String, CachedListing> cache = new LinkedHashMap<String, CachedListing>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedListing> eldest) {
+            return size() > MAX_CACHED_DIRECTORIES;
+        }
+    };
+
+    /** Calculations in progress by canonical path, guarded by itself */
+    private final Map<String, Calculation> calculations = new HashMap<>();
+
+
+    private DirectorySizeService() {
+    }
+
+    public static DirectorySizeService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts calculating the size of a directory, or joins the calculation already in progress for it.
+     *
+     * @param folder the directory
+     * @param listener the listener notified of the results
+     */
+    public void calculate(AbstractFile folder, Listener listener) {
+        String key = folder.getCanonicalPath();
+        synchronized (calculations) {
+            Calculation calculation = calculations.get(key);
+            if (calculation == null) {
+                calculation = new Calculation(folder, key);
+                calculations.put(key, calculation);
+                pool.execute(new SizeTask(calculation, folder, true));
+            }
+            calculation.listeners.put(listener, folder);
+        }
+    }
+
+    /**
+     * Stops notifying a listener of the size of a directory. The calculation is stopped if no other listener
+     * waits for it.
+     *
+     * @param folder the directory
+     * @param listener the listener passed to {@link #calculate(AbstractFile, Listener)}
+     */
+    public void cancel(AbstractFile folder, Listener listener) {
+        String key = folder.getCanonicalPath();
+        synchronized (calculations) {
+            Calculation calculation = calculations.get(key);
+            if (calculation != null) {
+                calculation.listeners.remove(listener);
+                if (calculation.listeners.isEmpty()) {
+                    calculation.cancelled = true;
+                    calculations.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets all cached folder listings.
+     */
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private CachedListing getCachedListing(String key, long date) {
+        synchronized (cache) {
+            CachedListing cached = cache.get(key);
+            return cached != null && cached.date == date ? cached : null;
+        }
+    }
+
+    private void putCachedListing(String key, CachedListing listing) {
+        synchronized (cache) {
+            cache.put(key, listing);
+        }
+    }
+
+
+    /**
+     * What a folder contained when it was last listed.
+     */
+    private static class CachedListing {
+        final long date;
+        /** Total size of the files of the folder, sub-folders excluded */
+        final long filesSize;
+        final List<AbstractFile> subFolders;
+
+        CachedListing(long date, long filesSize, List<AbstractFile> subFolders) {
+            this.date = date;
+            this.filesSize = filesSize;
+            this.subFolders = subFolders;
+        }
+    }
+
+
+    /**
+     * Size calculation of a requested directory, shared by all its listeners.
+     */
+    private class Calculation {
+        final AbstractFile folder;
+        final String key;
+        /** Listeners and the folder each of them requested */
+        final Map<Listener, AbstractFile> listeners = new ConcurrentHashMap<>();
+        final AtomicLong size = new AtomicLong();
+        final AtomicLong lastPublishTime = new AtomicLong(System.currentTimeMillis());
+        volatile boolean cancelled;
+
+        Calculation(AbstractFile folder, String key) {
+            this.folder = folder;
+            this.key = key;
+        }
+
+        void add(long bytes) {
+            long total = size.addAndGet(bytes);
+            long time = System.currentTimeMillis();
+            long lastTime = lastPublishTime.get();
+            if (time - lastTime > REFRESH_RATE_MS && lastPublishTime.compareAndSet(lastTime, time)) {
+                publish(listeners, total, false);
+            }
+        }
+
+        void finish(long result) {
+            synchronized (calculations) {
+                if (calculations.get(key) == this) {
+                    calculations.remove(key);
+                }
+            }
+            if (!cancelled) {
+                publish(listeners, result, true);
+            }
+        }
+
+        private void publish(final Map<Listener, AbstractFile> listeners, final long result, final boolean finished) {
+            SwingUtilities.invokeLater(() -> {
+                for (Map.Entry<Listener, AbstractFile> listener : listeners.entrySet()) {
+                    listener.getKey().sizeCalculated(listener.getValue(), result, finished);
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Calculates the size of a folder, forking a task for each sub-folder.
+     */
+    private class SizeTask extends RecursiveAction {
+        private final Calculation calculation;
+        private final AbstractFile folder;
+        private final boolean root;
+        /** Size of the folder */
+        private long size;
+
+        SizeTask(Calculation calculation, AbstractFile folder, boolean root) {
+            this.calculation = calculation;
+            this.folder = folder;
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            if (!root) {
+                walk();
+                return;
+            }
+            try {
+                walk();
+                calculation.finish(calculation.size.get());
+            } catch (Exception e) {
+                LOGGER.warn("Failed to calculate size of " + folder, e);
+                calculation.finish(-1);
+            }
+        }
+
+        private void walk() {
+            if (calculation.cancelled) {
+                return;
+            }
+            // symlinks to folders are followed only for the requested folder
+            if (folder.isSymlink() && !root) {
+                return;
+            }
+            String key = root ? calculation.key : folder.getCanonicalPath();
+            long date = folder.getDate();
+            CachedListing listing = getCachedListing(key, date);
+            if (listing == null) {
+                listing = list(date);
+                if (listing == null) {
+                    return;
+                }
+                putCachedListing(key, listing);
+            }
+            calculation.add(listing.filesSize);
+
+            // Sub-folders are checked even if the folder is unchanged, their content may have changed
+            List<SizeTask> subtasks = new ArrayList<>(listing.subFolders.size());
+            for (AbstractFile subFolder : listing.subFolders) {
+                subtasks.add(new SizeTask(calculation, subFolder, false));
+            }
+            invokeAll(subtasks);
+
+            size = listing.filesSize;
+            for (SizeTask subtask : subtasks) {
+                size += subtask.size;
+            }
+        }
+
+        /**
+         * Lists the folder.
+         *
+         * @return the listing, <code>null</code> if the folder couldn't be listed or the calculation has been cancelled
+         */
+        private CachedListing list(long date) {
+            AbstractFile[] children;
+            try {
+                children = folder.ls();
+            } catch (IOException e) {
+                return null;
+            }
+            List<AbstractFile> subFolders = new ArrayList<>();
+            long filesSize = 0;
+            for (AbstractFile child : children) {
+                if (calculation.cancelled) {
+                    return null;
+                }
+                if (child.isDirectory()) {
+                    subFolders.add(child);
+                } else if (!child.isSymlink()) {
+                    filesSize += child.getSize();
+                }
+            }
+            return new CachedListing(date, filesSize, subFolders);
+        }
+    }
+
+}
@@ -27,7 +27,7 @@ import com.mucommander.conf.MuConfigurations;
 import com.mucommander.conf.MuPreference;
 import com.mucommander.conf.MuPreferences;
 import com.mucommander.text.SizeFormat;
-import com.mucommander.ui.main.table.CalculateDirectorySizeWorker;
+import com.mucommander.ui.main.table.DirectorySizeService;
 import com.mucommander.ui.main.table.FileTable;
 import com.mucommander.ui.main.table.SortInfo;
 
@@ -84,11 +84,11 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
     protected boolean fileMarked[];
 
 
-    /** Tasks queue for directory size calculate */
+    /** Directories queued for size calculation which have no calculated size yet */
     protected final List<AbstractFile> calculateSizeQueue = new LinkedList<>();
 
-    /** Worker to calculate directories sizes */
-    private CalculateDirectorySizeWorker calculateDirectorySizeWorker;
+    /** Listeners of the size calculations in progress, accessed in the event dispatch thread only */
+    private final Map<AbstractFile, DirectorySizeService.Listener> sizeCalculations = new HashMap<>();
 
     /** True if the table has directories with calculated size */
     protected boolean hasCalculatedDirectories;
@@ -800,11 +800,12 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
 
 
     /**
-     * Add directory to size calculation and start calculation worker if it doesn't busy
+     * Add directory to size calculation. Sizes are calculated by the {@link DirectorySizeService}, in parallel with
+     * the other queued directories
      * @param table
      * @param file
      */
-    public void startDirectorySizeCalculation(FileTable table, AbstractFile file) {
+    public void startDirectorySizeCalculation(final FileTable table, AbstractFile file) {
         if (!file.isDirectory()) {
             return;
         }
@@ -814,46 +815,35 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
                 return;
             }
         }
+        if (sizeCalculations.containsKey(file)) {
+            return;
+        }
         synchronized (calculateSizeQueue) {
-            if (calculateSizeQueue.contains(file)) {
-                return;
-            }
             calculateSizeQueue.add(file);
         }
-        if (calculateDirectorySizeWorker == null) {
-            processNextQueuedFile(table);
-        }
-    }
-
-
-
-    /**
-     * Takes a first ask for queue and starts calculation worker
-     * @param table
-     */
-    private void processNextQueuedFile(FileTable table) {
-        AbstractFile nextFile;
-        synchronized (calculateSizeQueue) {
-            nextFile = calculateSizeQueue.isEmpty() ? null : calculateSizeQueue.remove(0);
+        DirectorySizeService.Listener listener = new DirectorySizeService.Listener() {
+            @Override
+            public void sizeCalculated(AbstractFile folder, long size, boolean finished) {
+                // ignores results published before the calculation was stopped
+                if (sizeCalculations.get(folder) == this) {
+                    addProcessedDirectory(folder, table, size, finished);
+                }
             }
-        if (nextFile == null) {
-            calculateDirectorySizeWorker = null;
-            table.getParent().setCursor(Cursor.getDefaultCursor());
-        } else {
-            calculateDirectorySizeWorker = new CalculateDirectorySizeWorker(this, table, nextFile);
-            table.getParent().setCursor(WAIT_CURSOR);
-            calculateDirectorySizeWorker.execute();
-        }
+        };
+        sizeCalculations.put(file, listener);
+        table.getParent().setCursor(WAIT_CURSOR);
+        DirectorySizeService.getInstance().calculate(file, listener);
     }
 
+
     /**
-     * Called from size-calculation worker after it finish or requests to repaint table.
-     * Updates map of directory sizes and starts next task if worker finished
+     * Called from size-calculation listener when a directory size has been calculated or updated.
+     * Updates map of directory sizes and repaints table
      *
      * @param path
      * @param table
      * @param size calculated directory size
-     * @param finish true if worker completely finish task, false if it will just repaint table
+     * @param finish true if the calculation is over, false if it is a partial size
      */
     public void addProcessedDirectory(AbstractFile path, FileTable table, long size, boolean finish) {
         synchronized (directorySizes) {
@@ -863,13 +853,19 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
             calculateSizeQueue.remove(path);
         }
         if (finish) {
-            processNextQueuedFile(table);
+            sizeCalculations.remove(path);
+            if (sizeCalculations.isEmpty()) {
+                table.getParent().setCursor(Cursor.getDefaultCursor());
+            }
         }
+        fillCellCache();
+        table.repaint();
+        table.updateSelectedFilesStatusbar();
     }
 
 
     /**
-     * Stops directory calculation, clears calculated size ant tasks queue, interrupts currently executed worker if exists
+     * Stops directory calculation, clears calculated size ant tasks queue, cancels calculations in progress
      */
     protected void stopSizeCalculation() {
         synchronized (directorySizes) {
@@ -878,12 +874,10 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
         synchronized (calculateSizeQueue) {
             calculateSizeQueue.clear();
         }
-        if (calculateDirectorySizeWorker != null) {
-            try {
-                calculateDirectorySizeWorker.cancel(true);
-            } catch (Exception ignore) { }
-            calculateDirectorySizeWorker = null;
+        for (Map.Entry<AbstractFile, DirectorySizeService.Listener> entry : sizeCalculations.entrySet()) {
+            DirectorySizeService.getInstance().cancel(entry.getKey(), entry.getValue());
         }
+        sizeCalculations.clear();
         synchronized (this) {
             markedDirectories.clear();
         }
@@ -98,6 +98,32 @@ public abstract class AbstractByteBuffer {
     }
 
 
+    /**
+     * Copies file data starting at the specified offset into the array, loading the buffer if required.
+     *
+     * @param fileOffset offset in file
+     * @param dest destination array
+     * @param destPos start position in the destination array
+     * @param len maximum number of bytes to copy
+     * @return number of copied bytes, may be less than <code>len</code> at the end of file
+     * @throws IOException
+     */
+    public int getBytes(long fileOffset, byte[] dest, int destPos, int len) throws IOException {
+        len = (int)Math.min(len, getFileSize() - fileOffset);
+        int copied = 0;
+        while (copied < len) {
+            long pos = fileOffset + copied;
+            // loads the buffer if pos is outside of it
+            getByte(pos);
+            int index = (int)(pos - offset);
+            int count = Math.min(len - copied, size - index);
+            System.arraycopy(buffer, index, dest, destPos + copied, count);
+            copied += count;
+        }
+        return copied;
+    }
+
+
     protected long calcOffset(long fileOffset, boolean randomAccessStream) {
         if (randomAccessStream) {
             switch (cacheStrategy) {
@@ -18,6 +18,8 @@
 package ru.trolsoft.hexeditor.search;
 
 import ru.trolsoft.hexeditor.data.AbstractByteBuffer;
+import ru.trolsoft.utils.search.BlockSearcher;
+import ru.trolsoft.utils.search.BytesSearchPattern;
 
 import java.io.IOException;
 
@@ -39,25 +41,25 @@ public class ByteBufferSearchUtils {
         if (fileSize <= 0 || pattern.length == 0) {
             return -1;
         }
-        int[] failure = computeFailure(pattern);
+        BlockSearcher searcher = new BlockSearcher(new BytesSearchPattern(pattern));
+        byte[] block = new byte[Math.max(data.getCapacity(), pattern.length * 2)];
         AbstractByteBuffer.CacheStrategy cacheStrategy = data.getCacheStrategy();
         data.setCacheStrategy(AbstractByteBuffer.CacheStrategy.FORWARD);
-
-        int j = 0;
-        for (long i = fromOffset; i < fileSize; i++) {
-            while (j > 0 && pattern[j] != data.getByte(i)) {
-                j = failure[j - 1];
-            }
-            if (pattern[j] == data.getByte(i)) {
-                j++;
-            }
-            if (j == pattern.length) {
-                data.setCacheStrategy(cacheStrategy);
-                return i - pattern.length + 1;
+        try {
+            long blockOffset = Math.max(fromOffset, 0);
+            while (fileSize - blockOffset >= pattern.length) {
+                int size = data.getBytes(blockOffset, block, 0, block.length);
+                int index = searcher.indexOf(block, 0, size);
+                if (index >= 0) {
+                    return blockOffset + index;
+                }
+                // next block overlaps this one by pattern.length-1 bytes
+                blockOffset += size - pattern.length + 1;
             }
+            return -1;
+        } finally {
+            data.setCacheStrategy(cacheStrategy);
         }
-        data.setCacheStrategy(cacheStrategy);
-        return -1;
     }
 
     public static long indexOf(AbstractByteBuffer data, byte[][] patterns, long fromOffset) throws IOException {
@@ -95,58 +97,53 @@ public class ByteBufferSearchUtils {
     }
 
 
+    /**
+     * Returns the offset within the ByteBuffer of the last occurrence of the specified data which starts at or
+     * before the specified offset.
+     *
+     * @param data buffer for search
+     * @param pattern the data to search for
+     * @param fromOffset the highest offset at which the occurrence may start
+     * @return the offset of the found occurrence, or -1 if there is no such occurrence
+     */
     public static long indexOfBackward(AbstractByteBuffer data, byte[] pattern, long fromOffset) throws IOException {
-        byte[] patternInvert = new byte[pattern.length];
-        for (int i = 0; i < pattern.length; i++) {
-            patternInvert[i] = pattern[pattern.length-i-1];
+        long fileSize = data.getFileSize();
+        if (fileSize <= 0 || pattern.length == 0 || fromOffset < 0) {
+            return -1;
         }
-        int[] failure = computeFailure(patternInvert);
+        BlockSearcher searcher = new BlockSearcher(new BytesSearchPattern(pattern));
+        byte[] block = new byte[Math.max(data.getCapacity(), pattern.length * 2)];
         AbstractByteBuffer.CacheStrategy cacheStrategy = data.getCacheStrategy();
-        data.setCacheStrategy(AbstractByteBuffer.CacheStrategy.BACKWARD);
-
-        int j = 0;
-        for (long i = fromOffset; i >= 0; i--) {
-            while (j > 0 && patternInvert[j] != data.getByte(i)) {
-                j = failure[j - 1];
-            }
-            if (pattern[j] == data.getByte(i)) {
-                j++;
-            }
-            if (j == pattern.length) {
-                data.setCacheStrategy(cacheStrategy);
-                return i - pattern.length + 1;
+        // blocks are always read forward from their start offset
+        data.setCacheStrategy(AbstractByteBuffer.CacheStrategy.FORWARD);
+        try {
+            long blockEnd = Math.min(fromOffset + pattern.length, fileSize);
+            while (blockEnd >= pattern.length) {
+                long blockOffset = Math.max(0, blockEnd - block.length);
+                int size = data.getBytes(blockOffset, block, 0, (int)(blockEnd - blockOffset));
+                int index = searcher.lastIndexOf(block, 0, size);
+                if (index >= 0) {
+                    return blockOffset + index;
+                }
+                if (blockOffset == 0) {
+                    break;
+                }
+                // previous block overlaps this one by pattern.length-1 bytes
+                blockEnd = blockOffset + pattern.length - 1;
             }
+            return -1;
+        } finally {
+            data.setCacheStrategy(cacheStrategy);
         }
-        data.setCacheStrategy(cacheStrategy);
-        return -1;
     }
 
 
 
     /**
-     * Knuth-Morris-Pratt Algorithm for Pattern Matching
-     * Finds the first occurrence of the pattern in the text.
+     * Finds the first occurrence of the pattern in the data.
      */
     public static int indexOf(byte[] data, byte[] pattern) {
-        int[] failure = computeFailure(pattern);
-
-        int j = 0;
-        if (data.length == 0) {
-            return -1;
-        }
-
-        for (int i = 0; i < data.length; i++) {
-            while (j > 0 && pattern[j] != data[i]) {
-                j = failure[j - 1];
-            }
-            if (pattern[j] == data[i]) {
-                j++;
-            }
-            if (j == pattern.length) {
-                return i - pattern.length + 1;
-            }
-        }
-        return -1;
+        return new BlockSearcher(new BytesSearchPattern(pattern), 0).indexOf(data, 0, data.length);
     }
 
     /**
@@ -0,0 +1,228 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/soft/trolcommander
+ * Copyright (C) 2013-2014 Oleg Trifonov
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.utils.search;
+
+/**
+ * Boyer-Moore-Horspool searcher working on <code>byte[]</code> blocks.
+ *
+ * <p>The {@link SearchPattern} is compiled once into a per-position table of accepted byte values and two
+ * bad-character shift tables (forward and backward), so the search loop itself performs no virtual calls.
+ * For {@link StringCaseInsensitiveSearchPattern} the table holds both the lower and the upper case byte of
+ * every position, i.e. the pattern is case-folded at compile time.</p>
+ *
+ * <p>The searcher owns a reusable block buffer, so scanning any number of streams does not allocate.
+ * Instances are therefore not thread-safe: use one searcher per thread.</p>
+ */
+public class BlockSearcher {
+
+    /**
+     * Default size of the block buffer used by {@link #indexOf(SearchSourceStream)}
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    /**
+     * Pattern length
+     */
+    private final int length;
+
+    /**
+     * Accepted byte values for each pattern position, 4 longs (256 bits) per position
+     */
+    private final long[] accept;
+
+    /**
+     * Shift for the last byte of the window (forward search)
+     */
+    private final int[] shift = new int[256];
+
+    /**
+     * Shift for the first byte of the window (backward search)
+     */
+    private final int[] shiftBack = new int[256];
+
+    /**
+     * Block buffer reused between stream searches
+     */
+    private final byte[] block;
+
+    public BlockSearcher(SearchPattern pattern) {
+        this(pattern, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockSearcher(SearchPattern pattern, int blockSize) {
+        this.length = pattern.length();
+        this.accept = new long[length * 4];
+        for (int i = 0; i < length; i++) {
+            for (int val = 0; val < 256; val++) {
+                if (pattern.checkByte(i, val)) {
+                    accept[i * 4 + (val >>> 6)] |= 1L << (val & 63);
+                }
+            }
+        }
+        for (int val = 0; val < 256; val++) {
+            shift[val] = length;
+            shiftBack[val] = length;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            for (int val = 0; val < 256; val++) {
+                if (accepts(i, val)) {
+                    shift[val] = length - 1 - i;
+                }
+            }
+        }
+        for (int i = length - 1; i > 0; i--) {
+            for (int val = 0; val < 256; val++) {
+                if (accepts(i, val)) {
+                    shiftBack[val] = i;
+                }
+            }
+        }
+        this.block = new byte[Math.max(blockSize, length * 2)];
+    }
+
+    /**
+     *
+     * @return length of the search pattern
+     */
+    public int length() {
+        return length;
+    }
+
+    private boolean accepts(int index, int val) {
+        return (accept[index * 4 + (val >>> 6)] & (1L << (val & 63))) != 0;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the pattern in <code>data[from..to)</code>.
+     *
+     * @param data buffer for search
+     * @param from the index from which to start the search (inclusive)
+     * @param to the index at which to stop the search (exclusive)
+     * @return the index of the first occurrence, or -1 if there is no such occurrence
+     */
+    public int indexOf(byte[] data, int from, int to) {
+        final int m = length;
+        if (m == 0 || to - from < m) {
+            return -1;
+        }
+        final long[] accept = this.accept;
+        final int[] shift = this.shift;
+        final int last = m - 1;
+        final int lastAccept = last * 4;
+        int pos = from;
+        int limit = to - m;
+        while (pos <= limit) {
+            int b = data[pos + last] & 0xff;
+            if ((accept[lastAccept + (b >>> 6)] & (1L << (b & 63))) != 0) {
+                int i = last - 1;
+                while (i >= 0) {
+                    int c = data[pos + i] & 0xff;
+                    if ((accept[i * 4 + (c >>> 6)] & (1L << (c & 63))) == 0) {
+                        break;
+                    }
+                    i--;
+                }
+                if (i < 0) {
+                    return pos;
+                }
+            }
+            pos += shift[b];
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the last occurrence of the pattern in <code>data[from..to)</code>.
+     *
+     * @param data buffer for search
+     * @param from the lowest index of the search range (inclusive)
+     * @param to the highest index of the search range (exclusive)
+     * @return the index of the last occurrence, or -1 if there is no such occurrence
+     */
+    public int lastIndexOf(byte[] data, int from, int to) {
+        final int m = length;
+        if (m == 0 || to - from < m) {
+            return -1;
+        }
+        final long[] accept = this.accept;
+        final int[] shiftBack = this.shiftBack;
+        int pos = to - m;
+        while (pos >= from) {
+            int b = data[pos] & 0xff;
+            if ((accept[b >>> 6] & (1L << (b & 63))) != 0) {
+                int i = 1;
+                while (i < m) {
+                    int c = data[pos + i] & 0xff;
+                    if ((accept[i * 4 + (c >>> 6)] & (1L << (c & 63))) == 0) {
+                        break;
+                    }
+                    i++;
+                }
+                if (i == m) {
+                    return pos;
+                }
+            }
+            pos -= shiftBack[b];
+        }
+        return -1;
+    }
+
+    /**
+     * Searches the pattern in the stream, reading it block by block. The source is always closed.
+     *
+     * @param source stream for search
+     * @return the offset of the first occurrence of the pattern in the stream, or -1 if there is no such occurrence
+     * @throws SearchException if the stream couldn't be read
+     */
+    public long indexOf(SearchSourceStream source) throws SearchException {
+        try {
+            if (length == 0) {
+                return -1;
+            }
+            final byte[] block = this.block;
+            final int keep = length - 1;
+            long blockOffset = 0;
+            int size = 0;
+            boolean eof = false;
+            while (!eof) {
+                // fill the block as much as possible, it makes shifts longer on average
+                while (size < block.length) {
+                    int read = source.read(block, size, block.length - size);
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    size += read;
+                }
+                int index = indexOf(block, 0, size);
+                if (index >= 0) {
+                    return blockOffset + index;
+                }
+                // a match may start in the last (length-1) bytes of this block
+                int tail = Math.min(keep, size);
+                System.arraycopy(block, size - tail, block, 0, tail);
+                blockOffset += size - tail;
+                size = tail;
+            }
+            return -1;
+        } finally {
+            source.close();
+        }
+    }
+
+}
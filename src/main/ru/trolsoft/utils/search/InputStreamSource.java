@@ -66,4 +66,14 @@ public class InputStreamSource implements SearchSourceStream {
         return next;
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws SearchException {
+        try {
+            // BufferedInputStream reads large chunks directly into the destination array
+            return is.read(b, off, len);
+        } catch (IOException e) {
+            throw new SearchException(e);
+        }
+    }
+
 }
@@ -0,0 +1,116 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/soft/trolcommander
+ * Copyright (C) 2013-2014 Oleg Trifonov
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.utils.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Search source reading a local file through memory-mapped windows, so bulk reads are plain memory copies
+ * instead of read() system calls.
+ */
+public class MappedFileSource implements SearchSourceStream {
+
+    /**
+     * Size of a mapped window. Windows are remapped sequentially, this keeps the address space usage bounded
+     * for files larger than 2 GB
+     */
+    private static final long WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer window;
+    private long windowOffset;
+    private int next;
+    private boolean closed;
+
+    public MappedFileSource(File file) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.fileSize = channel.size();
+    }
+
+    /**
+     * Maps the next window if the current one has been fully consumed.
+     *
+     * @return false if the end of file has been reached
+     */
+    private boolean ensureWindow() throws IOException {
+        if (window != null && window.hasRemaining()) {
+            return true;
+        }
+        long offset = window == null ? 0 : windowOffset + window.capacity();
+        if (offset >= fileSize) {
+            return false;
+        }
+        windowOffset = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, fileSize - offset));
+        return true;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws SearchException {
+        try {
+            if (!ensureWindow()) {
+                return -1;
+            }
+        } catch (IOException e) {
+            throw new SearchException(e);
+        }
+        int count = Math.min(len, window.remaining());
+        window.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() throws SearchException {
+        try {
+            next = ensureWindow() ? window.get() & 0xff : -1;
+        } catch (IOException e) {
+            throw new SearchException(e);
+        }
+        return next >= 0;
+    }
+
+    @Override
+    public int next() throws SearchException {
+        if (next < 0) {
+            throw new SearchException("next < 0");
+        }
+        return next;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        window = null;
+        try {
+            raf.close();
+            closed = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
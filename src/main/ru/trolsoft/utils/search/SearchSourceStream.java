@@ -27,5 +27,15 @@ public interface SearchSourceStream {
 
     boolean hasNext() throws SearchException;
 
+    /**
+     * Bulk read used by {@link BlockSearcher}. Shouldn't be mixed with {@link #hasNext()}/{@link #next()} calls.
+     *
+     * @param b destination buffer
+     * @param off offset in the buffer
+     * @param len maximum number of bytes to read
+     * @return number of bytes read, or -1 if the end of the stream has been reached
+     */
+    int read(byte[] b, int off, int len) throws SearchException;
+
     void close();
 }
@@ -24,49 +24,16 @@ package ru.trolsoft.utils.search;
  */
 public class SearchUtils {
 
-
-    public static long indexOf(SearchSourceStream source, SearchPattern pattern) throws SearchException {
-        if (!source.hasNext() || pattern.length() == 0) {
-            return -1;
-        }
-        int[] failure = computeFailure(pattern);
-
-        int j = 0;
-        long i = 0;
-        while (source.hasNext()) {
-            int b = source.next();
-            i++;
-            while (j > 0 && !pattern.checkByte(j, b)) {
-                j = failure[j - 1];
-            }
-            if (pattern.checkByte(j, b)) {
-                j++;
-            }
-            if (j == pattern.length()) {
-                return i - pattern.length() + 1;
-            }
-        }
-        source.close();
-        return -1;
-    }
-
     /**
-     * Computes the failure function using a boot-strapping process,
-     * where the pattern is matched against itself.
+     * Returns the offset of the first occurrence of the pattern in the source. The source is always closed.
+     * For repeated searches of the same pattern create a {@link BlockSearcher} once and reuse it.
+     *
+     * @param source stream for search
+     * @param pattern the pattern to search for
+     * @return the offset of the first occurrence, or -1 if there is no such occurrence
      */
-    private static int[] computeFailure(SearchPattern pattern) {
-        int[] failure = new int[pattern.length()];
-
-        int j = 0;
-        for (int i = 1; i < pattern.length(); i++) {
-            while (j > 0 && !pattern.checkSelf(i, j)) {
-                j = failure[j - 1];
-            }
-            if (pattern.checkSelf(i, j)) {
-                j++;
-            }
-            failure[i] = j;
-        }
-        return failure;
+    public static long indexOf(SearchSourceStream source, SearchPattern pattern) throws SearchException {
+        return new BlockSearcher(pattern).indexOf(source);
     }
+
 }
@@ -30,7 +30,9 @@ public class StringCaseInsensitiveSearchPattern implements SearchPattern {
 
     public StringCaseInsensitiveSearchPattern(String s, String charset) throws UnsupportedEncodingException {
         this.data = s.toLowerCase().getBytes(charset);
-        this.dataAlt = s.toUpperCase().getBytes(charset);
+        byte[] upper = s.toUpperCase().getBytes(charset);
+        // case conversion may change the encoded length (e.g. German sharp s), match such strings as lower case only
+        this.dataAlt = upper.length == data.length ? upper : data;
     }
 
     @Override
@@ -0,0 +1,141 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.io.StreamUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+
+/**
+ * Tests the default implementation of {@link AbstractArchiveFile#extractEntries(List, ArchiveEntryHandler)}, using
+ * a Zip archive.
+ */
+public class AbstractArchiveFileTest {
+
+    private File tempFile;
+    private AbstractArchiveFile archiveFile;
+
+    @BeforeMethod
+    public void createArchive() throws IOException {
+        tempFile = File.createTempFile("extractentries", ".zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tempFile))) {
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.closeEntry();
+            for (int i = 0; i < 5; i++) {
+                out.putNextEntry(new ZipEntry("dir/file" + i));
+                out.write(getContents(i));
+                out.closeEntry();
+            }
+        }
+        archiveFile = FileFactory.getFile(tempFile.getAbsolutePath()).getAncestor(AbstractArchiveFile.class);
+        assertNotNull(archiveFile);
+    }
+
+    @AfterMethod
+    public void deleteArchive() throws IOException {
+        Files.deleteIfExists(tempFile.toPath());
+    }
+
+    @Test
+    public void testExtractEntries() throws IOException {
+        // Requested in another order than the archive's, along with a directory which must be ignored
+        List<ArchiveEntry> entries = new ArrayList<>();
+        entries.add(getEntry("dir/file3"));
+        entries.add(getEntry("dir/"));
+        entries.add(getEntry("dir/file1"));
+        entries.add(getEntry("dir/file4"));
+
+        final List<String> paths = new ArrayList<>();
+        archiveFile.extractEntries(entries, (entry, in) -> {
+            paths.add(entry.getPath());
+            assertEquals(readFully(in), getContents(Integer.parseInt(entry.getName().substring(4))));
+            return true;
+        });
+
+        assertEquals(paths, Arrays.asList("dir/file1", "dir/file3", "dir/file4"));
+    }
+
+    @Test
+    public void testPartialReadAndStop() throws IOException {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            entries.add(getEntry("dir/file" + i));
+        }
+
+        // The first entry is only partly read, the extraction stops after the second one
+        final List<String> paths = new ArrayList<>();
+        archiveFile.extractEntries(entries, (entry, in) -> {
+            paths.add(entry.getPath());
+            if (paths.size() == 1) {
+                assertEquals(in.read(), getContents(0)[0] & 0xFF);
+                return true;
+            }
+            assertEquals(readFully(in), getContents(1));
+            return false;
+        });
+
+        assertEquals(paths, Arrays.asList("dir/file0", "dir/file1"));
+    }
+
+    private ArchiveEntry getEntry(String path) throws IOException {
+        ArchiveEntryIterator iterator = archiveFile.getEntryIterator();
+        try {
+            ArchiveEntry entry;
+            while ((entry = iterator.nextEntry()) != null) {
+                if (entry.getPath().equals(path)) {
+                    return entry;
+                }
+            }
+            throw new IOException("No such entry: " + path);
+        } finally {
+            iterator.close();
+        }
+    }
+
+    private static byte[] getContents(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < 1000 * (i + 1); j++) {
+            sb.append("entry ").append(i).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtils.copyStream(in, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.file.impl.tar.TarArchiveFile;
+import com.mucommander.commons.file.impl.tar.provider.TarEntry;
+import com.mucommander.commons.file.impl.tar.provider.TarOutputStream;
+import com.mucommander.commons.io.StreamUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A test case for {@link ArchiveEntryCache}, using a gzipped TAR archive.
+ */
+public class ArchiveEntryCacheTest {
+
+    private File cacheFolder;
+    private AbstractFile tarFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        cacheFolder = Files.createTempDirectory("archive_cache").toFile();
+        ArchiveEntryCache.setCacheFolder(cacheFolder);
+        ArchiveEntryCache.setMaxSize(ArchiveEntryCache.DEFAULT_MAX_SIZE);
+
+        // Archives are created on top of the plain file, so that each test controls which instances are used
+        tarFile = ((AbstractArchiveFile)FileFactory.getTemporaryFile(ArchiveEntryCacheTest.class.getName()+".tar.gz", true)).getProxiedFile();
+        writeTar("hello");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        ArchiveEntryCache.clear();
+        ArchiveEntryCache.setCacheFolder(null);
+        cacheFolder.delete();
+        tarFile.delete();
+    }
+
+    private void writeTar(String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        try (TarOutputStream out = new TarOutputStream(new GZIPOutputStream(new FileOutputStream(tarFile.getAbsolutePath())))) {
+            out.putNextEntry(new TarEntry("dir/"));
+            out.closeEntry();
+
+            TarEntry entry = new TarEntry("dir/file.txt");
+            entry.setSize(bytes.length);
+            out.putNextEntry(entry);
+            out.write(bytes);
+            out.closeEntry();
+
+            entry = new TarEntry("other.txt");
+            entry.setSize(bytes.length);
+            out.putNextEntry(entry);
+            out.write(bytes);
+            out.closeEntry();
+        }
+    }
+
+    private static String read(AbstractFile file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = file.getInputStream()) {
+            StreamUtils.copyStream(in, out);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lists an archive, then verifies that another instance lists it from the cache and can read its entries.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCachedListing() throws IOException {
+        AbstractArchiveFile archive = new TarArchiveFile(tarFile);
+        assert ArchiveEntryCache.getEntries(archive) == null;
+        assert archive.ls().length == 2;
+
+        List<ArchiveEntry> entries = ArchiveEntryCache.getEntries(archive);
+        assert entries != null && entries.size() == 3;
+        assert entries.get(0).isDirectory();
+        assert "dir/file.txt".equals(entries.get(1).getPath());
+        assert entries.get(1).getSize() == 5;
+
+        // Entries are read from the cached listing
+        archive = new TarArchiveFile(tarFile);
+        AbstractFile folder = archive.getDirectChild("dir");
+        assert folder.isDirectory();
+        AbstractFile children[] = folder.ls();
+        assert children.length == 1;
+        assert "hello".equals(read(children[0]));
+        assert "hello".equals(read(archive.getDirectChild("other.txt")));
+    }
+
+    /**
+     * Verifies that the listing of an archive which has changed is not used.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testChangedArchive() throws IOException {
+        AbstractArchiveFile archive = new TarArchiveFile(tarFile);
+        archive.ls();
+        assert ArchiveEntryCache.getEntries(archive) != null;
+
+        writeTar("hello world");
+        assert ArchiveEntryCache.getEntries(new TarArchiveFile(tarFile)) == null;
+    }
+
+    /**
+     * Verifies that listings are evicted when the cache exceeds its size.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testEviction() throws IOException {
+        ArchiveEntryCache.setMaxSize(1);
+        AbstractArchiveFile archive = new TarArchiveFile(tarFile);
+        archive.ls();
+        assert ArchiveEntryCache.getEntries(archive) == null;
+    }
+}
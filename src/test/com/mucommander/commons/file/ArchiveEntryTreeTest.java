@@ -0,0 +1,92 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file;
+
+import org.testng.annotations.Test;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * A test case for {@link ArchiveEntryTree}.
+ */
+public class ArchiveEntryTreeTest {
+
+    private static ArchiveEntry getEntry(DefaultMutableTreeNode node) {
+        return (ArchiveEntry)node.getUserObject();
+    }
+
+    /**
+     * Adds entries whose parent folders have no entry of their own, and looks them up.
+     */
+    @Test
+    public void testImplicitFolders() {
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        tree.addArchiveEntry(new ArchiveEntry("a/b/c.txt", false, 0, 10, true));
+        tree.addArchiveEntry(new ArchiveEntry("a/d.txt", false, 0, 20, true));
+
+        assert tree.getChildCount() == 1;
+        DefaultMutableTreeNode a = tree.findEntryNode("a");
+        assert a != null && a.getParent() == tree;
+        assert getEntry(a).isDirectory();
+        assert a == tree.findEntryNode("a/");
+        assert a.getChildCount() == 2;
+
+        DefaultMutableTreeNode c = tree.findEntryNode("a/b/c.txt");
+        assert c != null && getEntry(c).getSize() == 10;
+        assert c.getParent() == tree.findEntryNode("a/b/");
+        assert tree.findEntryNode("a/b/d.txt") == null;
+        assert tree.findEntryNode("") == tree;
+    }
+
+    /**
+     * Verifies that the entry of a folder replaces the one created implicitly, without changing the tree.
+     */
+    @Test
+    public void testFolderEntryReplaced() {
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        tree.addArchiveEntry(new ArchiveEntry("a/b.txt", false, 0, 0, true));
+        ArchiveEntry folderEntry = new ArchiveEntry("a/", true, 1000, 0, true);
+        tree.addArchiveEntry(folderEntry);
+
+        assert tree.getChildCount() == 1;
+        DefaultMutableTreeNode a = tree.findEntryNode("a");
+        assert getEntry(a) == folderEntry;
+        assert a.getChildCount() == 1;
+    }
+
+    /**
+     * Verifies that removed nodes and their children can no longer be found.
+     */
+    @Test
+    public void testRemove() {
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        tree.addArchiveEntry(new ArchiveEntry("a/b/c.txt", false, 0, 0, true));
+        tree.addArchiveEntry(new ArchiveEntry("d.txt", false, 0, 0, true));
+
+        tree.removeEntryNode(tree.findEntryNode("a/b"));
+        assert tree.findEntryNode("a/b/c.txt") == null;
+        assert tree.findEntryNode("a/b") == null;
+        assert tree.findEntryNode("a").getChildCount() == 0;
+
+        // The folder can be added again
+        tree.addArchiveEntry(new ArchiveEntry("a/b/e.txt", false, 0, 0, true));
+        assert tree.findEntryNode("a/b/e.txt").getParent() == tree.findEntryNode("a/b");
+        assert tree.getChildCount() == 2;
+    }
+}
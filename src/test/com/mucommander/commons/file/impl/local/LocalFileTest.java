@@ -22,9 +22,16 @@ import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.AbstractFileTest;
 import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.io.BoundedInputStream;
+import com.mucommander.commons.io.ByteCounter;
+import com.mucommander.commons.io.CounterInputStream;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.StreamUtils;
+import com.mucommander.commons.io.ThroughputLimitInputStream;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 import java.util.regex.Matcher;
 
@@ -157,6 +164,85 @@ public class LocalFileTest extends AbstractFileTest {
             testVolume(volume);
     }
 
+    /**
+     * Copies a file larger than {@link StreamUtils#TRANSFER_CHUNK_SIZE} through counting and throughput limiting
+     * streams, which lets {@link LocalFile#copyStream(InputStream, boolean, long)} use a channel transfer, and asserts
+     * that all bytes were counted and that the copy has the same contents as the source.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testChannelTransfer() throws IOException, NoSuchAlgorithmException {
+        long length = 2 * StreamUtils.TRANSFER_CHUNK_SIZE + 123;
+        String md5 = createFile(tempFile, length);
+
+        AbstractFile destFile = deleteWhenFinished(getTemporaryFile());
+        ByteCounter counter = new ByteCounter();
+        try (InputStream in = new ThroughputLimitInputStream(new CounterInputStream(tempFile.getInputStream(), counter))) {
+            destFile.copyStream(in, false, length);
+        }
+
+        assert length == counter.getByteCount();
+        assert length == destFile.getSize();
+        assert md5.equals(calculateMd5(destFile));
+    }
+
+    /**
+     * Resumes a partial copy from an offset that is not a multiple of {@link StreamUtils#TRANSFER_CHUNK_SIZE} using a
+     * channel transfer, and asserts that only the remaining bytes were counted and that the copy is complete.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testResumedChannelTransfer() throws IOException, NoSuchAlgorithmException {
+        long length = StreamUtils.TRANSFER_CHUNK_SIZE + 4567;
+        long offset = 1234;
+        String md5 = createFile(tempFile, length);
+
+        // Write the beginning of the file with a regular copy
+        AbstractFile destFile = deleteWhenFinished(getTemporaryFile());
+        try (InputStream in = new BoundedInputStream(tempFile.getInputStream(), offset, false)) {
+            destFile.copyStream(in, false, offset);
+        }
+        assert offset == destFile.getSize();
+
+        // Append the rest with a channel transfer
+        ByteCounter counter = new ByteCounter();
+        try (InputStream in = new CounterInputStream(tempFile.getInputStream(offset), counter)) {
+            destFile.copyStream(in, true, length - offset);
+        }
+
+        assert length - offset == counter.getByteCount();
+        assert length == destFile.getSize();
+        assert md5.equals(calculateMd5(destFile));
+    }
+
+    /**
+     * Asserts that a channel transfer failing because of the source stream is reported as
+     * {@link FileTransferException#READING_SOURCE}.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testChannelTransferSourceFailure() throws IOException, NoSuchAlgorithmException {
+        createFile(tempFile, 1000);
+
+        AbstractFile destFile = deleteWhenFinished(getTemporaryFile());
+        InputStream in = new CounterInputStream(tempFile.getInputStream());
+        in.close();
+
+        try {
+            destFile.copyStream(in, false, 1000);
+            assert false;
+        }
+        catch(FileTransferException e) {
+            assert FileTransferException.READING_SOURCE == e.getReason();
+        }
+    }
+
     /**
      * Tests the regex pattern
      */
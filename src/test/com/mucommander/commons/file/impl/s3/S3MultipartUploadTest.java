@@ -0,0 +1,284 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.s3;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.filter.StartsWithFilenameFilter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.impl.rest.httpclient.RestS3Service;
+import org.jets3t.service.security.AWSCredentials;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A test case for {@link S3MultipartUpload} and the paginated listing of {@link S3File}, run against a minimal local
+ * implementation of the multipart upload and bucket listing APIs.
+ */
+public class S3MultipartUploadTest {
+
+    private final static int PART_SIZE = 1000;
+
+    /** Keys and common prefixes of the bucket, in the order they are listed */
+    private final static String[] LISTING = {"file0", "file1", "file2", "file3", "folder/"};
+
+    /** Maximum number of keys and common prefixes returned by a listing request */
+    private final static int LISTING_PAGE_SIZE = 2;
+
+    private final static Pattern PART_PATTERN = Pattern.compile("<PartNumber>(\\d+)</PartNumber><ETag>\"(\\d+)\"</ETag>");
+
+    private HttpServer server;
+    private S3Service service;
+
+    /** Parts uploaded so far, by part number */
+    private Map<Integer, byte[]> parts;
+    /** The assembled object, <code>null</code> until the upload has been completed */
+    private volatile byte[] object;
+    private AtomicBoolean aborted;
+    /** Number of the part whose uploads fail, 0 for none */
+    private volatile int failingPart;
+    /** Number of listing requests received so far */
+    private AtomicInteger listingRequests;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        parts = new ConcurrentHashMap<>();
+        object = null;
+        aborted = new AtomicBoolean();
+        failingPart = 0;
+        listingRequests = new AtomicInteger();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/bucket/", this::handle);
+        server.createContext("/", this::listBuckets);
+        server.start();
+
+        Jets3tProperties properties = new Jets3tProperties();
+        properties.setProperty("s3service.s3-endpoint", "127.0.0.1");
+        properties.setProperty("s3service.s3-endpoint-http-port", String.valueOf(server.getAddress().getPort()));
+        properties.setProperty("s3service.https-only", "false");
+        // Path-style requests, the local server has no host name for the bucket
+        properties.setProperty("s3service.disable-dns-buckets", "true");
+        service = new RestS3Service(new AWSCredentials("access", "secret"), null, null, properties);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bout.write(buffer, 0, read);
+            }
+        }
+        byte[] body = bout.toByteArray();
+        assert exchange.getRequestHeaders().getFirst("Authorization").startsWith("AWS access:");
+
+        int status = 200;
+        String etag = null;
+        String response = "";
+        if ("GET".equals(exchange.getRequestMethod())) {
+            response = list(query);
+        }
+        else if ("uploads".equals(query)) {
+            response = "<InitiateMultipartUploadResult><UploadId>id/1</UploadId></InitiateMultipartUploadResult>";
+        }
+        else if (query.startsWith("partNumber=")) {
+            int partNumber = Integer.parseInt(query.substring(11, query.indexOf('&')));
+            assert query.endsWith("uploadId=id%2F1");
+            if (partNumber == failingPart) {
+                status = 500;
+            }
+            else {
+                parts.put(partNumber, body);
+                etag = "\"" + partNumber + "\"";
+            }
+        }
+        else if ("DELETE".equals(exchange.getRequestMethod())) {
+            aborted.set(true);
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            return;
+        }
+        else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Matcher matcher = PART_PATTERN.matcher(new String(body, StandardCharsets.UTF_8));
+            int expected = 1;
+            while (matcher.find()) {
+                assert Integer.parseInt(matcher.group(1)) == expected;
+                out.write(parts.get(expected++));
+            }
+            object = out.toByteArray();
+            response = "<CompleteMultipartUploadResult/>";
+        }
+
+        if (etag != null)
+            exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(responseBytes);
+        }
+    }
+
+    /**
+     * Answers the listing of all buckets, which JetS3t requests to get the attributes of a bucket.
+     */
+    private void listBuckets(HttpExchange exchange) throws IOException {
+        byte[] response = ("<ListAllMyBucketsResult><Owner><ID>id</ID><DisplayName>owner</DisplayName></Owner>"
+                + "<Buckets><Bucket><Name>bucket</Name><CreationDate>2010-01-01T00:00:00.000Z</CreationDate></Bucket>"
+                + "</Buckets></ListAllMyBucketsResult>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders("/".equals(exchange.getRequestURI().getPath()) ? 200 : 404, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    /**
+     * Returns the page of the bucket listing which follows the marker of the given query.
+     */
+    private String list(String query) throws IOException {
+        listingRequests.incrementAndGet();
+
+        String marker = null;
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith("marker="))
+                marker = URLDecoder.decode(parameter.substring(7), "UTF-8");
+        }
+        int start = 0;
+        while (marker != null && start < LISTING.length && LISTING[start].compareTo(marker) <= 0)
+            start++;
+        int end = Math.min(start + LISTING_PAGE_SIZE, LISTING.length);
+
+        StringBuilder sb = new StringBuilder("<ListBucketResult><Name>bucket</Name><Prefix></Prefix>");
+        sb.append("<IsTruncated>").append(end < LISTING.length).append("</IsTruncated>");
+        if (end < LISTING.length)
+            sb.append("<NextMarker>").append(LISTING[end - 1]).append("</NextMarker>");
+        for (int i = start; i < end; i++) {
+            if (LISTING[i].endsWith("/")) {
+                sb.append("<CommonPrefixes><Prefix>").append(LISTING[i]).append("</Prefix></CommonPrefixes>");
+            }
+            else {
+                sb.append("<Contents><Key>").append(LISTING[i]).append("</Key>")
+                  .append("<LastModified>2010-01-01T00:00:00.000Z</LastModified><ETag>&quot;0&quot;</ETag>")
+                  .append("<Size>").append(i).append("</Size><StorageClass>STANDARD</StorageClass>")
+                  .append("<Owner><ID>id</ID><DisplayName>owner</DisplayName></Owner></Contents>");
+            }
+        }
+        return sb.append("</ListBucketResult>").toString();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Uploads an object made of more parts than are uploaded concurrently, the last one being shorter.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testUpload() throws IOException {
+        byte[] data = randomBytes(PART_SIZE * 7 + 123);
+        S3MultipartUpload upload = new S3MultipartUpload(service, "bucket", "dir/object name", PART_SIZE, 3);
+        assert upload.upload(new ByteArrayInputStream(data)) == data.length;
+
+        assert parts.size() == 8;
+        assert Arrays.equals(data, object);
+        assert !aborted.get();
+    }
+
+    /**
+     * Checks that an upload whose part keeps failing is aborted.
+     */
+    @Test
+    public void testFailedUpload() {
+        failingPart = 2;
+        S3MultipartUpload upload = new S3MultipartUpload(service, "bucket", "object", PART_SIZE, 2);
+        try {
+            upload.upload(new ByteArrayInputStream(randomBytes(PART_SIZE * 5)));
+            assert false;
+        }
+        catch (IOException e) {
+            // Expected
+        }
+
+        assert object == null;
+        assert aborted.get();
+    }
+
+    /**
+     * Lists a bucket whose listing is returned in several pages, which must be fetched as the iterator advances.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testPaginatedListing() throws IOException {
+        // Children are created by the protocol provider, which requires credentials
+        S3Bucket bucket = new S3Bucket(FileURL.getFileURL("s3://access:secret@127.0.0.1/bucket/"), service, "bucket");
+
+        Iterator<AbstractFile> iterator = bucket.lsIterator();
+        assert listingRequests.get() == 1;
+        List<String> names = new ArrayList<>();
+        while (iterator.hasNext())
+            names.add(iterator.next().getName());
+        assert listingRequests.get() == 3;
+        assert names.equals(Arrays.asList("file0", "file1", "file2", "file3", "folder")) : names;
+
+        // Filtered listings go through the same pages
+        AbstractFile[] children = bucket.ls(new StartsWithFilenameFilter("folder"));
+        assert listingRequests.get() == 6;
+        assert children.length == 1;
+        assert children[0].isDirectory();
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.sevenzip;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ArchiveEntry;
+import com.mucommander.commons.file.ArchiveEntryHandler;
+import com.mucommander.commons.file.FileFactory;
+import net.sf.sevenzipjbinding.ExtractAskMode;
+import net.sf.sevenzipjbinding.ExtractOperationResult;
+import net.sf.sevenzipjbinding.IArchiveExtractCallback;
+import net.sf.sevenzipjbinding.ISequentialOutStream;
+import net.sf.sevenzipjbinding.ISevenZipInArchive;
+import net.sf.sevenzipjbinding.SevenZipException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests {@link SevenZipArchiveFile#extractEntries} against a fake 7-Zip-JBinding archive, which calls the extract
+ * callback like the native library does with a solid block: every item is decoded in order, the items that were not
+ * requested in skip mode.
+ */
+public class SevenZipArchiveFileTest {
+
+    /** Size of the chunks written by the fake archive, entry 0 is written in more chunks than an entry can buffer */
+    private static final int CHUNK_SIZE = 4096;
+
+    /** Contents of the items of the fake archive, item 1 is not requested */
+    private static final byte[][] CONTENTS = { createData(0, 100000), createData(1, 5000), new byte[0], createData(3, 10000) };
+
+    @Test
+    public void testExtractEntries() throws IOException {
+        FakeArchive archive = new FakeArchive();
+        List<Integer> handled = new ArrayList<>();
+
+        extract(archive, (entry, in) -> {
+            int index = (Integer)entry.getEntryObject();
+            handled.add(index);
+            assertEquals(readFully(in), CONTENTS[index]);
+            return true;
+        });
+
+        // Entries are handled in the order of the archive, directories are not extracted
+        assertEquals(handled, Arrays.asList(0, 2, 3));
+        assertTrue(archive.closed);
+    }
+
+    @Test
+    public void testPartialRead() throws IOException {
+        FakeArchive archive = new FakeArchive();
+        List<Integer> handled = new ArrayList<>();
+
+        // The rest of an entry is skipped when the handler returns
+        extract(archive, (entry, in) -> {
+            int index = (Integer)entry.getEntryObject();
+            handled.add(index);
+            byte[] start = new byte[Math.min(10, CONTENTS[index].length)];
+            for (int i = 0; i < start.length; i++) {
+                start[i] = (byte)in.read();
+            }
+            assertEquals(start, Arrays.copyOf(CONTENTS[index], start.length));
+            return true;
+        });
+
+        assertEquals(handled, Arrays.asList(0, 2, 3));
+        assertTrue(archive.closed);
+    }
+
+    @Test
+    public void testStoppedExtraction() throws IOException {
+        FakeArchive archive = new FakeArchive();
+        List<Integer> handled = new ArrayList<>();
+
+        extract(archive, (entry, in) -> {
+            handled.add((Integer)entry.getEntryObject());
+            return false;
+        });
+
+        // The extraction thread is done with the archive when extractEntries() returns
+        assertEquals(handled, Arrays.asList(0));
+        assertTrue(archive.closed);
+    }
+
+    @Test
+    public void testEntryError() throws IOException {
+        FakeArchive archive = new FakeArchive();
+        archive.failingIndex = 0;
+        List<Integer> handled = new ArrayList<>();
+
+        // The error is reported to the handler of the entry, the next entries are extracted
+        extract(archive, (entry, in) -> {
+            int index = (Integer)entry.getEntryObject();
+            try {
+                readFully(in);
+                assertTrue(index != 0, "entry 0 read without error");
+                handled.add(index);
+            } catch (IOException e) {
+                assertEquals(index, 0);
+            }
+            return true;
+        });
+
+        assertEquals(handled, Arrays.asList(2, 3));
+        assertTrue(archive.closed);
+    }
+
+    @Test
+    public void testArchiveError() {
+        FakeArchive archive = new FakeArchive();
+        archive.brokenIndex = 3;
+        List<Integer> handled = new ArrayList<>();
+
+        try {
+            extract(archive, (entry, in) -> {
+                int index = (Integer)entry.getEntryObject();
+                try {
+                    readFully(in);
+                    handled.add(index);
+                } catch (IOException e) {
+                    // The entry being decompressed when the archive failed
+                    assertEquals(index, 3);
+                }
+                return true;
+            });
+            fail("archive error not reported");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof SevenZipException);
+        }
+
+        assertEquals(handled, Arrays.asList(0, 2));
+        assertTrue(archive.closed);
+    }
+
+    private static void extract(FakeArchive archive, ArchiveEntryHandler handler) throws IOException {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        ArchiveEntry folder = new ArchiveEntry("folder/", true, 0, 0, true);
+        folder.setEntryObject(4);
+        entries.add(folder);
+        for (int index : new int[] { 3, 0, 2 }) {
+            ArchiveEntry entry = new ArchiveEntry("folder/file" + index, false, 0, CONTENTS[index].length, true);
+            entry.setEntryObject(index);
+            entries.add(entry);
+        }
+
+        AbstractFile file = FileFactory.getFile(System.getProperty("java.io.tmpdir") + "/fake.7z");
+        new SevenZipArchiveFile(file) {
+            @Override
+            ISevenZipInArchive openBatchArchive() {
+                return archive.createProxy();
+            }
+        }.extractEntries(entries, handler);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] createData(int index, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte)(i * 31 + index);
+        }
+        return data;
+    }
+
+    /**
+     * Implements the {@link ISevenZipInArchive} methods used by the batch extraction.
+     */
+    private static class FakeArchive implements InvocationHandler {
+        /** Item whose extraction fails with a CRC error */
+        int failingIndex = -1;
+        /** Item during which the archive throws an exception */
+        int brokenIndex = -1;
+        volatile boolean closed;
+
+        ISevenZipInArchive createProxy() {
+            return (ISevenZipInArchive)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ISevenZipInArchive.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "extract":
+                extract((int[])args[0], (IArchiveExtractCallback)args[2]);
+                return null;
+            case "close":
+                closed = true;
+                return null;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        private void extract(int[] indices, IArchiveExtractCallback callback) throws SevenZipException {
+            for (int index = 0; index < CONTENTS.length; index++) {
+                ExtractAskMode mode = Arrays.binarySearch(indices, index) >= 0 ? ExtractAskMode.EXTRACT : ExtractAskMode.SKIP;
+                ISequentialOutStream out = callback.getStream(index, mode);
+                callback.prepareOperation(mode);
+                if (out != null) {
+                    byte[] data = CONTENTS[index];
+                    for (int pos = 0; pos < data.length; pos += CHUNK_SIZE) {
+                        // A new array for every call, as the native library does
+                        out.write(Arrays.copyOfRange(data, pos, Math.min(pos + CHUNK_SIZE, data.length)));
+                        if (index == brokenIndex) {
+                            throw new SevenZipException("broken archive");
+                        }
+                    }
+                }
+                callback.setOperationResult(index == failingIndex ? ExtractOperationResult.CRCERROR : ExtractOperationResult.OK);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.sevenzip.provider.SevenZip.Compression.LZMA;
+
+import com.mucommander.commons.file.impl.sevenzip.provider.SevenZip.HRESULT;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Round-trips data through the LZMA {@link Encoder} and {@link Decoder}, with several dictionary sizes.
+ */
+public class DecoderTest {
+
+    private static final int SIZE = 3 * 1024 * 1024;
+
+    private static final byte[] DATA = createData(SIZE);
+
+    @DataProvider(name = "dictionarySizes")
+    public Object[][] dictionarySizes() {
+        return new Object[][] { { 1 << 12 }, { 1 << 16 }, { 1 << 22 } };
+    }
+
+    @Test(dataProvider = "dictionarySizes")
+    public void testCode(int dictionarySize) throws IOException {
+        byte[] compressed = encode(dictionarySize, false);
+
+        Decoder decoder = createDecoder(compressed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(SIZE);
+        assertEquals(decoder.Code(new ByteArrayInputStream(compressed, 5, compressed.length - 5), out, SIZE, null), HRESULT.S_OK);
+        assertTrue(Arrays.equals(out.toByteArray(), DATA));
+    }
+
+    @Test(dataProvider = "dictionarySizes")
+    public void testCodeWithEndMarker(int dictionarySize) throws IOException {
+        byte[] compressed = encode(dictionarySize, true);
+
+        Decoder decoder = createDecoder(compressed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(SIZE);
+        assertEquals(decoder.Code(new ByteArrayInputStream(compressed, 5, compressed.length - 5), out, -1, null), HRESULT.S_OK);
+        assertTrue(Arrays.equals(out.toByteArray(), DATA));
+    }
+
+    @Test(dataProvider = "dictionarySizes")
+    public void testRead(int dictionarySize) throws IOException {
+        byte[] compressed = encode(dictionarySize, false);
+
+        Decoder decoder = createDecoder(compressed);
+        decoder.SetInStream(new ByteArrayInputStream(compressed, 5, compressed.length - 5));
+        decoder.SetOutStreamSize(SIZE);
+
+        // Odd sizes so that matches are split across reads
+        ByteArrayOutputStream out = new ByteArrayOutputStream(SIZE);
+        int sizes[] = { 1, 7, 4093, 65537 };
+        int nbReads = 0;
+        int read;
+        do {
+            byte buffer[] = new byte[sizes[nbReads++ % sizes.length]];
+            read = decoder.read(buffer, 0, buffer.length);
+            if (read > 0) {
+                out.write(buffer, 0, read);
+            }
+        } while (read != -1);
+        decoder.ReleaseInStream();
+
+        assertTrue(Arrays.equals(out.toByteArray(), DATA));
+    }
+
+    private static byte[] encode(int dictionarySize, boolean endMarker) throws IOException {
+        Encoder encoder = new Encoder();
+        assertTrue(encoder.SetDictionarySize(dictionarySize));
+        encoder.SetEndMarkerMode(endMarker);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.WriteCoderProperties(out);
+        encoder.Code(new ByteArrayInputStream(DATA), out, -1, -1, null);
+        return out.toByteArray();
+    }
+
+    private static Decoder createDecoder(byte[] compressed) {
+        Decoder decoder = new Decoder();
+        assertTrue(decoder.SetDecoderProperties2(Arrays.copyOf(compressed, 5)));
+        return decoder;
+    }
+
+    /**
+     * Mixes text-like runs, long repeats at varying distances (some beyond the smaller dictionaries) and random
+     * bytes, so that literals, short and long matches and repeated distances are all decoded.
+     */
+    private static byte[] createData(int size) {
+        Random random = new Random(42);
+        String words[] = { "muCommander ", "archive ", "folder ", "file ", "entry ", "stream ", "\n", "the ", "of " };
+        byte data[] = new byte[size];
+        int pos = 0;
+        while (pos < size) {
+            int kind = random.nextInt(10);
+            int len;
+            if (kind < 5) {
+                byte word[] = words[random.nextInt(words.length)].getBytes();
+                len = Math.min(word.length, size - pos);
+                System.arraycopy(word, 0, data, pos, len);
+            } else if (kind < 8 && pos > 0) {
+                int distance = 1 + random.nextInt(Math.min(pos, kind == 7 ? 1 << 20 : 1 << 10));
+                len = Math.min(2 + random.nextInt(kind == 5 ? 300 : 40), size - pos);
+                // Byte by byte as the copy may overlap with itself
+                for (int i = 0; i < len; i++) {
+                    data[pos + i] = data[pos + i - distance];
+                }
+            } else {
+                len = Math.min(1 + random.nextInt(64), size - pos);
+                for (int i = 0; i < len; i++) {
+                    data[pos + i] = (byte)random.nextInt(256);
+                }
+            }
+            pos += len;
+        }
+        return data;
+    }
+}
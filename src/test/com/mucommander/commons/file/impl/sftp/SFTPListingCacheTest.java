@@ -0,0 +1,129 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.sftp;
+
+import com.mucommander.commons.file.FileURL;
+import com.sshtools.j2ssh.sftp.FileAttributes;
+import com.sshtools.j2ssh.sftp.SftpFile;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A test case for {@link SFTPListingCache}.
+ */
+public class SFTPListingCacheTest {
+
+    private static SFTPListingCache getCache(String login) throws MalformedURLException {
+        return SFTPListingCache.getInstance(FileURL.getFileURL("sftp://" + login + ":password@host/some/path"));
+    }
+
+    private static List<SftpFile> getFiles(String... names) {
+        SftpFile files[] = new SftpFile[names.length];
+        for (int i = 0; i < names.length; i++)
+            files[i] = new SftpFile(names[i], new FileAttributes());
+        return Arrays.asList(files);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        SFTPFile.setAttributeCachingPeriod(60000);
+    }
+
+    /**
+     * Lists a directory and checks that the attributes of its children are cached, and that caches are not shared by
+     * different logins.
+     *
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testListing() throws MalformedURLException {
+        SFTPListingCache cache = getCache("listing");
+        assert cache == getCache("listing");
+        assert cache != getCache("other");
+
+        assert cache.getListing("/dir") == null;
+        cache.putListing("/dir", getFiles("a", "b"), cache.getGeneration());
+        assert cache.getListing("/dir").size() == 2;
+        assert getCache("other").getListing("/dir") == null;
+
+        assert cache.containsAttributes("/dir/a");
+        assert cache.getAttributes("/dir/b") != null;
+        assert !cache.containsAttributes("/dir/c");
+
+        cache.putAttributes("/dir/c", null, cache.getGeneration());
+        assert cache.containsAttributes("/dir/c");
+        assert cache.getAttributes("/dir/c") == null;
+    }
+
+    /**
+     * Checks that modifying a file invalidates its attributes, its parent's listing and the values cached for its
+     * contents, but not those of other files.
+     *
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testInvalidate() throws MalformedURLException {
+        SFTPListingCache cache = getCache("invalidate");
+        long generation = cache.getGeneration();
+        cache.putListing("/dir/", getFiles("sub", "subling"), generation);
+        cache.putListing("/dir/sub", getFiles("file"), generation);
+        cache.putLinkTarget("/dir/sub/file", "target", generation);
+        cache.putListing("/other", getFiles("file"), generation);
+
+        cache.invalidate("/dir/sub/");
+        assert cache.getListing("/dir/") == null;
+        assert cache.getListing("/dir/sub") == null;
+        assert !cache.containsAttributes("/dir/sub");
+        assert !cache.containsAttributes("/dir/sub/file");
+        assert cache.getLinkTarget("/dir/sub/file") == null;
+
+        assert cache.containsAttributes("/dir/subling");
+        assert cache.getListing("/other") != null;
+        assert cache.containsAttributes("/other/file");
+
+        // A value retrieved before an invalidation is not cached
+        cache.putListing("/dir", getFiles("sub"), generation);
+        assert cache.getListing("/dir") == null;
+    }
+
+    /**
+     * Checks that values expire after the attribute caching period, and are not cached when caching is disabled.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testExpiration() throws Exception {
+        SFTPListingCache cache = getCache("expiration");
+        SFTPFile.setAttributeCachingPeriod(50);
+        cache.putListing("/dir", getFiles("a"), cache.getGeneration());
+        assert cache.getListing("/dir") != null;
+
+        Thread.sleep(100);
+        assert cache.getListing("/dir") == null;
+        assert !cache.containsAttributes("/dir/a");
+
+        SFTPFile.setAttributeCachingPeriod(0);
+        cache.putListing("/dir", getFiles("a"), cache.getGeneration());
+        assert cache.getListing("/dir") == null;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.sftp;
+
+import com.sshtools.j2ssh.io.UnsignedInteger64;
+import com.sshtools.j2ssh.sftp.FileAttributes;
+import com.sshtools.j2ssh.sftp.SftpFile;
+import com.sshtools.j2ssh.sftp.SftpSubsystemClient;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A test case for {@link SFTPPipelinedInputStream} and {@link SFTPPipelinedOutputStream}, run against channels that
+ * serve a file held in memory with some latency.
+ */
+public class SFTPPipelinedStreamTest {
+
+    private final static int NB_CHANNELS = 4;
+
+    /** Maximum number of bytes returned by a read request, to simulate servers returning fewer bytes than requested */
+    private final static int MAX_READ_LENGTH = 20000;
+
+    /** Maximum number of seconds a request waits for another one to be sent */
+    private final static int OVERLAP_TIMEOUT = 5;
+
+    /** Contents of the remote file */
+    private byte[] content;
+
+    private List<SftpSubsystemClient> channels;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /** Released once two requests have been in flight at the same time */
+    private CountDownLatch overlap;
+    /**
+     * Files opened by the test and not closed yet. The streams of a previous test may close their files again when
+     * they are finalized.
+     */
+    private final Set<SftpFile> openFiles = ConcurrentHashMap.newKeySet();
+
+    @BeforeMethod
+    public void setUp() {
+        content = new byte[1000 * 1000 + 123];
+        new Random(content.length).nextBytes(content);
+
+        channels = new ArrayList<>();
+        for (int i = 0; i < NB_CHANNELS; i++)
+            channels.add(new MemoryChannel());
+
+        overlap = new CountDownLatch(1);
+        openFiles.clear();
+    }
+
+    /**
+     * Holds a request which is alone in flight until another one is sent, for the overlap of pipelined requests not
+     * to depend on scheduling. The request is not held anymore once requests have overlapped, or after
+     * {@link #OVERLAP_TIMEOUT} seconds if the stream waits for it before sending another one.
+     */
+    private void startRequest() {
+        if (inFlight.incrementAndGet() > 1) {
+            overlap.countDown();
+            return;
+        }
+        try {
+            overlap.await(OVERLAP_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the whole file, the server returning fewer bytes than requested.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRead() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new SFTPPipelinedInputStream(channels, "/file", 0)) {
+            assert openFiles.size() == NB_CHANNELS;
+
+            byte[] buffer = new byte[7777];
+            out.write(in.read());
+            int nbRead;
+            while ((nbRead = in.read(buffer)) != -1)
+                out.write(buffer, 0, nbRead);
+            assert in.read() == -1;
+        }
+
+        assert Arrays.equals(content, out.toByteArray());
+        assert overlap.getCount() == 0;
+        assert openFiles.size() == 0;
+    }
+
+    /**
+     * Seeks within the current block and elsewhere in the file, including past its end.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testSeek() throws IOException {
+        try (SFTPPipelinedInputStream in = new SFTPPipelinedInputStream(channels, "/file", 1000)) {
+            assert in.getPosition() == 1000;
+            assert in.read() == (content[1000] & 0xFF);
+
+            Random random = new Random(0);
+            byte[] buffer = new byte[100];
+            for (int i = 0; i < 100; i++) {
+                long offset = i % 2 == 0 ? in.getPosition() - random.nextInt(50) : random.nextInt(content.length - buffer.length);
+                in.setPosition(offset);
+                assert in.getPosition() == offset;
+
+                int nbRead = in.read(buffer);
+                assert nbRead > 0;
+                assert Arrays.equals(Arrays.copyOfRange(content, (int)offset, (int)offset + nbRead), Arrays.copyOf(buffer, nbRead));
+                assert in.getPosition() == offset + nbRead;
+            }
+
+            in.setPosition(content.length + 10);
+            assert in.read() == -1;
+            in.setPosition(content.length - 1);
+            assert in.read() == (content[content.length - 1] & 0xFF);
+            assert in.read() == -1;
+        }
+        assert openFiles.size() == 0;
+    }
+
+    /**
+     * Writes a file after some existing data, in chunks of various lengths.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testWrite() throws IOException {
+        byte[] data = content;
+        content = new byte[100];
+
+        try (OutputStream out = new SFTPPipelinedOutputStream(channels, "/file", SftpSubsystemClient.OPEN_WRITE, null, 100)) {
+            assert openFiles.size() == NB_CHANNELS;
+
+            out.write(data[0]);
+            int off = 1;
+            for (int len = 1; off < data.length; len = len * 3 + 1) {
+                len = Math.min(len, data.length - off);
+                out.write(data, off, len);
+                off += len;
+            }
+        }
+
+        assert content.length == data.length + 100;
+        assert Arrays.equals(data, Arrays.copyOfRange(content, 100, content.length));
+        assert overlap.getCount() == 0;
+        assert openFiles.size() == 0;
+    }
+
+
+    /**
+     * A channel serving the test's file.
+     */
+    private class MemoryChannel extends SftpSubsystemClient {
+
+        @Override
+        public SftpFile openFile(String path, int flags) {
+            SftpFile file = new MemoryFile(path, this);
+            openFiles.add(file);
+            return file;
+        }
+
+        @Override
+        public SftpFile openFile(String path, int flags, FileAttributes attributes) {
+            return openFile(path, flags);
+        }
+
+        @Override
+        public void closeFile(SftpFile file) {
+            openFiles.remove(file);
+        }
+
+        @Override
+        protected int readFile(byte[] handle, UnsignedInteger64 offset, byte[] output, int off, int len) {
+            startRequest();
+            try {
+                int position = offset.intValue();
+                if (position >= content.length)
+                    return -1;
+
+                len = Math.min(len, Math.min(MAX_READ_LENGTH, content.length - position));
+                System.arraycopy(content, position, output, off, len);
+                return len;
+            }
+            finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected void writeFile(byte[] handle, UnsignedInteger64 offset, byte[] data, int off, int len) {
+            startRequest();
+            try {
+                int position = offset.intValue();
+                synchronized (SFTPPipelinedStreamTest.this) {
+                    if (content.length < position + len)
+                        content = Arrays.copyOf(content, position + len);
+                    System.arraycopy(data, off, content, position, len);
+                }
+            }
+            finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected long maximumPacketSize() {
+            return 1 << 20;
+        }
+
+        @Override
+        protected long availableWindowSpace() {
+            return 1 << 20;
+        }
+    }
+
+    /**
+     * A file opened on a {@link MemoryChannel}.
+     */
+    private static class MemoryFile extends SftpFile {
+
+        private MemoryFile(String path, SftpSubsystemClient channel) {
+            super(path);
+            setHandle(new byte[]{0});
+            setSFTPSubsystem(channel);
+        }
+    }
+}
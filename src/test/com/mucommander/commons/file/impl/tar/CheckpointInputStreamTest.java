@@ -0,0 +1,223 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.mucommander.commons.file.impl.tar;
+
+import com.mucommander.commons.file.AbstractArchiveFile;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.tar.provider.TarEntry;
+import com.mucommander.commons.file.impl.tar.provider.TarOutputStream;
+import com.mucommander.commons.io.StreamUtils;
+import org.apache.hadoop.io.compress.bzip2.CBZip2OutputStream;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A test case for {@link GzipCheckpointInputStream}, {@link Bzip2CheckpointInputStream} and their use by
+ * {@link TarArchiveFile}.
+ */
+public class CheckpointInputStreamTest {
+
+    /**
+     * Returns data that compresses to a mix of stored, fixed and dynamic Huffman blocks.
+     */
+    private static byte[] createData(int length) {
+        Random random = new Random(length);
+        String words[] = new String[500];
+        for (int i = 0; i < words.length; i++) {
+            char chars[] = new char[2 + random.nextInt(8)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char)('a' + random.nextInt(26));
+            words[i] = new String(chars) + ' ';
+        }
+
+        byte data[] = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            if (random.nextInt(10) == 0) {
+                // Incompressible run
+                byte run[] = new byte[Math.min(length - pos, random.nextInt(70000))];
+                random.nextBytes(run);
+                System.arraycopy(run, 0, data, pos, run.length);
+                pos += run.length;
+            }
+            else {
+                for (int i = 0; i < 5000 && pos < length; i++) {
+                    byte word[] = words[random.nextInt(words.length)].getBytes();
+                    int n = Math.min(word.length, length - pos);
+                    System.arraycopy(word, 0, data, pos, n);
+                    pos += n;
+                }
+            }
+        }
+        return data;
+    }
+
+    private static byte[] gzip(byte data[], int off, int len, final int level) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bout) {{ def.setLevel(level); }};
+        out.write(data, off, len);
+        out.close();
+        return bout.toByteArray();
+    }
+
+    private static byte[] bzip2(byte data[]) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write('B');
+        bout.write('Z');
+        // Smallest block size, so that the data spans several blocks
+        CBZip2OutputStream out = new CBZip2OutputStream(bout, 1);
+        out.write(data);
+        out.close();
+        return bout.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtils.copyStream(in, out);
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static InputStream openAt(byte compressed[], long offset) {
+        ByteArrayInputStream in = new ByteArrayInputStream(compressed);
+        in.skip(offset);
+        return in;
+    }
+
+    /**
+     * Decompresses concatenated GZIP members compressed with different levels, then resumes decompression at each
+     * recorded checkpoint.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testGzip() throws IOException {
+        byte data[] = createData(3 * 1024 * 1024);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write(gzip(data, 0, 1024 * 1024, Deflater.DEFAULT_COMPRESSION));
+        bout.write(gzip(data, 1024 * 1024, 512 * 1024, Deflater.NO_COMPRESSION));
+        bout.write(gzip(data, 1536 * 1024, data.length - 1536 * 1024, Deflater.BEST_SPEED));
+        byte compressed[] = bout.toByteArray();
+
+        CheckpointIndex index = new CheckpointIndex(FileFactory.getTemporaryFile(false), 128 * 1024);
+        assert Arrays.equals(data, readAll(new GzipCheckpointInputStream(new ByteArrayInputStream(compressed), index)));
+        assert index.getCheckpointCount() > 10;
+
+        CheckpointIndex.Checkpoint checkpoint = null;
+        while ((checkpoint = index.getCheckpoint(checkpoint == null ? data.length : checkpoint.getUncompressedOffset() - 1)) != null) {
+            int offset = (int)checkpoint.getUncompressedOffset();
+            byte resumed[] = readAll(new GzipCheckpointInputStream(openAt(compressed, checkpoint.getCompressedOffset()), checkpoint, null));
+            assert Arrays.equals(Arrays.copyOfRange(data, offset, data.length), resumed);
+        }
+    }
+
+    /**
+     * Verifies that truncated and corrupt GZIP streams are reported.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testGzipErrors() throws IOException {
+        byte data[] = createData(200000);
+        byte compressed[] = gzip(data, 0, data.length, Deflater.DEFAULT_COMPRESSION);
+
+        try {
+            readAll(new GzipCheckpointInputStream(new ByteArrayInputStream(Arrays.copyOf(compressed, compressed.length / 2)), null));
+            assert false;
+        }
+        catch (IOException e) {
+            // Expected
+        }
+
+        // Corrupt the CRC
+        compressed[compressed.length - 8] ^= 1;
+        try {
+            readAll(new GzipCheckpointInputStream(new ByteArrayInputStream(compressed), null));
+            assert false;
+        }
+        catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Decompresses a Bzip2 stream made of several blocks, then resumes decompression at each block.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testBzip2() throws IOException {
+        byte data[] = createData(600000);
+        byte compressed[] = bzip2(data);
+
+        CheckpointIndex index = new CheckpointIndex(FileFactory.getTemporaryFile(false), 0);
+        assert Arrays.equals(data, readAll(new Bzip2CheckpointInputStream(new ByteArrayInputStream(compressed), index)));
+        assert index.getCheckpointCount() >= 5;
+
+        CheckpointIndex.Checkpoint checkpoint = null;
+        while ((checkpoint = index.getCheckpoint(checkpoint == null ? data.length : checkpoint.getUncompressedOffset() - 1)) != null) {
+            int offset = (int)checkpoint.getUncompressedOffset();
+            byte resumed[] = readAll(new Bzip2CheckpointInputStream(openAt(compressed, checkpoint.getCompressedOffset()), checkpoint, null));
+            assert Arrays.equals(Arrays.copyOfRange(data, offset, data.length), resumed);
+        }
+    }
+
+    /**
+     * Lists a gzipped TAR archive, then reads its entries out of order so that decompression starts at checkpoints.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTarEntries() throws IOException {
+        byte data[][] = new byte[12][];
+        AbstractFile file = ((AbstractArchiveFile)FileFactory.getTemporaryFile(CheckpointInputStreamTest.class.getName() + ".tar.gz", true)).getProxiedFile();
+        try {
+            try (TarOutputStream out = new TarOutputStream(new GZIPOutputStream(new FileOutputStream(file.getAbsolutePath())))) {
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = createData(1024 * 1024 + i);
+                    TarEntry entry = new TarEntry("file" + i);
+                    entry.setSize(data[i].length);
+                    out.putNextEntry(entry);
+                    out.write(data[i]);
+                    out.closeEntry();
+                }
+            }
+
+            TarArchiveFile archive = new TarArchiveFile(file);
+            assert archive.ls().length == data.length;
+
+            for (int i = data.length - 1; i >= 0; i--)
+                assert Arrays.equals(data[i], readAll(archive.getArchiveEntryFile("file" + i).getInputStream()));
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
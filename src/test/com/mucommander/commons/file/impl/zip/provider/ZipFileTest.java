@@ -0,0 +1,304 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.zip.provider;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.io.StreamUtils;
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A test case for {@link ZipFile}, which parses the central directory with {@link ZipEntryTable}.
+ */
+public class ZipFileTest {
+
+    private final static int NB_ENTRIES = 2000;
+
+    private AbstractFile file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = FileFactory.getTemporaryFile(ZipFileTest.class.getName()+".zip", true);
+
+        // Some entries have a comment, an extra field or a non-ASCII name, some are stored. Only the ZipOutputStream
+        // is closed, it closes the file's stream.
+        try (java.util.zip.ZipOutputStream zout = new java.util.zip.ZipOutputStream(file.getOutputStream(), StandardCharsets.UTF_8)) {
+            zout.setComment("archive comment");
+            for (int i = 0; i < NB_ENTRIES; i++) {
+                java.util.zip.ZipEntry entry = new java.util.zip.ZipEntry(getName(i));
+                if (i % 3 == 0)
+                    entry.setComment("comment " + i);
+                if (i % 5 == 0)
+                    entry.setExtra(new byte[]{(byte)0xCA, (byte)0xFE, 2, 0, (byte)i, 0});
+                byte data[] = getData(i);
+                if (i % 2 == 0) {
+                    entry.setMethod(java.util.zip.ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+                    crc.update(data);
+                    entry.setCrc(crc.getValue());
+                }
+                zout.putNextEntry(entry);
+                zout.write(data);
+                zout.closeEntry();
+            }
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        file.delete();
+    }
+
+    private static String getName(int i) {
+        return "dir" + (i % 10) + "/entr\u00e9e" + i;
+    }
+
+    private static byte[] getData(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < i % 50; j++) {
+            sb.append("data of entry ").append(i).append(' ');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            StreamUtils.copyStream(in, out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the central directory and the contents of all entries.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testParse() throws IOException {
+        ZipFile zipFile = new ZipFile(file);
+        assert zipFile.getNbEntries() == NB_ENTRIES;
+
+        // Entries are created out of order
+        ZipEntry entry = zipFile.getEntry(getName(NB_ENTRIES - 1));
+        assert entry != null;
+        assert zipFile.getEntry("missing") == null;
+
+        Iterator<ZipEntry> iterator = zipFile.getEntries();
+        for (int i = 0; i < NB_ENTRIES; i++) {
+            entry = iterator.next();
+            assert getName(i).equals(entry.getName());
+            assert entry.getMethod() == (i % 2 == 0 ? ZipConstants.STORED : ZipConstants.DEFLATED);
+            assert entry.getSize() == getData(i).length;
+            assert i % 3 != 0 || ("comment " + i).equals(entry.getComment());
+            assert java.util.Arrays.equals(getData(i), read(zipFile, entry));
+            assert zipFile.getEntry(entry.getName()) == entry;
+        }
+        assert !iterator.hasNext();
+    }
+
+    /**
+     * Reads entries from several threads at once, each thread keeping several entry streams open and reading them
+     * in an interleaved fashion.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final ZipFile zipFile = new ZipFile(file);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int first = t;
+                results.add(executor.submit(() -> {
+                    for (int i = first; i + 4 < NB_ENTRIES; i += 8) {
+                        InputStream in1 = zipFile.getInputStream(zipFile.getEntry(getName(i)));
+                        InputStream in2 = zipFile.getInputStream(zipFile.getEntry(getName(i + 4)));
+                        ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+                        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+                        int b1 = 0, b2 = 0;
+                        while (b1 != -1 || b2 != -1) {
+                            if (b1 != -1 && (b1 = in1.read()) != -1)
+                                out1.write(b1);
+                            if (b2 != -1 && (b2 = in2.read()) != -1)
+                                out2.write(b2);
+                        }
+                        in1.close();
+                        in2.close();
+                        if (!java.util.Arrays.equals(getData(i), out1.toByteArray())
+                                || !java.util.Arrays.equals(getData(i + 4), out2.toByteArray()))
+                            return false;
+                    }
+                    return true;
+                }));
+            }
+
+            for (Future<Boolean> result : results)
+                assert result.get();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Deletes and adds entries, which materializes the table, and parses the modified file again.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testModify() throws IOException {
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.deleteEntry(zipFile.getEntry(getName(10)));
+        zipFile.deleteEntry(zipFile.getEntry(getName(NB_ENTRIES - 1)));
+        assert zipFile.getEntry(getName(10)) == null;
+
+        ZipEntry added = new ZipEntry("added");
+        added.setMethod(ZipConstants.DEFLATED);
+        try (OutputStream out = zipFile.addEntry(added)) {
+            out.write(getData(42));
+        }
+        zipFile.defragment();
+        assert zipFile.getNbEntries() == NB_ENTRIES - 1;
+
+        zipFile = new ZipFile(file);
+        assert zipFile.getNbEntries() == NB_ENTRIES - 1;
+        assert zipFile.getEntry(getName(10)) == null;
+        assert java.util.Arrays.equals(getData(42), read(zipFile, zipFile.getEntry("added")));
+        assert java.util.Arrays.equals(getData(11), read(zipFile, zipFile.getEntry(getName(11))));
+        assert java.util.Arrays.equals(getData(NB_ENTRIES - 2), read(zipFile, zipFile.getEntry(getName(NB_ENTRIES - 2))));
+    }
+
+    /**
+     * Deletes most entries, which makes {@link ZipFile#defragment()} rewrite the file, and checks that the remaining
+     * entries can be read both from the same ZipFile instance and after parsing the file again.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testDefragmentRewrite() throws IOException {
+        deleteAndDefragment(file);
+    }
+
+    /**
+     * Defragments the Zip file through a symbolic link, which must still point to the defragmented file.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testDefragmentSymlink() throws IOException {
+        Path zipPath = Paths.get(file.getAbsolutePath());
+        Path linkPath = zipPath.resolveSibling("link-" + zipPath.getFileName());
+        try {
+            createLink(() -> Files.createSymbolicLink(linkPath, zipPath));
+
+            deleteAndDefragment(FileFactory.getFile(linkPath.toString()));
+            assert Files.isSymbolicLink(linkPath);
+            assert Files.readSymbolicLink(linkPath).equals(zipPath);
+            assertDefragmented(new ZipFile(file));
+        }
+        finally {
+            Files.deleteIfExists(linkPath);
+        }
+    }
+
+    /**
+     * Defragments a Zip file which has another hard link, both names must still refer to the same file.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testDefragmentHardLink() throws IOException {
+        Path zipPath = Paths.get(file.getAbsolutePath());
+        Path linkPath = zipPath.resolveSibling("link-" + zipPath.getFileName());
+        try {
+            createLink(() -> Files.createLink(linkPath, zipPath));
+
+            deleteAndDefragment(file);
+            assert Files.isSameFile(linkPath, zipPath);
+            assertDefragmented(new ZipFile(FileFactory.getFile(linkPath.toString())));
+        }
+        finally {
+            Files.deleteIfExists(linkPath);
+        }
+    }
+
+    /**
+     * Deletes most entries of the given Zip file, defragments it and checks the result.
+     */
+    private void deleteAndDefragment(AbstractFile zip) throws IOException {
+        ZipFile zipFile = new ZipFile(zip);
+        for (int i = 0; i < NB_ENTRIES - 1; i++) {
+            if (i % 4 != 0)
+                zipFile.deleteEntry(zipFile.getEntry(getName(i)));
+        }
+        long fragmentedSize = zip.getSize();
+        zipFile.defragment();
+        assert zip.getSize() < fragmentedSize / 2;
+
+        assertDefragmented(zipFile);
+        assertDefragmented(new ZipFile(zip));
+    }
+
+    private static void assertDefragmented(ZipFile zipFile) throws IOException {
+        assert zipFile.getNbEntries() == NB_ENTRIES / 4 + 1;
+        for (int i = 0; i < NB_ENTRIES; i++) {
+            ZipEntry entry = zipFile.getEntry(getName(i));
+            assert (entry != null) == (i % 4 == 0 || i == NB_ENTRIES - 1);
+            assert entry == null || java.util.Arrays.equals(getData(i), read(zipFile, entry));
+        }
+    }
+
+    /**
+     * Creates a link, skipping the test if the filesystem doesn't support it.
+     */
+    private static void createLink(LinkCreator creator) throws IOException {
+        try {
+            creator.create();
+        }
+        catch (UnsupportedOperationException | FileSystemException e) {
+            throw new SkipException("Links are not supported: " + e);
+        }
+    }
+
+    private interface LinkCreator {
+        void create() throws IOException;
+    }
+}
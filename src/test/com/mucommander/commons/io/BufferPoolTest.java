@@ -22,6 +22,8 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.nio.ByteBuffer;
+
 /**
  * This class is a TestNG test case for {@link BufferPool}.
  *
@@ -81,6 +83,29 @@ public class BufferPoolTest {
         testBuffer(new BufferPool.CharBufferFactory());
     }
 
+    /**
+     * Tests that direct and heap <code>ByteBuffer</code> buffers are pooled separately, and that hits and misses
+     * are counted.
+     */
+    @Test
+    public void testHeapByteBuffer() {
+        long hits = BufferPool.getHitCount();
+        long misses = BufferPool.getMissCount();
+
+        ByteBuffer heapBuffer = BufferPool.getByteBuffer(TEST_BUFFER_SIZE_1, false);
+        assert !heapBuffer.isDirect();
+        assert misses+1 == BufferPool.getMissCount();
+        assert BufferPool.releaseByteBuffer(heapBuffer);
+
+        // A direct buffer must not be served from the heap buffers
+        ByteBuffer directBuffer = BufferPool.getByteBuffer(TEST_BUFFER_SIZE_1, true);
+        assert directBuffer.isDirect();
+        assert misses+2 == BufferPool.getMissCount();
+
+        assert heapBuffer == BufferPool.getByteBuffer(TEST_BUFFER_SIZE_1, false);
+        assert hits+1 == BufferPool.getHitCount();
+    }
+
     /**
      * Tests <code>BufferPool</code> with <code>ByteBuffer</code> buffers.
      *
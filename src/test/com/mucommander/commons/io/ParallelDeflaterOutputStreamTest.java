@@ -0,0 +1,161 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import com.mucommander.commons.file.impl.zip.provider.ZipEntry;
+import com.mucommander.commons.file.impl.zip.provider.ZipOutputStream;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * A test case for {@link ParallelDeflaterOutputStream} and {@link ParallelGZIPOutputStream}.
+ */
+public class ParallelDeflaterOutputStreamTest {
+
+    /**
+     * Returns compressible data: random words with a few random runs.
+     */
+    private static byte[] createData(int length) {
+        Random random = new Random(length);
+        byte data[] = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            if (random.nextInt(20) == 0) {
+                int runLength = Math.min(length - pos, random.nextInt(10000));
+                byte run[] = new byte[runLength];
+                random.nextBytes(run);
+                System.arraycopy(run, 0, data, pos, runLength);
+                pos += runLength;
+            } else {
+                data[pos++] = (byte)('a' + random.nextInt(8));
+                if (pos < length && random.nextInt(5) == 0) {
+                    data[pos++] = ' ';
+                }
+            }
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtils.copyStream(in, out);
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses data spanning many chunks, written with various sizes, and decompresses it with
+     * <code>java.util.zip.GZIPInputStream</code>.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testGzip() throws IOException {
+        byte data[] = createData(1000000);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(bout, Deflater.DEFAULT_COMPRESSION, 3, 16 * 1024);
+        Random random = new Random();
+        int pos = 0;
+        while (pos < data.length) {
+            int length = Math.min(data.length - pos, random.nextInt(50000));
+            out.write(data, pos, length);
+            pos += length;
+        }
+        out.write(0x42);
+        out.close();
+
+        byte expected[] = Arrays.copyOf(data, data.length + 1);
+        expected[data.length] = 0x42;
+        assert Arrays.equals(expected, readAll(new GZIPInputStream(new ByteArrayInputStream(bout.toByteArray()))));
+        assert out.getTotalIn() == expected.length;
+
+        // Matches across chunks are preserved: the output is not much larger than that of a single Deflater
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        GZIPOutputStream gout = new GZIPOutputStream(single);
+        gout.write(expected);
+        gout.close();
+        assert bout.size() < single.size() * 1.05;
+    }
+
+    /**
+     * Compresses an empty stream.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ParallelGZIPOutputStream(bout, 2).close();
+
+        assert readAll(new GZIPInputStream(new ByteArrayInputStream(bout.toByteArray()))).length == 0;
+    }
+
+    /**
+     * Writes a Zip archive with parallel compression and reads it with <code>java.util.zip.ZipInputStream</code>.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testZip() throws IOException {
+        byte large[] = createData(700000);
+        byte small[] = createData(1000);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ZipOutputStream zout = new ZipOutputStream(bout);
+        zout.setCompressionThreads(4);
+        zout.putNextEntry(new ZipEntry("large"));
+        zout.write(large);
+        ZipEntry entry = new ZipEntry("small");
+        entry.setSize(small.length);
+        zout.putNextEntry(entry);
+        zout.write(small);
+        zout.close();
+
+        ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(bout.toByteArray()));
+        assert "large".equals(zin.getNextEntry().getName());
+        assert Arrays.equals(large, readAll(new FilterNoClose(zin)));
+        assert "small".equals(zin.getNextEntry().getName());
+        assert Arrays.equals(small, readAll(new FilterNoClose(zin)));
+        assert zin.getNextEntry() == null;
+    }
+
+    /**
+     * Keeps the Zip stream open when an entry has been read.
+     */
+    private static class FilterNoClose extends FilterInputStream {
+        FilterNoClose(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A test case for {@link ReadAheadInputStream} and {@link StreamUtils#copyStreamOverlapped(InputStream, java.io.OutputStream, int, long)}.
+ */
+public class ReadAheadInputStreamTest {
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a stream larger than all the read-ahead buffers, mixing single byte and array reads.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRead() throws IOException {
+        byte[] bytes = randomBytes(100000);
+        ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(bytes), 1000, 2, -1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assert in.read() == (bytes[0] & 0xFF);
+        out.write(bytes[0]);
+        byte[] buffer = new byte[777];
+        int nbRead;
+        while ((nbRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, nbRead);
+        }
+        assert in.read() == -1;
+        in.close();
+
+        assert Arrays.equals(bytes, out.toByteArray());
+    }
+
+    /**
+     * Verifies that the underlying stream is not read past the given length, and is not closed by
+     * {@link StreamUtils#copyStreamOverlapped(InputStream, java.io.OutputStream, int, long)}.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCopyOverlapped() throws IOException {
+        byte[] bytes = randomBytes(50000);
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assert StreamUtils.copyStreamOverlapped(in, out, 4096, 30000) == 30000;
+        assert Arrays.equals(Arrays.copyOf(bytes, 30000), out.toByteArray());
+
+        // The rest of the source stream is still available
+        assert in.available() == 20000;
+        assert in.read() == (bytes[30000] & 0xFF);
+    }
+
+    /**
+     * Verifies that an error raised by the underlying stream is thrown once the data read before it is consumed.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testReadError() throws IOException {
+        final byte[] bytes = randomBytes(5000);
+        InputStream failing = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                if (position == bytes.length) {
+                    throw new IOException("failure");
+                }
+                return bytes[position++] & 0xFF;
+            }
+        };
+        ReadAheadInputStream in = new ReadAheadInputStream(failing, 1024);
+        // One byte larger than the data, so that the read which reaches the error is not an empty one
+        byte[] read = new byte[bytes.length+1];
+        int total = 0;
+        try {
+            int nbRead;
+            while ((nbRead = in.read(read, total, read.length - total)) > 0) {
+                total += nbRead;
+            }
+            assert false;
+        } catch (IOException e) {
+            assert "failure".equals(e.getMessage());
+        }
+        assert total == bytes.length;
+        assert Arrays.equals(bytes, Arrays.copyOf(read, total));
+        in.close();
+    }
+
+    /**
+     * Verifies that the underlying stream is read directly, up to the given length, once the maximum number of
+     * streams are read ahead by {@link IOExecutor}.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testDirectRead() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        List<ReadAheadInputStream> blocked = new ArrayList<>();
+        try {
+            // Streams whose background thread is blocked until they are closed
+            for (int i = 0; i < IOExecutor.MAX_THREADS / 2; i++) {
+                blocked.add(new ReadAheadInputStream(new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return -1;
+                    }
+
+                    @Override
+                    public void close() {
+                        release.countDown();
+                    }
+                }, 1000));
+            }
+
+            byte[] bytes = randomBytes(50000);
+            ByteArrayInputStream underlying = new ByteArrayInputStream(bytes);
+            ReadAheadInputStream in = new ReadAheadInputStream(underlying, 1000, 2, 30000);
+            // Nothing is read ahead
+            assert underlying.available() == bytes.length;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assert in.read() == (bytes[0] & 0xFF);
+            out.write(bytes[0]);
+            byte[] buffer = new byte[777];
+            int nbRead;
+            while ((nbRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, nbRead);
+            }
+            assert Arrays.equals(Arrays.copyOf(bytes, 30000), out.toByteArray());
+            assert underlying.available() == 20000;
+            in.close();
+        }
+        finally {
+            for (ReadAheadInputStream in : blocked) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Verifies that reading a closed stream fails.
+     *
+     * @throws IOException should not happen
+     */
+    @Test(expectedExceptions = IOException.class)
+    public void testClosed() throws IOException {
+        ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(randomBytes(100000)), 1000);
+        in.read();
+        in.close();
+        in.read(new byte[100]);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A test case for {@link SegmentedInputStream}.
+ */
+public class SegmentedInputStreamTest {
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b = in.read();
+        assert b != -1;
+        out.write(b);
+        byte[] buffer = new byte[777];
+        int nbRead;
+        while ((nbRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, nbRead);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a range of a resource split into more segments than are downloaded concurrently.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRead() throws IOException {
+        byte[] bytes = randomBytes(100000);
+        InputStream in = new SegmentedInputStream((offset, length) -> new ByteArrayInputStream(bytes, (int)offset, (int)length),
+                10, bytes.length - 20, 3000, 3);
+
+        byte[] read = readAll(in);
+        assert Arrays.equals(read, Arrays.copyOfRange(bytes, 10, bytes.length - 10));
+    }
+
+    /**
+     * Reads a resource whose range streams end prematurely, and checks that the downloads are resumed where they
+     * stopped, while a resource that cannot be read at all fails.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testResume() throws IOException {
+        byte[] bytes = randomBytes(50000);
+        AtomicInteger nbOpened = new AtomicInteger();
+        // Each range stream returns at most 1000 bytes
+        InputStream in = new SegmentedInputStream((offset, length) -> {
+            nbOpened.incrementAndGet();
+            return new ByteArrayInputStream(bytes, (int)offset, (int)Math.min(length, 1000));
+        }, 0, bytes.length, 4000, 4);
+
+        byte[] read = readAll(in);
+        assert Arrays.equals(read, bytes);
+        assert nbOpened.get() >= bytes.length / 1000;
+
+        in = new SegmentedInputStream((offset, length) -> {
+            throw new IOException("unreachable");
+        }, 0, bytes.length, 4000, 4);
+        try {
+            in.read();
+            assert false;
+        } catch (IOException e) {
+            assert "unreachable".equals(e.getMessage());
+        }
+        in.close();
+    }
+}
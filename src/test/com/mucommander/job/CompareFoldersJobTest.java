@@ -0,0 +1,106 @@
+package com.mucommander.job;
+
+import com.mucommander.commons.io.BufferPool;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the byte-by-byte comparison of {@link CompareFoldersJob}.
+ */
+public class CompareFoldersJobTest {
+
+    private static final int SIZE = 1024 * 1024;
+
+    @Test
+    public void testEqualContent() throws IOException {
+        byte[] data = createData(SIZE);
+        CountingInputStream leftIn = new CountingInputStream(data);
+        CountingInputStream rightIn = new CountingInputStream(data.clone());
+
+        assertTrue(CompareFoldersJob.contentEquals(leftIn, rightIn, () -> false));
+        assertEquals(leftIn.count, SIZE);
+        assertEquals(rightIn.count, SIZE);
+    }
+
+    @Test
+    public void testEarlyExit() throws IOException {
+        byte[] data = createData(SIZE);
+        byte[] otherData = data.clone();
+        otherData[10]++;
+        CountingInputStream leftIn = new CountingInputStream(data);
+        CountingInputStream rightIn = new CountingInputStream(otherData);
+
+        assertFalse(CompareFoldersJob.contentEquals(leftIn, rightIn, () -> false));
+        // Only the first block has been read
+        assertTrue(leftIn.count <= BufferPool.getDefaultBufferSize());
+        assertTrue(rightIn.count <= BufferPool.getDefaultBufferSize());
+    }
+
+    @Test
+    public void testDifferentLength() throws IOException {
+        byte[] data = createData(SIZE);
+
+        assertFalse(CompareFoldersJob.contentEquals(new ByteArrayInputStream(data),
+                new ByteArrayInputStream(Arrays.copyOf(data, SIZE - 1)), () -> false));
+        assertFalse(CompareFoldersJob.contentEquals(new ByteArrayInputStream(data),
+                new ByteArrayInputStream(new byte[0]), () -> false));
+        assertTrue(CompareFoldersJob.contentEquals(new ByteArrayInputStream(new byte[0]),
+                new ByteArrayInputStream(new byte[0]), () -> false));
+    }
+
+    @Test
+    public void testStopped() throws IOException {
+        CountingInputStream leftIn = new CountingInputStream(createData(SIZE));
+        CountingInputStream rightIn = new CountingInputStream(createData(SIZE));
+
+        CompareFoldersJob.contentEquals(leftIn, rightIn, () -> true);
+        assertEquals(leftIn.count, 0);
+        assertEquals(rightIn.count, 0);
+    }
+
+    private static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte)(i * 31);
+        }
+        return data;
+    }
+
+    /**
+     * Counts the bytes read from the underlying stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
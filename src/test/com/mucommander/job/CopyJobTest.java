@@ -0,0 +1,209 @@
+package com.mucommander.job;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.ProxyFile;
+import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.dialog.file.FileCollisionDialog;
+import com.mucommander.ui.dialog.file.ProgressDialog;
+import com.mucommander.ui.main.MainFrame;
+import org.mockito.Mockito;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the pipelined transfers of {@link CopyJob}: top level files must be unmarked only once their transfers
+ * have succeeded.
+ */
+public class CopyJobTest {
+
+    private File tempFolder;
+    private File sourceFolder;
+    private File destFolder;
+
+    @BeforeClass
+    public void setupTranslator() throws Exception {
+        Translator.init();
+    }
+
+    @BeforeMethod
+    public void createFolders() throws IOException {
+        tempFolder = Files.createTempDirectory("copyjob").toFile();
+        sourceFolder = new File(tempFolder, "source");
+        destFolder = new File(tempFolder, "dest");
+        assertTrue(sourceFolder.mkdir());
+        assertTrue(destFolder.mkdir());
+    }
+
+    @AfterMethod
+    public void deleteFolders() {
+        delete(tempFolder);
+    }
+
+    @Test
+    public void testPipelinedCopy() throws IOException {
+        File bad = createFile(sourceFolder, "bad", 1000);
+        File a = createFolder(sourceFolder, "a");
+        for (int i = 0; i < 10; i++) {
+            createFile(a, "file" + i, 10000 + i);
+        }
+        File sub = createFolder(a, "sub");
+        File badInSub = createFile(sub, "bad", 1000);
+        File good = createFile(sourceFolder, "good", 30000);
+
+        AbstractFile[] files = {wrap(bad), wrap(a), wrap(good)};
+        RecordingCopyJob job = createJob(files);
+        for (AbstractFile file : files) {
+            // As FileJob#run() does
+            job.nextFile(file);
+            job.fileProcessed(file, job.processFile(file, null));
+        }
+        // Done by processFile() for the last file when run by FileJob#run()
+        job.waitForTransfers();
+
+        // The file whose transfer failed in the background stays marked
+        assertEquals(job.unmarkedFiles, Arrays.asList("a", "good"));
+        assertFalse(new File(destFolder, "bad").exists());
+        File destA = new File(destFolder, "a");
+        assertEquals(destA.list().length, 11);
+        assertEquals(new File(destA, "file9").length(), 10009);
+        assertFalse(new File(new File(destA, "sub"), badInSub.getName()).exists());
+        assertEquals(new File(destFolder, "good").length(), 30000);
+    }
+
+    @Test
+    public void testLastFileFailure() throws IOException {
+        File a = createFolder(sourceFolder, "a");
+        createFile(a, "good", 1000);
+        createFile(a, "bad", 1000);
+
+        AbstractFile file = wrap(a);
+        RecordingCopyJob job = createJob(file);
+        job.nextFile(file);
+        // The last file waits for the transfers, its result is known when processFile() returns
+        boolean success = job.processFile(file, null);
+        job.fileProcessed(file, success);
+
+        assertTrue(success);
+        assertEquals(job.unmarkedFiles, Collections.singletonList("a"));
+        assertEquals(new File(new File(destFolder, "a"), "good").length(), 1000);
+
+        File bad = createFile(sourceFolder, "bad", 1000);
+        file = wrap(bad);
+        job = createJob(file);
+        job.nextFile(file);
+        success = job.processFile(file, null);
+        job.fileProcessed(file, success);
+
+        assertFalse(success);
+        assertTrue(job.unmarkedFiles.isEmpty());
+    }
+
+    private RecordingCopyJob createJob(AbstractFile... sourceFiles) {
+        AbstractFile source = FileFactory.getFile(sourceFolder.getAbsolutePath());
+        FileSet files = new FileSet(source);
+        files.addAll(Arrays.asList(sourceFiles));
+        RecordingCopyJob job = new RecordingCopyJob(files, FileFactory.getFile(destFolder.getAbsolutePath()));
+        job.setTransferConcurrency(3);
+        job.setAutoSkipErrors(true);
+        return job;
+    }
+
+    private static AbstractFile wrap(File file) {
+        return new TestFile(FileFactory.getFile(file.getAbsolutePath()));
+    }
+
+    private static File createFolder(File parent, String name) {
+        File folder = new File(parent, name);
+        assertTrue(folder.mkdir());
+        return folder;
+    }
+
+    private static File createFile(File parent, String name, int size) throws IOException {
+        File file = new File(parent, name);
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte)name.hashCode());
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * CopyJob which records the files it unmarks instead of unmarking them in a table.
+     */
+    private static class RecordingCopyJob extends CopyJob {
+        final List<String> unmarkedFiles = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingCopyJob(FileSet files, AbstractFile destFolder) {
+            super(Mockito.mock(ProgressDialog.class), Mockito.mock(MainFrame.class), files, destFolder, null,
+                    Mode.COPY, FileCollisionDialog.OVERWRITE_ACTION);
+        }
+
+        @Override
+        protected void unmarkFile(AbstractFile file) {
+            unmarkedFiles.add(file.getName());
+        }
+    }
+
+    /**
+     * Local file whose contents cannot be read if it is named 'bad'.
+     */
+    private static class TestFile extends ProxyFile {
+        TestFile(AbstractFile file) {
+            super(file);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if ("bad".equals(getName())) {
+                throw new IOException("cannot read " + getName());
+            }
+            return file.getInputStream();
+        }
+
+        @Override
+        public InputStream getInputStream(long offset) throws IOException {
+            if ("bad".equals(getName())) {
+                throw new IOException("cannot read " + getName());
+            }
+            return file.getInputStream(offset);
+        }
+
+        @Override
+        public AbstractFile[] ls() throws IOException {
+            AbstractFile[] children = file.ls();
+            for (int i = 0; i < children.length; i++) {
+                children[i] = new TestFile(children[i]);
+            }
+            return children;
+        }
+    }
+}
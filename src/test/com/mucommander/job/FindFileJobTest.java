@@ -0,0 +1,135 @@
+package com.mucommander.job;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.main.MainFrame;
+import org.mockito.Mockito;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the parallel search of {@link FindFileJob}: it must find the same files as the sequential search, and
+ * {@link FindFileJob#getSortedResults()} must give them in the order of a sequential search of a tree sorted by name.
+ */
+public class FindFileJobTest {
+
+    private File tempFolder;
+    /** Paths of the files containing the searched text, in the order of a sequential search sorted by name */
+    private List<String> expected;
+
+    @BeforeClass
+    public void setupTranslator() throws Exception {
+        Translator.init();
+    }
+
+    @BeforeMethod
+    public void createTree() throws IOException {
+        tempFolder = Files.createTempDirectory("findfile").toFile();
+        expected = new ArrayList<>();
+        createTree(tempFolder, 3);
+    }
+
+    @AfterMethod
+    public void deleteTree() {
+        delete(tempFolder);
+    }
+
+    /**
+     * Creates 4 files and 3 sub-folders per folder, half of the files containing the searched text.
+     */
+    private void createTree(File folder, int depth) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            File file = new File(folder, "file" + i + ".txt");
+            boolean match = i % 2 == 0;
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(("some text " + (match ? "needle" : "hay") + " and more text").getBytes(StandardCharsets.UTF_8));
+            }
+            if (match) {
+                expected.add(file.getAbsolutePath());
+            }
+        }
+        if (depth > 0) {
+            for (int i = 0; i < 3; i++) {
+                File sub = new File(folder, "folder" + i);
+                assertTrue(sub.mkdir());
+                createTree(sub, depth - 1);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSearch() {
+        FindFileJob sequential = search(1);
+        FindFileJob parallel = search(4);
+        assertFalse(sequential.isParallel());
+        assertTrue(parallel.isParallel());
+
+        // Folders have been searched and listed concurrently, the results are the same once sorted
+        assertEquals(getPaths(sequential.getSortedResults()), expected);
+        assertEquals(getPaths(parallel.getSortedResults()), expected);
+        assertEquals(parallel.getResults().size(), expected.size());
+    }
+
+    @Test
+    public void testConfiguredParallelism() {
+        // Local files use the general preference, unless overridden for their protocol
+        try {
+            MuConfigurations.getPreferences().setVariable(MuPreference.FIND_FILE_PARALLELISM, 1);
+            assertFalse(createJob().isParallel());
+            MuConfigurations.getPreferences().setVariable(MuPreference.FIND_FILE_PARALLELISM, 3);
+            assertTrue(createJob().isParallel());
+        } finally {
+            MuConfigurations.getPreferences().removeVariable(MuPreferences.FIND_FILE_PARALLELISM);
+        }
+    }
+
+    private FindFileJob search(int parallelism) {
+        FindFileJob job = createJob();
+        job.setup("*.txt", "needle", true, false, true, false, "UTF-8", false, null);
+        job.setParallelism(parallelism);
+        assertTrue(job.processFile(FileFactory.getFile(tempFolder.getAbsolutePath()), null));
+        return job;
+    }
+
+    private FindFileJob createJob() {
+        FindFileJob job = new FindFileJob(Mockito.mock(MainFrame.class));
+        job.setStartDirectory(FileFactory.getFile(tempFolder.getAbsolutePath()));
+        return job;
+    }
+
+    private static List<String> getPaths(List<AbstractFile> files) {
+        List<String> paths = new ArrayList<>(files.size());
+        for (AbstractFile file : files) {
+            paths.add(file.getAbsolutePath());
+        }
+        return paths;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,183 @@
+package com.mucommander.job;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.file.UnsupportedFileOperation;
+import com.mucommander.commons.file.UnsupportedFileOperationException;
+import com.mucommander.commons.file.impl.ProxyFile;
+import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.dialog.file.FileCollisionDialog;
+import com.mucommander.ui.dialog.file.ProgressDialog;
+import com.mucommander.ui.main.MainFrame;
+import org.mockito.Mockito;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the pipelined transfers of {@link MoveJob}: source folders must be deleted, and destination folder dates
+ * restored, only once all their files have been moved.
+ */
+public class MoveJobTest {
+
+    private static final long FOLDER_DATE = 1000000000000L;
+
+    private File tempFolder;
+    private File sourceFolder;
+    private File destFolder;
+
+    @BeforeClass
+    public void setupTranslator() throws Exception {
+        Translator.init();
+    }
+
+    @BeforeMethod
+    public void createFolders() throws IOException {
+        tempFolder = Files.createTempDirectory("movejob").toFile();
+        sourceFolder = new File(tempFolder, "source");
+        destFolder = new File(tempFolder, "dest");
+        assertTrue(sourceFolder.mkdir());
+        assertTrue(destFolder.mkdir());
+    }
+
+    @AfterMethod
+    public void deleteFolders() {
+        delete(tempFolder);
+    }
+
+    @Test
+    public void testPipelinedMove() throws IOException {
+        File a = createFolder(sourceFolder, "a");
+        for (int i = 0; i < 10; i++) {
+            createFile(a, "file" + i, 10000 + i);
+        }
+        File sub = createFolder(a, "sub");
+        for (int i = 0; i < 5; i++) {
+            createFile(sub, "file" + i, 20000 + i);
+        }
+        assertTrue(sub.setLastModified(FOLDER_DATE));
+        assertTrue(a.setLastModified(FOLDER_DATE));
+
+        MoveJob job = createJob(a);
+        assertTrue(job.processFile(wrap(a), null));
+
+        assertFalse(a.exists());
+        File destA = new File(destFolder, "a");
+        File destSub = new File(destA, "sub");
+        assertEquals(destA.list().length, 11);
+        assertEquals(destSub.list().length, 5);
+        assertEquals(new File(destSub, "file4").length(), 20004);
+        // Folder dates are set after their files have been written
+        assertEquals(destA.lastModified(), FOLDER_DATE);
+        assertEquals(destSub.lastModified(), FOLDER_DATE);
+    }
+
+    @Test
+    public void testInterruptedMove() throws Exception {
+        File a = createFolder(sourceFolder, "a");
+        createFile(a, "file0", 1000);
+        createFile(a, "file1", 1000);
+        File b = createFolder(sourceFolder, "b");
+        createFile(b, "file2", 1000);
+
+        MoveJob job = createJob(a, b);
+        // Not the last file: the transfers of the folder are still pending when processFile() returns
+        assertTrue(job.processFile(wrap(a), null));
+
+        // Interrupt the job once both transfers have started, they run to completion
+        File destA = new File(destFolder, "a");
+        long timeout = System.currentTimeMillis() + 10000;
+        while (!(new File(destA, "file0").exists() && new File(destA, "file1").exists())) {
+            assertTrue(System.currentTimeMillis() < timeout, "transfers not started");
+            Thread.sleep(10);
+        }
+        job.interrupt();
+        assertFalse(job.processFile(wrap(b), null));
+        // Called by FileJob#run() once the job has been interrupted
+        job.jobInterrupted();
+
+        // The folder whose files have been moved before the interruption is deleted
+        assertFalse(a.exists());
+        assertEquals(new File(destA, "file1").length(), 1000);
+        // The other one is left untouched
+        assertTrue(new File(b, "file2").exists());
+        assertFalse(new File(destFolder, "b").exists());
+    }
+
+    private MoveJob createJob(File... sourceFiles) {
+        AbstractFile source = FileFactory.getFile(sourceFolder.getAbsolutePath());
+        FileSet files = new FileSet(source);
+        for (File sourceFile : sourceFiles) {
+            files.add(wrap(sourceFile));
+        }
+        MoveJob job = new MoveJob(Mockito.mock(ProgressDialog.class), Mockito.mock(MainFrame.class), files,
+                FileFactory.getFile(destFolder.getAbsolutePath()), null, FileCollisionDialog.OVERWRITE_ACTION, false);
+        job.setTransferConcurrency(3);
+        return job;
+    }
+
+    private static AbstractFile wrap(File file) {
+        return new UnrenamableFile(FileFactory.getFile(file.getAbsolutePath()));
+    }
+
+    private static File createFolder(File parent, String name) {
+        File folder = new File(parent, name);
+        assertTrue(folder.mkdir());
+        return folder;
+    }
+
+    private static void createFile(File parent, String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte)name.hashCode());
+        try (FileOutputStream out = new FileOutputStream(new File(parent, name))) {
+            out.write(data);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Local file which cannot be renamed, so that it is moved by copying it.
+     */
+    private static class UnrenamableFile extends ProxyFile {
+        UnrenamableFile(AbstractFile file) {
+            super(file);
+        }
+
+        @Override
+        @UnsupportedFileOperation
+        public void renameTo(AbstractFile destFile) throws UnsupportedFileOperationException {
+            throw new UnsupportedFileOperationException(FileOperation.RENAME);
+        }
+
+        @Override
+        public AbstractFile[] ls() throws IOException {
+            AbstractFile[] children = file.ls();
+            for (int i = 0; i < children.length; i++) {
+                children[i] = new UnrenamableFile(children[i]);
+            }
+            return children;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.mucommander.job;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ArchiveEntry;
+import com.mucommander.commons.file.ArchiveEntryIterator;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.zip.ZipArchiveFile;
+import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.dialog.file.FileCollisionDialog;
+import com.mucommander.ui.dialog.file.ProgressDialog;
+import com.mucommander.ui.main.MainFrame;
+import org.mockito.Mockito;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the extraction of archives by {@link UnpackJob}: archives whose files are extracted in a single pass, through
+ * the default implementation of {@link com.mucommander.commons.file.AbstractArchiveFile#extractEntries}, and archives
+ * whose entries are extracted in parallel by worker threads.
+ */
+public class UnpackJobTest {
+
+    private static final int NB_FILES = 5;
+
+    private File tempFolder;
+    private File archive;
+    private File destFolder;
+
+    @BeforeClass
+    public void setupTranslator() throws Exception {
+        Translator.init();
+    }
+
+    @BeforeMethod
+    public void createArchive() throws IOException {
+        tempFolder = Files.createTempDirectory("unpackjob").toFile();
+        destFolder = new File(tempFolder, "dest");
+        assertTrue(destFolder.mkdir());
+
+        archive = new File(tempFolder, "archive.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.closeEntry();
+            for (int i = 0; i < NB_FILES; i++) {
+                out.putNextEntry(new ZipEntry("dir/file" + i));
+                out.write(getContents(i));
+                out.closeEntry();
+            }
+        }
+    }
+
+    @AfterMethod
+    public void deleteFolder() {
+        delete(tempFolder);
+    }
+
+    @Test
+    public void testBatchUnpack() throws IOException {
+        UnpackJob job = createJob(FileCollisionDialog.OVERWRITE_ACTION);
+        assertTrue(job.processFile(job.getCurrentFile(), null));
+
+        File dir = new File(destFolder, "dir");
+        assertEquals(dir.list().length, NB_FILES);
+        for (int i = 0; i < NB_FILES; i++) {
+            assertEquals(Files.readAllBytes(new File(dir, "file" + i).toPath()), getContents(i));
+        }
+        assertEquals(job.getTotalPercentDone(), getCompletedPercentDone(), 0.0001f);
+    }
+
+    @Test
+    public void testBatchUnpackWithSkippedFiles() throws IOException {
+        File dir = new File(destFolder, "dir");
+        assertTrue(dir.mkdir());
+        byte[] existing = "existing".getBytes(StandardCharsets.UTF_8);
+        Files.write(new File(dir, "file1").toPath(), existing);
+        Files.write(new File(dir, "file3").toPath(), existing);
+
+        UnpackJob job = createJob(FileCollisionDialog.SKIP_ACTION);
+        assertTrue(job.processFile(job.getCurrentFile(), null));
+
+        for (int i = 0; i < NB_FILES; i++) {
+            assertEquals(Files.readAllBytes(new File(dir, "file" + i).toPath()), i == 1 || i == 3 ? existing : getContents(i));
+        }
+        // Skipped files count as processed
+        assertEquals(job.getTotalPercentDone(), getCompletedPercentDone(), 0.0001f);
+    }
+
+    @Test
+    public void testParallelUnpack() throws IOException {
+        File dir = new File(destFolder, "dir");
+        assertTrue(dir.mkdir());
+        Files.write(new File(dir, "file2").toPath(), "existing".getBytes(StandardCharsets.UTF_8));
+
+        ParallelZipArchiveFile archiveFile = new ParallelZipArchiveFile(FileFactory.getFile(archive.getAbsolutePath()).getTopAncestor());
+        UnpackJob job = createJob(archiveFile, FileCollisionDialog.OVERWRITE_ACTION);
+        assertTrue(job.processFile(job.getCurrentFile(), null));
+
+        // Entries are read by the worker threads, the existing file is overwritten
+        assertEquals(archiveFile.readingThreads.size(), 1);
+        assertFalse(archiveFile.readingThreads.contains(Thread.currentThread().getName()));
+        assertEquals(dir.list().length, NB_FILES);
+        for (int i = 0; i < NB_FILES; i++) {
+            assertEquals(Files.readAllBytes(new File(dir, "file" + i).toPath()), getContents(i));
+        }
+        assertEquals(job.getTotalPercentDone(), getCompletedPercentDone(), 0.0001f);
+    }
+
+    @Test
+    public void testParallelUnpackWithSkippedFiles() throws IOException {
+        File dir = new File(destFolder, "dir");
+        assertTrue(dir.mkdir());
+        byte[] existing = "existing".getBytes(StandardCharsets.UTF_8);
+        Files.write(new File(dir, "file0").toPath(), existing);
+        Files.write(new File(dir, "file4").toPath(), existing);
+
+        ParallelZipArchiveFile archiveFile = new ParallelZipArchiveFile(FileFactory.getFile(archive.getAbsolutePath()).getTopAncestor());
+        UnpackJob job = createJob(archiveFile, FileCollisionDialog.SKIP_ACTION);
+        assertTrue(job.processFile(job.getCurrentFile(), null));
+
+        for (int i = 0; i < NB_FILES; i++) {
+            assertEquals(Files.readAllBytes(new File(dir, "file" + i).toPath()), i == 0 || i == 4 ? existing : getContents(i));
+        }
+        // Skipped files count as processed
+        assertEquals(job.getTotalPercentDone(), getCompletedPercentDone(), 0.0001f);
+    }
+
+    private UnpackJob createJob(int fileExistsAction) {
+        return createJob(new BatchZipArchiveFile(FileFactory.getFile(archive.getAbsolutePath()).getTopAncestor()), fileExistsAction);
+    }
+
+    private UnpackJob createJob(AbstractFile archiveFile, int fileExistsAction) {
+        UnpackJob job = new UnpackJob(Mockito.mock(ProgressDialog.class), Mockito.mock(MainFrame.class),
+                new FileSet(archiveFile.getParent(), archiveFile), FileFactory.getFile(destFolder.getAbsolutePath()), fileExistsAction);
+        // Entries of archives which can be read concurrently are extracted by 3 worker threads
+        job.setTransferConcurrency(3);
+        job.nextFile(archiveFile);
+        return job;
+    }
+
+    /**
+     * Returns the progress of a job which has processed all the entries of the archive.
+     */
+    private static float getCompletedPercentDone() {
+        int nbEntries = NB_FILES + 1;
+        return (8 + 2f * (nbEntries - 1) / nbEntries) / 10;
+    }
+
+    private static byte[] getContents(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < 1000 * (i + 1); j++) {
+            sb.append("entry ").append(i).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Local Zip archive whose entries can be read concurrently, recording the threads reading them.
+     */
+    private static class ParallelZipArchiveFile extends ZipArchiveFile {
+        final Set<String> readingThreads = ConcurrentHashMap.newKeySet();
+
+        ParallelZipArchiveFile(AbstractFile file) {
+            super(file);
+        }
+
+        @Override
+        public InputStream getEntryInputStream(ArchiveEntry entry, ArchiveEntryIterator entryIterator) throws IOException {
+            readingThreads.add(Thread.currentThread().getName());
+            return super.getEntryInputStream(entry, entryIterator);
+        }
+    }
+
+    /**
+     * Zip archive whose files are extracted in a single pass, by the default implementation.
+     */
+    private static class BatchZipArchiveFile extends ZipArchiveFile {
+        BatchZipArchiveFile(AbstractFile file) {
+            super(file);
+        }
+
+        @Override
+        public boolean isConcurrentEntryReadSupported() {
+            return false;
+        }
+
+        @Override
+        public boolean isBatchExtractionSupported() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.mucommander.search;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.ProxyFile;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests {@link ContentExtractor}: files which can't be read are indexed without their content, and only the first
+ * {@link ContentExtractor#MAX_INDEXED_CHARACTERS} characters of a file are indexed.
+ */
+public class ContentExtractorTest {
+
+    /** Number of bytes read from a failing file before it throws an exception */
+    private static final int READABLE_BYTES = 32 * 1024;
+
+    private File tempFolder;
+    private RAMDirectory dir;
+    private IndexWriter writer;
+    private ContentExtractor extractor;
+
+    @BeforeMethod
+    public void createIndex() throws IOException {
+        tempFolder = Files.createTempDirectory("contentextractor").toFile();
+        dir = new RAMDirectory();
+        writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43, new StandardAnalyzer(Version.LUCENE_43)));
+        extractor = new ContentExtractor(writer, 2);
+    }
+
+    @AfterMethod
+    public void closeIndex() throws IOException {
+        extractor.shutdown();
+        writer.close();
+        dir.close();
+        File[] files = tempFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        tempFolder.delete();
+    }
+
+    @Test
+    public void testContent() throws IOException {
+        AbstractFile file = createFile("text.txt", "first needle", 1000);
+        index(file);
+        assertEquals(countDocuments(SearchFields.PATH, file.getAbsolutePath()), 1);
+        assertEquals(countDocuments(SearchFields.CONTENT, "needle"), 1);
+    }
+
+    @Test
+    public void testUnreadableFile() throws IOException {
+        // Fails while the writer reads the content
+        AbstractFile failing = new FailingFile(createFile("failing.txt", "first needle", 100000), READABLE_BYTES);
+        // Fails as soon as the file is opened
+        AbstractFile unopenable = new FailingFile(createFile("unopenable.txt", "first needle", 1000), -1);
+        index(failing);
+        index(unopenable);
+
+        // Both files are indexed, without their content
+        assertEquals(countDocuments(SearchFields.PATH, failing.getAbsolutePath()), 1);
+        assertEquals(countDocuments(SearchFields.PATH, unopenable.getAbsolutePath()), 1);
+        assertEquals(countDocuments(SearchFields.CONTENT, "needle"), 0);
+    }
+
+    @Test
+    public void testSizeLimit() throws IOException {
+        // Words before and after the limit of indexed characters
+        File file = new File(tempFolder, "large.txt");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("first ");
+            for (long written = 6; written < ContentExtractor.MAX_INDEXED_CHARACTERS; written += 5) {
+                out.write("text ");
+            }
+            out.write(" last");
+        }
+        index(FileFactory.getFile(file.getAbsolutePath()));
+
+        assertEquals(countDocuments(SearchFields.CONTENT, "first"), 1);
+        assertEquals(countDocuments(SearchFields.CONTENT, "last"), 0);
+    }
+
+    private void index(AbstractFile file) throws IOException {
+        Document doc = new Document();
+        doc.add(new StringField(SearchFields.PATH, file.getAbsolutePath(), Field.Store.YES));
+        extractor.submit(file, file.getAbsolutePath(), doc);
+        // Throws the errors writing the index
+        extractor.awaitCompletion();
+        writer.commit();
+    }
+
+    private int countDocuments(String field, String value) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            return new IndexSearcher(reader).search(new TermQuery(new Term(field, value)), 10).totalHits;
+        }
+    }
+
+    /**
+     * Creates a text file starting with the given text, padded to the given size.
+     */
+    private AbstractFile createFile(String name, String text, int size) throws IOException {
+        File file = new File(tempFolder, name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            for (int i = bytes.length; i < size; i++) {
+                out.write(i % 10 == bytes.length % 10 ? ' ' : 'a');
+            }
+        }
+        return FileFactory.getFile(file.getAbsolutePath());
+    }
+
+    /**
+     * File whose stream throws an exception after a given number of bytes.
+     */
+    private static class FailingFile extends ProxyFile {
+        /** Number of bytes read before failing, <code>-1</code> to fail when the stream is opened */
+        private final int readableBytes;
+
+        FailingFile(AbstractFile file, int readableBytes) {
+            super(file);
+            this.readableBytes = readableBytes;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (readableBytes < 0) {
+                throw new IOException("Cannot open " + getName());
+            }
+            return new FilterInputStream(file.getInputStream()) {
+                private int read;
+
+                @Override
+                public int read() throws IOException {
+                    checkFailure();
+                    int b = super.read();
+                    read++;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    checkFailure();
+                    int n = super.read(b, off, Math.min(len, readableBytes - read));
+                    if (n > 0) {
+                        read += n;
+                    }
+                    return n;
+                }
+
+                private void checkFailure() throws IOException {
+                    if (read >= readableBytes) {
+                        throw new IOException("Cannot read " + getName());
+                    }
+                }
+            };
+        }
+    }
+}
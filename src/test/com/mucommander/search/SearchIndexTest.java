@@ -0,0 +1,139 @@
+package com.mucommander.search;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the incremental updates of {@link SearchIndex}: folders whose date hasn't changed must not be listed again
+ * when only file names are indexed.
+ */
+public class SearchIndexTest {
+
+    private static final long FOLDER_DATE = 1000000000000L;
+
+    /** An update which is never cancelled */
+    private static final Future<?> TASK = new FutureTask<Void>(() -> null);
+
+    private File tempFolder;
+    private File root;
+    private SearchIndex index;
+
+    @BeforeMethod
+    public void createIndex() throws IOException {
+        tempFolder = Files.createTempDirectory("searchindex").toFile();
+        root = new File(tempFolder, "root");
+        File sub = new File(new File(root, "a"), "b");
+        assertTrue(sub.mkdirs());
+        createFile(root, "root.txt", "root file");
+        createFile(new File(root, "a"), "a.txt", "first file");
+        createFile(sub, "b.txt", "second file");
+        setFolderDates(root);
+
+        index = new SearchIndex(new File(tempFolder, "index"));
+    }
+
+    @AfterMethod
+    public void closeIndex() throws IOException {
+        index.close();
+        delete(tempFolder);
+    }
+
+    @Test
+    public void testUnchangedFoldersNotListed() throws IOException {
+        AbstractFile folder = getFile(root);
+        assertEquals(index.update(folder, TASK, false), 3);
+        assertEquals(search("*.txt", null).size(), 3);
+
+        // Nothing has changed
+        assertEquals(index.update(folder, TASK, false), 0);
+        assertEquals(search("*.txt", null).size(), 3);
+
+        // Only the folder whose date has changed is listed again
+        File sub = new File(new File(root, "a"), "b");
+        createFile(sub, "new.txt", "new file");
+        assertTrue(sub.setLastModified(FOLDER_DATE + 1000));
+        assertEquals(index.update(folder, TASK, false), 1);
+        assertEquals(search("*.txt", null).size(), 4);
+    }
+
+    @Test
+    public void testContentOfEditedFiles() throws IOException {
+        AbstractFile folder = getFile(root);
+        assertEquals(index.update(folder, TASK, true), 3);
+        assertEquals(search("*", "second file").size(), 1);
+
+        // A file edited in place doesn't change the date of its folder, which must be listed anyway
+        File file = new File(new File(new File(root, "a"), "b"), "b.txt");
+        createFile(file.getParentFile(), "b.txt", "edited content");
+        assertTrue(file.setLastModified(FOLDER_DATE + 1000));
+        setFolderDates(root);
+        assertEquals(index.update(folder, TASK, true), 3);
+        assertEquals(search("*", "second file").size(), 0);
+        assertEquals(search("*", "edited content").size(), 1);
+
+        // Name-only updates still skip the unchanged folders
+        assertEquals(index.update(folder, TASK, false), 0);
+    }
+
+    @Test
+    public void testScheduledUpdate() throws Exception {
+        Future<Integer> update = index.scheduleUpdate(getFile(root), false);
+        assertEquals(update.get().intValue(), 3);
+        assertEquals(search("b.txt", null).size(), 1);
+        assertEquals(index.scheduleUpdate(getFile(root), false).get().intValue(), 0);
+    }
+
+    private List<String> search(String name, String content) throws IOException {
+        return index.search(getFile(root).getAbsolutePath(), name, content, 100);
+    }
+
+    private static AbstractFile getFile(File file) {
+        return FileFactory.getFile(file.getAbsolutePath());
+    }
+
+    private static void createFile(File parent, String name, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(new File(parent, name))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Sets the same date to the given folder and all folders below it.
+     */
+    private static void setFolderDates(File folder) {
+        File[] children = folder.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    setFolderDates(child);
+                }
+            }
+        }
+        assertTrue(folder.setLastModified(FOLDER_DATE));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,195 @@
+package com.mucommander.ui.main.table;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.ProxyFile;
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests {@link DirectorySizeService}: shared calculations of the same directory, the folder passed back to every
+ * listener and the invalidation of cached listings.
+ */
+public class DirectorySizeServiceTest {
+
+    private static final long FOLDER_DATE = 1000000000000L;
+
+    private File tempFolder;
+    private File root;
+
+    /** Number of folders listed so far */
+    private AtomicInteger listings;
+
+    @BeforeMethod
+    public void createFolders() throws IOException {
+        tempFolder = Files.createTempDirectory("dirsize").toFile();
+        root = new File(tempFolder, "root");
+        File sub = new File(new File(root, "a"), "b");
+        assertTrue(sub.mkdirs());
+        createFile(root, "file0", 1000);
+        createFile(new File(root, "a"), "file1", 2000);
+        createFile(sub, "file2", 3000);
+        assertTrue(sub.setLastModified(FOLDER_DATE));
+        assertTrue(sub.getParentFile().setLastModified(FOLDER_DATE));
+        assertTrue(root.setLastModified(FOLDER_DATE));
+
+        listings = new AtomicInteger();
+        DirectorySizeService.getInstance().clearCache();
+    }
+
+    @AfterMethod
+    public void deleteFolders() {
+        delete(tempFolder);
+    }
+
+    @Test
+    public void testCachedListings() throws Exception {
+        AbstractFile folder = new CountingFile(getFile(root), null);
+        assertEquals(calculate(folder), 6000);
+        assertEquals(listings.get(), 3);
+
+        // Unchanged folders are not listed again
+        assertEquals(calculate(folder), 6000);
+        assertEquals(listings.get(), 3);
+
+        // A folder whose date has changed is listed again, its parents are not
+        File sub = new File(new File(root, "a"), "b");
+        createFile(sub, "file3", 4000);
+        assertTrue(sub.setLastModified(FOLDER_DATE + 1000));
+        assertEquals(calculate(folder), 10000);
+        assertEquals(listings.get(), 4);
+
+        // Until the cache is cleared
+        DirectorySizeService.getInstance().clearCache();
+        assertEquals(calculate(folder), 10000);
+        assertEquals(listings.get(), 7);
+    }
+
+    @Test
+    public void testSharedCalculation() throws Exception {
+        File link = new File(tempFolder, "link");
+        try {
+            Files.createSymbolicLink(link.toPath(), root.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            throw new SkipException("Symbolic links are not supported", e);
+        }
+
+        // The first listing is blocked until both folders have been requested
+        CountDownLatch requested = new CountDownLatch(1);
+        AbstractFile folder = new CountingFile(getFile(root), requested);
+        AbstractFile linkFolder = new CountingFile(getFile(link), null);
+        assertEquals(folder.getCanonicalPath(), linkFolder.getCanonicalPath());
+
+        BlockingQueue<AbstractFile> finished = new ArrayBlockingQueue<>(2);
+        BlockingQueue<Long> sizes = new ArrayBlockingQueue<>(2);
+        DirectorySizeService.Listener listener = (f, size, done) -> {
+            if (done) {
+                sizes.add(size);
+                finished.add(f);
+            }
+        };
+        DirectorySizeService.Listener linkListener = (f, size, done) -> {
+            if (done) {
+                sizes.add(size);
+                finished.add(f);
+            }
+        };
+        DirectorySizeService.getInstance().calculate(folder, listener);
+        DirectorySizeService.getInstance().calculate(linkFolder, linkListener);
+        requested.countDown();
+
+        // Each listener receives the folder it requested
+        AbstractFile first = finished.poll(10, TimeUnit.SECONDS);
+        AbstractFile second = finished.poll(10, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue((first == folder && second == linkFolder) || (first == linkFolder && second == folder));
+        assertEquals(sizes.poll().longValue(), 6000);
+        assertEquals(sizes.poll().longValue(), 6000);
+        // The directory has been walked once
+        assertEquals(listings.get(), 3);
+    }
+
+    /**
+     * Calculates the size of a folder and waits for the result.
+     */
+    private static long calculate(AbstractFile folder) throws InterruptedException {
+        BlockingQueue<Long> result = new ArrayBlockingQueue<>(1);
+        DirectorySizeService.getInstance().calculate(folder, (f, size, finished) -> {
+            assertSame(f, folder);
+            if (finished) {
+                result.add(size);
+            }
+        });
+        Long size = result.poll(10, TimeUnit.SECONDS);
+        assertNotNull(size);
+        return size;
+    }
+
+    private static AbstractFile getFile(File file) {
+        return FileFactory.getFile(file.getAbsolutePath());
+    }
+
+    private static void createFile(File parent, String name, int size) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(new File(parent, name))) {
+            out.write(new byte[size]);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null && !Files.isSymbolicLink(file.toPath())) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Counts the listings of a folder and of the folders below it.
+     */
+    private class CountingFile extends ProxyFile {
+        /** Latch the listing waits for, <code>null</code> for none */
+        private final CountDownLatch latch;
+
+        CountingFile(AbstractFile file, CountDownLatch latch) {
+            super(file);
+            this.latch = latch;
+        }
+
+        @Override
+        public AbstractFile[] ls() throws IOException {
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            listings.incrementAndGet();
+            AbstractFile[] children = file.ls();
+            for (int i = 0; i < children.length; i++) {
+                children[i] = new CountingFile(children[i], null);
+            }
+            return children;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/soft/trolcommander
+ * Copyright (C) 2013-2014 Oleg Trifonov
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.utils.search;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * This class is a TestNG test case for {@link BlockSearcher}.
+ */
+public class BlockSearcherTest {
+
+    private static byte[] randomData(int length, long seed) {
+        byte[] data = new byte[length];
+        Random random = new Random(seed);
+        for (int i = 0; i < length; i++) {
+            // small alphabet produces a lot of partial matches
+            data[i] = (byte)('a' + random.nextInt(3));
+        }
+        return data;
+    }
+
+    private static int naiveIndexOf(byte[] data, byte[] pattern, int from) {
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int naiveLastIndexOf(byte[] data, byte[] pattern) {
+        for (int i = data.length - pattern.length; i >= 0; i--) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares forward and backward block search results with a naive search.
+     */
+    @Test
+    public void testArraySearch() {
+        byte[] data = randomData(10000, 0);
+        Random random = new Random(1);
+        for (int n = 0; n < 200; n++) {
+            int len = 1 + random.nextInt(8);
+            int pos = random.nextInt(data.length - len);
+            byte[] pattern = new byte[len];
+            System.arraycopy(data, pos, pattern, 0, len);
+            BlockSearcher searcher = new BlockSearcher(new BytesSearchPattern(pattern));
+            Assert.assertEquals(searcher.indexOf(data, 0, data.length), naiveIndexOf(data, pattern, 0));
+            Assert.assertEquals(searcher.indexOf(data, pos, data.length), naiveIndexOf(data, pattern, pos));
+            Assert.assertEquals(searcher.lastIndexOf(data, 0, data.length), naiveLastIndexOf(data, pattern));
+        }
+        BlockSearcher searcher = new BlockSearcher(new BytesSearchPattern("xyz".getBytes()));
+        Assert.assertEquals(searcher.indexOf(data, 0, data.length), -1);
+        Assert.assertEquals(searcher.lastIndexOf(data, 0, data.length), -1);
+    }
+
+    /**
+     * Checks matches which cross block boundaries and a match at offset 0.
+     */
+    @Test
+    public void testStreamSearch() throws SearchException {
+        byte[] data = randomData(100000, 2);
+        byte[] pattern = "xyzxyz".getBytes();
+        BlockSearcher searcher = new BlockSearcher(new BytesSearchPattern(pattern), 16);
+        int[] positions = {0, 13, 14, 15, 16, 31, 777, data.length - pattern.length};
+        for (int pos : positions) {
+            byte[] copy = data.clone();
+            System.arraycopy(pattern, 0, copy, pos, pattern.length);
+            long found = searcher.indexOf(new InputStreamSource(new ByteArrayInputStream(copy)));
+            Assert.assertEquals(found, pos);
+        }
+        Assert.assertEquals(searcher.indexOf(new InputStreamSource(new ByteArrayInputStream(data))), -1);
+    }
+
+    @Test
+    public void testCaseInsensitive() throws Exception {
+        byte[] data = "The Quick Brown Fox".getBytes("UTF-8");
+        BlockSearcher searcher = new BlockSearcher(new StringCaseInsensitiveSearchPattern("bROWN", "UTF-8"));
+        Assert.assertEquals(searcher.indexOf(data, 0, data.length), 10);
+        searcher = new BlockSearcher(new StringCaseSensitiveSearchPattern("bROWN", "UTF-8"));
+        Assert.assertEquals(searcher.indexOf(data, 0, data.length), -1);
+
+        data = "Съешь ЕЩЁ этих мягких булок".getBytes("UTF-8");
+        searcher = new BlockSearcher(new StringCaseInsensitiveSearchPattern("ещё ЭТИХ", "UTF-8"));
+        Assert.assertEquals(searcher.indexOf(data, 0, data.length), "Съешь ".getBytes("UTF-8").length);
+    }
+
+    @Test
+    public void testMappedFileSource() throws IOException, SearchException {
+        File file = File.createTempFile("blocksearcher", ".bin");
+        file.deleteOnExit();
+        byte[] data = randomData(300000, 3);
+        byte[] pattern = "xyz".getBytes();
+        System.arraycopy(pattern, 0, data, 250000, pattern.length);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        BlockSearcher searcher = new BlockSearcher(new BytesSearchPattern(pattern), 4096);
+        Assert.assertEquals(searcher.indexOf(new MappedFileSource(file)), 250000);
+    }
+}